@@ -32,7 +32,12 @@ public class Database implements AutoCloseable {
     private static final String TABLE_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "tables";
     private static final String INDEX_INFO_TABLE_NAME = METADATA_TABLE_PREFIX + "indices";
     private static final int DEFAULT_BUFFER_SIZE = 262144; // default of 1G
+    private static final long GROUP_COMMIT_WINDOW_MICROS = 0; // batch only commits that arrive during a flush
+    private static final int GROUP_COMMIT_BATCH_BYTES = 65536; // default of 16 log pages
+    private static final String LOG_DIR_NAME = "log"; // directory of the log's segment files
+    private static final int REDO_THREADS = Runtime.getRuntime().availableProcessors(); // threads redoing page writes on restart
     private static final int MAX_SCHEMA_SIZE = 4005; // a wonderful number pulled out of nowhere
+    private static final int INSERT_BATCH_PAGES = 64; // pages of rows inserted (and indexed) together by addRecords
 
     // information_schema.tables, manages all tables in the database
     private Table tableInfo;
@@ -70,6 +75,8 @@ public class Database implements AutoCloseable {
 
     // number of pages of memory to use for joins, etc.
     private int workMem = 1024; // default of 4M
+    // fraction of each leaf filled when bulk loading an index
+    private float indexFillFactor = 1.0f;
     // number of pages of memory available total
     private int numMemoryPages;
 
@@ -119,11 +126,65 @@ public class Database implements AutoCloseable {
      */
     public Database(String fileDir, int numMemoryPages, LockManager lockManager,
                     EvictionPolicy policy) {
+        this(fileDir, numMemoryPages, lockManager, policy, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param groupCommit whether to batch log flushes of concurrent commits, and only
+     *                    sync data pages at checkpoints
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean groupCommit) {
+        this(fileDir, numMemoryPages, lockManager, policy, groupCommit, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param groupCommit whether to batch log flushes of concurrent commits, and only
+     *                    sync data pages at checkpoints
+     * @param offHeapBuffers whether to keep the buffer cache in direct (off-heap) memory
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean groupCommit, boolean offHeapBuffers) {
+        this(fileDir, numMemoryPages, lockManager, policy, groupCommit, offHeapBuffers, false);
+    }
+
+    /**
+     * Creates a new database.
+     *
+     * @param fileDir the directory to put the table files in
+     * @param numMemoryPages the number of pages of memory in the buffer cache
+     * @param lockManager the lock manager
+     * @param policy eviction policy for buffer cache
+     * @param groupCommit whether to batch log flushes of concurrent commits, and only
+     *                    sync data pages at checkpoints
+     * @param offHeapBuffers whether to keep the buffer cache in direct (off-heap) memory
+     * @param mappedFiles whether to access the table files through memory mappings (see
+     *                    MappedDiskSpaceManager) instead of read and write calls
+     */
+    public Database(String fileDir, int numMemoryPages, LockManager lockManager,
+                    EvictionPolicy policy, boolean groupCommit, boolean offHeapBuffers,
+                    boolean mappedFiles) {
         boolean initialized = setupDirectory(fileDir);
 
         numTransactions = 0;
         this.numMemoryPages = numMemoryPages;
         this.lockManager = lockManager;
+        // deadlock victims and transactions whose lock waits time out are rolled back
+        lockManager.setVictimHandler(this::abortLockVictim);
+        // every transaction takes an intent lock on the database
+        lockManager.enableFastPath(lockManager.databaseContext().getResourceName());
         tableLookup = new ConcurrentHashMap<>();
         indexLookup = new ConcurrentHashMap<>();
         tableIndices = new ConcurrentHashMap<>();
@@ -133,18 +194,32 @@ public class Database implements AutoCloseable {
 
         // TODO(hw5): change to use ARIES recovery manager
 //        recoveryManager = new DummyRecoveryManager();
-        recoveryManager = new ARIESRecoveryManager(lockManager.databaseContext(),
+        ARIESRecoveryManager ariesRecoveryManager = new ARIESRecoveryManager(lockManager.databaseContext(),
                 this::beginRecoveryTranscation, this::setTransactionCounter, this::getTransactionCounter);
+        recoveryManager = ariesRecoveryManager;
+        // databases created before the log had its own directory keep their log in partition 0
+        File logDir = new File(fileDir, LOG_DIR_NAME);
+        if (!initialized || logDir.isDirectory()) {
+            ariesRecoveryManager.setLogDirectory(logDir.getPath());
+        }
+        ariesRecoveryManager.setRedoThreads(REDO_THREADS);
 
-        diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager);
+        if (mappedFiles) {
+            diskSpaceManager = new MappedDiskSpaceManager(fileDir, recoveryManager, !groupCommit);
+        } else {
+            diskSpaceManager = new DiskSpaceManagerImpl(fileDir, recoveryManager, !groupCommit);
+        }
         bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, numMemoryPages,
-                                              policy);
+                                              policy, offHeapBuffers);
 
         if (!initialized) {
             diskSpaceManager.allocPart(0);
         }
 
         recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        if (groupCommit) {
+            ariesRecoveryManager.enableGroupCommit(GROUP_COMMIT_WINDOW_MICROS, GROUP_COMMIT_BATCH_BYTES);
+        }
 
         if (!initialized) {
             recoveryManager.initialize();
@@ -439,6 +514,8 @@ public class Database implements AutoCloseable {
         // wait for all transactions to terminate
         this.waitAllTransactions();
 
+        this.lockManager.close();
+
         // finish executor tasks
         this.executor.shutdown();
 
@@ -475,6 +552,10 @@ public class Database implements AutoCloseable {
         return bufferManager;
     }
 
+    public RecoveryManager getRecoveryManager() {
+        return recoveryManager;
+    }
+
     @Deprecated
     public Table getTable(String tableName) {
         return tableLookup.get(prefixUserTableName(tableName));
@@ -490,6 +571,84 @@ public class Database implements AutoCloseable {
         this.workMem = workMem;
     }
 
+    public float getIndexFillFactor() {
+        return this.indexFillFactor;
+    }
+
+    /**
+     * Sets the fill factor of leaves of indices built with bulk loading. Leaving space
+     * in each leaf avoids splits on inserts after the index is built.
+     * @param indexFillFactor fraction of each leaf to fill, in (0, 1]
+     */
+    public void setIndexFillFactor(float indexFillFactor) {
+        if (indexFillFactor <= 0 || indexFillFactor > 1) {
+            throw new IllegalArgumentException("fill factor must be in (0, 1]");
+        }
+        this.indexFillFactor = indexFillFactor;
+    }
+
+    /**
+     * Sets the thresholds at which a transaction's page locks on a table escalate to a
+     * table-level lock, for every table (see LockContext#setEscalationThresholds).
+     * @param saturation fraction of a table's pages locked by the transaction, in (0, 1]
+     * @param minPages number of pages a table must have for its locks to escalate
+     */
+    public void setLockEscalationThresholds(double saturation, int minPages) {
+        lockManager.databaseContext().setEscalationThresholds(saturation, minPages);
+    }
+
+    /**
+     * Starts writing cold dirty pages in the background, and taking checkpoints on a timer
+     * and/or every so many bytes of log (see ARIESRecoveryManager#enableBackgroundWriter).
+     * @param roundMillis time between rounds of the writer, in milliseconds
+     * @param pagesPerRound maximum number of pages written per round
+     * @param checkpointMillis time between checkpoints, in milliseconds, or 0 for no time trigger
+     * @param checkpointLogBytes amount of log between checkpoints, or 0 for no log volume trigger
+     */
+    public void enableBackgroundWriter(long roundMillis, int pagesPerRound, long checkpointMillis,
+                                      long checkpointLogBytes) {
+        ((ARIESRecoveryManager) this.recoveryManager).enableBackgroundWriter(roundMillis, pagesPerRound,
+                checkpointMillis, checkpointLogBytes);
+    }
+
+    /**
+     * Stops writing pages and taking checkpoints in the background, if started with
+     * enableBackgroundWriter.
+     */
+    public void disableBackgroundWriter() {
+        ((ARIESRecoveryManager) this.recoveryManager).disableBackgroundWriter();
+    }
+
+    /**
+     * Starts detecting deadlocks and enforcing lock wait timeouts in the background (see
+     * LockManager#checkWaits). The transaction whose lock request is cancelled is rolled back.
+     * @param intervalMillis time between checks, in milliseconds
+     * @param lockWaitTimeoutMillis how long a lock request may wait, in milliseconds, or 0 for no limit
+     */
+    public void enableDeadlockDetection(long intervalMillis, long lockWaitTimeoutMillis) {
+        this.lockManager.setLockWaitTimeout(lockWaitTimeoutMillis);
+        this.lockManager.startDeadlockDetector(intervalMillis);
+    }
+
+    /**
+     * Starts evicting pages in the background to keep some buffer frames free, so that
+     * page reads do not wait for dirty pages to be written out (see BufferManagerImpl).
+     * @param lowWatermark number of frames kept free
+     * @param roundMillis time between rounds of the cleaner when it is not woken up by a read
+     */
+    public void enableFrameCleaner(int lowWatermark, long roundMillis) {
+        ((BufferManagerImpl) this.bufferManager).startFrameCleaner(lowWatermark, roundMillis);
+    }
+
+    /**
+     * Reads up to readAheadPages pages ahead of sequential reads of a table or index, with
+     * a single read, instead of reading each page when it is first used (see BufferManagerImpl).
+     * @param readAheadPages maximum number of pages read ahead, or 0 to disable read-ahead
+     */
+    public void enableReadAhead(int readAheadPages) {
+        ((BufferManagerImpl) this.bufferManager).setReadAhead(readAheadPages);
+    }
+
     // schema for information_schema.tables
     private Schema getTableInfoSchema() {
         return new Schema(
@@ -724,14 +883,29 @@ public class Database implements AutoCloseable {
         this.numTransactions = newTransactionCounter;
     }
 
+    /**
+     * Rolls back the transaction of a lock request that the lock manager cancelled. Called
+     * on the transaction's own thread.
+     */
+    private void abortLockVictim(TransactionContext transactionContext) {
+        if (transactionContext instanceof TransactionContextImpl) {
+            TransactionImpl transaction = ((TransactionContextImpl) transactionContext).transaction;
+            if (transaction.getStatus() == Transaction.Status.RUNNING) {
+                transaction.rollback();
+            }
+        }
+    }
+
     private class TransactionContextImpl extends AbstractTransactionContext {
         long transNum;
+        TransactionImpl transaction;
         Map<String, String> aliases;
         Map<String, Table> tempTables;
         long tempTableCounter;
 
-        private TransactionContextImpl(long tNum) {
+        private TransactionContextImpl(long tNum, TransactionImpl transaction) {
             this.transNum = tNum;
+            this.transaction = transaction;
             this.aliases = new HashMap<>();
             this.tempTables = new HashMap<>();
             this.tempTableCounter = 0;
@@ -873,6 +1047,34 @@ public class Database implements AutoCloseable {
             return new RecordIterator(tab, index.getSecond().scanEqual(key));
         }
 
+        @Override
+        public Iterator<Record> indexScanByPage(String tableName, String columnName,
+                                                PredicateOperator predicate, DataBox value) {
+            Table tab = getTable(tableName);
+            Pair<String, BPlusTree> index = resolveIndexFromName(tableName, columnName);
+            int batchSize = getWorkMemSize() * (BufferManager.EFFECTIVE_PAGE_SIZE / RecordId.getSizeInBytes());
+            return tab.pageOrderedRecordIterator(scanIndex(index.getSecond(), predicate, value), batchSize);
+        }
+
+        /**
+         * Returns the record ids an index has for the keys satisfying an equality or
+         * range predicate (bounds of strict inequalities included), in key order.
+         */
+        private Iterator<RecordId> scanIndex(BPlusTree tree, PredicateOperator predicate, DataBox value) {
+            switch (predicate) {
+            case EQUALS:
+                return tree.scanEqual(value);
+            case GREATER_THAN:
+            case GREATER_THAN_EQUALS:
+                return tree.scanGreaterEqual(value);
+            case LESS_THAN:
+            case LESS_THAN_EQUALS:
+                return tree.scanLessEqual(value);
+            default:
+                throw new DatabaseException("cannot scan an index for " + predicate);
+            }
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return getTable(tableName).iterator();
@@ -909,6 +1111,33 @@ public class Database implements AutoCloseable {
             return rid;
         }
 
+        @Override
+        public void addRecords(String tableName, Iterator<List<DataBox>> values) {
+            Table tab = getTable(tableName);
+            List<String> colNames = tab.getSchema().getFieldNames();
+            int batchSize = tab.getNumRecordsPerPage() * INSERT_BATCH_PAGES;
+            while (values.hasNext()) {
+                List<List<DataBox>> batch = new ArrayList<>();
+                while (values.hasNext() && batch.size() < batchSize) {
+                    batch.add(values.next());
+                }
+                List<RecordId> rids = tab.addRecords(batch);
+
+                // index entries are put in key order, so that the entries going into one leaf
+                // are put together
+                for (String indexName : tableIndices.get(tab.getName())) {
+                    String column = indexName.split(",")[1];
+                    int columnIndex = colNames.indexOf(column);
+                    List<Pair<DataBox, RecordId>> entries = new ArrayList<>();
+                    for (int i = 0; i < batch.size(); ++i) {
+                        entries.add(new Pair<>(batch.get(i).get(columnIndex), rids.get(i)));
+                    }
+                    entries.sort(Comparator.comparing(Pair::getFirst));
+                    resolveIndexFromName(tableName, column).getSecond().putAll(entries.iterator());
+                }
+            }
+        }
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             Table tab = getTable(tableName);
@@ -955,20 +1184,29 @@ public class Database implements AutoCloseable {
                                          UnaryOperator<DataBox> targetValue,
                                          String predColumnName, PredicateOperator predOperator, DataBox predValue) {
             Table tab = getTable(tableName);
-            Iterator<RecordId> recordIds = tab.ridIterator();
-
             Schema s = tab.getSchema();
-            int uindex = s.getFieldNames().indexOf(targetColumnName);
-            int pindex = s.getFieldNames().indexOf(predColumnName);
+            List<String> colNames = s.getFieldNames();
+            int uindex = colNames.indexOf(targetColumnName);
+            int pindex = colNames.indexOf(predColumnName);
 
-            while(recordIds.hasNext()) {
-                RecordId curRID = recordIds.next();
-                Record cur = getRecord(tableName, curRID);
-                List<DataBox> recordCopy = new ArrayList<>(cur.getValues());
+            Iterator<RecordId> recordIds = candidateRecordIds(tableName, predColumnName, predOperator, predValue);
+            Map<RecordId, Pair<Record, Record>> updated = tab.updateRecordsWhere(recordIds, pindex, predOperator,
+                    predValue, uindex, targetValue);
 
-                if (predOperator == null || predOperator.evaluate(recordCopy.get(pindex), predValue)) {
-                    recordCopy.set(uindex, targetValue.apply(recordCopy.get(uindex)));
-                    updateRecord(tableName, recordCopy, curRID);
+            for (String indexName : tableIndices.get(tab.getName())) {
+                String column = indexName.split(",")[1];
+                int i = colNames.indexOf(column);
+                if (i != uindex) {
+                    continue;
+                }
+                // All the old keys are removed before any new key is inserted, so that a
+                // record may take the key of another record that is also being updated.
+                BPlusTree tree = resolveIndexFromName(tableName, column).getSecond();
+                for (Pair<Record, Record> versions : updated.values()) {
+                    tree.remove(versions.getFirst().getValues().get(i));
+                }
+                for (Map.Entry<RecordId, Pair<Record, Record>> entry : updated.entrySet()) {
+                    tree.put(entry.getValue().getSecond().getValues().get(i), entry.getKey());
                 }
             }
         }
@@ -977,20 +1215,52 @@ public class Database implements AutoCloseable {
         public void runDeleteRecordWhere(String tableName, String predColumnName,
                                          PredicateOperator predOperator, DataBox predValue) {
             Table tab = getTable(tableName);
-            Iterator<RecordId> recordIds = tab.ridIterator();
-
             Schema s = tab.getSchema();
-            int pindex = s.getFieldNames().indexOf(predColumnName);
+            List<String> colNames = s.getFieldNames();
+            int pindex = colNames.indexOf(predColumnName);
 
-            while(recordIds.hasNext()) {
-                RecordId curRID = recordIds.next();
-                Record cur = getRecord(tableName, curRID);
-                List<DataBox> recordCopy = new ArrayList<>(cur.getValues());
+            Iterator<RecordId> recordIds = candidateRecordIds(tableName, predColumnName, predOperator, predValue);
+            Map<RecordId, Record> deleted = tab.deleteRecordsWhere(recordIds, pindex, predOperator, predValue);
+
+            for (String indexName : tableIndices.get(tab.getName())) {
+                String column = indexName.split(",")[1];
+                int i = colNames.indexOf(column);
+                BPlusTree tree = resolveIndexFromName(tableName, column).getSecond();
+                for (Record record : deleted.values()) {
+                    tree.remove(record.getValues().get(i));
+                }
+            }
+        }
 
-                if (predOperator == null || predOperator.evaluate(recordCopy.get(pindex), predValue)) {
-                    deleteRecord(tableName, curRID);
+        /**
+         * Returns the record ids of the records of a table that may satisfy a predicate,
+         * grouped by page. If there is an index on the predicate column and the
+         * predicate is an equality or a range, these are the record ids the index finds
+         * for it, sorted so that each page is visited once; otherwise they are the
+         * record ids of all the records of the table.
+         */
+        private Iterator<RecordId> candidateRecordIds(String tableName, String predColumnName,
+                PredicateOperator predOperator, DataBox predValue) {
+            Table tab = getTable(tableName);
+            int pindex = tab.getSchema().getFieldNames().indexOf(predColumnName);
+            if (predOperator == null || predOperator == PredicateOperator.NOT_EQUALS ||
+                    !predValue.type().equals(tab.getSchema().getFieldTypes().get(pindex))) {
+                return tab.ridIterator();
+            }
+            BPlusTree tree = null;
+            for (String indexName : tableIndices.get(tab.getName())) {
+                if (indexName.split(",")[1].equals(predColumnName)) {
+                    tree = resolveIndexFromName(tableName, predColumnName).getSecond();
                 }
             }
+            if (tree == null) {
+                return tab.ridIterator();
+            }
+
+            List<RecordId> recordIds = new ArrayList<>();
+            scanIndex(tree, predOperator, predValue).forEachRemaining(recordIds::add);
+            Collections.sort(recordIds);
+            return recordIds.iterator();
         }
 
         @Override
@@ -1136,7 +1406,7 @@ public class Database implements AutoCloseable {
         private TransactionImpl(long transNum, boolean recovery) {
             this.transNum = transNum;
             this.recoveryTransaction = recovery;
-            this.transactionContext = new TransactionContextImpl(transNum);
+            this.transactionContext = new TransactionContextImpl(transNum, this);
         }
 
         @Override
@@ -1326,7 +1596,7 @@ public class Database implements AutoCloseable {
                 Table table = tableLookup.get(prefixedTableName);
                 BPlusTree tree = indexLookup.get(indexName);
                 if (bulkLoad) {
-                    throw new UnsupportedOperationException("not implemented");
+                    tree.bulkLoad(sortedIndexEntries(table, columnIndex), indexFillFactor);
                 } else {
                     for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
                         Record record = table.getRecord(rid);
@@ -1338,6 +1608,45 @@ public class Database implements AutoCloseable {
             }
         }
 
+        /**
+         * Sorts the (key, record id) pairs of a table for bulk loading an index, with an
+         * external sort under the transaction's work memory.
+         * @param table table to index
+         * @param columnIndex index of the column being indexed
+         * @return iterator over (key, record id) pairs in key order
+         */
+        private Iterator<Pair<DataBox, RecordId>> sortedIndexEntries(Table table, int columnIndex) {
+            Schema entrySchema = new Schema(
+                Arrays.asList("key", "page_num", "entry_num"),
+                Arrays.asList(table.getSchema().getFieldTypes().get(columnIndex), Type.longType(), Type.intType())
+            );
+            String entryTableName = transactionContext.createTempTable(entrySchema);
+            for (RecordId rid : (Iterable<RecordId>) table::ridIterator) {
+                Record record = table.getRecord(rid);
+                transactionContext.addRecord(entryTableName, Arrays.asList(
+                                                 record.getValues().get(columnIndex),
+                                                 new LongDataBox(rid.getPageNum()),
+                                                 new IntDataBox(rid.getEntryNum())));
+            }
+
+            SortOperator sortOperator = new SortOperator(transactionContext, entryTableName,
+                    Comparator.comparing((Record r) -> r.getValues().get(0)));
+            Iterator<Record> sorted = sortOperator.iterator();
+            return new Iterator<Pair<DataBox, RecordId>>() {
+                @Override
+                public boolean hasNext() {
+                    return sorted.hasNext();
+                }
+
+                @Override
+                public Pair<DataBox, RecordId> next() {
+                    List<DataBox> values = sorted.next().getValues();
+                    RecordId rid = new RecordId(values.get(1).getLong(), (short) values.get(2).getInt());
+                    return new Pair<>(values.get(0), rid);
+                }
+            };
+        }
+
         @Override
         public void dropIndex(String tableName, String columnName) {
             String prefixedTableName = prefixUserTableName(tableName);
@@ -1390,6 +1699,16 @@ public class Database implements AutoCloseable {
             }
         }
 
+        @Override
+        public void insertBatch(String tableName, Iterator<List<DataBox>> rows) {
+            TransactionContext.setTransaction(transactionContext);
+            try {
+                transactionContext.addRecords(tableName, rows);
+            } finally {
+                TransactionContext.unsetTransaction();
+            }
+        }
+
         @Override
         public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {
             update(tableName, targetColumnName, targetValue, null, null, null);
@@ -6,6 +6,7 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
+import java.util.Iterator;
 import java.util.List;
 import java.util.function.UnaryOperator;
 
@@ -163,6 +164,16 @@ public interface Transaction extends AutoCloseable {
      */
     void insert(String tableName, List<DataBox> values);
 
+    /**
+     * Inserts rows into a table. Equivalent to an insert of each of the rows, but
+     * fills each page with as many rows as fit at once, and maintains the table's
+     * indices in batches of rows sorted by key.
+     *
+     * @param tableName name of table to insert into
+     * @param rows rows to insert, each a list of values in the same order as the table's schema
+     */
+    void insertBatch(String tableName, Iterator<List<DataBox>> rows);
+
     /**
      * Updates rows in a table. Equivalent to
      *      UPDATE tableName SET targetColumnName = targetValue(targetColumnName)
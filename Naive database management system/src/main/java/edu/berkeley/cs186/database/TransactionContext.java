@@ -123,6 +123,16 @@ public interface TransactionContext extends AutoCloseable {
 
     Iterator<Record> lookupKey(String tableName, String columnName, DataBox key);
 
+    /**
+     * Returns the records of a table whose value in column columnName may satisfy
+     * predicate against value, found with the index on that column. The record ids
+     * are read from the index in batches, and each batch is fetched in page order
+     * so that each of its pages is read once; the records are therefore not in key
+     * order, and the bounds of strict inequalities are included (callers filter).
+     */
+    Iterator<Record> indexScanByPage(String tableName, String columnName, PredicateOperator predicate,
+                                     DataBox value);
+
     BacktrackingIterator<Record> getRecordIterator(String tableName);
 
     BacktrackingIterator<Page> getPageIterator(String tableName);
@@ -135,6 +145,8 @@ public interface TransactionContext extends AutoCloseable {
 
     RecordId addRecord(String tableName, List<DataBox> values);
 
+    void addRecords(String tableName, Iterator<List<DataBox>> values);
+
     RecordId deleteRecord(String tableName, RecordId rid);
 
     Record getRecord(String tableName, RecordId rid);
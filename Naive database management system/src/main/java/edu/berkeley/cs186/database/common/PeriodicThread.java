@@ -0,0 +1,130 @@
+package edu.berkeley.cs186.database.common;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Daemon thread that runs a round of work every interval, or as soon as it is woken up,
+ * until it is closed.
+ *
+ * A round that throws does not stop the thread, but the failure is not dropped either: the
+ * number of failed rounds and the last failure are kept, and close rethrows the last failure
+ * (as the cause of an IllegalStateException), so that a persistent error in the background
+ * surfaces instead of being retried silently forever.
+ */
+public class PeriodicThread implements AutoCloseable {
+    private Runnable round;
+    private long intervalNanos;
+
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition wakeup = lock.newCondition();
+    private boolean woken = false;
+    private boolean closed = false;
+    private Thread thread;
+
+    private AtomicLong numFailures = new AtomicLong();
+    private volatile RuntimeException lastFailure = null;
+
+    /**
+     * Starts the thread.
+     * @param name name of the thread
+     * @param intervalMillis time between rounds when not woken up
+     * @param round a round of work
+     */
+    public PeriodicThread(String name, long intervalMillis, Runnable round) {
+        this.round = round;
+        this.intervalNanos = TimeUnit.MILLISECONDS.toNanos(intervalMillis);
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Starts a round now, if one is not running.
+     */
+    public void wake() {
+        lock.lock();
+        try {
+            woken = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return whether the calling thread is this thread
+     */
+    public boolean isCurrentThread() {
+        return Thread.currentThread() == thread;
+    }
+
+    /**
+     * @return number of rounds that threw
+     */
+    public long getNumFailures() {
+        return numFailures.get();
+    }
+
+    /**
+     * @return exception thrown by the last round that threw, or null if none has
+     */
+    public RuntimeException getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * Stops the thread, waiting for the current round to finish.
+     * @throws IllegalStateException if any round threw, with the last failure as its cause
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            wakeup.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (lastFailure != null) {
+            throw new IllegalStateException(thread.getName() + ": " + numFailures.get() +
+                                            " round(s) failed", lastFailure);
+        }
+    }
+
+    private void run() {
+        while (true) {
+            lock.lock();
+            try {
+                long remaining = intervalNanos;
+                while (!closed && !woken && remaining > 0) {
+                    try {
+                        remaining = wakeup.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                }
+                if (closed) {
+                    return;
+                }
+                woken = false;
+            } finally {
+                lock.unlock();
+            }
+
+            try {
+                round.run();
+            } catch (RuntimeException e) {
+                numFailures.incrementAndGet();
+                lastFailure = e;
+            }
+        }
+    }
+}
@@ -0,0 +1,11 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction whose lock request was cancelled because the transaction
+ * was picked as the victim of a deadlock.
+ */
+public class DeadlockException extends RuntimeException {
+    DeadlockException(String message) {
+        super(message);
+    }
+}
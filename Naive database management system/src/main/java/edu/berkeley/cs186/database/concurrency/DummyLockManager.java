@@ -42,6 +42,9 @@ public class DummyLockManager extends LockManager {
                         LockType newLockType)
     throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException { }
 
+    @Override
+    public void enableFastPath(ResourceName name) { }
+
     @Override
     public LockType getLockType(TransactionContext transaction, ResourceName name) {
         return LockType.NL;
@@ -11,8 +11,19 @@ import java.util.concurrent.ConcurrentHashMap;
  * of multigranularity locking. Calls to acquire/release/etc. locks should
  * be mostly done through a LockContext, which provides access to locking
  * methods at a certain point in the hierarchy (database, table X, etc.)
+ *
+ * Each context keeps the type of lock each transaction holds on its resource, updated by
+ * its own acquire/release/promote/escalate calls (and those of its ancestors, for the
+ * descendant locks they release), so that getExplicitLockType and getEffectiveLockType
+ * do not go to the LockManager. Locks acquired on the LockManager directly, bypassing the
+ * contexts, are therefore not seen by them.
  */
 public class LockContext {
+    // Default escalation thresholds: escalate once a transaction holds locks on 20% of the
+    // children, if there are at least 10 children
+    public static final double DEFAULT_ESCALATION_SATURATION = 0.2;
+    public static final int DEFAULT_ESCALATION_MIN_CAPACITY = 10;
+
     // You should not remove any of these fields. You may add additional fields/methods as you see fit.
 
     // The underlying lock manager.
@@ -37,9 +48,20 @@ public class LockContext {
     // You should not modify or use this directly.
     protected final Map<Long, LockContext> children;
 
+    // A mapping between transaction numbers, and the type of lock the transaction holds
+    // on this context's resource (no entry for NL).
+    protected final Map<Long, LockType> heldLocks;
+
     // Whether or not any new child LockContexts should be marked readonly.
     protected boolean childLocksDisabled;
 
+    // Whether requests for locks on children are replaced by a lock on this context once a
+    // transaction holds enough locks on children (see LockUtil#ensureSufficientLockHeld).
+    protected volatile boolean autoEscalate;
+    // Saturation and capacity at which (both) requests escalate; inherited by new children.
+    protected volatile double escalationSaturation;
+    protected volatile int escalationMinCapacity;
+
     public LockContext(LockManager lockman, LockContext parent, Pair<String, Long> name) {
         this(lockman, parent, name, false);
     }
@@ -57,7 +79,11 @@ public class LockContext {
         this.numChildLocks = new ConcurrentHashMap<>();
         this.capacity = -1;
         this.children = new ConcurrentHashMap<>();
+        this.heldLocks = new ConcurrentHashMap<>();
         this.childLocksDisabled = readonly;
+        this.autoEscalate = false;
+        this.escalationSaturation = parent == null ? DEFAULT_ESCALATION_SATURATION : parent.escalationSaturation;
+        this.escalationMinCapacity = parent == null ? DEFAULT_ESCALATION_MIN_CAPACITY : parent.escalationMinCapacity;
     }
 
     /**
@@ -116,6 +142,7 @@ public class LockContext {
 
         // throw DuplicationLockRequestException in LockManager acquire call
         this.lockman.acquire(transaction, name, lockType);
+        this.heldLocks.put(transaction.getTransNum(), lockType);
 
         if (parentCon != null) {
             int curParentChildLocks = parentCon.numChildLocks.getOrDefault(transaction.getTransNum(), 0);
@@ -154,6 +181,7 @@ public class LockContext {
 
         // throw NoLockHeldException in LockManager release call
         this.lockman.release(transaction, this.getResourceName());
+        this.heldLocks.remove(transaction.getTransNum());
         LockContext parentCon = this.parentContext();
         if (parentCon != null) {
             int curParentChildLocks = parentCon.numChildLocks.getOrDefault(transaction.getTransNum(), 0);
@@ -210,10 +238,13 @@ public class LockContext {
             this.lockman.acquireAndRelease(transaction, name, newLockType, toBeReleased);
             for (LockContext lc: setChildNumToZero) {
                 lc.numChildLocks.put(transaction.getTransNum(), 0);
+                lc.heldLocks.remove(transaction.getTransNum());
             }
+            this.heldLocks.put(transaction.getTransNum(), newLockType);
 
         } else {
             this.lockman.promote(transaction, name, newLockType);
+            this.heldLocks.put(transaction.getTransNum(), newLockType);
         }
         return;
     }
@@ -257,23 +288,29 @@ public class LockContext {
         LockType escalateTo = LockType.S;
         if (this.getEffectiveLockType(transaction).equals(LockType.IX)) {
             escalateTo = LockType.X;
-        } else {
-            for (Lock lock: this.lockman.getLocks(transaction)) {
-                if (lock.name.isDescendantOf(this.getResourceName())) {
-                    if (!lock.lockType.equals(LockType.NL)) {
-                        toBeReleased.add(lock.name);
-                        if (lock.lockType.equals(LockType.IX) || lock.lockType.equals(LockType.X) ||
-                                lock.lockType.equals(LockType.SIX)) {
-                            escalateTo = LockType.X;
-                        }
+        }
+        // the descendants' locks are released whichever lock replaces them
+        List<LockContext> descendants = new ArrayList<>();
+        for (Lock lock: this.lockman.getLocks(transaction)) {
+            if (lock.name.isDescendantOf(this.getResourceName())) {
+                if (!lock.lockType.equals(LockType.NL)) {
+                    toBeReleased.add(lock.name);
+                    descendants.add(LockContext.fromResourceName(this.lockman, lock.name));
+                    if (lock.lockType.equals(LockType.IX) || lock.lockType.equals(LockType.X) ||
+                            lock.lockType.equals(LockType.SIX)) {
+                        escalateTo = LockType.X;
                     }
                 }
             }
-
         }
         toBeReleased.add(0, this.getResourceName());
         this.lockman.acquireAndRelease(transaction, name, escalateTo, toBeReleased);
         this.numChildLocks.put(transaction.getTransNum(), 0);
+        this.heldLocks.put(transaction.getTransNum(), escalateTo);
+        for (LockContext lc : descendants) {
+            lc.numChildLocks.put(transaction.getTransNum(), 0);
+            lc.heldLocks.remove(transaction.getTransNum());
+        }
         return;
     }
 
@@ -318,7 +355,7 @@ public class LockContext {
             return LockType.NL;
         }
         // TODO(hw4_part1): implement
-        return this.lockman.getLockType(transaction, name);
+        return this.heldLocks.getOrDefault(transaction.getTransNum(), LockType.NL);
     }
 
     /**
@@ -387,6 +424,54 @@ public class LockContext {
         return ((double) numChildLocks.getOrDefault(transaction.getTransNum(), 0)) / capacity();
     }
 
+    /**
+     * Enables or disables auto-escalation: while enabled, a request for a lock on a child
+     * by a transaction whose saturation has reached the escalation thresholds escalates
+     * to a lock on this context instead.
+     */
+    public void setAutoEscalate(boolean autoEscalate) {
+        this.autoEscalate = autoEscalate;
+    }
+
+    public boolean isAutoEscalate() {
+        return this.autoEscalate;
+    }
+
+    /**
+     * Sets the escalation thresholds of this context and of its descendants (including
+     * those created later): requests escalate once the saturation of a transaction is at
+     * least SATURATION and the capacity is at least MINCAPACITY.
+     */
+    public synchronized void setEscalationThresholds(double saturation, int minCapacity) {
+        if (saturation <= 0 || saturation > 1) {
+            throw new IllegalArgumentException("escalation saturation must be in (0, 1]");
+        }
+        this.escalationSaturation = saturation;
+        this.escalationMinCapacity = minCapacity;
+        for (LockContext child : this.children.values()) {
+            child.setEscalationThresholds(saturation, minCapacity);
+        }
+    }
+
+    /**
+     * Returns whether TRANSACTION should escalate to a lock on this context rather than
+     * acquire another lock on a child.
+     */
+    public boolean shouldEscalate(TransactionContext transaction) {
+        return this.autoEscalate && capacity() >= this.escalationMinCapacity &&
+               saturation(transaction) >= this.escalationSaturation;
+    }
+
+    /**
+     * Returns whether a transaction locking NUMCHILDREN distinct children (and no others)
+     * would end up escalating to a lock on this context.
+     */
+    public boolean predictsEscalation(int numChildren) {
+        int capacity = capacity();
+        return this.autoEscalate && capacity > 0 && capacity >= this.escalationMinCapacity &&
+               numChildren >= this.escalationSaturation * capacity;
+    }
+
     @Override
     public String toString() {
         return "LockContext(" + name.toString() + ")";
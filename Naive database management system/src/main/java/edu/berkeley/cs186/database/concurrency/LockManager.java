@@ -2,8 +2,15 @@ package edu.berkeley.cs186.database.concurrency;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.PeriodicThread;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
 
 /**
  * LockManager maintains the bookkeeping for what transactions have
@@ -39,15 +46,77 @@ import java.util.*;
  * This does mean that in the case of:
  *    queue: S(A) X(A) S(A)
  * only the first request should be removed from the queue when the queue is processed.
+ *
+ * There is no lock on the whole lock manager. Resource entries are sharded by the hash of
+ * their ResourceName, and a request on a single resource (acquire, promote, release) only
+ * holds the lock of that resource's shard, so requests on unrelated resources do not
+ * contend. Each transaction's list of locks is a synchronized list in a concurrent map, and
+ * is read without any shard lock. Operations that span several resources (acquire-and-release,
+ * and releases whose queue holds an acquire-and-release request) instead hold the write
+ * side of tableLock, which single-resource operations hold the read side of.
+ *
+ * A blocked request waits until it is granted, unless it is cancelled by checkWaits, which
+ * is run periodically once the deadlock detector is started (startDeadlockDetector). Each
+ * round cancels requests that have waited longer than the lock wait timeout (if one is
+ * set), and then looks for cycles in the waits-for graph built from the queues, cancelling
+ * the request of one victim per cycle (picked by the VictimPolicy). The transaction of a
+ * cancelled request is passed to the victim handler (which aborts it, in Database), and
+ * the request throws DeadlockException or LockWaitTimeoutException.
+ *
+ * Resources with the fast path enabled (enableFastPath; the database, in Database) grant
+ * IS and IX requests without the shard lock while no other lock type is held or requested
+ * on them, since intent locks are compatible with one another: the lock is put in the
+ * entry's map of fast-path locks with a single atomic operation. The first request of
+ * another type suspends the fast path, moving the fast-path locks into the entry's list of
+ * locks so that they are seen by the usual checks, and the fast path resumes once only
+ * intent locks are held and the queue is empty again.
  */
 public class LockManager {
+    // Number of shards of resourceEntries (must be a power of two)
+    private static final int NUM_SHARDS = 64;
+
     // transactionLocks is a mapping from transaction number to a list of lock
     // objects held by that transaction.
-    private Map<Long, List<Lock>> transactionLocks = new HashMap<>();
+    private Map<Long, List<Lock>> transactionLocks = new ConcurrentHashMap<>();
     // resourceEntries is a mapping from resource names to a ResourceEntry
     // object, which contains a list of Locks on the object, as well as a
-    // queue for requests on that resource.
-    private Map<ResourceName, ResourceEntry> resourceEntries = new HashMap<>();
+    // queue for requests on that resource. An entry is guarded by the lock of its shard.
+    private Map<ResourceName, ResourceEntry> resourceEntries = new ConcurrentHashMap<>();
+    // Locks on the shards of resourceEntries
+    private final ReentrantLock[] shardLocks = new ReentrantLock[NUM_SHARDS];
+    // Read side held (with a shard lock) by single-resource operations, write side by
+    // operations on several resources
+    private final ReentrantReadWriteLock tableLock = new ReentrantReadWriteLock();
+
+    /**
+     * Which transaction of a deadlock has its request cancelled.
+     */
+    public enum VictimPolicy {
+        // the transaction started last (highest transaction number)
+        YOUNGEST,
+        // the transaction holding the fewest locks, as a measure of the work it has done;
+        // the youngest of those on ties
+        FEWEST_LOCKS
+    }
+
+    private volatile VictimPolicy victimPolicy = VictimPolicy.YOUNGEST;
+    // 0 if requests never time out
+    private volatile long lockWaitTimeoutNanos = 0;
+    // Called on the thread of each transaction whose request was cancelled, before it throws
+    private volatile Consumer<TransactionContext> victimHandler = transaction -> {};
+    // Runs checkWaits periodically, or null if not started
+    private PeriodicThread deadlockDetector;
+
+    private AtomicLong numDeadlocks = new AtomicLong();
+    private AtomicLong numLockWaitTimeouts = new AtomicLong();
+    // Time blocked requests waited before being granted or cancelled
+    private WaitTimeHistogram waitTimes = new WaitTimeHistogram();
+
+    public LockManager() {
+        for (int i = 0; i < NUM_SHARDS; ++i) {
+            shardLocks[i] = new ReentrantLock();
+        }
+    }
 
     // A ResourceEntry contains the list of locks on a resource, as well as
     // the queue for requests for locks on the resource.
@@ -56,11 +125,21 @@ public class LockManager {
         List<Lock> locks = new ArrayList<>();
         // Queue for yet-to-be-satisfied lock requests on this resource.
         Deque<LockRequest> waitingQueue = new ArrayDeque<>();
+        // Whether IS/IX requests may be granted without the shard lock (see enableFastPath)
+        volatile boolean fastPath = false;
+        // Set while locks (or requests) other than IS/IX may be on the resource; the entry
+        // then has no fast-path locks
+        volatile boolean fastPathSuspended = false;
+        // IS/IX locks granted without the shard lock, by transaction number; not in locks
+        Map<Long, Lock> fastLocks = new ConcurrentHashMap<>();
+        // Number of acquire-and-release operations in progress on the resource, during
+        // which the fast path stays suspended; guarded by the write side of tableLock
+        int fastPathPins = 0;
 
         // TODO(hw4_part1): You may add helper methods here if you wish
 
-        void placeRequestOnWaitingQ(TransactionContext transaction, ResourceName name, LockType lockType,
-                                    List<Lock> lockToBeReleased, boolean placeAtFront) {
+        LockRequest placeRequestOnWaitingQ(TransactionContext transaction, ResourceName name, LockType lockType,
+                                           List<Lock> lockToBeReleased, boolean placeAtFront) {
             Lock lock = new Lock(name, lockType, transaction.getTransNum());
             LockRequest lr = new LockRequest(transaction, lock, lockToBeReleased);
             if (placeAtFront) {
@@ -68,6 +147,7 @@ public class LockManager {
             } else {
                 waitingQueue.addLast(lr);
             }
+            return lr;
         }
 
         void addLock(TransactionContext transaction, ResourceName name, LockType lockType) {
@@ -91,6 +171,14 @@ public class LockManager {
                     break;
                 }
             }
+            this.processQueue(name);
+            this.resumeFastPath();
+        }
+
+        /**
+         * Grants requests from the front of the queue until one cannot be granted.
+         */
+        void processQueue(ResourceName name) {
             boolean stop;
             for (LockRequest lr: this.getLockRequests()) {
                 List<ResourceName> moreLocksToRelease = new ArrayList<>();
@@ -123,11 +211,47 @@ public class LockManager {
                     break;
                 }
 
+                waitTimes.record(System.nanoTime() - lr.requestNanos);
                 lr.transaction.unblock();
                 this.waitingQueue.remove(lr);
             }
         }
 
+        /**
+         * Stops granting locks without the shard lock, and moves the fast-path locks into
+         * locks. The shard of the entry must be locked.
+         */
+        void suspendFastPath() {
+            if (!fastPath) {
+                return;
+            }
+            // set before the fast-path locks are read: a fast-path acquire that is not moved
+            // sees it afterwards, and takes the slow path
+            fastPathSuspended = true;
+            for (Long transNum : fastLocks.keySet()) {
+                Lock lock = fastLocks.remove(transNum);
+                if (lock != null) {
+                    locks.add(lock);
+                }
+            }
+        }
+
+        /**
+         * Resumes the fast path if only IS/IX locks are held and nothing is queued. The shard
+         * of the entry must be locked.
+         */
+        void resumeFastPath() {
+            if (!fastPathSuspended || fastPathPins > 0 || !waitingQueue.isEmpty()) {
+                return;
+            }
+            for (Lock lock : locks) {
+                if (!isIntent(lock.lockType)) {
+                    return;
+                }
+            }
+            fastPathSuspended = false;
+        }
+
         public List<LockRequest> getLockRequests() {
             return new ArrayList<>(this.waitingQueue);
         }
@@ -141,15 +265,122 @@ public class LockManager {
     }
 
     // You should not modify or use this directly.
-    private Map<Long, LockContext> contexts = new HashMap<>();
+    private Map<Long, LockContext> contexts = new ConcurrentHashMap<>();
 
     /**
      * Helper method to fetch the resourceEntry corresponding to NAME.
      * Inserts a new (empty) resourceEntry into the map if no entry exists yet.
      */
     private ResourceEntry getResourceEntry(ResourceName name) {
-        resourceEntries.putIfAbsent(name, new ResourceEntry());
-        return resourceEntries.get(name);
+        return resourceEntries.computeIfAbsent(name, n -> new ResourceEntry());
+    }
+
+    private static boolean isIntent(LockType lockType) {
+        return lockType == LockType.IS || lockType == LockType.IX;
+    }
+
+    /**
+     * Lets IS/IX locks on NAME be granted without the shard lock while no other lock type
+     * is on NAME. Meant for resources at the top of the hierarchy, on which almost every
+     * transaction takes an intent lock.
+     */
+    public void enableFastPath(ResourceName name) {
+        lockShard(name);
+        try {
+            this.getResourceEntry(name).fastPath = true;
+        } finally {
+            unlockShard(name);
+        }
+    }
+
+    /**
+     * Grants an IS/IX lock on NAME without the shard lock, if its fast path is enabled and
+     * not suspended.
+     * @return whether the lock was granted; if not, the request must take the slow path
+     */
+    private boolean tryFastAcquire(TransactionContext transaction, ResourceName name, LockType lockType) {
+        if (!isIntent(lockType)) {
+            return false;
+        }
+        ResourceEntry re = resourceEntries.get(name);
+        if (re == null || !re.fastPath || re.fastPathSuspended ||
+                !this.getLockType(transaction, name).equals(LockType.NL)) {
+            return false;
+        }
+        long transNum = transaction.getTransNum();
+        Lock lock = new Lock(name, lockType, transNum);
+        if (re.fastLocks.putIfAbsent(transNum, lock) != null) {
+            return false;
+        }
+        // if the fast path was suspended meanwhile, the lock was either moved into re.locks
+        // (and so granted), or is still ours to take back
+        if (re.fastPathSuspended && re.fastLocks.remove(transNum, lock)) {
+            return false;
+        }
+        this.addLockOnTransaction(transaction, name, lockType);
+        return true;
+    }
+
+    /**
+     * Promotes a fast-path IS lock on NAME to IX without the shard lock.
+     * @return whether the lock was promoted; if not, the request must take the slow path
+     */
+    private boolean tryFastPromote(TransactionContext transaction, ResourceName name, LockType newLockType) {
+        if (newLockType != LockType.IX) {
+            return false;
+        }
+        ResourceEntry re = resourceEntries.get(name);
+        if (re == null || !re.fastPath || re.fastPathSuspended) {
+            return false;
+        }
+        long transNum = transaction.getTransNum();
+        Lock old = re.fastLocks.get(transNum);
+        // fails if the lock was moved into re.locks
+        if (old == null || old.lockType != LockType.IS ||
+                !re.fastLocks.replace(transNum, old, new Lock(name, newLockType, transNum))) {
+            return false;
+        }
+        this.replaceLockOnTransaction(transaction, name, newLockType);
+        return true;
+    }
+
+    /**
+     * Releases a fast-path lock on NAME without the shard lock.
+     * @return whether the lock was released; if not, the request must take the slow path
+     */
+    private boolean tryFastRelease(TransactionContext transaction, ResourceName name) {
+        ResourceEntry re = resourceEntries.get(name);
+        // nothing can be queued behind a fast-path lock
+        if (re == null || !re.fastPath || re.fastLocks.remove(transaction.getTransNum()) == null) {
+            return false;
+        }
+        this.releaseLockOnTransaction(transaction, name);
+        return true;
+    }
+
+    private ReentrantLock shardLock(ResourceName name) {
+        int h = name.hashCode();
+        return shardLocks[(h ^ (h >>> 16)) & (NUM_SHARDS - 1)];
+    }
+
+    /**
+     * Locks the shard of NAME for a single-resource operation.
+     */
+    private void lockShard(ResourceName name) {
+        tableLock.readLock().lock();
+        shardLock(name).lock();
+    }
+
+    private void unlockShard(ResourceName name) {
+        shardLock(name).unlock();
+        tableLock.readLock().unlock();
+    }
+
+    /**
+     * @return the list of locks held by the transaction numbered transNum (created if needed)
+     */
+    private List<Lock> transactionLockList(long transNum) {
+        return transactionLocks.computeIfAbsent(transNum, t -> Collections.synchronizedList(new ArrayList<>()));
     }
 
     // TODO(hw4_part1): You may add helper methods here if you wish
@@ -157,20 +388,15 @@ public class LockManager {
     private void addLockOnTransaction(TransactionContext transaction, ResourceName name, LockType lockType) {
         Long transNum = transaction.getTransNum();
         Lock newLock = new Lock(name, lockType, transNum);
-        List<Lock> locksOnTrans = this.getLocks(transaction);
-        locksOnTrans.add(newLock);
-        transactionLocks.put(transNum, locksOnTrans);
-
-//        List<Lock> locksOnTrans = this.getLocks(transaction);
-//        locksOnTrans.add(newLock);
+        transactionLockList(transNum).add(newLock);
     }
 
     private void releaseLockOnTransaction(TransactionContext transaction, ResourceName name) {
-        List<Lock> locks = this.getLocks(transaction);
-        if (locks.size() > 0) {
+        List<Lock> locks = transactionLockList(transaction.getTransNum());
+        synchronized (locks) {
             for (Lock l:locks) {
                 if (l.name.equals(name)) {
-                    transactionLocks.get(transaction.getTransNum()).remove(l);
+                    locks.remove(l);
                     return;
                 }
             }
@@ -178,17 +404,14 @@ public class LockManager {
     }
 
     private void replaceLockOnTransaction(TransactionContext transaction, ResourceName name, LockType newLockType) {
-        Long transNum = transaction.getTransNum();
-        List<Lock> locksOnTrans = this.getLocks(transaction);
-        for (int i = 0; i < locksOnTrans.size(); i++) {
-            if (locksOnTrans.get(i).name == name) {
-                locksOnTrans.get(i).lockType = newLockType;
+        List<Lock> locksOnTrans = transactionLockList(transaction.getTransNum());
+        synchronized (locksOnTrans) {
+            for (int i = 0; i < locksOnTrans.size(); i++) {
+                if (locksOnTrans.get(i).name == name) {
+                    locksOnTrans.get(i).lockType = newLockType;
+                }
             }
         }
-        transactionLocks.put(transNum, locksOnTrans);
-
-//        List<Lock> locksOnTrans = this.getLocks(transaction);
-//        locksOnTrans.add(newLock);
     }
 
     /**
@@ -227,9 +450,14 @@ public class LockManager {
                                   LockType lockType, List<ResourceName> toBeReleased, boolean fromRelease)
             throws DuplicateLockRequestException, NoLockHeldException {
         boolean needToBlock;
+        LockRequest request = null;
 
-        synchronized (this) {
-            ResourceEntry re = this.getResourceEntry(name);
+        tableLock.writeLock().lock();
+        ResourceEntry re = this.getResourceEntry(name);
+        // releasing the old lock on NAME must not resume the fast path before the new one is added
+        re.fastPathPins++;
+        try {
+            re.suspendFastPath();
             if ((toBeReleased.size() > 0) && (toBeReleased.get(0) == name)) { // could be not at first
                 needToBlock = this.canNotPromote(transaction, name, lockType, fromRelease);
                 if (!needToBlock) {
@@ -267,13 +495,18 @@ public class LockManager {
                             }
                         }
                     }
-                    re.placeRequestOnWaitingQ(transaction, name, lockType, locksToBeReleased, true);
+                    request = re.placeRequestOnWaitingQ(transaction, name, lockType, locksToBeReleased, true);
                 }
             }
+        } finally {
+            re.fastPathPins--;
+            re.resumeFastPath();
+            tableLock.writeLock().unlock();
         }
 
         if ((needToBlock) && (!transaction.getBlocked())) {
             transaction.block();
+            this.checkCancelled(request);
         }
         // question: what attribute is related to acquisition time? how do i keep it not changed?
         // answer: the order of lock in lock list. update lockType instead of create new lock.
@@ -312,16 +545,24 @@ public class LockManager {
         // you will have to write some code outside the synchronized block to avoid locking up
         // the entire lock manager when a transaction is blocked. You are also allowed to
         // move the synchronized block elsewhere if you wish.
+        if (this.tryFastAcquire(transaction, name, lockType)) {
+            return;
+        }
         boolean needToBlock;
+        LockRequest request = null;
 
-        synchronized (this) {
+        lockShard(name);
+        ResourceEntry re = this.getResourceEntry(name);
+        try {
+            if (!isIntent(lockType)) {
+                re.suspendFastPath();
+            }
             boolean priority = false;
             needToBlock = this.canNotAcquire(transaction, name, lockType, priority);
-            ResourceEntry re = this.getResourceEntry(name);
             if (needToBlock) {
                 if (!transaction.getBlocked()) {
                     transaction.prepareBlock();
-                    re.placeRequestOnWaitingQ(transaction, name, lockType, new ArrayList<>(), priority);
+                    request = re.placeRequestOnWaitingQ(transaction, name, lockType, new ArrayList<>(), priority);
                 } else {
                     return;
                 }
@@ -329,10 +570,14 @@ public class LockManager {
                 this.addLockOnTransaction(transaction, name, lockType);
                 re.addLock(transaction, name, lockType);
             }
+        } finally {
+            re.resumeFastPath();
+            unlockShard(name);
         }
 
         if (needToBlock) {
             transaction.block();
+            this.checkCancelled(request);
         }
     }
 
@@ -376,15 +621,52 @@ public class LockManager {
     throws NoLockHeldException {
         // TODO(hw4_part1): implement
         // You may modify any part of this method.
-        synchronized (this) {
-            LockType releaseLockType = this.getLockType(transaction, name);
-            if (releaseLockType.equals(LockType.NL)) {
-                throw new NoLockHeldException("this transaction doesn't hold a lock on this resource.");
+        if (this.tryFastRelease(transaction, name)) {
+            return;
+        }
+        lockShard(name);
+        try {
+            // granting a queued acquire-and-release releases locks on other resources
+            if (tableLock.isWriteLockedByCurrentThread() || !this.hasAcquireAndReleaseWaiting(name)) {
+                this.releaseHelper(transaction, name);
+                return;
+            }
+        } finally {
+            unlockShard(name);
+        }
+        tableLock.writeLock().lock();
+        try {
+            this.releaseHelper(transaction, name);
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+    }
+
+    private void releaseHelper(TransactionContext transaction, ResourceName name) throws NoLockHeldException {
+        LockType releaseLockType = this.getLockType(transaction, name);
+        if (releaseLockType.equals(LockType.NL)) {
+            throw new NoLockHeldException("this transaction doesn't hold a lock on this resource.");
+        }
+        this.releaseLockOnTransaction(transaction, name);
+        ResourceEntry re = this.getResourceEntry(name);
+        re.removeLockAndProceed(transaction, name, releaseLockType);
+    }
+
+    /**
+     * @return whether NAME's queue holds an acquire-and-release request. The shard of NAME
+     * must be locked.
+     */
+    private boolean hasAcquireAndReleaseWaiting(ResourceName name) {
+        ResourceEntry re = resourceEntries.get(name);
+        if (re == null) {
+            return false;
+        }
+        for (LockRequest lr : re.waitingQueue) {
+            if (lr.releasedLocks.size() > 0) {
+                return true;
             }
-            this.releaseLockOnTransaction(transaction, name);
-            ResourceEntry re = this.getResourceEntry(name);
-            re.removeLockAndProceed(transaction, name, releaseLockType);
         }
+        return false;
     }
 
 
@@ -414,15 +696,23 @@ public class LockManager {
     throws DuplicateLockRequestException, NoLockHeldException, InvalidLockException {
         // TODO(hw4_part1): implement
         // You may modify any part of this method.
+        if (this.tryFastPromote(transaction, name, newLockType)) {
+            return;
+        }
         boolean needToBlock;
+        LockRequest request = null;
 
-        synchronized (this) {
+        lockShard(name);
+        ResourceEntry re = this.getResourceEntry(name);
+        try {
+            if (!isIntent(newLockType)) {
+                re.suspendFastPath();
+            }
             needToBlock = this.canNotPromote(transaction, name, newLockType, false);
-            ResourceEntry re = this.getResourceEntry(name);
             if (needToBlock) {
                 if (!transaction.getBlocked()) {
                     transaction.prepareBlock();
-                    re.placeRequestOnWaitingQ(transaction, name, newLockType, new ArrayList<>(), true);
+                    request = re.placeRequestOnWaitingQ(transaction, name, newLockType, new ArrayList<>(), true);
                 } else {
                     return;
                 }
@@ -430,10 +720,14 @@ public class LockManager {
                 this.replaceLockOnTransaction(transaction, name, newLockType);
                 re.replaceLock(transaction, newLockType);
             }
+        } finally {
+            re.resumeFastPath();
+            unlockShard(name);
         }
 
         if (needToBlock) {
             transaction.block();
+            this.checkCancelled(request);
         }
     }
 
@@ -469,10 +763,186 @@ public class LockManager {
         return false;
     }
 
+    /**
+     * Starts a background thread that runs checkWaits every intervalMillis milliseconds.
+     * Deadlocks are not detected, and lock wait timeouts are not enforced, unless it is
+     * started (or checkWaits is called directly).
+     */
+    public synchronized void startDeadlockDetector(long intervalMillis) {
+        if (this.deadlockDetector != null) {
+            this.deadlockDetector.close();
+        }
+        this.deadlockDetector = new PeriodicThread("deadlock-detector", intervalMillis, this::checkWaits);
+    }
+
+    /**
+     * Stops the deadlock detector, if started.
+     * @throws IllegalStateException if a round of the detector failed (see PeriodicThread)
+     */
+    public synchronized void close() {
+        PeriodicThread deadlockDetector = this.deadlockDetector;
+        this.deadlockDetector = null;
+        if (deadlockDetector != null) {
+            deadlockDetector.close();
+        }
+    }
+
+    public void setVictimPolicy(VictimPolicy victimPolicy) {
+        this.victimPolicy = victimPolicy;
+    }
+
+    /**
+     * Sets how long a request may be blocked before it is cancelled, or 0 for no limit.
+     * The timeout is enforced by checkWaits, so requests may wait up to one detector
+     * interval longer.
+     */
+    public void setLockWaitTimeout(long timeoutMillis) {
+        this.lockWaitTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Sets the handler called with each transaction whose request is cancelled (on that
+     * transaction's thread, before the request throws), which should abort it.
+     */
+    public void setVictimHandler(Consumer<TransactionContext> victimHandler) {
+        this.victimHandler = victimHandler;
+    }
+
+    /**
+     * @return number of requests cancelled to break a deadlock
+     */
+    public long getNumDeadlocks() {
+        return numDeadlocks.get();
+    }
+
+    /**
+     * @return number of requests cancelled for waiting past the lock wait timeout
+     */
+    public long getNumLockWaitTimeouts() {
+        return numLockWaitTimeouts.get();
+    }
+
+    /**
+     * @return histogram of how long blocked requests waited to be granted or cancelled
+     */
+    public WaitTimeHistogram getWaitTimeHistogram() {
+        return waitTimes;
+    }
+
+    /**
+     * Cancels every queued request that has waited at least the lock wait timeout, and
+     * then one request per deadlock: while the waits-for graph (in which a queued request's
+     * transaction waits for the holders of incompatible locks on the resource, and for
+     * the transactions of the requests ahead of it in the queue) has a cycle, the request
+     * of the victim of the cycle is cancelled. Cancelling a request processes its queue,
+     * as releasing a lock does.
+     * @return number of requests cancelled
+     */
+    public int checkWaits() {
+        int numCancelled = 0;
+        tableLock.writeLock().lock();
+        try {
+            long timeout = lockWaitTimeoutNanos;
+            if (timeout > 0) {
+                long now = System.nanoTime();
+                for (ResourceEntry re : new ArrayList<>(resourceEntries.values())) {
+                    for (LockRequest lr : re.getLockRequests()) {
+                        // an earlier cancellation may have granted the request
+                        if (now - lr.requestNanos >= timeout && re.waitingQueue.contains(lr)) {
+                            this.cancel(re, lr, LockRequest.Cancellation.TIMEOUT);
+                            numLockWaitTimeouts.incrementAndGet();
+                            ++numCancelled;
+                        }
+                    }
+                }
+            }
+
+            while (true) {
+                // rebuilt after every cancellation, which may grant other requests
+                WaitsForGraph graph = new WaitsForGraph();
+                Map<Long, LockRequest> waiting = new HashMap<>();
+                for (ResourceEntry re : resourceEntries.values()) {
+                    List<LockRequest> ahead = new ArrayList<>();
+                    for (LockRequest lr : re.waitingQueue) {
+                        long waiter = lr.transaction.getTransNum();
+                        waiting.put(waiter, lr);
+                        for (Lock l : re.locks) {
+                            if (!LockType.compatible(lr.lock.lockType, l.lockType)) {
+                                graph.addEdge(waiter, l.transactionNum);
+                            }
+                        }
+                        for (LockRequest a : ahead) {
+                            graph.addEdge(waiter, a.transaction.getTransNum());
+                        }
+                        ahead.add(lr);
+                    }
+                }
+                List<Long> cycle = graph.findCycle();
+                if (cycle.isEmpty()) {
+                    break;
+                }
+                LockRequest victim = waiting.get(this.chooseVictim(cycle));
+                this.cancel(resourceEntries.get(victim.lock.name), victim, LockRequest.Cancellation.DEADLOCK);
+                numDeadlocks.incrementAndGet();
+                ++numCancelled;
+            }
+        } finally {
+            tableLock.writeLock().unlock();
+        }
+        return numCancelled;
+    }
+
+    private long chooseVictim(List<Long> cycle) {
+        long victim = cycle.get(0);
+        for (long transNum : cycle) {
+            if (victimPolicy == VictimPolicy.FEWEST_LOCKS) {
+                int numLocks = transactionLocks.getOrDefault(transNum, Collections.emptyList()).size();
+                int victimLocks = transactionLocks.getOrDefault(victim, Collections.emptyList()).size();
+                if (numLocks < victimLocks || (numLocks == victimLocks && transNum > victim)) {
+                    victim = transNum;
+                }
+            } else if (transNum > victim) {
+                victim = transNum;
+            }
+        }
+        return victim;
+    }
+
+    /**
+     * Removes LR from the queue of RE and unblocks its transaction, which then throws.
+     * tableLock must be write locked.
+     */
+    private void cancel(ResourceEntry re, LockRequest lr, LockRequest.Cancellation cancellation) {
+        re.waitingQueue.remove(lr);
+        waitTimes.record(System.nanoTime() - lr.requestNanos);
+        lr.cancellation = cancellation;
+        lr.transaction.unblock();
+        // requests behind the cancelled one may now be grantable
+        re.processQueue(lr.lock.name);
+        re.resumeFastPath();
+    }
+
+    /**
+     * Called after a blocked request's transaction is unblocked: if the request was
+     * cancelled rather than granted, passes the transaction to the victim handler and throws.
+     */
+    private void checkCancelled(LockRequest request) {
+        if (request == null || request.cancellation == null) {
+            return;
+        }
+        victimHandler.accept(request.transaction);
+        if (request.cancellation == LockRequest.Cancellation.DEADLOCK) {
+            throw new DeadlockException("transaction " + request.transaction.getTransNum() +
+                                        " aborted to break a deadlock, while waiting for " + request.lock);
+        }
+        throw new LockWaitTimeoutException("transaction " + request.transaction.getTransNum() +
+                                           " timed out waiting for " + request.lock);
+    }
+
     /**
      * Return the type of lock TRANSACTION has on NAME (return NL if no lock is held).
      */
-    public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
+    public LockType getLockType(TransactionContext transaction, ResourceName name) {
         // TODO(hw4_part1): implement
         List<Lock> locks = this.getLocks(transaction);
         for (Lock l:locks) {
@@ -507,10 +977,21 @@ public class LockManager {
     /**
      * Returns the list of locks held on NAME, in order of acquisition.
      * A promotion or acquire-and-release should count as acquired
-     * at the original time.
+     * at the original time. Fast-path locks come last, in no particular order.
      */
-    public synchronized List<Lock> getLocks(ResourceName name) {
-        return new ArrayList<>(resourceEntries.getOrDefault(name, new ResourceEntry()).locks);
+    public List<Lock> getLocks(ResourceName name) {
+        lockShard(name);
+        try {
+            ResourceEntry re = resourceEntries.get(name);
+            if (re == null) {
+                return new ArrayList<>();
+            }
+            List<Lock> locks = new ArrayList<>(re.locks);
+            locks.addAll(re.fastLocks.values());
+            return locks;
+        } finally {
+            unlockShard(name);
+        }
     }
 
     /**
@@ -518,7 +999,7 @@ public class LockManager {
      * TRANSACTION, in order of acquisition. A promotion or
      * acquire-and-release should count as acquired at the original time.
      */
-    public synchronized List<Lock> getLocks(TransactionContext transaction) {
+    public List<Lock> getLocks(TransactionContext transaction) {
         return new ArrayList<>(transactionLocks.getOrDefault(transaction.getTransNum(),
                                Collections.emptyList()));
     }
@@ -527,18 +1008,15 @@ public class LockManager {
      * Creates a lock context. See comments at
      * he top of this file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext context(String readable, long name) {
-        if (!contexts.containsKey(name)) {
-            contexts.put(name, new LockContext(this, null, new Pair<>(readable, name)));
-        }
-        return contexts.get(name);
+    public LockContext context(String readable, long name) {
+        return contexts.computeIfAbsent(name, n -> new LockContext(this, null, new Pair<>(readable, n)));
     }
 
     /**
      * Create a lock context for the database. See comments at
      * the top of this file and the top of LockContext.java for more information.
      */
-    public synchronized LockContext databaseContext() {
+    public LockContext databaseContext() {
         return context("database", 0L);
     }
 }
@@ -15,6 +15,12 @@ class LockRequest {
     TransactionContext transaction;
     Lock lock;
     List<Lock> releasedLocks;
+    // When the request was made
+    long requestNanos = System.nanoTime();
+    // Set (before the transaction is unblocked) if the request is cancelled instead of granted
+    volatile Cancellation cancellation;
+
+    enum Cancellation { DEADLOCK, TIMEOUT }
 
     // Lock request for LOCK, that is not releasing anything.
     LockRequest(TransactionContext transaction, Lock lock) {
@@ -37,6 +37,17 @@ public class LockUtil {
             return;
         }
 
+        // once the transaction holds locks on enough of the parent's children, lock the
+        // parent instead of one more child
+        LockContext parentContext = lockContext.parentContext();
+        if (parentContext != null && parentContext.shouldEscalate(transaction)) {
+            parentContext.escalate(transaction);
+            currentLock = lockContext.getEffectiveLockType(transaction);
+            if (LockType.substitutable(currentLock, lockType)) {
+                return;
+            }
+        }
+
         // part1: make sure have appropriate parent lockType
         LockType parentNeed = LockType.parentLock(lockType);
         LockContext parentCon = lockContext.parentContext();
@@ -63,8 +74,9 @@ public class LockUtil {
         }
 
         // part2: make sure the new lockType fits it's children
-        if (currentLock.equals(LockType.NL)) {
+        if (lockContext.getExplicitLockType(transaction).equals(LockType.NL)) {
             // means this lock shouldn't have children that have effective locks
+            // (any effective lock is implied by an ancestor, e.g. S(table) when X(page) is needed)
             lockContext.acquire(transaction, lockType);
             return;
         }
@@ -0,0 +1,11 @@
+package edu.berkeley.cs186.database.concurrency;
+
+/**
+ * Thrown to a transaction whose lock request was cancelled because it waited longer
+ * than the lock wait timeout.
+ */
+public class LockWaitTimeoutException extends RuntimeException {
+    LockWaitTimeoutException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,71 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of lock wait times, with power-of-two buckets: bucket i counts waits of
+ * less than 2^i microseconds (and at least 2^(i - 1)), and the last bucket counts every
+ * longer wait. Recording is lock-free.
+ */
+public class WaitTimeHistogram {
+    // 2^31 us is about 36 minutes
+    private static final int NUM_BUCKETS = 32;
+
+    private AtomicLongArray counts = new AtomicLongArray(NUM_BUCKETS);
+
+    /**
+     * Records a wait.
+     * @param nanos time waited, in nanoseconds
+     */
+    void record(long nanos) {
+        long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(nanos, 0));
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        counts.incrementAndGet(Math.min(bucket, NUM_BUCKETS - 1));
+    }
+
+    public int getNumBuckets() {
+        return NUM_BUCKETS;
+    }
+
+    /**
+     * @return number of waits in bucket i
+     */
+    public long getCount(int i) {
+        return counts.get(i);
+    }
+
+    /**
+     * @return upper bound (exclusive) of bucket i in microseconds, or Long.MAX_VALUE for the last bucket
+     */
+    public long getUpperBoundMicros(int i) {
+        return i == NUM_BUCKETS - 1 ? Long.MAX_VALUE : 1L << i;
+    }
+
+    /**
+     * @return total number of waits recorded
+     */
+    public long getTotalCount() {
+        long total = 0;
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            total += counts.get(i);
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder("[");
+        for (int i = 0; i < NUM_BUCKETS; ++i) {
+            long count = counts.get(i);
+            if (count == 0) {
+                continue;
+            }
+            if (sb.length() > 1) {
+                sb.append(", ");
+            }
+            sb.append(i == NUM_BUCKETS - 1 ? "inf" : "<" + getUpperBoundMicros(i) + "us").append(": ").append(count);
+        }
+        return sb.append("]").toString();
+    }
+}
@@ -0,0 +1,56 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import java.util.*;
+
+/**
+ * Waits-for graph between transactions: an edge from T1 to T2 means that a lock request
+ * of T1 cannot be granted before T2 releases (or is granted) a lock. A cycle is a deadlock.
+ */
+class WaitsForGraph {
+    private Map<Long, Set<Long>> edges = new HashMap<>();
+
+    void addEdge(long waiter, long holder) {
+        if (waiter != holder) {
+            edges.computeIfAbsent(waiter, t -> new LinkedHashSet<>()).add(holder);
+        }
+    }
+
+    /**
+     * @return the transactions on some cycle of the graph, in order, or an empty list if there is none
+     */
+    List<Long> findCycle() {
+        Set<Long> done = new HashSet<>();
+        for (Long start : edges.keySet()) {
+            if (done.contains(start)) {
+                continue;
+            }
+            List<Long> path = new ArrayList<>();
+            List<Long> cycle = findCycle(start, path, new HashSet<>(), done);
+            if (cycle != null) {
+                return cycle;
+            }
+        }
+        return Collections.emptyList();
+    }
+
+    // depth-first search from transNum; path (and onPath) holds the transactions leading to it
+    private List<Long> findCycle(long transNum, List<Long> path, Set<Long> onPath, Set<Long> done) {
+        path.add(transNum);
+        onPath.add(transNum);
+        for (Long next : edges.getOrDefault(transNum, Collections.emptySet())) {
+            if (onPath.contains(next)) {
+                return new ArrayList<>(path.subList(path.indexOf(next), path.size()));
+            }
+            if (!done.contains(next)) {
+                List<Long> cycle = findCycle(next, path, onPath, done);
+                if (cycle != null) {
+                    return cycle;
+                }
+            }
+        }
+        path.remove(path.size() - 1);
+        onPath.remove(transNum);
+        done.add(transNum);
+        return null;
+    }
+}
@@ -213,6 +213,13 @@ abstract class BPlusNode {
     /** Get the page on which this node is persisted. */
     abstract Page getPage();
 
+    /**
+     * n.isSafeForInsert() returns whether inserting one more entry into n
+     * (a (key, rid) pair into a leaf, or a (key, child) pair into an inner
+     * node) is guaranteed not to make n split.
+     */
+    abstract boolean isSafeForInsert();
+
     // Pretty Printing ///////////////////////////////////////////////////////////
     /**
      * S-expressions (or sexps) are a compact way of encoding nested tree-like
@@ -4,6 +4,9 @@ import java.io.IOException;
 import java.io.FileWriter;
 import java.io.UncheckedIOException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.common.Pair;
@@ -49,6 +52,22 @@ import edu.berkeley.cs186.database.table.RecordId;
  *   fromDisk.get(new IntDataBox(0)); // Optional.empty()
  *   fromDisk.get(new IntDataBox(1)); // Optional.of(RecordId(1, 1))
  *   fromDisk.get(new IntDataBox(2)); // Optional.of(RecordId(2, 2))
+ *
+ * The tree may be used by multiple threads at once. Every node is protected by
+ * a read/write latch (keyed by its page number, and only kept while some thread
+ * holds or waits for it), and operations latch couple
+ * ("crab") down the tree: a child is latched before its parent's latch is
+ * released. Lookups, scans, removes, and inserts that do not split a leaf take
+ * shared latches on inner nodes and only latch the leaf they read or modify
+ * (exclusively for modifications). An insert into a full leaf retries from the
+ * root with exclusive latches, releasing the latches on all ancestors of a
+ * node as soon as that node is not full (so that a split below it cannot reach
+ * them). Scans do not hold latches between leaves; they move right through
+ * leaves using their current sibling pointers, skipping keys already returned,
+ * so a leaf that splits during a scan is not missed.
+ *
+ * Latches only keep the structure of the tree consistent; isolation between
+ * transactions is still provided by the locks taken on lockContext.
  */
 public class BPlusTree {
     // Buffer manager
@@ -63,6 +82,18 @@ public class BPlusTree {
     // lock context for the B+ tree
     private LockContext lockContext;
 
+    // Latch on the root pointer (root, and the root page number and height in
+    // metadata). Held in read mode while latching the root node, and in write
+    // mode while the root may be replaced.
+    private ReentrantReadWriteLock rootLatch = new ReentrantReadWriteLock();
+
+    // Number of levels of inner nodes above the leaves (0 if the root is a leaf).
+    // Guarded by rootLatch, like the root.
+    private int rootLevel;
+
+    // Latches on the nodes of the tree that are latched or being latched, by page number
+    private Map<Long, NodeLatch> latches = new ConcurrentHashMap<>();
+
     // Constructors ////////////////////////////////////////////////////////////
     /**
      * Construct a new B+ tree with metadata `metadata` and lock context `lockContext`.
@@ -116,6 +147,12 @@ public class BPlusTree {
         if (this.metadata.getRootPageNum() != DiskSpaceManager.INVALID_PAGE_NUM) {
             this.updateRoot(BPlusNode.fromBytes(this.metadata, bufferManager, lockContext,
                                                 this.metadata.getRootPageNum()));
+            BPlusNode node = this.root;
+            while (node instanceof InnerNode) {
+                node = BPlusNode.fromBytes(metadata, bufferManager, lockContext,
+                                           ((InnerNode) node).getChildren().get(0));
+                ++this.rootLevel;
+            }
         } else {
             // Construct the root.
             List<DataBox> keys = new ArrayList<>();
@@ -146,11 +183,12 @@ public class BPlusTree {
         // ensure S lock for index search. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
-        LeafNode keyOn = root.get(key);
-        if (keyOn != null) {
-            return keyOn.getKey(key);
+        Pair<LeafNode, Latch> leaf = findLeaf(key, false);
+        try {
+            return leaf.getFirst().getKey(key);
+        } finally {
+            leaf.getSecond().unlock();
         }
-        return Optional.empty();
     }
 
     /**
@@ -209,8 +247,12 @@ public class BPlusTree {
         // ensure S lock for scan. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
-//        return Collections.emptyIterator();
-        return new BPlusTreeIterator(root.getLeftmostLeaf());
+        Pair<LeafNode, Latch> leaf = findLeaf(null, false);
+        try {
+            return new BPlusTreeIterator(leaf.getFirst(), 0);
+        } finally {
+            leaf.getSecond().unlock();
+        }
     }
 
     /**
@@ -244,26 +286,33 @@ public class BPlusTree {
         // ensure S lock for scan. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
-
-        LeafNode keyOn = root.get(key);
-        List<DataBox> dbs = keyOn.getKeys();
-        Iterator<RecordId> withExtraIter = new BPlusTreeIterator(keyOn);
-
-        if (!withExtraIter.hasNext()) {
-            return Collections.emptyIterator();
+        Pair<LeafNode, Latch> leaf = findLeaf(key, false);
+        try {
+            LeafNode keyOn = leaf.getFirst();
+            return new BPlusTreeIterator(keyOn, InnerNode.numLessThan(key, keyOn.getKeys()));
+        } finally {
+            leaf.getSecond().unlock();
         }
+    }
 
-        int index;
-        for (index = 0; index < dbs.size(); index++) {
-            if (key.compareTo(dbs.get(index)) <= 0) {
-                break;
-            }
-        }
+    /**
+     * Returns an iterator over all the RecordIds stored in the B+ tree that
+     * are less than or equal to `key`, in ascending order of their corresponding
+     * keys. Like scanAll, the leaves are scanned lazily, and the scan stops at the
+     * first key greater than `key`.
+     */
+    public Iterator<RecordId> scanLessEqual(DataBox key) {
+        typecheck(key);
+
+        // ensure S lock for scan. my modification
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.S);
 
-        for (int count = index; count >= 1; count--) {
-            withExtraIter.next();
+        Pair<LeafNode, Latch> leaf = findLeaf(null, false);
+        try {
+            return new BPlusTreeIterator(leaf.getFirst(), 0, key);
+        } finally {
+            leaf.getSecond().unlock();
         }
-        return withExtraIter;
     }
 
     /**
@@ -283,23 +332,130 @@ public class BPlusTree {
         // ensure X lock for insertion. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
+        if (!tryPut(key, rid)) {
+            putSplitting(key, rid);
+        }
+    }
+
+    /**
+     * Inserts (key, rid) pairs, in ascending order of key, into a B+ tree, as if
+     * by calling put on each in turn: if a key already exists, the pairs before
+     * it are inserted and an exception is raised. Consecutive pairs that go into
+     * the same leaf are inserted under one descent and one latch on that leaf,
+     * rather than one per pair; a pair that splits its leaf is inserted by itself.
+     */
+    public void putAll(Iterator<Pair<DataBox, RecordId>> data) {
+        // ensure X lock for insertion. my modification
+        LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
-        Optional<Pair<DataBox, Long>> returnPair = root.put(key, rid);
-        if (!returnPair.isPresent()) { // root doesn't split
-            return;
+        Pair<DataBox, RecordId> entry = data.hasNext() ? data.next() : null;
+        while (entry != null) {
+            typecheck(entry.getFirst());
+            boolean full = false;
+            Pair<LeafNode, Latch> leaf = findLeaf(entry.getFirst(), true);
+            try {
+                LeafNode node = leaf.getFirst();
+                while (true) {
+                    if (!node.isSafeForInsert()) {
+                        full = true;
+                        break;
+                    }
+                    node.put(entry.getFirst(), entry.getSecond());
+                    entry = data.hasNext() ? data.next() : null;
+                    if (entry == null || !node.isBelowUpperBound(entry.getFirst())) {
+                        break;
+                    }
+                    typecheck(entry.getFirst());
+                }
+            } finally {
+                leaf.getSecond().unlock();
+            }
+            if (full) {
+                putSplitting(entry.getFirst(), entry.getSecond());
+                entry = data.hasNext() ? data.next() : null;
+            }
+        }
+    }
+
+    /**
+     * Inserts (key, rid) if that does not split its leaf, holding only shared
+     * latches on inner nodes and an exclusive latch on the leaf. Returns false,
+     * without inserting, if the leaf is full.
+     */
+    private boolean tryPut(DataBox key, RecordId rid) {
+        Pair<LeafNode, Latch> leaf = findLeaf(key, true);
+        try {
+            if (!leaf.getFirst().isSafeForInsert()) {
+                return false;
+            }
+            leaf.getFirst().put(key, rid);
+            return true;
+        } finally {
+            leaf.getSecond().unlock();
+        }
+    }
+
+    /**
+     * Inserts (key, rid), splitting nodes as needed. Descends with exclusive
+     * latches, and releases the latches on all ancestors of a node (and the
+     * root latch) once that node is not full.
+     */
+    private void putSplitting(DataBox key, RecordId rid) {
+        // Latched nodes that a split may reach, from the lowest up
+        Deque<Pair<BPlusNode, Latch>> path = new ArrayDeque<>();
+        Lock rootLock = rootLatch.writeLock();
+        rootLock.lock();
+        try {
+            BPlusNode node = root;
+            path.push(new Pair<>(node, latch(node.getPage().getPageNum(), true)));
+            if (node.isSafeForInsert()) {
+                rootLock.unlock();
+                rootLock = null;
+            }
+            while (node instanceof InnerNode) {
+                long childPageNum = ((InnerNode) node).getChildPageNum(key);
+                Latch childLatch = latch(childPageNum, true);
+                try {
+                    node = BPlusNode.fromBytes(metadata, bufferManager, lockContext, childPageNum);
+                } catch (RuntimeException e) {
+                    childLatch.unlock();
+                    throw e;
+                }
+                if (node.isSafeForInsert()) {
+                    while (!path.isEmpty()) {
+                        path.pop().getSecond().unlock();
+                    }
+                    if (rootLock != null) {
+                        rootLock.unlock();
+                        rootLock = null;
+                    }
+                }
+                path.push(new Pair<>(node, childLatch));
+            }
+
+            Iterator<Pair<BPlusNode, Latch>> ancestors = path.iterator();
+            Optional<Pair<DataBox, Long>> returnPair = ancestors.next().getFirst().put(key, rid);
+            while (returnPair.isPresent() && ancestors.hasNext()) {
+                InnerNode parent = (InnerNode) ancestors.next().getFirst();
+                returnPair = parent.insertChild(returnPair.get().getFirst(), returnPair.get().getSecond());
+            }
+            if (returnPair.isPresent()) { // root splits (so the root latch is still held)
+                List<DataBox> newKeys = new ArrayList<>();
+                newKeys.add(returnPair.get().getFirst());
+                List<Long> newChildren = new ArrayList<>();
+                newChildren.add(root.getPage().getPageNum());
+                newChildren.add(returnPair.get().getSecond());
+                updateRoot(new InnerNode(metadata, bufferManager, newKeys, newChildren, lockContext));
+                ++rootLevel;
+            }
+        } finally {
+            for (Pair<BPlusNode, Latch> latched : path) {
+                latched.getSecond().unlock();
+            }
+            if (rootLock != null) {
+                rootLock.unlock();
+            }
         }
-        DataBox rootKey = returnPair.get().getFirst();
-        Long rightPageNum = returnPair.get().getSecond();
-        Long leftPageNum = this.metadata.getRootPageNum();
-        List<DataBox> newKeys = new ArrayList<>();
-        newKeys.add(rootKey);
-        List<Long> newChildren = new ArrayList<>();
-        newChildren.add(leftPageNum);
-        newChildren.add(rightPageNum);
-        BPlusNode newRoot = new InnerNode(metadata, bufferManager, newKeys, newChildren, lockContext);
-        metadata.incrementHeight();
-        metadata.setRootPageNum(newRoot.getPage().getPageNum());
-        root = newRoot;
     }
 
 
@@ -329,6 +485,15 @@ public class BPlusTree {
         // ensure X lock for insertion. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
+        rootLatch.writeLock().lock();
+        try {
+            bulkLoadRoot(data, fillFactor);
+        } finally {
+            rootLatch.writeLock().unlock();
+        }
+    }
+
+    private void bulkLoadRoot(Iterator<Pair<DataBox, RecordId>> data, float fillFactor) {
         while (data.hasNext()) {
             Optional<Pair<DataBox, Long>> returnPair = root.bulkLoad(data, fillFactor);
             if (returnPair.isPresent()) { // root needs to split
@@ -341,9 +506,8 @@ public class BPlusTree {
                 newChildren.add(leftPageNum);
                 newChildren.add(rightPageNum);
                 BPlusNode newRoot = new InnerNode(metadata, bufferManager, newKeys, newChildren, lockContext);
-                metadata.incrementHeight();
-                metadata.setRootPageNum(newRoot.getPage().getPageNum());
                 updateRoot(newRoot);
+                ++rootLevel;
             }
         }
     }
@@ -367,7 +531,13 @@ public class BPlusTree {
         // ensure X lock for remove. my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
-        root.remove(key);
+        // nodes are never merged, so a remove only modifies its leaf
+        Pair<LeafNode, Latch> leaf = findLeaf(key, true);
+        try {
+            leaf.getFirst().remove(key);
+        } finally {
+            leaf.getSecond().unlock();
+        }
     }
 
     // Helpers /////////////////////////////////////////////////////////////////
@@ -455,6 +625,91 @@ public class BPlusTree {
         return metadata.getPartNum();
     }
 
+    /**
+     * Descends from the root to the leaf on which `key` may reside (or the
+     * leftmost leaf if `key` is null), latch coupling on the way. Inner nodes
+     * are latched in shared mode, and the leaf in exclusive mode if
+     * `exclusive` is set.
+     * @return the leaf and its latch, which the caller must release
+     */
+    private Pair<LeafNode, Latch> findLeaf(DataBox key, boolean exclusive) {
+        BPlusNode node;
+        Latch nodeLatch;
+        // levels of inner nodes below node; the levels below a node never change,
+        // even if the root splits after it is read
+        int level;
+        rootLatch.readLock().lock();
+        try {
+            node = root;
+            level = rootLevel;
+            nodeLatch = latch(node.getPage().getPageNum(), exclusive && node instanceof LeafNode);
+        } finally {
+            rootLatch.readLock().unlock();
+        }
+        while (node instanceof InnerNode) {
+            long childPageNum = ((InnerNode) node).getChildPageNum(key);
+            --level;
+            Latch childLatch;
+            try {
+                childLatch = latch(childPageNum, exclusive && level == 0);
+            } finally {
+                nodeLatch.unlock();
+            }
+            try {
+                node = BPlusNode.fromBytes(metadata, bufferManager, lockContext, childPageNum);
+            } catch (RuntimeException e) {
+                childLatch.unlock();
+                throw e;
+            }
+            nodeLatch = childLatch;
+        }
+        return new Pair<>((LeafNode) node, nodeLatch);
+    }
+
+    /**
+     * Acquires the latch on the node on page `pageNum`.
+     * @return the acquired latch
+     */
+    private Latch latch(long pageNum, boolean exclusive) {
+        NodeLatch latch = latches.compute(pageNum, (p, l) -> {
+            if (l == null) {
+                l = new NodeLatch();
+            }
+            ++l.users;
+            return l;
+        });
+        Lock lock = exclusive ? latch.writeLock() : latch.readLock();
+        lock.lock();
+        return new Latch(pageNum, lock);
+    }
+
+    /**
+     * Latch on a node, with the number of threads holding or waiting for it. It is
+     * removed from latches once there are none.
+     */
+    private static class NodeLatch extends ReentrantReadWriteLock {
+        // only changed inside latches.compute, which is atomic for a page
+        private int users;
+    }
+
+    /**
+     * A latch acquired on a node, in read or write mode.
+     */
+    private class Latch {
+        private long pageNum;
+        private Lock lock;
+
+        private Latch(long pageNum, Lock lock) {
+            this.pageNum = pageNum;
+            this.lock = lock;
+        }
+
+        private void unlock() {
+            lock.unlock();
+            latches.computeIfPresent(pageNum, (p, l) -> --l.users == 0 ? null : l);
+        }
+    }
+
     /** Save the new root page number. */
     private void updateRoot(BPlusNode newRoot) {
         this.root = newRoot;
@@ -477,51 +732,60 @@ public class BPlusTree {
 
     // Iterator ////////////////////////////////////////////////////////////////
     private class BPlusTreeIterator implements Iterator<RecordId> {
-        // TODO(hw2): Add whatever fields and constructors you want here.
-        Optional<LeafNode> curLeaf;
-        Iterator<RecordId> curRIDs;
-
-        BPlusTreeIterator(LeafNode startLeaf) {
-            curLeaf = Optional.of(startLeaf);
-            curRIDs = curLeaf.get().scanAll();
+        // Copy of the current leaf, as of when it was read
+        private LeafNode leaf;
+        // Index in leaf of the next record id to return
+        private int index;
+        // Key of the last record id returned, or null if none has been
+        private DataBox lastKey;
+        // Largest key to return, or null to scan to the end of the tree
+        private DataBox maxKey;
+
+        BPlusTreeIterator(LeafNode leaf, int index) {
+            this(leaf, index, null);
         }
 
+        BPlusTreeIterator(LeafNode leaf, int index, DataBox maxKey) {
+            this.leaf = leaf;
+            this.index = index;
+            this.maxKey = maxKey;
+        }
 
         @Override
         public boolean hasNext() {
-            // TODO(hw2): implement
-            if (curRIDs.hasNext()) {
-                return true;
-            } else {
-                if (!curLeaf.isPresent()) {
-                    return false;
+            while (index >= leaf.getKeys().size()) {
+                // The leaf may have split since we read it, moving some of its keys
+                // to a new right sibling, so we follow its current sibling pointer
+                // and skip the keys already returned.
+                long pageNum = leaf.getPage().getPageNum();
+                Optional<Long> rightSibling;
+                Latch latch = latch(pageNum, false);
+                try {
+                    rightSibling = LeafNode.readRightSibling(bufferManager, lockContext, pageNum);
+                } finally {
+                    latch.unlock();
                 }
-                curLeaf = curLeaf.get().getRightSibling();
-                if (!curLeaf.isPresent()) {
+                if (!rightSibling.isPresent()) {
                     return false;
                 }
-                curRIDs = curLeaf.get().scanAll();
-                return hasNext();
+                latch = latch(rightSibling.get(), false);
+                try {
+                    leaf = LeafNode.fromBytes(metadata, bufferManager, lockContext, rightSibling.get());
+                } finally {
+                    latch.unlock();
+                }
+                index = lastKey == null ? 0 : InnerNode.numLessThanEqual(lastKey, leaf.getKeys());
             }
+            return maxKey == null || leaf.getKeys().get(index).compareTo(maxKey) <= 0;
         }
 
-
         @Override
         public RecordId next() {
-            // TODO(hw2): implement
             if (!this.hasNext()) {
                 throw new NoSuchElementException();
             }
-
-//            if (!curRIDs.hasNext()) {
-//                curLeaf = curLeaf.get().getRightSibling();
-//                if (curLeaf.isPresent()) {
-//                    curRIDs = curLeaf.get().scanAll();
-//                }
-//            }
-//            return curRIDs.next();
-            return curRIDs.next();
-
+            lastKey = leaf.getKeys().get(index);
+            return leaf.getRids().get(index++);
         }
     }
 }
@@ -30,6 +30,10 @@ import static java.lang.Math.ceil;
  *    /     |    |     \
  */
 class InnerNode extends BPlusNode {
+    // Size of the serialized header: isLeaf (1 byte) and number of keys (4 bytes).
+    // See toBytes.
+    private static final int HEADER_SIZE = 5;
+
     // Metadata about the B+ tree that this node belongs to.
     private BPlusTreeMetadata metadata;
 
@@ -57,10 +61,12 @@ class InnerNode extends BPlusNode {
               List<Long> children, LockContext treeContext) {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum(), false),
              keys, children, treeContext);
+        sync();
     }
 
     /**
-     * Construct an inner node that is persisted to page `page`.
+     * Construct an inner node that is persisted to page `page`. The page must
+     * already hold (or be synced with) the given contents.
      */
     private InnerNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                       List<DataBox> keys, List<Long> children, LockContext treeContext) {
@@ -74,19 +80,9 @@ class InnerNode extends BPlusNode {
         this.keys = new ArrayList<>(keys);
         this.children = new ArrayList<>(children);
 
-        sync();
         page.unpin();
     }
 
-    private int findIndex(DataBox key, List<DataBox> lst) {
-        for (int i = 0; i < lst.size(); i++) {
-            if (key.compareTo(lst.get(i)) < 0) {
-                return i;
-            }
-        }
-        return lst.size();
-    }
-
     // Core API //////////////////////////////////////////////////////////////////
     // See BPlusNode.get.
     @Override
@@ -95,7 +91,7 @@ class InnerNode extends BPlusNode {
         if (children.size() == 0) {
             return null;
         }
-        int index = findIndex(key, keys);
+        int index = numLessThanEqual(key, keys);
         BPlusNode subNode = this.getChild(index);
         return subNode.get(key);
     }
@@ -114,8 +110,7 @@ class InnerNode extends BPlusNode {
     @Override
     public Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid) {
         // TODO(hw2): implement
-        int order = metadata.getOrder();
-        int index = findIndex(key, keys);
+        int index = numLessThanEqual(key, keys);
         BPlusNode subNode = this.getChild(index);
         Optional<Pair<DataBox, Long>> returnPair = subNode.put(key, rid);
 
@@ -123,12 +118,21 @@ class InnerNode extends BPlusNode {
             return Optional.empty();
         }
         // subNode splits
-        DataBox newKey = returnPair.get().getFirst();
-        Long newChildPageNum = returnPair.get().getSecond();
+        return insertChild(returnPair.get().getFirst(), returnPair.get().getSecond());
+    }
+
+    /**
+     * Inserts the split key and new right child of a child of this node that
+     * has split, splitting this node in turn if it overflows. Returns the split
+     * key and page number of the new right node if it did, as in put.
+     */
+    Optional<Pair<DataBox, Long>> insertChild(DataBox newKey, Long newChildPageNum) {
+        int order = metadata.getOrder();
+        int index = numLessThanEqual(newKey, keys);
         keys.add(index, newKey);
         children.add(index + 1, newChildPageNum);
         if (keys.size() < 2 * order + 1) { // this innerNode doesn't need to split
-            this.sync();
+            this.sync(index);
             return Optional.empty();
         }
         // this innerNode also needs to split
@@ -138,8 +142,7 @@ class InnerNode extends BPlusNode {
         this.keys = keys.subList(0, order);
         this.children = children.subList(0, order + 1);
         Long rightPageNum = rightNode.page.getPageNum();
-//        rightNode.sync();
-        this.sync();
+        this.sync(Math.min(index, order));
         return Optional.of(new Pair<>(jumpKey, rightPageNum));
     }
 
@@ -169,7 +172,6 @@ class InnerNode extends BPlusNode {
                     this.keys = keys.subList(0, order);
                     this.children = children.subList(0, order + 1);
                     Long rightPageNum = rightNode.page.getPageNum();
-                    rightNode.sync();
                     this.sync();
                     return Optional.of(new Pair<>(jumpKey, rightPageNum));
                 }
@@ -188,7 +190,6 @@ class InnerNode extends BPlusNode {
     }
     LeafNode keyOn = this.get(key);
         keyOn.remove(key);
-        this.sync(); // I don't think it's necessary
     }
 
     // Helpers ///////////////////////////////////////////////////////////////////
@@ -197,6 +198,19 @@ class InnerNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    boolean isSafeForInsert() {
+        return keys.size() < 2 * metadata.getOrder();
+    }
+
+    /**
+     * Returns the page number of the child on which `key` may reside, or of the
+     * leftmost child if `key` is null.
+     */
+    long getChildPageNum(DataBox key) {
+        return children.get(key == null ? 0 : numLessThanEqual(key, keys));
+    }
+
     private BPlusNode getChild(int i) {
         long pageNum = children.get(i);
         return BPlusNode.fromBytes(metadata, bufferManager, treeContext, pageNum);
@@ -205,13 +219,34 @@ class InnerNode extends BPlusNode {
     private void sync() {
         page.pin();
         try {
-            Buffer b = page.getBuffer();
-            byte[] newBytes = toBytes();
-            byte[] bytes = new byte[newBytes.length];
-            b.get(bytes);
-            if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
-            }
+            page.getBuffer().put(toBytes());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Serializes the header of this node, its keys from index `from` onwards,
+     * and its children to its page. Keys before `from` must be unchanged since
+     * the node was last synced, and are not rewritten. The children follow the
+     * keys on the page, so they are always rewritten.
+     */
+    private void sync(int from) {
+        int keySize = metadata.getKeySchema().getSizeInBytes();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) 0);
+        header.putInt(keys.size());
+        ByteBuffer body = ByteBuffer.allocate(keySize * (keys.size() - from) + Long.BYTES * children.size());
+        for (int i = from; i < keys.size(); ++i) {
+            body.put(keys.get(i).toBytes());
+        }
+        for (Long child : children) {
+            body.putLong(child);
+        }
+        page.pin();
+        try {
+            page.getBuffer().put(header.array());
+            page.getBuffer().position(HEADER_SIZE + keySize * from).put(body.array());
         } finally {
             page.unpin();
         }
@@ -285,27 +320,38 @@ class InnerNode extends BPlusNode {
      * a, b, c).
      */
     static <T extends Comparable<T>> int numLessThanEqual(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) <= 0) {
-                ++n;
+        // binary search for the first element greater than x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) <= 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
+    /**
+     * Given a list ys sorted in ascending order, numLessThan(x, ys) returns the
+     * number of elements in ys that are strictly less than x, i.e. the index
+     * of x in ys if it is present.
+     */
     static <T extends Comparable<T>> int numLessThan(T x, List<T> ys) {
-        int n = 0;
-        for (T y : ys) {
-            if (y.compareTo(x) < 0) {
-                ++n;
+        // binary search for the first element greater than or equal to x
+        int lo = 0;
+        int hi = ys.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (ys.get(mid).compareTo(x) < 0) {
+                lo = mid + 1;
             } else {
-                break;
+                hi = mid;
             }
         }
-        return n;
+        return lo;
     }
 
     // Pretty Printing ///////////////////////////////////////////////////////////
@@ -414,16 +460,21 @@ class InnerNode extends BPlusNode {
         Page page = bufferManager.fetchPage(treeContext, pageNum, false);
         Buffer buf = page.getBuffer();
 
-        assert (buf.get() == (byte) 0);
+        byte nodeType = buf.get();
+        assert (nodeType == (byte) 0);
 
         List<DataBox> keys = new ArrayList<>();
         List<Long> children = new ArrayList<>();
         int n = buf.getInt();
+        // read all keys and children at once rather than going through the page for every field
+        byte[] bytes = new byte[n * metadata.getKeySchema().getSizeInBytes() + (n + 1) * Long.BYTES];
+        buf.get(bytes);
+        Buffer contents = edu.berkeley.cs186.database.common.ByteBuffer.wrap(bytes);
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
+            keys.add(DataBox.fromBytes(contents, metadata.getKeySchema()));
         }
         for (int i = 0; i < n + 1; ++i) {
-            children.add(buf.getLong());
+            children.add(contents.getLong());
         }
         return new InnerNode(metadata, bufferManager, page, keys, children, treeContext);
     }
@@ -30,6 +30,10 @@ import static java.lang.Math.round;
  *   +-------+-------+-------+-------+     +-------+-------+-------+-------+
  */
 class LeafNode extends BPlusNode {
+    // Size of the serialized header: isLeaf (1 byte), right sibling (8 bytes),
+    // and number of entries (4 bytes). See toBytes.
+    private static final int HEADER_SIZE = 13;
+
     // Metadata about the B+ tree that this node belongs to.
     private BPlusTreeMetadata metadata;
 
@@ -117,10 +121,12 @@ class LeafNode extends BPlusNode {
         this(metadata, bufferManager, bufferManager.fetchNewPage(treeContext, metadata.getPartNum(), false),
              keys, rids,
              rightSibling, treeContext);
+        sync();
     }
 
     /**
-     * Construct a leaf node that is persisted to page `page`.
+     * Construct a leaf node that is persisted to page `page`. The page must
+     * already hold (or be synced with) the given contents.
      */
     private LeafNode(BPlusTreeMetadata metadata, BufferManager bufferManager, Page page,
                      List<DataBox> keys,
@@ -135,7 +141,6 @@ class LeafNode extends BPlusNode {
         this.rids = new ArrayList<>(rids);
         this.rightSibling = rightSibling;
 
-        sync();
         page.unpin();
     }
 
@@ -160,15 +165,15 @@ class LeafNode extends BPlusNode {
     @Override
     public Optional<Pair<DataBox, Long>> put(DataBox key, RecordId rid) {
         // TODO(hw2): implement
-        if (keys.contains(key)) {
+        int index = InnerNode.numLessThan(key, keys);
+        if (index < keys.size() && keys.get(index).equals(key)) {
             throw new BPlusTreeException("key already exits");
         }
         int order = metadata.getOrder();
-        int index = findInsertIndex(key, keys);
         keys.add(index, key);
         rids.add(index, rid);
         if (keys.size() < 2 * order + 1) {
-            this.sync();
+            this.sync(index);
             return Optional.empty();
         }
         LeafNode rightLeaf = new LeafNode(metadata, bufferManager, keys.subList(order, 2 * order + 1),
@@ -177,20 +182,10 @@ class LeafNode extends BPlusNode {
         this.rids = rids.subList(0, order);
         Long rightPageNum = rightLeaf.getPage().getPageNum();
         this.rightSibling = Optional.of(rightPageNum);
-//        rightLeaf.sync();
-        this.sync();
+        this.sync(Math.min(index, order));
         return Optional.of(new Pair<>(rightLeaf.keys.get(0), rightPageNum));
     }
 
-    private int findInsertIndex(DataBox key, List<DataBox> lst) {
-        for (int i = 0; i < lst.size(); i++) {
-            if (key.compareTo(lst.get(i)) < 0) {
-                return i;
-            }
-        }
-        return lst.size();
-    }
-
     // See BPlusNode.bulkLoad.
     @Override
     public Optional<Pair<DataBox, Long>> bulkLoad(Iterator<Pair<DataBox, RecordId>> data,
@@ -205,12 +200,18 @@ class LeafNode extends BPlusNode {
             p = data.next();
             key = p.getFirst();
             rid = p.getSecond();
-            if (keys.contains(key)) {
-                throw new BPlusTreeException("key already exits");
+            if (keys.isEmpty() || key.compareTo(keys.get(keys.size() - 1)) > 0) {
+                // data is sorted, so this is the common case
+                keys.add(key);
+                rids.add(rid);
+            } else {
+                int index = InnerNode.numLessThan(key, keys);
+                if (index < keys.size() && keys.get(index).equals(key)) {
+                    throw new BPlusTreeException("key already exits");
+                }
+                keys.add(index, key);
+                rids.add(index, rid);
             }
-            int index = findInsertIndex(key, keys);
-            keys.add(index, key);
-            rids.add(index, rid);
             if (keys.size() > max) {
                 LeafNode rightLeaf = new LeafNode(metadata, bufferManager, keys.subList(max, max + 1),
                         rids.subList(max, max + 1), rightSibling, treeContext); // what if rightSibling doesn't exit
@@ -218,7 +219,6 @@ class LeafNode extends BPlusNode {
                 this.rids = rids.subList(0, max);
                 Long rightPageNum = rightLeaf.page.getPageNum();
                 this.rightSibling = Optional.of(rightPageNum);
-                rightLeaf.sync();
                 this.sync();
                 return Optional.of(new Pair<>(rightLeaf.keys.get(0), rightPageNum));
             }
@@ -231,19 +231,19 @@ class LeafNode extends BPlusNode {
     @Override
     public void remove(DataBox key) {
         // TODO(hw2): implement
-        if (! keys.contains(key)) {
+        int index = indexOf(key);
+        if (index == -1) {
             return;
         }
-        int index = keys.indexOf(key);
         keys.remove(index);
         rids.remove(index);
-        this.sync();
+        this.sync(index);
     }
 
     // Iterators /////////////////////////////////////////////////////////////////
     /** Return the record id associated with `key`. */
     Optional<RecordId> getKey(DataBox key) {
-        int index = keys.indexOf(key);
+        int index = indexOf(key);
         return index == -1 ? Optional.empty() : Optional.of(rids.get(index));
     }
 
@@ -271,6 +271,36 @@ class LeafNode extends BPlusNode {
         return page;
     }
 
+    @Override
+    boolean isSafeForInsert() {
+        return keys.size() < 2 * metadata.getOrder();
+    }
+
+    /**
+     * Reads the page number of the right sibling of the leaf on page
+     * `pageNum`, without loading the rest of the leaf.
+     */
+    static Optional<Long> readRightSibling(BufferManager bufferManager, LockContext treeContext,
+                                           long pageNum) {
+        Page page = bufferManager.fetchPage(treeContext, pageNum, false);
+        try {
+            long rightSibling = page.getBuffer().getLong(1);
+            return rightSibling == -1L ? Optional.empty() : Optional.of(rightSibling);
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Returns whether `key`, if it is no less than a key that goes in this leaf,
+     * goes in this leaf too, as far as can be told from the leaf alone: that is,
+     * whether it is less than the largest key here, or this is the rightmost leaf.
+     */
+    boolean isBelowUpperBound(DataBox key) {
+        return !rightSibling.isPresent() ||
+               (!keys.isEmpty() && key.compareTo(keys.get(keys.size() - 1)) < 0);
+    }
+
     /** Returns the right sibling of this leaf, if it has one. */
     Optional<LeafNode> getRightSibling() {
         if (!rightSibling.isPresent()) {
@@ -281,16 +311,46 @@ class LeafNode extends BPlusNode {
         return Optional.of(LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
     }
 
+    /** Returns the index of `key` in this leaf, or -1 if it is not present. */
+    private int indexOf(DataBox key) {
+        int index = InnerNode.numLessThan(key, keys);
+        return index < keys.size() && keys.get(index).equals(key) ? index : -1;
+    }
+
     /** Serializes this leaf to its page. */
     private void sync() {
         page.pin();
         try {
-            Buffer b = page.getBuffer();
-            byte[] newBytes = toBytes();
-            byte[] bytes = new byte[newBytes.length];
-            b.get(bytes);
-            if (!Arrays.equals(bytes, newBytes)) {
-                page.getBuffer().put(toBytes());
+            page.getBuffer().put(toBytes());
+        } finally {
+            page.unpin();
+        }
+    }
+
+    /**
+     * Serializes the header of this leaf and its entries from index `from`
+     * onwards to its page. Entries before `from` must be unchanged since the
+     * leaf was last synced, and are not rewritten; entries past the end of the
+     * leaf are left as is. Since entries are fixed size, an insert or remove at
+     * index i only moves entries i and later, so only those (and the number of
+     * entries) are written and logged.
+     */
+    private void sync(int from) {
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        header.put((byte) 1);
+        header.putLong(rightSibling.orElse(-1L));
+        header.putInt(keys.size());
+        ByteBuffer entries = ByteBuffer.allocate(entrySize * (keys.size() - from));
+        for (int i = from; i < keys.size(); ++i) {
+            entries.put(keys.get(i).toBytes());
+            entries.put(rids.get(i).toBytes());
+        }
+        page.pin();
+        try {
+            page.getBuffer().put(header.array());
+            if (from < keys.size()) {
+                page.getBuffer().position(HEADER_SIZE + entrySize * from).put(entries.array());
             }
         } finally {
             page.unpin();
@@ -428,7 +488,8 @@ class LeafNode extends BPlusNode {
         Page page = bufferManager.fetchPage(treeContext, pageNum, false);
         Buffer buf = page.getBuffer();
 
-        assert (buf.get() == (byte) 1);
+        byte nodeType = buf.get();
+        assert (nodeType == (byte) 1);
         Long pagenumber = buf.getLong();
         Optional<Long> rightSibling;
         if (pagenumber == -1) {
@@ -437,11 +498,16 @@ class LeafNode extends BPlusNode {
             rightSibling = Optional.of(pagenumber);
         }
         int n = buf.getInt();
+        // read all entries at once rather than going through the page for every field
+        int entrySize = metadata.getKeySchema().getSizeInBytes() + RecordId.getSizeInBytes();
+        byte[] entryBytes = new byte[n * entrySize];
+        buf.get(entryBytes);
+        Buffer entries = edu.berkeley.cs186.database.common.ByteBuffer.wrap(entryBytes);
         List<DataBox> keys = new ArrayList<>();
         List<RecordId> rids = new ArrayList<>();
         for (int i = 0; i < n; ++i) {
-            keys.add(DataBox.fromBytes(buf, metadata.getKeySchema()));
-            rids.add(RecordId.fromBytes(buf));
+            keys.add(DataBox.fromBytes(entries, metadata.getKeySchema()));
+            rids.add(RecordId.fromBytes(entries));
         }
         return new LeafNode(metadata, bufferManager, page, keys, rids, rightSibling, treeContext);
     }
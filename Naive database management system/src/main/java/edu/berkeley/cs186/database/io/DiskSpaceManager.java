@@ -1,5 +1,7 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
+
 public interface DiskSpaceManager extends AutoCloseable {
     short PAGE_SIZE = 4096; // size of a page in bytes
     long INVALID_PAGE_NUM = -1L; // a page number that is always invalid
@@ -65,6 +67,53 @@ public interface DiskSpaceManager extends AutoCloseable {
      */
     void writePage(long page, byte[] buf);
 
+    /**
+     * Reads a page into a (possibly direct) byte buffer. The page is read into
+     * indices 0 to PAGE_SIZE of buf, regardless of its position and limit, which
+     * are left unchanged.
+     *
+     * @param page number of page to be read
+     * @param buf page-sized byte buffer to be filled with page data
+     */
+    void readPage(long page, ByteBuffer buf);
+
+    /**
+     * Writes to a page from a (possibly direct) byte buffer. Indices 0 to PAGE_SIZE
+     * of buf are written, regardless of its position and limit, which are left unchanged.
+     *
+     * @param page number of page to be written
+     * @param buf page-sized byte buffer that contains the new page data
+     */
+    void writePage(long page, ByteBuffer buf);
+
+    /**
+     * Reads count consecutive pages of a partition, starting at page start, into
+     * bufs[0] to bufs[count - 1], each read as with readPage(long, ByteBuffer).
+     * Implementations may read all of them with a single (vectored) read.
+     *
+     * @param start number of the first page to be read
+     * @param count number of pages to read
+     * @param bufs page-sized byte buffers to be filled with page data
+     */
+    default void readPages(long start, int count, ByteBuffer[] bufs) {
+        for (int i = 0; i < count; ++i) {
+            this.readPage(start + i, bufs[i]);
+        }
+    }
+
+    /**
+     * Forces all writes to pages of a partition to disk. Only does any work if
+     * the disk space manager does not force every write as it happens.
+     *
+     * @param partNum partition to sync
+     */
+    void sync(int partNum);
+
+    /**
+     * Forces all writes to pages of every partition to disk.
+     */
+    void sync();
+
     /**
      * Checks if a page is allocated
      *
@@ -46,6 +46,13 @@ import java.util.concurrent.locks.ReentrantLock;
  * - the second header page follows
  * - the next 32K pages are data pages managed by the second header page
  * - etc.
+ *
+ * By default, every data page write is forced to disk before writePage returns. If the
+ * disk space manager is created with syncOnWrite set to false, writes are only forced when
+ * sync is called. This is safe under ARIES as long as the recovery manager syncs before
+ * each checkpoint becomes the one restart recovery begins from: a page that is written
+ * (and dropped from the dirty page table) but not yet synced is either in that checkpoint's
+ * dirty page table, or was modified after the checkpoint began and is re-added by analysis.
  */
 public class DiskSpaceManagerImpl implements DiskSpaceManager {
     private static final int MAX_HEADER_PAGES = PAGE_SIZE / 2; // 2 bytes per header page
@@ -66,10 +73,18 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
     // recovery manager
     private RecoveryManager recoveryManager;
 
-    private static class PartInfo implements AutoCloseable {
+    // Whether every page write is forced to disk immediately
+    private boolean syncOnWrite;
+
+    /**
+     * Information about a partition, and access to its OS file. All reads and writes
+     * of the file go through read, write, and force, which subclasses may override to
+     * access the file differently.
+     */
+    static class PartInfo implements AutoCloseable {
         // Underyling OS file/file channel.
         private RandomAccessFile file;
-        private FileChannel fileChannel;
+        FileChannel fileChannel;
 
         // Lock on the partition.
         private ReentrantLock partitionLock;
@@ -86,12 +101,20 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         // Partition number
         private int partNum;
 
-        private PartInfo(int partNum, RecoveryManager recoveryManager) {
+        // Whether every page write is forced to disk immediately
+        private boolean syncOnWrite;
+
+        // Whether there have been writes since the last sync (only used if !syncOnWrite)
+        private boolean unsynced;
+
+        PartInfo(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
             this.masterPage = new int[MAX_HEADER_PAGES];
             this.headerPages = new ArrayList<>();
             this.partitionLock = new ReentrantLock();
             this.recoveryManager = recoveryManager;
             this.partNum = partNum;
+            this.syncOnWrite = syncOnWrite;
+            this.unsynced = false;
         }
 
         /**
@@ -113,7 +136,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 } else {
                     // old file, read in master page + header pages
                     ByteBuffer b = ByteBuffer.wrap(new byte[PAGE_SIZE]);
-                    this.fileChannel.read(b, PartInfo.masterPageOffset());
+                    this.read(b, PartInfo.masterPageOffset());
                     b.position(0);
                     for (int i = 0; i < MAX_HEADER_PAGES; ++i) {
                         this.masterPage[i] = (b.getShort() & 0xFFFF);
@@ -122,7 +145,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                         } else {
                             byte[] headerPage = new byte[PAGE_SIZE];
                             this.headerPages.add(headerPage);
-                            this.fileChannel.read(ByteBuffer.wrap(headerPage), PartInfo.headerPageOffset(i));
+                            this.read(ByteBuffer.wrap(headerPage), PartInfo.headerPageOffset(i));
                         }
                     }
                 }
@@ -135,6 +158,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         public void close() throws IOException {
             this.partitionLock.lock();
             try {
+                this.sync();
                 this.headerPages.clear();
                 this.file.close();
                 this.fileChannel.close();
@@ -152,7 +176,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 b.putShort((short) (masterPage[i] & 0xFFFF));
             }
             b.position(0);
-            this.fileChannel.write(b, PartInfo.masterPageOffset());
+            this.write(b, PartInfo.masterPageOffset());
         }
 
         /**
@@ -161,7 +185,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          */
         private void writeHeaderPage(int headerIndex) throws IOException {
             ByteBuffer b = ByteBuffer.wrap(this.headerPages.get(headerIndex));
-            this.fileChannel.write(b, PartInfo.headerPageOffset(headerIndex));
+            this.write(b, PartInfo.headerPageOffset(headerIndex));
         }
 
         /**
@@ -274,12 +298,39 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @param pageNum data page number to read in
          * @param buf output buffer to be filled with page - assumed to be page size
          */
-        private void readPage(int pageNum, byte[] buf) throws IOException {
+        private void readPage(int pageNum, ByteBuffer buf) throws IOException {
             if (this.isNotAllocatedPage(pageNum)) {
                 throw new PageException("page " + pageNum + " is not allocated");
             }
-            ByteBuffer b = ByteBuffer.wrap(buf);
-            this.fileChannel.read(b, PartInfo.dataPageOffset(pageNum));
+            ByteBuffer b = buf.duplicate();
+            b.clear();
+            this.read(b, PartInfo.dataPageOffset(pageNum));
+        }
+
+        /**
+         * Reads in consecutive data pages, with one read for each run of pages between
+         * header pages. Assumes that the partition lock is held.
+         * @param pageNum data page number of the first page to read in
+         * @param bufs output buffers to be filled with the pages - assumed to be page size
+         */
+        private void readPages(int pageNum, ByteBuffer[] bufs) throws IOException {
+            for (int i = 0; i < bufs.length; ++i) {
+                if (this.isNotAllocatedPage(pageNum + i)) {
+                    throw new PageException("page " + (pageNum + i) + " is not allocated");
+                }
+            }
+            int i = 0;
+            while (i < bufs.length) {
+                int runLength = Math.min(bufs.length - i,
+                                         DATA_PAGES_PER_HEADER - (pageNum + i) % DATA_PAGES_PER_HEADER);
+                ByteBuffer[] bs = new ByteBuffer[runLength];
+                for (int j = 0; j < runLength; ++j) {
+                    bs[j] = bufs[i + j].duplicate();
+                    bs[j].clear();
+                }
+                this.read(bs, PartInfo.dataPageOffset(pageNum + i));
+                i += runLength;
+            }
         }
 
         /**
@@ -287,18 +338,89 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @param pageNum data page number to write to
          * @param buf input buffer with new contents of page - assumed to be page size
          */
-        private void writePage(int pageNum, byte[] buf) throws IOException {
+        private void writePage(int pageNum, ByteBuffer buf) throws IOException {
             if (this.isNotAllocatedPage(pageNum)) {
                 throw new PageException("page " + pageNum + " is not allocated");
             }
-            ByteBuffer b = ByteBuffer.wrap(buf);
-            this.fileChannel.write(b, PartInfo.dataPageOffset(pageNum));
-            this.fileChannel.force(false);
+            ByteBuffer b = buf.duplicate();
+            b.clear();
+            this.write(b, PartInfo.dataPageOffset(pageNum));
+
+            if (this.syncOnWrite) {
+                this.force();
+            } else {
+                this.unsynced = true;
+            }
 
             long vpn = DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
             recoveryManager.diskIOHook(vpn);
         }
 
+        /**
+         * Forces all writes since the last sync to disk. Assumes that the partition lock is held.
+         */
+        private void sync() throws IOException {
+            if (!this.unsynced) {
+                return;
+            }
+            this.force();
+            this.unsynced = false;
+        }
+
+        /**
+         * Reads from the file into b, from b's position up to its limit. Bytes past the end
+         * of the file are left unchanged.
+         * @param b buffer to read into
+         * @param offset offset in the file to start reading from
+         */
+        void read(ByteBuffer b, long offset) throws IOException {
+            while (b.hasRemaining()) {
+                int n = this.fileChannel.read(b, offset);
+                if (n < 0) {
+                    break;
+                }
+                offset += n;
+            }
+        }
+
+        /**
+         * Reads from the file into each of bs in turn (a scattering read), as read does
+         * for a single buffer. Uses (and moves) the channel's position, which nothing else
+         * does, so the partition lock must be held.
+         * @param bs buffers to read into
+         * @param offset offset in the file to start reading from
+         */
+        void read(ByteBuffer[] bs, long offset) throws IOException {
+            this.fileChannel.position(offset);
+            int i = 0;
+            while (i < bs.length) {
+                if (this.fileChannel.read(bs, i, bs.length - i) < 0) {
+                    break;
+                }
+                while (i < bs.length && !bs[i].hasRemaining()) {
+                    ++i;
+                }
+            }
+        }
+
+        /**
+         * Writes b, from its position up to its limit, to the file.
+         * @param b buffer to write
+         * @param offset offset in the file to start writing at
+         */
+        void write(ByteBuffer b, long offset) throws IOException {
+            while (b.hasRemaining()) {
+                offset += this.fileChannel.write(b, offset);
+            }
+        }
+
+        /**
+         * Forces all writes to the file to disk.
+         */
+        void force() throws IOException {
+            this.fileChannel.force(false);
+        }
+
         /**
          * Checks if page number is for an unallocated data page
          * @param pageNum data page number
@@ -328,7 +450,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
          * @return offset in OS file for header page
          */
         private static long headerPageOffset(int headerIndex) {
-            return (long) (1 + headerIndex * DATA_PAGES_PER_HEADER) * PAGE_SIZE;
+            return (long) (1 + headerIndex * (DATA_PAGES_PER_HEADER + 1)) * PAGE_SIZE;
         }
 
         /**
@@ -360,8 +482,21 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
      * @param dbDir base directory of the database
      */
     public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager) {
+        this(dbDir, recoveryManager, true);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncOnWrite whether to force every page write to disk immediately; if false,
+     *                    writes are only made durable by sync
+     */
+    public DiskSpaceManagerImpl(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite) {
         this.dbDir = dbDir;
         this.recoveryManager = recoveryManager;
+        this.syncOnWrite = syncOnWrite;
         this.partInfo = new HashMap<>();
         this.partNumCounter = new AtomicInteger(0);
         this.managerLock = new ReentrantLock();
@@ -378,6 +513,10 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new PageException("could not initialize disk space manager - directory is a file");
             }
             for (File f : files) {
+                if (f.isDirectory()) {
+                    // not a partition (e.g. the log directory)
+                    continue;
+                }
                 if (f.length() == 0) {
                     if (!f.delete()) {
                         throw new PageException("could not clean up unused file - " + f.getName());
@@ -387,7 +526,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 int fileNum = Integer.parseInt(f.getName());
                 maxFileNum = Math.max(maxFileNum, fileNum);
 
-                PartInfo pi = new PartInfo(fileNum, recoveryManager);
+                PartInfo pi = newPartInfo(fileNum, recoveryManager, syncOnWrite);
                 pi.open(dbDir + "/" + f.getName());
                 this.partInfo.put(fileNum, pi);
             }
@@ -406,6 +545,18 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    /**
+     * Creates the in-memory state of a partition. The partition's file is not yet opened.
+     * Called from the constructor, so implementations must not depend on subclass state.
+     * @param partNum partition number
+     * @param recoveryManager recovery manager
+     * @param syncOnWrite whether every page write is forced to disk immediately
+     * @return new partition
+     */
+    PartInfo newPartInfo(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        return new PartInfo(partNum, recoveryManager, syncOnWrite);
+    }
+
     @Override
     public int allocPart() {
         return this.allocPartHelper(this.partNumCounter.getAndIncrement());
@@ -426,7 +577,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
                 throw new IllegalStateException("partition number " + partNum + " already exists");
             }
 
-            pi = new PartInfo(partNum, recoveryManager);
+            pi = newPartInfo(partNum, recoveryManager, syncOnWrite);
             this.partInfo.put(partNum, pi);
 
             pi.partitionLock.lock();
@@ -497,7 +648,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         try {
             int pageNum = pi.allocPage();
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[PAGE_SIZE]));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -523,7 +674,7 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
         try {
             pi.allocPage(headerIndex, pageIndex);
-            pi.writePage(pageNum, new byte[PAGE_SIZE]);
+            pi.writePage(pageNum, ByteBuffer.wrap(new byte[PAGE_SIZE]));
             return DiskSpaceManager.getVirtualPageNum(partNum, pageNum);
         } catch (IOException e) {
             throw new PageException("could not modify partition " + partNum + ": " + e.getMessage());
@@ -558,6 +709,14 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("readPage expects a page-sized buffer");
         }
+        this.readPage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("readPage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
         this.managerLock.lock();
@@ -577,11 +736,52 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public void readPages(long start, int count, ByteBuffer[] bufs) {
+        if (count == 0) {
+            return;
+        }
+        ByteBuffer[] pageBufs = Arrays.copyOf(bufs, count);
+        for (ByteBuffer buf : pageBufs) {
+            if (buf.capacity() != PAGE_SIZE) {
+                throw new IllegalArgumentException("readPages expects page-sized buffers");
+            }
+        }
+        int partNum = DiskSpaceManager.getPartNum(start);
+        int pageNum = DiskSpaceManager.getPageNum(start);
+        if (DiskSpaceManager.getPartNum(start + count - 1) != partNum) {
+            throw new IllegalArgumentException("readPages cannot read across partitions");
+        }
+        this.managerLock.lock();
+        PartInfo pi;
+        try {
+            pi = getPartInfo(partNum);
+            pi.partitionLock.lock();
+        } finally {
+            this.managerLock.unlock();
+        }
+        try {
+            pi.readPages(pageNum, pageBufs);
+        } catch (IOException e) {
+            throw new PageException("could not read partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
     @Override
     public void writePage(long page, byte[] buf) {
         if (buf.length != PAGE_SIZE) {
             throw new IllegalArgumentException("writePage expects a page-sized buffer");
         }
+        this.writePage(page, ByteBuffer.wrap(buf));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.capacity() != PAGE_SIZE) {
+            throw new IllegalArgumentException("writePage expects a page-sized buffer");
+        }
         int partNum = DiskSpaceManager.getPartNum(page);
         int pageNum = DiskSpaceManager.getPageNum(page);
         this.managerLock.lock();
@@ -601,6 +801,46 @@ public class DiskSpaceManagerImpl implements DiskSpaceManager {
         }
     }
 
+    @Override
+    public void sync(int partNum) {
+        // Unlike reads and writes, the partition lock is not acquired while holding the manager
+        // lock: the partition may be in the middle of allocation, which holds its lock while
+        // logging. A partition that is freed or not yet opened in the meantime has nothing to sync.
+        this.managerLock.lock();
+        PartInfo pi;
+        try {
+            pi = getPartInfo(partNum);
+        } finally {
+            this.managerLock.unlock();
+        }
+        pi.partitionLock.lock();
+        try {
+            pi.sync();
+        } catch (IOException e) {
+            throw new PageException("could not sync partition " + partNum + ": " + e.getMessage());
+        } finally {
+            pi.partitionLock.unlock();
+        }
+    }
+
+    @Override
+    public void sync() {
+        List<Integer> partNums;
+        this.managerLock.lock();
+        try {
+            partNums = new ArrayList<>(this.partInfo.keySet());
+        } finally {
+            this.managerLock.unlock();
+        }
+        for (int partNum : partNums) {
+            try {
+                this.sync(partNum);
+            } catch (NoSuchElementException e) {
+                // partition freed since we listed it
+            }
+        }
+    }
+
     @Override
     public boolean pageAllocated(long page) {
         int partNum = DiskSpaceManager.getPartNum(page);
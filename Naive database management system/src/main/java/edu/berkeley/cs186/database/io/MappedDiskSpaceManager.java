@@ -0,0 +1,198 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.RecoveryManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Disk space manager that accesses partition files through memory mappings instead of
+ * read and write calls. Partition layout, allocation, and locking are the same as in
+ * DiskSpaceManagerImpl; only how the bytes of the file are accessed differs.
+ *
+ * Each partition file is mapped in chunks of up to CHUNK_SIZE bytes. A chunk is mapped
+ * the first time it is accessed, and when a write goes past the end of its mapping, is
+ * remapped with at least twice the size (up to CHUNK_SIZE), so that appending pages one
+ * at a time remaps a chunk only a logarithmic number of times. Mapping grows the file to
+ * the end of the mapping; the length of the file as DiskSpaceManagerImpl would have left
+ * it (the end of the furthest write) is tracked separately, reads stop there, and the
+ * file is cut back to it when the partition is closed. Reads and writes are then copies from and into the
+ * mapping. Chunks written to since the last force are tracked, and only those are forced
+ * (MappedByteBuffer#force) when the partition is synced, so that durability is still
+ * driven by sync and syncOnWrite as in DiskSpaceManagerImpl.
+ *
+ * A dirty chunk is forced as a whole rather than just the pages written to it: Java 8 has
+ * no way to force part of a mapping (MappedByteBuffer#force(int, int) is Java 13+), and
+ * mapping each written range separately to force it would leave a mapping per sync until
+ * the next garbage collection. Forcing the whole mapping only writes back its dirty pages
+ * (msync), which are the pages written since the last force, as a ranged force of them
+ * would; what it costs over that is walking the clean pages of the chunk.
+ *
+ * Mappings are dropped when they are superseded by a larger one, or when a partition is
+ * closed or freed, and released once they are garbage collected.
+ *
+ * Database uses this disk space manager instead of DiskSpaceManagerImpl when created with
+ * mappedFiles set.
+ */
+public class MappedDiskSpaceManager extends DiskSpaceManagerImpl {
+    // Size of each mapped chunk of a partition file (64M); a multiple of the page size,
+    // so that pages never straddle chunks
+    private static final long CHUNK_SIZE = 1L << 26;
+
+    /**
+     * Partition whose file is accessed through mapped chunks.
+     */
+    private static class MappedPartInfo extends PartInfo {
+        // Mapped chunks of the file by chunk index (null if not yet mapped)
+        private List<MappedByteBuffer> chunks = new ArrayList<>();
+
+        // Length of the file, not counting the rest of the last mapped chunk (-1 if
+        // not yet known)
+        private long length = -1;
+
+        // Indices of chunks written to since the last force
+        private Set<Integer> dirtyChunks = new TreeSet<>();
+
+        private MappedPartInfo(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+            super(partNum, recoveryManager, syncOnWrite);
+        }
+
+        @Override
+        void read(ByteBuffer b, long offset) throws IOException {
+            while (b.hasRemaining()) {
+                ByteBuffer region = this.region(offset, b.remaining(), false);
+                if (region == null) {
+                    // past the end of the file
+                    break;
+                }
+                offset += region.remaining();
+                b.put(region);
+            }
+        }
+
+        @Override
+        void read(ByteBuffer[] bs, long offset) throws IOException {
+            // nothing to gain from a single call: each buffer is a copy out of the mapping
+            for (ByteBuffer b : bs) {
+                int len = b.remaining();
+                this.read(b, offset);
+                offset += len;
+            }
+        }
+
+        @Override
+        void write(ByteBuffer b, long offset) throws IOException {
+            while (b.hasRemaining()) {
+                ByteBuffer region = this.region(offset, b.remaining(), true);
+                int len = region.remaining();
+                ByteBuffer src = b.duplicate();
+                src.limit(src.position() + len);
+                region.put(src);
+                b.position(b.position() + len);
+                this.dirtyChunks.add(chunkIndex(offset));
+                offset += len;
+            }
+        }
+
+        @Override
+        void force() {
+            for (int chunkIndex : this.dirtyChunks) {
+                this.chunks.get(chunkIndex).force();
+            }
+            this.dirtyChunks.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            this.force();
+            if (this.length >= 0) {
+                this.fileChannel.truncate(this.length);
+            }
+            this.chunks.clear();
+            this.length = -1;
+            super.close();
+        }
+
+        /**
+         * Returns a view of (up to) len bytes of the file starting at offset, stopping
+         * at the end of the chunk offset is in. Maps (or remaps) the chunk if necessary.
+         * @param offset offset in the file
+         * @param len maximum number of bytes
+         * @param write whether the region will be written to, in which case the file
+         *              is grown to include it
+         * @return buffer positioned at offset in the chunk's mapping, or null if reading
+         * and offset is past the end of the file
+         */
+        private ByteBuffer region(long offset, int len, boolean write) throws IOException {
+            if (this.length < 0) {
+                this.length = this.fileChannel.size();
+            }
+            int chunkIndex = chunkIndex(offset);
+            long chunkStart = chunkIndex * CHUNK_SIZE;
+            int chunkOffset = (int) (offset - chunkStart);
+            int end = (int) Math.min(CHUNK_SIZE, (long) chunkOffset + len);
+            if (write) {
+                this.length = Math.max(this.length, chunkStart + end);
+            } else {
+                if (offset >= this.length) {
+                    return null;
+                }
+                end = (int) Math.min(end, this.length - chunkStart);
+            }
+            while (this.chunks.size() <= chunkIndex) {
+                this.chunks.add(null);
+            }
+            MappedByteBuffer chunk = this.chunks.get(chunkIndex);
+            if (chunk == null || chunk.capacity() < end) {
+                long mapSize = Math.max(end, Math.min(CHUNK_SIZE, this.length - chunkStart));
+                if (chunk != null) {
+                    mapSize = Math.max(mapSize, Math.min(CHUNK_SIZE, 2L * chunk.capacity()));
+                }
+                // the superseded mapping (if any) is dropped here
+                chunk = this.fileChannel.map(FileChannel.MapMode.READ_WRITE, chunkStart, mapSize);
+                this.chunks.set(chunkIndex, chunk);
+            }
+            ByteBuffer region = chunk.duplicate();
+            region.position(chunkOffset);
+            region.limit(end);
+            return region;
+        }
+
+        private static int chunkIndex(long offset) {
+            return (int) (offset / CHUNK_SIZE);
+        }
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager) {
+        super(dbDir, recoveryManager);
+    }
+
+    /**
+     * Initialize the disk space manager using the given directory. Creates the directory
+     * if not present.
+     *
+     * @param dbDir base directory of the database
+     * @param syncOnWrite whether to force every page write to disk immediately; if false,
+     *                    writes are only made durable by sync
+     */
+    public MappedDiskSpaceManager(String dbDir, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        super(dbDir, recoveryManager, syncOnWrite);
+    }
+
+    @Override
+    PartInfo newPartInfo(int partNum, RecoveryManager recoveryManager, boolean syncOnWrite) {
+        return new MappedPartInfo(partNum, recoveryManager, syncOnWrite);
+    }
+}
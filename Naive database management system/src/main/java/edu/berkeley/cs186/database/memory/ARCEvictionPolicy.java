@@ -0,0 +1,176 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Implementation of the ARC eviction policy (Megiddo and Modha). Resident pages are in T1
+ * if they have been referenced once since being read in, and in T2 if they have been
+ * referenced again; both are LRU lists. Evicted pages are remembered, by page number, in
+ * the ghost lists B1 (evicted from T1) and B2 (evicted from T2). The target size p of T1
+ * adapts to the workload: reading in a page remembered in B1 grows it (T1 was too small),
+ * and reading in a page remembered in B2 shrinks it. Pages are evicted from T1 while it
+ * is larger than p, and from T2 otherwise.
+ *
+ * The buffer manager picks the frame to evict before it knows which page will be read in,
+ * so the target is adapted when the page is read in, after the eviction, rather than
+ * before it. Since reading the records of one page is a burst of hits, a page only moves
+ * from T1 to T2 on a reference more than correlatedReferencePeriod (in ReferenceClock
+ * time) after it was read in.
+ *
+ * All methods are synchronized, since hit is called without the buffer manager's lock.
+ */
+public class ARCEvictionPolicy implements EvictionPolicy {
+    private final long correlatedReferencePeriod;
+    private ReferenceClock clock = new ReferenceClock();
+
+    // Resident frames referenced once / more than once, least recently used first
+    private Set<BufferFrame> t1 = new LinkedHashSet<>();
+    private Set<BufferFrame> t2 = new LinkedHashSet<>();
+    // Page numbers of pages evicted from T1 / T2, least recently evicted first
+    private Set<Long> b1 = new LinkedHashSet<>();
+    private Set<Long> b2 = new LinkedHashSet<>();
+    // Target size of T1
+    private double p = 0;
+
+    // Number of frames, as of the last call to evict
+    private int capacity = 0;
+
+    private static class Tag {
+        // T1 or T2
+        Set<BufferFrame> list;
+        // Time the page was read in
+        long loaded;
+        // Whether evict returned the frame since it was last hit, in which case the page
+        // is remembered in a ghost list on cleanup
+        boolean evicting = false;
+    }
+
+    /**
+     * ARC where only repeated references to the same page, with no reference to another
+     * page in between, are correlated.
+     */
+    public ARCEvictionPolicy() {
+        this(0);
+    }
+
+    /**
+     * @param correlatedReferencePeriod number of references to other pages within which
+     *                                  a reference to a page is correlated with reading it in
+     */
+    public ARCEvictionPolicy(long correlatedReferencePeriod) {
+        this.correlatedReferencePeriod = correlatedReferencePeriod;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag tag = new Tag();
+        tag.loaded = clock.reference(frame);
+        long pageNum = frame.getPageNum();
+        if (b1.contains(pageNum)) {
+            p = Math.min(capacity, p + Math.max(1.0, (double) b2.size() / b1.size()));
+            b1.remove(pageNum);
+            tag.list = t2;
+        } else if (b2.contains(pageNum)) {
+            p = Math.max(0, p - Math.max(1.0, (double) b1.size() / b2.size()));
+            b2.remove(pageNum);
+            tag.list = t2;
+        } else {
+            tag.list = t1;
+        }
+        tag.list.add(frame);
+        frame.tag = tag;
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (!(frame.tag instanceof Tag)) {
+            return;
+        }
+        Tag tag = (Tag) frame.tag;
+        // the frame was pinned after evict returned it, so it is not being evicted
+        tag.evicting = false;
+        long now = clock.reference(frame);
+        if (tag.list == t1 && now - tag.loaded <= correlatedReferencePeriod) {
+            return;
+        }
+        tag.list.remove(frame);
+        tag.list = t2;
+        t2.add(frame);
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        BufferFrame victim = null;
+        if (t1.size() > p || t2.isEmpty()) {
+            victim = firstUnpinned(t1);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(t2);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(t1);
+        }
+        if (victim == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        ((Tag) victim.tag).evicting = true;
+        return victim;
+    }
+
+    private static BufferFrame firstUnpinned(Set<BufferFrame> list) {
+        for (BufferFrame frame : list) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag instanceof Tag) {
+            Tag tag = (Tag) frame.tag;
+            tag.list.remove(frame);
+            if (tag.evicting) {
+                (tag.list == t1 ? b1 : b2).add(frame.getPageNum());
+                // the cache directory holds at most c pages in T1 and B1, and 2c in all
+                while (!b1.isEmpty() && t1.size() + b1.size() > capacity) {
+                    removeOldest(b1);
+                }
+                while (t1.size() + t2.size() + b1.size() + b2.size() > 2 * capacity) {
+                    removeOldest(b2.isEmpty() ? b1 : b2);
+                }
+            }
+        }
+        frame.tag = null;
+    }
+
+    private static void removeOldest(Set<Long> ghosts) {
+        Iterator<Long> oldest = ghosts.iterator();
+        oldest.next();
+        oldest.remove();
+    }
+}
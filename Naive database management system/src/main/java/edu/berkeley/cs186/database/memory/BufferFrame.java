@@ -1,35 +1,73 @@
 package edu.berkeley.cs186.database.memory;
 
+import java.util.concurrent.atomic.AtomicInteger;
+
 /**
  * Buffer frame.
  */
 abstract class BufferFrame {
+    // Pin count value of a frame that has been claimed for eviction; such a frame
+    // can never be pinned again.
+    private static final int SEALED = -1;
+
     Object tag = null;
-    private int pinCount = 0;
+    private final AtomicInteger pinCount = new AtomicInteger(0);
 
     /**
      * Pin buffer frame; cannot be evicted while pinned. A "hit" happens when the
      * buffer frame gets pinned.
      */
     void pin() {
-        ++pinCount;
+        if (!tryPin()) {
+            throw new IllegalStateException("pinning frame sealed for eviction");
+        }
+    }
+
+    /**
+     * Pins the buffer frame unless it has been sealed for eviction.
+     * @return whether the frame was pinned
+     */
+    boolean tryPin() {
+        while (true) {
+            int count = pinCount.get();
+            if (count == SEALED) {
+                return false;
+            }
+            if (pinCount.compareAndSet(count, count + 1)) {
+                return true;
+            }
+        }
     }
 
     /**
      * Unpin buffer frame.
      */
     void unpin() {
-        if (!isPinned()) {
-            throw new IllegalStateException("cannot unpin unpinned frame");
+        while (true) {
+            int count = pinCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("cannot unpin unpinned frame");
+            }
+            if (pinCount.compareAndSet(count, count - 1)) {
+                return;
+            }
         }
-        --pinCount;
+    }
+
+    /**
+     * Seals an unpinned frame so that it can never be pinned again; used to claim a frame
+     * for eviction without holding a lock that pinning threads would have to take.
+     * @return whether the frame was unpinned and is now sealed
+     */
+    boolean trySeal() {
+        return pinCount.compareAndSet(0, SEALED);
     }
 
     /**
      * @return whether this frame is pinned
      */
     boolean isPinned() {
-        return pinCount > 0;
+        return pinCount.get() > 0;
     }
 
     /**
@@ -94,6 +94,16 @@ public interface BufferManager extends AutoCloseable {
      */
     void iterPageNums(BiConsumer<Long, Boolean> process);
 
+    /**
+     * Writes out (without unloading) up to maxPages dirty, unpinned data pages that have not
+     * been used since the last time this method passed over them. Each call continues
+     * around the buffer from where the previous call stopped, and looks at each frame at
+     * most once.
+     * @param maxPages maximum number of pages to write
+     * @return number of pages written
+     */
+    int writeColdPages(int maxPages);
+
     /**
      * Get the number of I/Os since the buffer manager was started, excluding anything used in disk
      * space management, and not counting allocation/free. This is not really useful except as a
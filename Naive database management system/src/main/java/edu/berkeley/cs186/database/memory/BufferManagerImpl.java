@@ -9,27 +9,71 @@ import edu.berkeley.cs186.database.recovery.RecoveryManager;
 
 import java.nio.ByteBuffer;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.BiConsumer;
+import java.util.function.LongConsumer;
 
 /**
  * Implementation of a buffer manager, with configurable page replacement policies.
- * Data is stored in page-sized byte arrays, and returned in a Frame object specific
+ * Data is stored in page-sized byte buffers, and returned in a Frame object specific
  * to the page loaded (evicting and loading a new page into the frame will result in
- * a new Frame object, with the same underlying byte array), with old Frame objects
- * backed by the same byte array marked as invalid.
+ * a new Frame object, with the same underlying byte buffer), with old Frame objects
+ * backed by the same byte buffer marked as invalid.
+ *
+ * Frames are either on-heap (one byte array per frame), or off-heap, in which case
+ * they are page-sized slices of a few large direct byte buffers. Off-heap frames are
+ * not scanned or copied by the garbage collector, and are read and written by the
+ * disk space manager without going through a temporary buffer.
+ *
+ * The page table is a concurrent map, and buffer hits do not take any lock: a hit
+ * atomically increments the frame's pin count, which fails if the frame has been sealed
+ * for eviction. Misses serialize on a lock striped by page number, and only take the
+ * manager lock for the short time it takes to pick a frame to reuse.
+ *
+ * Once the frame cleaner is started (startFrameCleaner), a background thread keeps at
+ * least lowWatermark frames free, evicting (and writing out, if dirty) pages ahead of
+ * time, and misses of data pages only take free frames: if there is none, they wait for
+ * the cleaner rather than write out a page themselves. Without the cleaner, a miss with no
+ * free frame evicts a page itself. Either way, a miss that finds every frame pinned waits
+ * for a frame to be unpinned, for up to the frame wait timeout (setFrameWaitTimeout), and
+ * then fails as it would if it had not waited.
+ *
+ * Once read-ahead is enabled (setReadAhead), a miss on the data page following the last
+ * page read in from the same partition (as in a scan of a table) also reads in up to
+ * readAheadPages of the pages after it, with a single readPages call to the disk space
+ * manager. Pages are read ahead into free frames, or frames of evicted pages, but a miss
+ * never waits for a frame to read a page ahead into (or for the cleaner to free one).
  */
 public class BufferManagerImpl implements BufferManager {
+    // Number of locks that misses are striped across (must be a power of two)
+    private static final int NUM_STRIPES = 64;
+
+    // Default time a miss waits for a frame to be unpinned before failing (10s)
+    private static final long DEFAULT_FRAME_WAIT_MILLIS = 10000;
+
+    // Number of frames per direct buffer when frames are off-heap (64M per buffer)
+    private static final int ARENA_CHUNK_PAGES = 16384;
+
     // Buffer frames
     private Frame[] frames;
 
     // Reference to the disk space manager underneath this buffer manager instance.
     private DiskSpaceManager diskSpaceManager;
 
-    // Map of page number to frame index
-    private Map<Long, Integer> pageToFrame;
+    // Map of page number to frame
+    private Map<Long, Frame> pageToFrame;
 
-    // Lock on buffer manager
+    // Locks held while loading a page in; a page is loaded under stripeLocks[stripeIndex(pageNum)]
+    private ReentrantLock[] stripeLocks;
+
+    // Lock on the free list, frames array, and eviction policy state
     private ReentrantLock managerLock;
 
     // Eviction policy
@@ -37,29 +81,65 @@ public class BufferManagerImpl implements BufferManager {
 
     // Index of first free frame
     private int firstFreeIndex;
+    // Number of free frames; guarded by managerLock
+    private int numFree;
+
+    // Signalled when a frame is freed, and when a frame is unpinned while misses wait for one
+    private Condition frameReleased;
+    // Number of misses waiting on frameReleased
+    private AtomicInteger numWaiters = new AtomicInteger(0);
+    // How long a miss waits on frameReleased in all before failing
+    private volatile long frameWaitNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_FRAME_WAIT_MILLIS);
+
+    // Background cleaner keeping cleanerLowWatermark frames free, or null if not started;
+    // guarded by managerLock
+    private FrameCleaner cleaner = null;
+    private int cleanerLowWatermark = 0;
+
+    // Index of the next frame for writeColdPages to look at; guarded by writerLock
+    private int writerHand = 0;
+    private ReentrantLock writerLock = new ReentrantLock();
 
     // Recovery manager
     private RecoveryManager recoveryManager;
 
     // Count of number of I/Os
-    private long numIOs = 0;
+    private AtomicLong numIOs = new AtomicLong(0);
+
+    // Called with the page number of every fetchPageFrame call, if set
+    private volatile LongConsumer fetchTrace = null;
+
+    // Maximum number of pages read ahead of a sequential miss (0 if read-ahead is disabled)
+    private volatile int readAheadPages = 0;
+    // Page number of the page after the last one read in, by partition
+    private Map<Integer, Long> nextSequentialPage = new ConcurrentHashMap<>();
+    // Number of pages read ahead, and number of those fetched before they were evicted
+    private AtomicLong numPagesReadAhead = new AtomicLong(0);
+    private AtomicLong numReadAheadHits = new AtomicLong(0);
 
     /**
      * Buffer frame, containing information about the loaded page, wrapped around the
-     * underlying byte array. Free frames use the index field to create a (singly) linked
-     * list between free frames.
+     * underlying byte buffer. Free frames use the index field to create a (singly) linked
+     * list between free frames. The frame lock is only held while the contents are being
+     * copied in or out, not for as long as the frame is pinned.
      */
     class Frame extends BufferFrame {
         private static final int INVALID_INDEX = Integer.MIN_VALUE;
 
-        byte[] contents;
-        private int index;
+        ByteBuffer contents;
+        private volatile int index;
         private long pageNum;
-        private boolean dirty;
+        private volatile boolean dirty;
+        // Whether the page was used since writeColdPages last passed over it
+        private volatile boolean referenced = true;
         private ReentrantLock frameLock;
         private boolean logPage;
+        // Set if the page was read ahead, until the page is first fetched; null otherwise
+        private AtomicBoolean readAhead = null;
+        // Counted down once the frame, sealed for eviction, is removed from the page table
+        private final CountDownLatch unmapped = new CountDownLatch(1);
 
-        Frame(byte[] contents, int nextFree, boolean logPage) {
+        Frame(ByteBuffer contents, int nextFree, boolean logPage) {
             this(contents, ~nextFree, DiskSpaceManager.INVALID_PAGE_NUM, logPage);
         }
 
@@ -67,7 +147,7 @@ public class BufferManagerImpl implements BufferManager {
             this(frame.contents, frame.index, frame.pageNum, frame.logPage);
         }
 
-        Frame(byte[] contents, int index, long pageNum, boolean logPage) {
+        Frame(ByteBuffer contents, int index, long pageNum, boolean logPage) {
             this.contents = contents;
             this.index = index;
             this.pageNum = pageNum;
@@ -82,22 +162,29 @@ public class BufferManagerImpl implements BufferManager {
          */
         @Override
         public void pin() {
-            this.frameLock.lock();
-
+            if (!this.tryPin()) {
+                throw new IllegalStateException("pinning invalidated frame");
+            }
             if (!this.isValid()) {
+                super.unpin();
                 throw new IllegalStateException("pinning invalidated frame");
             }
-
-            super.pin();
         }
 
         /**
-         * Unpin buffer frame.
+         * Unpin buffer frame, waking up misses waiting for a frame if it is no longer pinned.
          */
         @Override
-        public void unpin() {
+        void unpin() {
             super.unpin();
-            this.frameLock.unlock();
+            if (numWaiters.get() > 0 && !this.isPinned()) {
+                managerLock.lock();
+                try {
+                    frameReleased.signalAll();
+                } finally {
+                    managerLock.unlock();
+                }
+            }
         }
 
         /**
@@ -116,14 +203,39 @@ public class BufferManagerImpl implements BufferManager {
         }
 
         /**
-         * Invalidates the frame, flushing it if necessary.
+         * Waits until this frame, which has been sealed for eviction, is removed from the
+         * page table.
+         */
+        private void awaitUnmapped() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    this.unmapped.await();
+                    break;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        /**
+         * Invalidates the frame, flushing it if necessary. The frame must not be pinned
+         * (it should be sealed, or the manager being closed).
          */
         private void invalidate() {
             if (this.isValid()) {
-                this.flush();
+                this.writeBack();
+            }
+            this.frameLock.lock();
+            try {
+                this.index = INVALID_INDEX;
+                this.contents = null;
+            } finally {
+                this.frameLock.unlock();
             }
-            this.index = INVALID_INDEX;
-            this.contents = null;
         }
 
         /**
@@ -160,27 +272,55 @@ public class BufferManagerImpl implements BufferManager {
          */
         @Override
         void flush() {
-            this.frameLock.lock();
-            super.pin();
-            try {
-                if (!this.isValid()) {
-                    return;
-                }
-                if (!this.dirty) {
-                    return;
+            this.writeBack();
+        }
+
+        /**
+         * Writes the frame out if it is dirty. The log is flushed up to the pageLSN first;
+         * this happens without holding the frame lock, since flushing the log may itself
+         * need to load log pages, so the pageLSN is re-checked before the page is written.
+         */
+        private void writeBack() {
+            while (true) {
+                long pageLSN;
+                this.frameLock.lock();
+                try {
+                    if (!this.isValid() || !this.dirty) {
+                        return;
+                    }
+                    pageLSN = this.getPageLSN();
+                    if (this.logPage) {
+                        this.writeToDisk();
+                        return;
+                    }
+                } finally {
+                    this.frameLock.unlock();
                 }
-                if (!this.logPage) {
-                    recoveryManager.pageFlushHook(this.getPageLSN());
+                recoveryManager.pageFlushHook(pageLSN);
+                this.frameLock.lock();
+                try {
+                    if (!this.isValid() || !this.dirty) {
+                        return;
+                    }
+                    if (this.getPageLSN() == pageLSN) {
+                        this.writeToDisk();
+                        return;
+                    }
+                } finally {
+                    this.frameLock.unlock();
                 }
-                BufferManagerImpl.this.diskSpaceManager.writePage(pageNum, contents);
-                BufferManagerImpl.this.incrementIOs();
-                this.dirty = false;
-            } finally {
-                super.unpin();
-                this.frameLock.unlock();
             }
         }
 
+        /**
+         * Writes the frame's contents to disk. Assumes that the frame lock is held.
+         */
+        private void writeToDisk() {
+            BufferManagerImpl.this.diskSpaceManager.writePage(pageNum, contents);
+            BufferManagerImpl.this.incrementIOs();
+            this.dirty = false;
+        }
+
         /**
          * Read from the buffer frame.
          * @param position position in buffer frame to start reading
@@ -190,13 +330,18 @@ public class BufferManagerImpl implements BufferManager {
         @Override
         void readBytes(short position, short num, byte[] buf) {
             this.pin();
+            this.frameLock.lock();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("reading from invalid buffer frame");
                 }
-                System.arraycopy(this.contents, position + dataOffset(), buf, 0, num);
+                ByteBuffer b = this.contents.duplicate();
+                b.position(position + dataOffset());
+                b.get(buf, 0, num);
+                this.referenced = true;
                 BufferManagerImpl.this.evictionPolicy.hit(this);
             } finally {
+                this.frameLock.unlock();
                 this.unpin();
             }
         }
@@ -210,6 +355,7 @@ public class BufferManagerImpl implements BufferManager {
         @Override
         void writeBytes(short position, short num, byte[] buf) {
             this.pin();
+            this.frameLock.lock();
             try {
                 if (!this.isValid()) {
                     throw new IllegalStateException("writing to invalid buffer frame");
@@ -221,17 +367,24 @@ public class BufferManagerImpl implements BufferManager {
                     for (Pair<Integer, Integer> range : changedRanges) {
                         int start = range.getFirst();
                         int len = range.getSecond();
-                        byte[] before = Arrays.copyOfRange(contents, start + offset, start + offset + len);
+                        byte[] before = new byte[len];
+                        ByteBuffer b = contents.duplicate();
+                        b.position(start + offset);
+                        b.get(before);
                         byte[] after = Arrays.copyOfRange(buf, start, start + len);
-                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum, position, before,
-                                       after);
+                        long pageLSN = recoveryManager.logPageWrite(transaction.getTransNum(), pageNum,
+                                       (short) (position + start), before, after);
                         this.setPageLSN(pageLSN);
                     }
                 }
-                System.arraycopy(buf, 0, this.contents, offset, num);
+                ByteBuffer b = this.contents.duplicate();
+                b.position(offset);
+                b.put(buf, 0, num);
                 this.dirty = true;
+                this.referenced = true;
                 BufferManagerImpl.this.evictionPolicy.hit(this);
             } finally {
+                this.frameLock.unlock();
                 this.unpin();
             }
         }
@@ -242,19 +395,19 @@ public class BufferManagerImpl implements BufferManager {
          */
         @Override
         Frame requestValidFrame() {
-            this.frameLock.lock();
-            try {
-                if (this.isFreed()) {
-                    throw new PageException("page already freed");
-                }
+            if (this.isFreed()) {
+                throw new PageException("page already freed");
+            }
+            if (this.tryPin()) {
                 if (this.isValid()) {
-                    this.pin();
                     return this;
                 }
-                return BufferManagerImpl.this.fetchPageFrame(this.pageNum, logPage);
-            } finally {
-                this.frameLock.unlock();
+                super.unpin();
+                if (this.isFreed()) {
+                    throw new PageException("page already freed");
+                }
             }
+            return BufferManagerImpl.this.fetchPageFrame(this.pageNum, logPage);
         }
 
         @Override
@@ -268,7 +421,7 @@ public class BufferManagerImpl implements BufferManager {
 
         @Override
         long getPageLSN() {
-            return ByteBuffer.wrap(this.contents).getLong(8);
+            return this.contents.getLong(8);
         }
 
         @Override
@@ -292,7 +445,7 @@ public class BufferManagerImpl implements BufferManager {
             int startIndex = -1;
             int skip = -1;
             for (int i = 0; i < num; ++i) {
-                if (buf[i] == contents[offset + i] && startIndex >= 0) {
+                if (buf[i] == contents.get(offset + i) && startIndex >= 0) {
                     if (skip > BufferManager.RESERVED_SPACE) {
                         ranges.add(new Pair<>(startIndex, i - startIndex - skip));
                         startIndex = -1;
@@ -300,7 +453,7 @@ public class BufferManagerImpl implements BufferManager {
                     } else {
                         ++skip;
                     }
-                } else if (buf[i] != contents[offset + i]) {
+                } else if (buf[i] != contents.get(offset + i)) {
                     if (startIndex < 0) {
                         startIndex = i;
                     }
@@ -314,7 +467,7 @@ public class BufferManagerImpl implements BufferManager {
         }
 
         void setPageLSN(long pageLSN) {
-            ByteBuffer.wrap(this.contents).putLong(8, pageLSN);
+            this.contents.putLong(8, pageLSN);
         }
 
         private short dataOffset() {
@@ -335,95 +488,499 @@ public class BufferManagerImpl implements BufferManager {
      */
     public BufferManagerImpl(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
                              int bufferSize, EvictionPolicy evictionPolicy) {
+        this(diskSpaceManager, recoveryManager, bufferSize, evictionPolicy, false);
+    }
+
+    /**
+     * Creates a new buffer manager.
+     *
+     * @param diskSpaceManager the underlying disk space manager
+     * @param bufferSize size of buffer (in pages)
+     * @param evictionPolicy eviction policy to use
+     * @param offHeap whether to store frames in direct byte buffers instead of on the heap
+     */
+    public BufferManagerImpl(DiskSpaceManager diskSpaceManager, RecoveryManager recoveryManager,
+                             int bufferSize, EvictionPolicy evictionPolicy, boolean offHeap) {
         this.frames = new Frame[bufferSize];
+        ByteBuffer chunk = null;
         for (int i = 0; i < bufferSize; ++i) {
-            this.frames[i] = new Frame(new byte[DiskSpaceManager.PAGE_SIZE], i + 1, false);
+            ByteBuffer contents;
+            if (offHeap) {
+                int chunkIndex = i % ARENA_CHUNK_PAGES;
+                if (chunkIndex == 0) {
+                    int chunkPages = Math.min(ARENA_CHUNK_PAGES, bufferSize - i);
+                    chunk = ByteBuffer.allocateDirect(chunkPages * DiskSpaceManager.PAGE_SIZE);
+                }
+                chunk.limit((chunkIndex + 1) * DiskSpaceManager.PAGE_SIZE);
+                chunk.position(chunkIndex * DiskSpaceManager.PAGE_SIZE);
+                contents = chunk.slice();
+            } else {
+                contents = ByteBuffer.wrap(new byte[DiskSpaceManager.PAGE_SIZE]);
+            }
+            this.frames[i] = new Frame(contents, i + 1, false);
         }
         this.firstFreeIndex = 0;
+        this.numFree = bufferSize;
         this.diskSpaceManager = diskSpaceManager;
-        this.pageToFrame = new HashMap<>();
+        this.pageToFrame = new ConcurrentHashMap<>();
+        this.stripeLocks = new ReentrantLock[NUM_STRIPES];
+        for (int i = 0; i < NUM_STRIPES; ++i) {
+            this.stripeLocks[i] = new ReentrantLock();
+        }
         this.managerLock = new ReentrantLock();
+        this.frameReleased = this.managerLock.newCondition();
         this.evictionPolicy = evictionPolicy;
         this.recoveryManager = recoveryManager;
     }
 
+    /**
+     * Starts the frame cleaner (see above).
+     * @param lowWatermark number of frames the cleaner keeps free
+     * @param roundMillis time between rounds of the cleaner when it is not woken up by a miss
+     */
+    public void startFrameCleaner(int lowWatermark, long roundMillis) {
+        if (lowWatermark < 1 || lowWatermark >= frames.length) {
+            throw new IllegalArgumentException("low watermark must be between 1 and the number of frames");
+        }
+        this.stopFrameCleaner();
+        this.managerLock.lock();
+        try {
+            this.cleanerLowWatermark = lowWatermark;
+            this.cleaner = new FrameCleaner(this, roundMillis);
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Stops the frame cleaner, if started.
+     * @throws IllegalStateException if a round of the cleaner failed (see PeriodicThread)
+     */
+    public void stopFrameCleaner() {
+        FrameCleaner cleaner;
+        this.managerLock.lock();
+        try {
+            cleaner = this.cleaner;
+            this.cleaner = null;
+            // waiting misses evict pages themselves from now on
+            this.frameReleased.signalAll();
+        } finally {
+            this.managerLock.unlock();
+        }
+        if (cleaner != null) {
+            cleaner.close();
+        }
+    }
+
+    /**
+     * @return number of frames freed by the frame cleaner since it was started
+     */
+    public long getNumFramesCleaned() {
+        this.managerLock.lock();
+        try {
+            return this.cleaner == null ? 0 : this.cleaner.getNumFramesCleaned();
+        } finally {
+            this.managerLock.unlock();
+        }
+    }
+
+    /**
+     * Evicts pages until the cleaner's low watermark of free frames is reached, or every
+     * frame is pinned. Called by the cleaner thread.
+     * @return number of frames freed
+     */
+    int cleanFrames() {
+        int numCleaned = 0;
+        while (true) {
+            Frame victim;
+            this.managerLock.lock();
+            try {
+                if (this.numFree >= this.cleanerLowWatermark) {
+                    return numCleaned;
+                }
+                victim = this.chooseVictim();
+            } finally {
+                this.managerLock.unlock();
+            }
+            if (victim == null) {
+                return numCleaned;
+            }
+            this.freeEvicted(victim);
+            ++numCleaned;
+        }
+    }
+
     @Override
     public void close() {
-        this.managerLock.lock();
         try {
-            for (Frame frame : this.frames) {
-                frame.frameLock.lock();
-                try {
-                    if (frame.isPinned()) {
-                        throw new IllegalStateException("closing buffer manager but frame still pinned");
-                    }
+            this.stopFrameCleaner();
+        } finally {
+            this.managerLock.lock();
+            try {
+                for (Frame frame : this.frames) {
                     if (!frame.isValid()) {
                         continue;
                     }
+                    if (!frame.trySeal()) {
+                        throw new IllegalStateException("closing buffer manager but frame still pinned");
+                    }
                     evictionPolicy.cleanup(frame);
                     frame.invalidate();
-                } finally {
-                    frame.frameLock.unlock();
+                    this.unmapSealed(frame);
                 }
+            } finally {
+                this.managerLock.unlock();
             }
-        } finally {
-            this.managerLock.unlock();
         }
     }
 
+    /**
+     * Sets a callback that is passed the page number of every page fetched, e.g. to record
+     * traces to replay against eviction policies; null to stop. The callback is called on
+     * the fetching thread, and must be thread-safe.
+     */
+    public void setFetchTrace(LongConsumer fetchTrace) {
+        this.fetchTrace = fetchTrace;
+    }
+
+    /**
+     * Sets how long a miss that finds every frame pinned waits for one to be unpinned
+     * (see above) before throwing IllegalStateException.
+     * @param timeoutMillis time to wait, in milliseconds, or 0 to fail without waiting
+     */
+    public void setFrameWaitTimeout(long timeoutMillis) {
+        if (timeoutMillis < 0) {
+            throw new IllegalArgumentException("frame wait timeout cannot be negative");
+        }
+        this.frameWaitNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+    }
+
+    /**
+     * Sets the maximum number of pages read ahead of a sequential miss (see above).
+     * @param readAheadPages number of pages, or 0 to disable read-ahead
+     */
+    public void setReadAhead(int readAheadPages) {
+        if (readAheadPages < 0 || readAheadPages >= frames.length) {
+            throw new IllegalArgumentException("read-ahead must be between 0 and the number of frames");
+        }
+        this.readAheadPages = readAheadPages;
+    }
+
+    /**
+     * @return number of pages read ahead
+     */
+    public long getNumPagesReadAhead() {
+        return numPagesReadAhead.get();
+    }
+
+    /**
+     * @return number of pages read ahead that were fetched before being evicted
+     */
+    public long getNumReadAheadHits() {
+        return numReadAheadHits.get();
+    }
+
     @Override
     public Frame fetchPageFrame(long pageNum, boolean logPage) {
-        this.managerLock.lock();
-        Frame newFrame;
-        Frame evictedFrame;
-        // figure out what frame to load data to, and update manager state
-        try {
-            if (!this.diskSpaceManager.pageAllocated(pageNum)) {
-                throw new PageException("page " + pageNum + " not allocated");
+        LongConsumer trace = this.fetchTrace;
+        if (trace != null) {
+            trace.accept(pageNum);
+        }
+        while (true) {
+            Frame frame = this.pageToFrame.get(pageNum);
+            if (frame == null) {
+                frame = this.loadPage(pageNum, logPage);
+                if (frame != null) {
+                    return frame;
+                }
+            } else if (frame.tryPin()) {
+                if (frame.isValid()) {
+                    if (frame.readAhead != null && frame.readAhead.compareAndSet(true, false)) {
+                        this.numReadAheadHits.incrementAndGet();
+                    }
+                    return frame;
+                }
+                // page was freed after we looked it up; the retry will not find it
+                frame.unpin();
+            } else {
+                // frame is being evicted, and is removed from the page table once it has
+                // been written out
+                frame.awaitUnmapped();
+            }
+        }
+    }
+
+    /**
+     * Loads a page that was not in the page table into a frame, along with the pages
+     * after it if they are to be read ahead.
+     * @param pageNum page number
+     * @param logPage whether the page is for the log or not
+     * @return pinned frame with the page loaded, or null if another thread loaded the
+     * page in first (in which case the caller should look it up again)
+     */
+    private Frame loadPage(long pageNum, boolean logPage) {
+        if (!this.diskSpaceManager.pageAllocated(pageNum)) {
+            throw new PageException("page " + pageNum + " not allocated");
+        }
+        // frames are claimed (and evicted pages written out) before taking the stripe
+        // locks, since writing out an evicted page can require loading log pages
+        Frame[] newFrames = new Frame[1 + (logPage ? 0 : this.numPagesToReadAhead(pageNum))];
+        newFrames[0] = this.claimFrame(pageNum, logPage, true);
+        int numPages = 1;
+        while (numPages < newFrames.length) {
+            Frame frame = this.claimFrame(pageNum + numPages, false, false);
+            if (frame == null) {
+                break;
             }
+            newFrames[numPages++] = frame;
+        }
+
+        // stripe locks are taken in index order, so that loads of overlapping runs of
+        // pages cannot deadlock
+        SortedSet<Integer> stripes = new TreeSet<>();
+        for (int i = 0; i < numPages; ++i) {
+            stripes.add(stripeIndex(pageNum + i));
+        }
+        for (int stripe : stripes) {
+            this.stripeLocks[stripe].lock();
+        }
+        try {
             if (this.pageToFrame.containsKey(pageNum)) {
-                newFrame = this.frames[this.pageToFrame.get(pageNum)];
-                newFrame.pin();
-                return newFrame;
-            }
-            // prioritize free frames over eviction
-            if (this.firstFreeIndex < this.frames.length) {
-                evictedFrame = this.frames[this.firstFreeIndex];
-                evictedFrame.setUsed();
-            } else {
-                evictedFrame = (Frame) evictionPolicy.evict(frames);
-                this.pageToFrame.remove(evictedFrame.pageNum, evictedFrame.index);
-                evictionPolicy.cleanup(evictedFrame);
+                for (int i = 0; i < numPages; ++i) {
+                    this.releaseFrame(newFrames[i]);
+                }
+                return null;
+            }
+            // pages to be read ahead may have been loaded since we looked
+            int numToRead = 1;
+            while (numToRead < numPages && !this.pageToFrame.containsKey(pageNum + numToRead)) {
+                ++numToRead;
+            }
+            for (int i = numToRead; i < numPages; ++i) {
+                this.releaseFrame(newFrames[i]);
+            }
+            try {
+                if (numToRead == 1) {
+                    this.diskSpaceManager.readPage(pageNum, newFrames[0].contents);
+                } else {
+                    ByteBuffer[] bufs = new ByteBuffer[numToRead];
+                    for (int i = 0; i < numToRead; ++i) {
+                        bufs[i] = newFrames[i].contents;
+                    }
+                    this.diskSpaceManager.readPages(pageNum, numToRead, bufs);
+                }
+                this.numIOs.addAndGet(numToRead);
+            } catch (PageException e) {
+                for (int i = 0; i < numToRead; ++i) {
+                    this.releaseFrame(newFrames[i]);
+                }
+                throw e;
+            }
+            this.pageToFrame.put(pageNum, newFrames[0]);
+            for (int i = 1; i < numToRead; ++i) {
+                newFrames[i].readAhead = new AtomicBoolean(true);
+                this.pageToFrame.put(pageNum + i, newFrames[i]);
+                newFrames[i].unpin();
+            }
+            this.numPagesReadAhead.addAndGet(numToRead - 1);
+            return newFrames[0];
+        } finally {
+            for (int stripe : stripes) {
+                this.stripeLocks[stripe].unlock();
+            }
+        }
+    }
+
+    /**
+     * Decides how many of the pages after a page being read in are read ahead: none,
+     * unless the page follows the last page read in from its partition, and otherwise as
+     * many allocated pages that are not yet loaded as follow it, up to readAheadPages.
+     * @param pageNum page number of the data page being read in
+     * @return number of pages to read ahead
+     */
+    private int numPagesToReadAhead(long pageNum) {
+        int maxPages = this.readAheadPages;
+        if (maxPages == 0) {
+            return 0;
+        }
+        int partNum = DiskSpaceManager.getPartNum(pageNum);
+        Long nextPage = this.nextSequentialPage.put(partNum, pageNum + 1);
+        if (nextPage == null || nextPage != pageNum) {
+            return 0;
+        }
+        int numPages = 0;
+        while (numPages < maxPages) {
+            long nextPageNum = pageNum + numPages + 1;
+            if (DiskSpaceManager.getPartNum(nextPageNum) != partNum ||
+                    this.pageToFrame.containsKey(nextPageNum) ||
+                    !this.diskSpaceManager.pageAllocated(nextPageNum)) {
+                break;
+            }
+            ++numPages;
+        }
+        this.nextSequentialPage.put(partNum, pageNum + numPages + 1);
+        return numPages;
+    }
+
+    /**
+     * Picks a frame to load a page into, evicting a page if there are no free frames.
+     * The evicted page is written out (if dirty) before this returns. Waits if there
+     * is no free frame and none can be evicted (or the cleaner is to evict one), unless
+     * wait is false, for up to the frame wait timeout.
+     * @param pageNum page number of the page to be loaded
+     * @param logPage whether the page is for the log or not
+     * @param wait whether to wait for a frame rather than return null
+     * @return pinned frame for the page, not yet in the page table, or null if wait is
+     * false and there is no frame to use
+     * @throws IllegalStateException if no frame was released within the frame wait timeout
+     */
+    private Frame claimFrame(long pageNum, boolean logPage, boolean wait) {
+        Frame evictedFrame;
+        Frame newFrame;
+        long remainingWait = this.frameWaitNanos;
+        this.managerLock.lock();
+        try {
+            while (true) {
+                // prioritize free frames over eviction
+                if (this.firstFreeIndex < this.frames.length) {
+                    evictedFrame = this.frames[this.firstFreeIndex];
+                    evictedFrame.setUsed();
+                    --this.numFree;
+                    if (this.cleaner != null && this.numFree < this.cleanerLowWatermark) {
+                        this.cleaner.wake();
+                    }
+                    break;
+                }
+                // log pages are fetched while flushing the log, which the cleaner may be
+                // waiting on to write a page out, so they never wait for the cleaner
+                boolean waitForCleaner = this.cleaner != null && !logPage && !this.cleaner.isCleanerThread();
+                if (!wait) {
+                    evictedFrame = waitForCleaner ? null : this.chooseVictim();
+                    if (evictedFrame == null) {
+                        if (waitForCleaner) {
+                            this.cleaner.wake();
+                        }
+                        return null;
+                    }
+                    break;
+                }
+                // counted before looking at pin counts, so that an unpin after we looked
+                // sees us and signals
+                this.numWaiters.incrementAndGet();
+                try {
+                    if (waitForCleaner) {
+                        this.cleaner.wake();
+                    } else {
+                        evictedFrame = this.chooseVictim();
+                        if (evictedFrame != null) {
+                            break;
+                        }
+                    }
+                    if (remainingWait <= 0) {
+                        throw new IllegalStateException("cannot evict - everything pinned");
+                    }
+                    try {
+                        remainingWait = this.frameReleased.awaitNanos(remainingWait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IllegalStateException("interrupted while waiting for a frame", e);
+                    }
+                } finally {
+                    this.numWaiters.decrementAndGet();
+                }
             }
             int frameIndex = evictedFrame.index;
             newFrame = this.frames[frameIndex] = new Frame(evictedFrame.contents, frameIndex, pageNum, logPage);
+            newFrame.pin();
             evictionPolicy.init(newFrame);
-
-            evictedFrame.frameLock.lock();
-            newFrame.frameLock.lock();
-
-            this.pageToFrame.put(pageNum, frameIndex);
         } finally {
             this.managerLock.unlock();
         }
-        // flush evicted frame
+        // the evicted page stays in the page table until it has been written out, so that
+        // it cannot be read back in from disk before then
+        evictedFrame.invalidate();
+        this.unmapSealed(evictedFrame);
+        return newFrame;
+    }
+
+    /**
+     * Removes a sealed frame from the page table, waking up fetches of its page that
+     * were waiting for it to go.
+     * @param frame sealed frame, already invalidated
+     */
+    private void unmapSealed(Frame frame) {
+        this.pageToFrame.remove(frame.pageNum, frame);
+        frame.unmapped.countDown();
+    }
+
+    /**
+     * Picks an unpinned page to evict with the eviction policy, and seals its frame.
+     * managerLock must be held.
+     * @return sealed frame, or null if every frame is pinned (or free)
+     */
+    private Frame chooseVictim() {
+        // the cleaner evicts while there are free frames, which some policies (clock) may
+        // pick; a frame can also be pinned between the policy choosing it and us sealing it
+        for (int i = 0; i < 2 * frames.length; ++i) {
+            Frame victim;
+            try {
+                victim = (Frame) evictionPolicy.evict(frames);
+            } catch (IllegalStateException e) {
+                // everything pinned
+                return null;
+            }
+            if (victim.isValid() && victim.trySeal()) {
+                evictionPolicy.cleanup(victim);
+                return victim;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes out (if dirty) the page of a sealed frame, and puts the frame on the free list.
+     * @param frame sealed frame, already cleaned up in the eviction policy
+     */
+    private void freeEvicted(Frame frame) {
+        int frameIndex = frame.index;
+        ByteBuffer contents = frame.contents;
+        frame.invalidate();
+        this.unmapSealed(frame);
+
+        managerLock.lock();
         try {
-            evictedFrame.invalidate();
+            frames[frameIndex] = new Frame(contents, this.firstFreeIndex, false);
+            this.firstFreeIndex = frameIndex;
+            this.frameFreed();
         } finally {
-            evictedFrame.frameLock.unlock();
+            managerLock.unlock();
         }
-        // read new page into frame
+    }
+
+    /**
+     * Called after a frame is put on the free list. managerLock must be held.
+     */
+    private void frameFreed() {
+        ++this.numFree;
+        this.frameReleased.signalAll();
+    }
+
+    /**
+     * Returns a frame obtained from claimFrame to the free list.
+     * @param frame frame to release
+     */
+    private void releaseFrame(Frame frame) {
+        this.managerLock.lock();
         try {
-            newFrame.pageNum = pageNum;
-            newFrame.pin();
-            BufferManagerImpl.this.diskSpaceManager.readPage(pageNum, newFrame.contents);
-            this.incrementIOs();
-            return newFrame;
-        } catch (PageException e) {
-            newFrame.unpin();
-            throw e;
+            int frameIndex = frame.index;
+            evictionPolicy.cleanup(frame);
+            this.frames[frameIndex] = new Frame(frame.contents, this.firstFreeIndex, false);
+            this.firstFreeIndex = frameIndex;
+            this.frameFreed();
+            frame.index = Frame.INVALID_INDEX;
+            frame.contents = null;
         } finally {
-            newFrame.frameLock.unlock();
+            this.managerLock.unlock();
         }
     }
 
@@ -435,12 +992,7 @@ public class BufferManagerImpl implements BufferManager {
     @Override
     public Frame fetchNewPageFrame(int partNum, boolean logPage) {
         long pageNum = this.diskSpaceManager.allocPage(partNum);
-        this.managerLock.lock();
-        try {
-            return fetchPageFrame(pageNum, logPage);
-        } finally {
-            this.managerLock.unlock();
-        }
+        return fetchPageFrame(pageNum, logPage);
     }
 
     @Override
@@ -453,11 +1005,11 @@ public class BufferManagerImpl implements BufferManager {
     public void freePage(Page page) {
         this.managerLock.lock();
         try {
-            int frameIndex = this.pageToFrame.get(page.getPageNum());
-            Frame frame = this.frames[frameIndex];
-            this.pageToFrame.remove(page.getPageNum(), frameIndex);
+            Frame frame = this.pageToFrame.remove(page.getPageNum());
+            int frameIndex = frame.index;
             evictionPolicy.cleanup(frame);
             frame.setFree();
+            this.frameFreed();
 
             this.frames[frameIndex] = new Frame(frame);
             diskSpaceManager.freePage(page.getPageNum());
@@ -472,15 +1024,17 @@ public class BufferManagerImpl implements BufferManager {
         try {
             for (int i = 0; i < frames.length; ++i) {
                 Frame frame = frames[i];
-                if (DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
-                    this.pageToFrame.remove(frame.getPageNum(), i);
+                if (frame.isValid() && DiskSpaceManager.getPartNum(frame.pageNum) == partNum) {
+                    this.pageToFrame.remove(frame.getPageNum(), frame);
                     evictionPolicy.cleanup(frame);
                     frame.setFree();
+                    this.frameFreed();
 
                     frames[i] = new Frame(frame);
                 }
             }
 
+            this.nextSequentialPage.remove(partNum);
             diskSpaceManager.freePart(partNum);
         } finally {
             this.managerLock.unlock();
@@ -489,45 +1043,49 @@ public class BufferManagerImpl implements BufferManager {
 
     @Override
     public void evict(long pageNum) {
-        managerLock.lock();
-        try {
-            if (!pageToFrame.containsKey(pageNum)) {
-                return;
-            }
-            evict(pageToFrame.get(pageNum));
-        } finally {
-            managerLock.unlock();
+        Frame frame = pageToFrame.get(pageNum);
+        if (frame != null) {
+            evict(frame);
         }
     }
 
-    private void evict(int i) {
-        Frame frame = frames[i];
-        frame.frameLock.lock();
+    private void evict(Frame frame) {
+        managerLock.lock();
         try {
-            if (frame.isValid() && !frame.isPinned()) {
-                this.pageToFrame.remove(frame.pageNum, frame.index);
-                evictionPolicy.cleanup(frame);
-
-                frames[i] = new Frame(frame.contents, this.firstFreeIndex, false);
-                this.firstFreeIndex = i;
-
-                frame.invalidate();
+            if (!frame.isValid() || !frame.trySeal()) {
+                return;
             }
+            evictionPolicy.cleanup(frame);
         } finally {
-            frame.frameLock.unlock();
+            managerLock.unlock();
         }
+        this.freeEvicted(frame);
     }
 
     @Override
     public void evictAll() {
         for (int i = 0; i < frames.length; ++i) {
-            evict(i);
+            Frame frame;
+            managerLock.lock();
+            try {
+                frame = frames[i];
+            } finally {
+                managerLock.unlock();
+            }
+            evict(frame);
         }
     }
 
     @Override
     public void iterPageNums(BiConsumer<Long, Boolean> process) {
-        for (Frame frame : frames) {
+        Frame[] snapshot;
+        managerLock.lock();
+        try {
+            snapshot = frames.clone();
+        } finally {
+            managerLock.unlock();
+        }
+        for (Frame frame : snapshot) {
             frame.frameLock.lock();
             try {
                 if (frame.isValid()) {
@@ -539,13 +1097,46 @@ public class BufferManagerImpl implements BufferManager {
         }
     }
 
+    @Override
+    public int writeColdPages(int maxPages) {
+        int numWritten = 0;
+        writerLock.lock();
+        try {
+            for (int i = 0; i < frames.length && numWritten < maxPages; ++i) {
+                Frame frame = frames[writerHand];
+                writerHand = (writerHand + 1) % frames.length;
+                if (!frame.isValid() || frame.logPage || !frame.dirty || frame.isPinned()) {
+                    continue;
+                }
+                if (frame.referenced) {
+                    // second chance: written on the next pass if it is not used again
+                    frame.referenced = false;
+                    continue;
+                }
+                frame.writeBack();
+                ++numWritten;
+            }
+        } finally {
+            writerLock.unlock();
+        }
+        return numWritten;
+    }
+
     @Override
     public long getNumIOs() {
-        return numIOs;
+        return numIOs.get();
     }
 
     private void incrementIOs() {
-        ++numIOs;
+        numIOs.incrementAndGet();
+    }
+
+    /**
+     * @param pageNum page number
+     * @return index of the stripe lock that loads of the page are done under
+     */
+    private static int stripeIndex(long pageNum) {
+        return Long.hashCode(pageNum) & (NUM_STRIPES - 1);
     }
 
     /**
@@ -0,0 +1,64 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.common.PeriodicThread;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background free-frame cleaner. Every round, the cleaner evicts pages chosen by the
+ * eviction policy (writing them out first, if dirty) until the buffer manager has its low
+ * watermark of free frames (see BufferManagerImpl#cleanFrames), so that misses find a free
+ * frame and do not write anything out themselves. A round runs every roundMillis, and
+ * whenever a miss takes the number of free frames below the watermark. Failed rounds are
+ * counted, and the last failure is rethrown when the cleaner is closed (see PeriodicThread).
+ */
+class FrameCleaner implements AutoCloseable {
+    private BufferManagerImpl bufferManager;
+
+    private PeriodicThread cleanerThread;
+
+    private AtomicLong numFramesCleaned = new AtomicLong();
+
+    /**
+     * @param bufferManager buffer manager to clean frames of
+     * @param roundMillis time between rounds when not woken up
+     */
+    FrameCleaner(BufferManagerImpl bufferManager, long roundMillis) {
+        this.bufferManager = bufferManager;
+        this.cleanerThread = new PeriodicThread("frame-cleaner", roundMillis, this::round);
+    }
+
+    /**
+     * Starts a round now, if one is not running.
+     */
+    void wake() {
+        cleanerThread.wake();
+    }
+
+    /**
+     * @return whether the calling thread is the cleaner thread
+     */
+    boolean isCleanerThread() {
+        return cleanerThread.isCurrentThread();
+    }
+
+    /**
+     * @return number of frames freed by the cleaner
+     */
+    long getNumFramesCleaned() {
+        return numFramesCleaned.get();
+    }
+
+    /**
+     * Stops the cleaner thread, waiting for the current round to finish.
+     * @throws IllegalStateException if any round failed, with the last failure as its cause
+     */
+    @Override
+    public void close() {
+        cleanerThread.close();
+    }
+
+    private void round() {
+        numFramesCleaned.addAndGet(bufferManager.cleanFrames());
+    }
+}
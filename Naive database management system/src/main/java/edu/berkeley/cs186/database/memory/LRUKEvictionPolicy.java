@@ -0,0 +1,195 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Implementation of the LRU-K eviction policy (O'Neil et al.), which evicts the page whose
+ * K-th most recent reference is oldest, so that pages referenced once (e.g. by a scan) are
+ * evicted before pages referenced repeatedly. Pages with fewer than K references have an
+ * infinite backward K-distance, and are evicted first, least recently used first.
+ *
+ * References to a page within correlatedReferencePeriod of its last reference (in
+ * ReferenceClock time) are correlated, and only update the time of its last reference; a
+ * page is not evicted within that period of its last reference unless nothing else can be.
+ * The reference history of evicted pages is retained (for as many pages as there are
+ * frames), and restored if they are read back in.
+ *
+ * Resident pages are kept ordered by backward K-distance, so that evict only looks past
+ * the pages that are pinned or within their correlated reference period, rather than at
+ * every frame.
+ *
+ * All methods are synchronized, since hit is called without the buffer manager's lock.
+ */
+public class LRUKEvictionPolicy implements EvictionPolicy {
+    private final int k;
+    private final long correlatedReferencePeriod;
+    private ReferenceClock clock = new ReferenceClock();
+    // Tie-breaker between tags with the same history
+    private long nextTagId = 0;
+
+    // Tags of resident pages, greatest backward K-distance first
+    private NavigableSet<Tag> resident;
+    // Reference history of evicted pages, by page number, least recently evicted first
+    private Map<Long, Tag> retained = new LinkedHashMap<>();
+    // Number of frames, as of the last call to evict
+    private int capacity = 0;
+
+    private class Tag {
+        final long id = nextTagId++;
+        // Times of the last k uncorrelated references, most recent first; 0 if fewer
+        long[] history = new long[k];
+        // Time of the last reference
+        long last = 0;
+        // Resident frame holding the page, or null if the page was evicted
+        BufferFrame frame = null;
+        // Whether evict returned the frame since it was last hit, in which case the
+        // history is retained on cleanup
+        boolean evicting = false;
+    }
+
+    /**
+     * LRU-2 where only repeated references to the same page, with no reference to
+     * another page in between, are correlated.
+     */
+    public LRUKEvictionPolicy() {
+        this(2, 0);
+    }
+
+    /**
+     * @param k number of references considered
+     * @param correlatedReferencePeriod number of references to other pages within which
+     *                                  a reference to a page is correlated with its last one
+     */
+    public LRUKEvictionPolicy(int k, long correlatedReferencePeriod) {
+        if (k < 1) {
+            throw new IllegalArgumentException("k must be at least 1");
+        }
+        this.k = k;
+        this.correlatedReferencePeriod = correlatedReferencePeriod;
+        this.resident = new TreeSet<>(Comparator.<Tag>comparingLong(tag -> tag.history[k - 1])
+                                       .thenComparingLong(tag -> tag.history[0])
+                                       .thenComparingLong(tag -> tag.id));
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        Tag tag = retained.remove(frame.getPageNum());
+        if (tag == null) {
+            tag = new Tag();
+        }
+        tag.frame = frame;
+        frame.tag = tag;
+        reference(tag, clock.reference(frame));
+        resident.add(tag);
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        if (!(frame.tag instanceof Tag)) {
+            return;
+        }
+        Tag tag = (Tag) frame.tag;
+        // the frame was pinned after evict returned it, so it is not being evicted
+        tag.evicting = false;
+        long now = clock.reference(frame);
+        if (isCorrelated(tag, now)) {
+            tag.last = now;
+            return;
+        }
+        resident.remove(tag);
+        reference(tag, now);
+        resident.add(tag);
+    }
+
+    private boolean isCorrelated(Tag tag, long now) {
+        return tag.history[0] != 0 && now - tag.last <= correlatedReferencePeriod;
+    }
+
+    /**
+     * Records a reference at time NOW in TAG, which must not be in resident while its
+     * history changes.
+     */
+    private void reference(Tag tag, long now) {
+        if (isCorrelated(tag, now)) {
+            tag.last = now;
+            return;
+        }
+        // the correlated period of the previous reference collapses into it
+        long correlation = tag.last - tag.history[0];
+        for (int i = k - 1; i > 0; --i) {
+            tag.history[i] = tag.history[i - 1] == 0 ? 0 : tag.history[i - 1] + correlation;
+        }
+        tag.history[0] = now;
+        tag.last = now;
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        long now = clock.now();
+        // oldest page within its correlated reference period, evicted if nothing else can be
+        Tag correlated = null;
+        Tag victim = null;
+        for (Tag tag : resident) {
+            if (tag.frame.isPinned()) {
+                continue;
+            }
+            if (now - tag.last > correlatedReferencePeriod) {
+                victim = tag;
+                break;
+            }
+            if (correlated == null) {
+                correlated = tag;
+            }
+        }
+        if (victim == null) {
+            victim = correlated;
+        }
+        if (victim == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        victim.evicting = true;
+        return victim.frame;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        if (frame.tag instanceof Tag) {
+            Tag tag = (Tag) frame.tag;
+            resident.remove(tag);
+            tag.frame = null;
+            if (tag.evicting) {
+                tag.evicting = false;
+                retained.put(frame.getPageNum(), tag);
+                while (retained.size() > capacity) {
+                    retained.remove(retained.keySet().iterator().next());
+                }
+            }
+        }
+        frame.tag = null;
+    }
+}
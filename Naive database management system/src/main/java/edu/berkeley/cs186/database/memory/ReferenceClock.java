@@ -0,0 +1,33 @@
+package edu.berkeley.cs186.database.memory;
+
+/**
+ * Logical clock for eviction policies that tell correlated references apart. Every
+ * access to a page's contents calls EvictionPolicy#hit, so reading the records of one
+ * page is a burst of hits on its frame: the clock only advances when a frame other than
+ * the last one referenced is referenced, so that such a burst counts as one reference.
+ *
+ * Not thread-safe; callers synchronize.
+ */
+class ReferenceClock {
+    private long time = 0;
+    private BufferFrame lastFrame = null;
+
+    /**
+     * Records a reference to FRAME.
+     * @return time of the reference
+     */
+    long reference(BufferFrame frame) {
+        if (frame != lastFrame) {
+            ++time;
+            lastFrame = frame;
+        }
+        return time;
+    }
+
+    /**
+     * @return time of the latest reference
+     */
+    long now() {
+        return time;
+    }
+}
@@ -0,0 +1,147 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Implementation of the (full) 2Q eviction policy (Johnson and Shasha). Pages read in go
+ * to A1in, a FIFO queue in which hits are ignored, so that a page referenced only by a
+ * burst of correlated references (e.g. a scan) leaves the buffer without displacing
+ * anything else. Pages evicted from A1in are remembered, by page number, in A1out; a page
+ * read in again while in A1out goes to Am, an LRU list of the pages that are used
+ * repeatedly.
+ *
+ * Pages are evicted from A1in while it holds more than inFraction of the frames, and from
+ * Am otherwise; A1out remembers as many pages as outFraction of the frames.
+ *
+ * All methods are synchronized, since hit is called without the buffer manager's lock.
+ */
+public class TwoQEvictionPolicy implements EvictionPolicy {
+    private final double inFraction;
+    private final double outFraction;
+
+    // Frames in A1in, in order of being read in
+    private Set<BufferFrame> a1in = new LinkedHashSet<>();
+    // Frames in Am, least recently used first
+    private Set<BufferFrame> am = new LinkedHashSet<>();
+    // Page numbers of pages evicted from A1in, least recently evicted first
+    private Set<Long> a1out = new LinkedHashSet<>();
+
+    // Number of frames, as of the last call to evict
+    private int capacity = 0;
+    // Frames returned by evict and not hit since, whose pages are remembered in A1out
+    // on cleanup
+    private Set<BufferFrame> evicting = new HashSet<>();
+
+    /**
+     * 2Q with the sizes recommended by the paper: A1in is a quarter of the frames, and
+     * A1out remembers half as many pages as there are frames.
+     */
+    public TwoQEvictionPolicy() {
+        this(0.25, 0.5);
+    }
+
+    /**
+     * @param inFraction fraction of the frames A1in holds before pages are evicted from it
+     * @param outFraction number of pages remembered in A1out, as a fraction of the frames
+     */
+    public TwoQEvictionPolicy(double inFraction, double outFraction) {
+        if (inFraction <= 0 || inFraction > 1 || outFraction < 0) {
+            throw new IllegalArgumentException("invalid 2Q queue sizes");
+        }
+        this.inFraction = inFraction;
+        this.outFraction = outFraction;
+    }
+
+    /**
+     * Called to initiaize a new buffer frame.
+     * @param frame new frame to be initialized
+     */
+    @Override
+    public synchronized void init(BufferFrame frame) {
+        if (a1out.remove(frame.getPageNum())) {
+            am.add(frame);
+            frame.tag = am;
+        } else {
+            a1in.add(frame);
+            frame.tag = a1in;
+        }
+    }
+
+    /**
+     * Called when a frame is hit.
+     * @param frame Frame object that is being read from/written to
+     */
+    @Override
+    public synchronized void hit(BufferFrame frame) {
+        // the frame was pinned after evict returned it, so it is not being evicted
+        evicting.remove(frame);
+        if (frame.tag == am) {
+            am.remove(frame);
+            am.add(frame);
+        }
+    }
+
+    /**
+     * Called when a frame needs to be evicted.
+     * @param frames Array of all frames (same length every call)
+     * @return index of frame to be evicted
+     * @throws IllegalStateException if everything is pinned
+     */
+    @Override
+    public synchronized BufferFrame evict(BufferFrame[] frames) {
+        this.capacity = frames.length;
+        BufferFrame victim = null;
+        if (a1in.size() > Math.max(1, (int) (capacity * inFraction))) {
+            victim = firstUnpinned(a1in);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(am);
+        }
+        if (victim == null) {
+            victim = firstUnpinned(a1in);
+        }
+        if (victim == null) {
+            throw new IllegalStateException("cannot evict anything - everything pinned");
+        }
+        evicting.add(victim);
+        return victim;
+    }
+
+    private static BufferFrame firstUnpinned(Set<BufferFrame> queue) {
+        for (BufferFrame frame : queue) {
+            if (!frame.isPinned()) {
+                return frame;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Called when a frame is removed, either because it
+     * was returned from a call to evict, or because of other constraints
+     * (e.g. if the page is deleted on disk).
+     * @param frame frame being removed
+     */
+    @Override
+    public synchronized void cleanup(BufferFrame frame) {
+        boolean evicted = evicting.remove(frame);
+        if (frame.tag == a1in) {
+            a1in.remove(frame);
+            if (evicted) {
+                a1out.add(frame.getPageNum());
+                int maxOut = (int) (capacity * outFraction);
+                Iterator<Long> oldest = a1out.iterator();
+                while (a1out.size() > maxOut) {
+                    oldest.next();
+                    oldest.remove();
+                }
+            }
+        } else if (frame.tag == am) {
+            am.remove(frame);
+        }
+        frame.tag = null;
+    }
+}
@@ -0,0 +1,343 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.memory.Page;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * Grace hash join. Both inputs are hash partitioned on the join column into temp
+ * tables, and then each pair of matching partitions is joined by building an in-memory
+ * hash table on the smaller partition and probing it with the records of the other.
+ * A table being written to keeps two pages in the buffer (its header page and the data
+ * page being filled), so partitioning with numBuffers pages yields (numBuffers - 1) / 2
+ * partitions rather than numBuffers - 1.
+ *
+ * A pair whose smaller partition does not fit in numBuffers - 2 pages is partitioned
+ * again, with a different hash function. If that would not split the pair up (e.g. all
+ * its records have the same key), the pair is instead joined numBuffers - 2 pages of
+ * the smaller partition at a time, as in a block nested loop join.
+ */
+class GraceHashJoinOperator extends JoinOperator {
+    protected int numBuffers;
+
+    GraceHashJoinOperator(QueryOperator leftSource,
+                          QueryOperator rightSource,
+                          String leftColumnName,
+                          String rightColumnName,
+                          TransactionContext transaction) {
+        this(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.GRACEHASH);
+    }
+
+    protected GraceHashJoinOperator(QueryOperator leftSource,
+                                    QueryOperator rightSource,
+                                    String leftColumnName,
+                                    String rightColumnName,
+                                    TransactionContext transaction,
+                                    JoinType joinType) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, joinType);
+
+        this.numBuffers = transaction.getWorkMemSize();
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new GraceHashJoinIterator();
+    }
+
+    /**
+     * Each partitioning pass reads and writes both inputs, and the final pass reads
+     * them once more: 3(M + N) I/Os when one pass makes the partitions of the smaller
+     * input fit in memory.
+     */
+    @Override
+    public int estimateIOCost() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numRightPages = getRightSource().getStats().getNumPages();
+        int numPasses = Math.max(1, numPartitioningPasses(Math.min(numLeftPages, numRightPages)));
+        return (2 * numPasses + 1) * (numLeftPages + numRightPages);
+    }
+
+    /**
+     * Number of partitions the inputs are split into by each partitioning pass.
+     */
+    int numPartitions() {
+        return Math.max(2, (numBuffers - 1) / 2);
+    }
+
+    /**
+     * Number of pages of a partition that can be joined with one in-memory hash table.
+     */
+    int numBuildPages() {
+        return Math.max(1, numBuffers - 2);
+    }
+
+    /**
+     * Number of partitioning passes needed until the partitions of a numPages-page
+     * input fit in memory.
+     */
+    int numPartitioningPasses(double numPages) {
+        int numPasses = 0;
+        while (numPages > numBuildPages()) {
+            numPages /= numPartitions();
+            ++numPasses;
+        }
+        return numPasses;
+    }
+
+    /**
+     * A pair of partitions (temp tables) of the left and right inputs to be joined.
+     */
+    protected static class Partition {
+        private String leftTableName;
+        private String rightTableName;
+        private int pass;
+        // Number of records of the pair this pair was partitioned from
+        private long parentNumRecords;
+
+        protected Partition(String leftTableName, String rightTableName, int pass, long parentNumRecords) {
+            this.leftTableName = leftTableName;
+            this.rightTableName = rightTableName;
+            this.pass = pass;
+            this.parentNumRecords = parentNumRecords;
+        }
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     * Partitions are joined (or partitioned again) one pair at a time, as the records of
+     * the pairs before them are consumed.
+     */
+    protected class GraceHashJoinIterator extends JoinIterator {
+        // Partition pairs not yet joined
+        protected Deque<Partition> partitions;
+        // Joined records of the partition pair being joined
+        private Iterator<Record> joinedRecords;
+
+        protected GraceHashJoinIterator() {
+            super();
+            this.partitions = new ArrayDeque<>();
+            this.joinedRecords = this.start();
+        }
+
+        /**
+         * Starts the join of the left and right tables.
+         *
+         * @return joined records to return before the queued partition pairs are joined
+         */
+        protected Iterator<Record> start() {
+            String leftTableName = this.getLeftTableName();
+            String rightTableName = this.getRightTableName();
+            this.partition(new Partition(leftTableName, rightTableName, 0, Long.MAX_VALUE));
+            return Collections.emptyIterator();
+        }
+
+        /**
+         * Hash partitions both tables of a pair, and queues the resulting pairs of
+         * partitions in which neither is empty.
+         */
+        private void partition(Partition pair) {
+            long numRecords = numRecords(pair);
+            String[] leftPartitions = this.partitionTable(pair.leftTableName,
+                                      getLeftSource().getOutputSchema(), getLeftColumnIndex(), pair.pass);
+            String[] rightPartitions = this.partitionTable(pair.rightTableName,
+                                       getRightSource().getOutputSchema(), getRightColumnIndex(), pair.pass);
+            for (int i = 0; i < leftPartitions.length; ++i) {
+                if (leftPartitions[i] != null && rightPartitions[i] != null) {
+                    this.partitions.push(new Partition(leftPartitions[i], rightPartitions[i], pair.pass + 1,
+                                                       numRecords));
+                }
+            }
+        }
+
+        /**
+         * Hash partitions the records of a table on the given column into new temp tables.
+         *
+         * @return names of the partitions' temp tables, null for empty partitions
+         */
+        private String[] partitionTable(String tableName, Schema schema, int columnIndex, int pass) {
+            String[] partitionTableNames = new String[numPartitions()];
+            Iterator<Record> records = getRecordIterator(tableName);
+            while (records.hasNext()) {
+                List<DataBox> values = records.next().getValues();
+                int partition = hashPartition(values.get(columnIndex), pass, partitionTableNames.length);
+                if (partitionTableNames[partition] == null) {
+                    partitionTableNames[partition] = createTempTable(schema);
+                }
+                addRecord(partitionTableNames[partition], values);
+            }
+            return partitionTableNames;
+        }
+
+        private long numRecords(Partition pair) {
+            return getTransaction().getNumRecords(pair.leftTableName) +
+                   getTransaction().getNumRecords(pair.rightTableName);
+        }
+
+        /**
+         * Joins a pair of partitions, or partitions it again if it is too large.
+         *
+         * @return joined records of the pair
+         */
+        private Iterator<Record> join(Partition pair) {
+            int numLeftPages = getTransaction().getNumDataPages(pair.leftTableName);
+            int numRightPages = getTransaction().getNumDataPages(pair.rightTableName);
+            if (Math.min(numLeftPages, numRightPages) > numBuildPages() &&
+                    numRecords(pair) < pair.parentNumRecords) {
+                this.partition(pair);
+                return Collections.emptyIterator();
+            }
+            return new BlockHashJoinIterator(pair.leftTableName, pair.rightTableName,
+                                             numLeftPages <= numRightPages);
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            while (!this.joinedRecords.hasNext() && !this.partitions.isEmpty()) {
+                this.joinedRecords = this.join(this.partitions.pop());
+            }
+            return this.joinedRecords.hasNext();
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.joinedRecords.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Builds an in-memory hash table on the join column of records.
+     */
+    protected Map<DataBox, List<Record>> buildHashTable(Iterator<Record> records, int columnIndex) {
+        Map<DataBox, List<Record>> hashTable = new HashMap<>();
+        while (records.hasNext()) {
+            Record record = records.next();
+            hashTable.computeIfAbsent(record.getValues().get(columnIndex), k -> new ArrayList<>()).add(record);
+        }
+        return hashTable;
+    }
+
+    /**
+     * Iterator over the records joined by probing an in-memory hash table with a
+     * sequence of records.
+     */
+    protected class HashProbeIterator implements Iterator<Record> {
+        private Map<DataBox, List<Record>> hashTable;
+        private boolean buildIsLeft;
+        private Iterator<Record> probeRecords;
+        private Record probeRecord;
+        private Iterator<Record> matches;
+
+        /**
+         * @param hashTable hash table built on the join column
+         * @param buildIsLeft whether the hash table holds left records (and the probe
+         *                    records are right records), or the other way around
+         * @param probeRecords records to probe with
+         */
+        protected HashProbeIterator(Map<DataBox, List<Record>> hashTable, boolean buildIsLeft,
+                                    Iterator<Record> probeRecords) {
+            this.hashTable = hashTable;
+            this.buildIsLeft = buildIsLeft;
+            this.probeRecords = probeRecords;
+            this.matches = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            int probeColumnIndex = this.buildIsLeft ? getRightColumnIndex() : getLeftColumnIndex();
+            while (!this.matches.hasNext()) {
+                if (!this.probeRecords.hasNext()) {
+                    return false;
+                }
+                this.probeRecord = this.probeRecords.next();
+                List<Record> buildRecords = this.hashTable.get(this.probeRecord.getValues().get(probeColumnIndex));
+                if (buildRecords != null) {
+                    this.matches = buildRecords.iterator();
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Record buildRecord = this.matches.next();
+            return this.buildIsLeft ? joinRecords(buildRecord, this.probeRecord) :
+                   joinRecords(this.probeRecord, buildRecord);
+        }
+    }
+
+    /**
+     * Iterator over the joined records of two tables, building an in-memory hash table
+     * on numBuildPages() pages of one table at a time and probing it with all of the
+     * other table.
+     */
+    private class BlockHashJoinIterator implements Iterator<Record> {
+        private String buildTableName;
+        private String probeTableName;
+        private boolean buildIsLeft;
+        private Iterator<Page> buildPages;
+        private Iterator<Record> joinedRecords;
+
+        private BlockHashJoinIterator(String leftTableName, String rightTableName, boolean buildIsLeft) {
+            this.buildTableName = buildIsLeft ? leftTableName : rightTableName;
+            this.probeTableName = buildIsLeft ? rightTableName : leftTableName;
+            this.buildIsLeft = buildIsLeft;
+            this.buildPages = getPageIterator(this.buildTableName);
+            this.joinedRecords = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.joinedRecords.hasNext() && this.buildPages.hasNext()) {
+                Iterator<Record> block = getBlockIterator(this.buildTableName, this.buildPages, numBuildPages());
+                Map<DataBox, List<Record>> hashTable = buildHashTable(block,
+                                                       this.buildIsLeft ? getLeftColumnIndex() : getRightColumnIndex());
+                this.joinedRecords = new HashProbeIterator(hashTable, this.buildIsLeft,
+                        getRecordIterator(this.probeTableName));
+            }
+            return this.joinedRecords.hasNext();
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.joinedRecords.next();
+        }
+    }
+
+    private static Record joinRecords(Record leftRecord, Record rightRecord) {
+        List<DataBox> values = new ArrayList<>(leftRecord.getValues());
+        values.addAll(rightRecord.getValues());
+        return new Record(values);
+    }
+}
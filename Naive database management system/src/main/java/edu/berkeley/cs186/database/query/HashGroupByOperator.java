@@ -0,0 +1,352 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.databox.TypeId;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.stats.Histogram;
+import edu.berkeley.cs186.database.table.stats.TableStats;
+
+/**
+ * Operator that groups the records of its source on one column and computes the
+ * COUNT(*), SUM, and AVG aggregates of each group, producing one record per group:
+ * the projected columns (which must all be the group by column) followed by
+ * countAgg, sumAgg, and averageAgg, in that order, for the aggregates requested. This
+ * is the same output as a GroupByOperator followed by an aggregating ProjectOperator,
+ * but without materializing any group.
+ *
+ * Running aggregates are kept in an in-memory hash table keyed on the group by
+ * value, sized to fit in the operator's share of the work memory. Once the table is
+ * full, records of groups that are not already in it are hash partitioned into temp
+ * tables, which are then aggregated in the same way (with a different hash function)
+ * after the groups in memory have been returned. Every pass finishes at least one
+ * group, so this terminates even if the partitioning is skewed.
+ */
+class HashGroupByOperator extends QueryOperator {
+    private TransactionContext transaction;
+    private String groupByColumn;
+    private int groupByColumnIndex;
+    private List<String> columns;
+    private boolean hasCount;
+    private String sumColumn;
+    private int sumColumnIndex;
+    private boolean sumIsFloat;
+    private String averageColumn;
+    private int averageColumnIndex;
+    private boolean averageIsFloat;
+
+    // Number of buffer pages the operator may use, split between one input page, one
+    // output page per spill partition, and the hash table
+    private int numBuffers;
+    private int numPartitions;
+    private int maxGroups;
+
+    /**
+     * Creates a new HashGroupByOperator that pulls from source, groups by groupByColumn,
+     * and computes the given aggregates of each group.
+     *
+     * @param source the source operator of this operator
+     * @param transaction the transaction containing this operator
+     * @param groupByColumn the column to group on
+     * @param columns the columns to project; each must be groupByColumn
+     * @param count whether to compute COUNT(*)
+     * @param averageColumn the column to average, or null
+     * @param sumColumn the column to sum, or null
+     */
+    HashGroupByOperator(QueryOperator source,
+                        TransactionContext transaction,
+                        String groupByColumn,
+                        List<String> columns,
+                        boolean count,
+                        String averageColumn,
+                        String sumColumn) {
+        super(OperatorType.GROUPBY);
+        this.transaction = transaction;
+        this.groupByColumn = groupByColumn;
+        this.columns = new ArrayList<>(columns);
+        this.hasCount = count;
+        this.averageColumn = averageColumn;
+        this.averageColumnIndex = -1;
+        this.sumColumn = sumColumn;
+        this.sumColumnIndex = -1;
+
+        this.setSource(source);
+
+        this.numBuffers = transaction.getWorkMemSize();
+        this.numPartitions = Math.max(1, (this.numBuffers - 1) / 2);
+        int tablePages = Math.max(1, this.numBuffers - 1 - this.numPartitions);
+        this.maxGroups = tablePages * Math.max(1, BufferManager.EFFECTIVE_PAGE_SIZE / this.groupSizeInBytes());
+
+        this.stats = this.estimateStats();
+        this.cost = this.estimateIOCost();
+    }
+
+    @Override
+    public boolean isGroupBy() {
+        return true;
+    }
+
+    @Override
+    protected Schema computeSchema() {
+        Schema sourceSchema = this.getSource().getOutputSchema();
+        List<String> sourceColumnNames = sourceSchema.getFieldNames();
+        List<Type> sourceColumnTypes = sourceSchema.getFieldTypes();
+
+        this.groupByColumn = this.checkSchemaForColumn(sourceSchema, this.groupByColumn);
+        this.groupByColumnIndex = sourceColumnNames.indexOf(this.groupByColumn);
+
+        List<String> outputColumns = new ArrayList<>();
+        List<Type> outputTypes = new ArrayList<>();
+        for (String columnName : this.columns) {
+            if (!this.checkSchemaForColumn(sourceSchema, columnName).equals(this.groupByColumn)) {
+                throw new QueryPlanException("Can only project columns specified in the GROUP BY clause.");
+            }
+            outputColumns.add(columnName);
+            outputTypes.add(sourceColumnTypes.get(this.groupByColumnIndex));
+        }
+        if (this.hasCount) {
+            outputColumns.add("countAgg");
+            outputTypes.add(Type.intType());
+        }
+        if (this.sumColumn != null) {
+            this.sumColumn = this.checkSchemaForColumn(sourceSchema, this.sumColumn);
+            this.sumColumnIndex = sourceColumnNames.indexOf(this.sumColumn);
+            this.sumIsFloat = this.isFloatColumn(sourceColumnTypes.get(this.sumColumnIndex), this.sumColumn);
+            outputColumns.add("sumAgg");
+            outputTypes.add(this.sumIsFloat ? Type.floatType() : Type.intType());
+        }
+        if (this.averageColumn != null) {
+            this.averageColumn = this.checkSchemaForColumn(sourceSchema, this.averageColumn);
+            this.averageColumnIndex = sourceColumnNames.indexOf(this.averageColumn);
+            this.averageIsFloat = this.isFloatColumn(sourceColumnTypes.get(this.averageColumnIndex),
+                                  this.averageColumn);
+            outputColumns.add("averageAgg");
+            outputTypes.add(Type.floatType());
+        }
+        return new Schema(outputColumns, outputTypes);
+    }
+
+    private boolean isFloatColumn(Type type, String columnName) {
+        if (type.getTypeId() != TypeId.INT && type.getTypeId() != TypeId.FLOAT) {
+            throw new QueryPlanException("Cannot aggregate a non-numeric column: " + columnName + ".");
+        }
+        return type.getTypeId() == TypeId.FLOAT;
+    }
+
+    /**
+     * Size of one entry of the hash table, as if the group by value and running
+     * aggregates were packed into pages like records.
+     */
+    private int groupSizeInBytes() {
+        int size = this.getSource().getOutputSchema().getFieldTypes().get(this.groupByColumnIndex).getSizeInBytes();
+        size += Integer.BYTES; // count, which the average also needs
+        if (this.sumColumn != null) {
+            size += Double.BYTES;
+        }
+        if (this.averageColumn != null) {
+            size += Double.BYTES;
+        }
+        return size;
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new HashGroupByIterator();
+    }
+
+    @Override
+    public String str() {
+        return "type: " + this.getType() +
+               "\ncolumn: " + this.groupByColumn +
+               "\naggregates: " + this.getOutputSchema().getFieldNames();
+    }
+
+    /**
+     * Estimates the table statistics for the result of executing this query operator.
+     *
+     * @return estimated TableStats
+     */
+    @Override
+    public TableStats estimateStats() {
+        return this.getSource().getStats();
+    }
+
+    /**
+     * Reading the source is free beyond its own cost as long as the estimated number of
+     * groups fits in the hash table. Otherwise the records of the groups that do not fit
+     * are written to partitions and read back, and the same applies to each pass over
+     * the partitions, whose combined hash tables hold numPartitions times as many groups
+     * as the previous pass's.
+     */
+    @Override
+    public int estimateIOCost() {
+        TableStats sourceStats = this.getSource().getStats();
+        double numPages = sourceStats.getNumPages();
+        double numGroups = sourceStats.getNumRecords();
+        List<Histogram> histograms = sourceStats.getHistograms();
+        if (this.groupByColumnIndex < histograms.size()) {
+            int numDistinct = histograms.get(this.groupByColumnIndex).getNumDistinct();
+            if (numDistinct > 0) {
+                numGroups = Math.min(numGroups, numDistinct);
+            }
+        }
+
+        double cost = this.getSource().getIOCost();
+        double capacity = this.maxGroups;
+        while (numGroups > capacity && numPages >= 1) {
+            double spilledGroups = numGroups - capacity;
+            numPages = Math.ceil(numPages * spilledGroups / numGroups);
+            cost += 2 * numPages;
+            numGroups = spilledGroups;
+            capacity *= this.numPartitions;
+        }
+        return (int) Math.min(cost, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Running aggregates of one group.
+     */
+    private class Group {
+        private DataBox key;
+        private int count;
+        private double sum;
+        private double averageSum;
+
+        private Group(DataBox key) {
+            this.key = key;
+        }
+
+        private void add(Record record) {
+            List<DataBox> values = record.getValues();
+            ++this.count;
+            if (sumColumnIndex != -1) {
+                DataBox value = values.get(sumColumnIndex);
+                this.sum += sumIsFloat ? value.getFloat() : value.getInt();
+            }
+            if (averageColumnIndex != -1) {
+                DataBox value = values.get(averageColumnIndex);
+                this.averageSum += averageIsFloat ? value.getFloat() : value.getInt();
+            }
+        }
+
+        private Record toRecord() {
+            List<DataBox> values = new ArrayList<>();
+            for (int i = 0; i < columns.size(); ++i) {
+                values.add(this.key);
+            }
+            if (hasCount) {
+                values.add(new IntDataBox(this.count));
+            }
+            if (sumColumnIndex != -1) {
+                values.add(sumIsFloat ? new FloatDataBox((float) this.sum) : new IntDataBox((int) this.sum));
+            }
+            if (averageColumnIndex != -1) {
+                values.add(new FloatDataBox((float) (this.averageSum / this.count)));
+            }
+            return new Record(values);
+        }
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     * The source is aggregated when the iterator is created; partitions spilled to are
+     * aggregated as the groups before them are consumed.
+     */
+    private class HashGroupByIterator implements Iterator<Record> {
+        // Spilled partitions (temp table names) not yet aggregated, with the pass that
+        // will aggregate each
+        private Deque<Pair<String, Integer>> partitions;
+        private Iterator<Group> groupIterator;
+
+        private HashGroupByIterator() {
+            this.partitions = new ArrayDeque<>();
+            this.groupIterator = this.aggregate(HashGroupByOperator.this.getSource().iterator(), 0);
+        }
+
+        /**
+         * Aggregates records into an in-memory hash table, spilling records of groups
+         * that do not fit to new partitions, which are queued to be aggregated by the
+         * next pass.
+         *
+         * @return iterator over the groups aggregated in memory
+         */
+        private Iterator<Group> aggregate(Iterator<Record> records, int pass) {
+            Map<DataBox, Group> groups = new HashMap<>();
+            String[] spillTables = new String[numPartitions];
+            while (records.hasNext()) {
+                Record record = records.next();
+                DataBox key = record.getValues().get(groupByColumnIndex);
+                Group group = groups.get(key);
+                if (group == null) {
+                    if (groups.size() >= maxGroups) {
+                        int partition = hashPartition(key, pass, numPartitions);
+                        if (spillTables[partition] == null) {
+                            spillTables[partition] = transaction.createTempTable(
+                                                         HashGroupByOperator.this.getSource().getOutputSchema());
+                        }
+                        transaction.addRecord(spillTables[partition], record.getValues());
+                        continue;
+                    }
+                    group = new Group(key);
+                    groups.put(key, group);
+                }
+                group.add(record);
+            }
+            for (String tableName : spillTables) {
+                if (tableName != null) {
+                    this.partitions.push(new Pair<>(tableName, pass + 1));
+                }
+            }
+            return groups.values().iterator();
+        }
+
+        /**
+         * Checks if there are more record(s) to yield
+         *
+         * @return true if this iterator has another record to yield, otherwise false
+         */
+        @Override
+        public boolean hasNext() {
+            while (!this.groupIterator.hasNext() && !this.partitions.isEmpty()) {
+                Pair<String, Integer> partition = this.partitions.pop();
+                this.groupIterator = this.aggregate(transaction.getRecordIterator(partition.getFirst()),
+                                                    partition.getSecond());
+            }
+            return this.groupIterator.hasNext();
+        }
+
+        /**
+         * Yields the next record of this iterator.
+         *
+         * @return the next Record
+         * @throws NoSuchElementException if there are no more Records to yield
+         */
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.groupIterator.next().toRecord();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -0,0 +1,225 @@
+package edu.berkeley.cs186.database.query;
+
+import java.util.*;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+
+/**
+ * Hybrid hash join. Like a Grace hash join, except that the first partitioning pass
+ * keeps one partition (partition 0) of the smaller input in memory as a hash table
+ * instead of writing it out, and joins the records of the larger input that fall in
+ * partition 0 against it as they are partitioned. Only the other partitions are
+ * written to temp tables and joined afterwards, as in GraceHashJoinOperator.
+ *
+ * Of the numBuffers pages, one is the input buffer and two are taken by each
+ * partition on disk (see GraceHashJoinOperator); the rest hold partition 0. As few partitions are written
+ * as still lets each of them fit in memory when joined, so partition 0 is as large as
+ * possible, and if the smaller input fits entirely nothing is written at all. Records
+ * of partition 0 that do not fit (e.g. because the statistics were off) are written
+ * to an extra partition, which the matching records of the larger input are then
+ * also written to.
+ */
+class HybridHashJoinOperator extends GraceHashJoinOperator {
+    // Resolution of the split between partition 0 and the partitions on disk
+    private static final int NUM_SLOTS = 1 << 16;
+
+    HybridHashJoinOperator(QueryOperator leftSource,
+                           QueryOperator rightSource,
+                           String leftColumnName,
+                           String rightColumnName,
+                           TransactionContext transaction) {
+        super(leftSource, rightSource, leftColumnName, rightColumnName, transaction, JoinType.HYBRIDHASH);
+    }
+
+    @Override
+    public Iterator<Record> iterator() {
+        return new HybridHashJoinIterator();
+    }
+
+    /**
+     * Both inputs are read once; the fraction of them that is not in partition 0 is
+     * also written and read back, once more per pass needed to partition the
+     * partitions on disk further.
+     */
+    @Override
+    public int estimateIOCost() {
+        int numLeftPages = getLeftSource().getStats().getNumPages();
+        int numRightPages = getRightSource().getStats().getNumPages();
+        int numPages = numLeftPages + numRightPages;
+        int numBuildPages = Math.min(numLeftPages, numRightPages);
+        int numSpilledPartitions = numSpilledPartitions(numBuildPages);
+        if (numSpilledPartitions == 0) {
+            return numPages;
+        }
+        int numResidentPages = numResidentPages(numSpilledPartitions);
+        double spilledFraction = (double) Math.max(0, numBuildPages - numResidentPages) / numBuildPages;
+        double partitionPages = (double) (numBuildPages - numResidentPages) / numSpilledPartitions;
+        int numPasses = 1 + numPartitioningPasses(partitionPages);
+        return (int) Math.ceil(numPages + 2 * numPasses * spilledFraction * numPages);
+    }
+
+    /**
+     * Number of partitions written to disk by the first pass over inputs whose smaller
+     * input has numBuildPages pages.
+     */
+    int numSpilledPartitions(double numBuildPages) {
+        if (numBuildPages <= numBuildPages()) {
+            return 0;
+        }
+        if (numBuffers <= 4) {
+            return 1;
+        }
+        // numSpilled partitions of (numBuildPages - numResidentPages(numSpilled)) / numSpilled
+        // pages each must fit in numBuffers - 2 pages
+        int numSpilled = (int) Math.ceil((numBuildPages - numBuffers + 1) / (numBuffers - 4));
+        return Math.max(1, Math.min((numBuffers - 2) / 2, numSpilled));
+    }
+
+    private int numResidentPages(int numSpilledPartitions) {
+        return Math.max(1, numBuffers - 1 - 2 * numSpilledPartitions);
+    }
+
+    /**
+     * An implementation of Iterator that provides an iterator interface for this operator.
+     */
+    private class HybridHashJoinIterator extends GraceHashJoinIterator {
+        private HybridHashJoinIterator() {
+            super();
+        }
+
+        /**
+         * Partitions the smaller table, keeping partition 0 in memory.
+         *
+         * @return joined records of partition 0, computed while the larger table is
+         * partitioned
+         */
+        @Override
+        protected Iterator<Record> start() {
+            String leftTableName = this.getLeftTableName();
+            String rightTableName = this.getRightTableName();
+            int numLeftPages = getTransaction().getNumDataPages(leftTableName);
+            int numRightPages = getTransaction().getNumDataPages(rightTableName);
+            boolean buildIsLeft = numLeftPages <= numRightPages;
+            String buildTableName = buildIsLeft ? leftTableName : rightTableName;
+            int buildColumnIndex = buildIsLeft ? getLeftColumnIndex() : getRightColumnIndex();
+            Schema buildSchema = (buildIsLeft ? getLeftSource() : getRightSource()).getOutputSchema();
+
+            int numBuildPages = Math.min(numLeftPages, numRightPages);
+            int numSpilled = numSpilledPartitions(numBuildPages);
+            if (numSpilled == 0) {
+                Map<DataBox, List<Record>> hashTable = buildHashTable(getRecordIterator(buildTableName),
+                                                       buildColumnIndex);
+                return new HashProbeIterator(hashTable, buildIsLeft,
+                                             getRecordIterator(buildIsLeft ? rightTableName : leftTableName));
+            }
+            int numResidentPages = numResidentPages(numSpilled);
+            int residentSlots = (int) ((long) NUM_SLOTS * numResidentPages / numBuildPages);
+            long maxResidentRecords = (long) numResidentPages * getNumEntriesPerPage(buildTableName);
+
+            // buildPartitions[0] holds records of partition 0 that did not fit in memory
+            String[] buildPartitions = new String[numSpilled + 1];
+            Map<DataBox, List<Record>> hashTable = new HashMap<>();
+            long numResidentRecords = 0;
+            Iterator<Record> buildRecords = getRecordIterator(buildTableName);
+            while (buildRecords.hasNext()) {
+                Record record = buildRecords.next();
+                DataBox key = record.getValues().get(buildColumnIndex);
+                int partition = firstPassPartition(key, residentSlots, numSpilled);
+                if (partition == 0 && numResidentRecords < maxResidentRecords) {
+                    hashTable.computeIfAbsent(key, k -> new ArrayList<>()).add(record);
+                    ++numResidentRecords;
+                } else {
+                    spill(buildPartitions, partition, buildSchema, record);
+                }
+            }
+            return new HashProbeIterator(hashTable, buildIsLeft,
+                                         new ResidentProbeIterator(buildIsLeft, buildPartitions, residentSlots));
+        }
+
+        private void spill(String[] partitionTableNames, int partition, Schema schema, Record record) {
+            if (partitionTableNames[partition] == null) {
+                partitionTableNames[partition] = createTempTable(schema);
+            }
+            addRecord(partitionTableNames[partition], record.getValues());
+        }
+
+        /**
+         * Iterator over the records of the larger table in partition 0, which writes the
+         * records of the other partitions to temp tables as it goes, and queues the
+         * pairs of partitions on disk to be joined once the table has been read.
+         */
+        private class ResidentProbeIterator implements Iterator<Record> {
+            private boolean buildIsLeft;
+            private String[] buildPartitions;
+            private String[] probePartitions;
+            private int residentSlots;
+            private Iterator<Record> probeRecords;
+            private int probeColumnIndex;
+            private Schema probeSchema;
+            private Record nextRecord;
+            private long numRecords;
+
+            private ResidentProbeIterator(boolean buildIsLeft, String[] buildPartitions, int residentSlots) {
+                String probeTableName = buildIsLeft ? getRightTableName() : getLeftTableName();
+                this.buildIsLeft = buildIsLeft;
+                this.buildPartitions = buildPartitions;
+                this.probePartitions = new String[buildPartitions.length];
+                this.residentSlots = residentSlots;
+                this.probeRecords = getRecordIterator(probeTableName);
+                this.probeColumnIndex = buildIsLeft ? getRightColumnIndex() : getLeftColumnIndex();
+                this.probeSchema = (buildIsLeft ? getRightSource() : getLeftSource()).getOutputSchema();
+                this.numRecords = getTransaction().getNumRecords(getLeftTableName()) +
+                                  getTransaction().getNumRecords(getRightTableName());
+            }
+
+            @Override
+            public boolean hasNext() {
+                while (this.nextRecord == null && this.probeRecords.hasNext()) {
+                    Record record = this.probeRecords.next();
+                    int partition = firstPassPartition(record.getValues().get(this.probeColumnIndex), this.residentSlots,
+                                              this.buildPartitions.length - 1);
+                    if (partition != 0 || this.buildPartitions[0] != null) {
+                        spill(this.probePartitions, partition, this.probeSchema, record);
+                    }
+                    if (partition == 0) {
+                        this.nextRecord = record;
+                    }
+                }
+                if (this.nextRecord == null && this.probePartitions != null) {
+                    for (int i = 0; i < this.buildPartitions.length; ++i) {
+                        if (this.buildPartitions[i] != null && this.probePartitions[i] != null) {
+                            String leftTableName = this.buildIsLeft ? this.buildPartitions[i] : this.probePartitions[i];
+                            String rightTableName = this.buildIsLeft ? this.probePartitions[i] : this.buildPartitions[i];
+                            partitions.push(new Partition(leftTableName, rightTableName, 1, this.numRecords));
+                        }
+                    }
+                    this.probePartitions = null;
+                }
+                return this.nextRecord != null;
+            }
+
+            @Override
+            public Record next() {
+                if (!this.hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                Record record = this.nextRecord;
+                this.nextRecord = null;
+                return record;
+            }
+        }
+    }
+
+    /**
+     * Partition of the first pass that key falls in: 0 for the partition kept in memory,
+     * which gets residentSlots of NUM_SLOTS hash values, and 1 to numSpilled for the
+     * partitions on disk.
+     */
+    private static int firstPassPartition(DataBox key, int residentSlots, int numSpilled) {
+        int slot = hashPartition(key, 0, NUM_SLOTS);
+        return slot < residentSlots ? 0 : 1 + slot % numSpilled;
+    }
+}
@@ -5,7 +5,9 @@ import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.index.BPlusTree;
+import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
 
@@ -18,6 +20,9 @@ class IndexScanOperator extends QueryOperator {
     private String columnName;
     private PredicateOperator predicate;
     private DataBox value;
+    // Whether records are fetched in page order (see TransactionContext#indexScanByPage)
+    // rather than in key order
+    private boolean pageOrdered;
 
     private int columnIndex;
 
@@ -33,12 +38,32 @@ class IndexScanOperator extends QueryOperator {
                       String columnName,
                       PredicateOperator predicate,
                       DataBox value) {
+        this(transaction, tableName, columnName, predicate, value, false);
+    }
+
+    /**
+     * An index scan operator.
+     *
+     * @param transaction the transaction containing this operator
+     * @param tableName the table to iterate over
+     * @param columnName the name of the column the index is on
+     * @param pageOrdered whether to sort batches of record ids from the index by page
+     *                    and fetch each page once, instead of fetching records in key
+     *                    order
+     */
+    IndexScanOperator(TransactionContext transaction,
+                      String tableName,
+                      String columnName,
+                      PredicateOperator predicate,
+                      DataBox value,
+                      boolean pageOrdered) {
         super(OperatorType.INDEXSCAN);
         this.tableName = tableName;
         this.transaction = transaction;
         this.columnName = columnName;
         this.predicate = predicate;
         this.value = value;
+        this.pageOrdered = pageOrdered;
         this.setOutputSchema(this.computeSchema());
         columnName = this.checkSchemaForColumn(this.getOutputSchema(), columnName);
         this.columnIndex = this.getOutputSchema().getFieldNames().indexOf(columnName);
@@ -58,7 +83,15 @@ class IndexScanOperator extends QueryOperator {
                "\ntable: " + this.tableName +
                "\ncolumn: " + this.columnName +
                "\noperator: " + this.predicate +
-               "\nvalue: " + this.value;
+               "\nvalue: " + this.value +
+               (this.pageOrdered ? "\norder: page" : "");
+    }
+
+    /**
+     * Returns whether records are fetched in page order rather than in key order
+     */
+    public boolean isPageOrdered() {
+        return this.pageOrdered;
     }
 
     /**
@@ -104,11 +137,48 @@ class IndexScanOperator extends QueryOperator {
                     value).getCount();
         // 2 * order entries/leaf node, but leaf nodes are 50-100% full; we use a fill factor of
         // 75% as a rough estimate
-        return (int) (height + Math.ceil(count / (1.5 * order)) + count);
+        int leafIOs = (int) Math.ceil(count / (1.5 * order));
+        if (!this.pageOrdered) {
+            return height + leafIOs + count;
+        }
+        // Each batch of record ids fetches the distinct pages its records are on
+        int batchSize = transaction.getWorkMemSize() *
+                        (BufferManager.EFFECTIVE_PAGE_SIZE / RecordId.getSizeInBytes());
+        int numPages = tableStats.getNumPages();
+        double pageIOs = (count / batchSize) * numPagesTouched(numPages, batchSize) +
+                         numPagesTouched(numPages, count % batchSize);
+        return (int) (height + leafIOs + Math.ceil(pageIOs));
+    }
+
+    /**
+     * Expected number of distinct pages that numRecords records, spread uniformly over
+     * numPages pages, are on.
+     */
+    private static double numPagesTouched(int numPages, int numRecords) {
+        if (numPages <= 0 || numRecords <= 0) {
+            return 0;
+        }
+        return numPages * (1 - Math.pow(1 - 1.0 / numPages, numRecords));
+    }
+
+    /**
+     * Expected number of distinct pages of the table that the scan reads records from.
+     */
+    int estimatePagesRead() {
+        TableStats tableStats = transaction.getStats(tableName);
+        int count = tableStats.getHistograms().get(columnIndex).copyWithPredicate(predicate,
+                    value).getCount();
+        return (int) Math.ceil(numPagesTouched(tableStats.getNumPages(), count));
     }
 
     @Override
     public Iterator<Record> iterator() {
+        // a scan that reads enough of the table's pages to escalate its page locks locks
+        // the table up front
+        this.transaction.getTable(this.tableName).prepareScan(this.estimatePagesRead());
+        if (this.pageOrdered) {
+            return new PageOrderedIndexScanIterator();
+        }
         return new IndexScanIterator();
     }
 
@@ -223,4 +293,48 @@ class IndexScanOperator extends QueryOperator {
             throw new UnsupportedOperationException();
         }
     }
+
+    /**
+     * Iterator over the records found with the index in page order, which filters out
+     * the records on the bounds of strict inequalities.
+     */
+    private class PageOrderedIndexScanIterator implements Iterator<Record> {
+        private Iterator<Record> sourceIterator;
+        private Record nextRecord;
+
+        private PageOrderedIndexScanIterator() {
+            this.sourceIterator = IndexScanOperator.this.transaction.indexScanByPage(
+                                      IndexScanOperator.this.tableName,
+                                      IndexScanOperator.this.columnName,
+                                      IndexScanOperator.this.predicate,
+                                      IndexScanOperator.this.value);
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextRecord == null && this.sourceIterator.hasNext()) {
+                Record r = this.sourceIterator.next();
+                if (IndexScanOperator.this.predicate.evaluate(r.getValues().get(IndexScanOperator.this.columnIndex),
+                        IndexScanOperator.this.value)) {
+                    this.nextRecord = r;
+                }
+            }
+            return this.nextRecord != null;
+        }
+
+        @Override
+        public Record next() {
+            if (this.hasNext()) {
+                Record r = this.nextRecord;
+                this.nextRecord = null;
+                return r;
+            }
+            throw new NoSuchElementException();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
 }
@@ -19,7 +19,9 @@ abstract class JoinOperator extends QueryOperator {
         SNLJ,
         PNLJ,
         BNLJ,
-        SORTMERGE
+        SORTMERGE,
+        GRACEHASH,
+        HYBRIDHASH
     }
 
     JoinType joinType;
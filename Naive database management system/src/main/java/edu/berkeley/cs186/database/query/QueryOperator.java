@@ -4,6 +4,7 @@ import java.util.Iterator;
 import java.util.List;
 
 import edu.berkeley.cs186.database.DatabaseException;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -150,6 +151,22 @@ public abstract class QueryOperator implements Iterable<Record> {
         return foundName;
     }
 
+    /**
+     * Hashes key into one of numPartitions partitions, for operators that hash
+     * partition their input. Records in a partition all hashed to it in the
+     * previous pass, so each pass mixes the pass number into the hash to split
+     * them up again.
+     */
+    static int hashPartition(DataBox key, int pass, int numPartitions) {
+        int h = key.hashCode() ^ (pass * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return Math.floorMod(h, numPartitions);
+    }
+
     public String str() {
         return "type: " + this.getType();
     }
@@ -376,12 +376,16 @@ public class QueryPlan {
             indexColumn = this.selectColumnNames.get(i);
             operator = this.selectOperators.get(i);
             value = this.selectDataBoxes.get(i);
-            op = new IndexScanOperator(this.transaction, table, indexColumn, operator, value);
-            ioCount = op.estimateIOCost();
-            if (ioCount < minIOCount) {
-                minIOCount = ioCount;
-                minOp = op;
-                indexIOMin = i;
+            // Fetching in key order and fetching in page order cost the same when few
+            // records match; key order is kept on ties
+            for (boolean pageOrdered : new boolean[] {false, true}) {
+                op = new IndexScanOperator(this.transaction, table, indexColumn, operator, value, pageOrdered);
+                ioCount = op.estimateIOCost();
+                if (ioCount < minIOCount) {
+                    minIOCount = ioCount;
+                    minOp = op;
+                    indexIOMin = i;
+                }
             }
         }
 
@@ -409,6 +413,8 @@ public class QueryPlan {
         List<QueryOperator> allJoins = new ArrayList<>();
         allJoins.add(new SNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
         allJoins.add(new BNLJOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new GraceHashJoinOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
+        allJoins.add(new HybridHashJoinOperator(leftOp, rightOp, leftColumn, rightColumn, this.transaction));
 
         for (QueryOperator join : allJoins) {
             int joinCost = join.estimateIOCost();
@@ -601,14 +607,38 @@ public class QueryPlan {
                 throw new QueryPlanException("Can only project columns specified in the GROUP BY clause.");
             }
 
-            this.finalOperator = new GroupByOperator(this.finalOperator, this.transaction,
-                    this.groupByColumn);
+            if (this.hasAggregate() && this.projectsOnlyGroupByColumn()) {
+                this.finalOperator = new HashGroupByOperator(this.finalOperator, this.transaction,
+                        this.groupByColumn, this.projectColumns, this.hasCount, this.averageColumnName,
+                        this.sumColumnName);
+            } else {
+                this.finalOperator = new GroupByOperator(this.finalOperator, this.transaction,
+                        this.groupByColumn);
+            }
+        }
+    }
+
+    private boolean hasAggregate() {
+        return this.hasCount || this.sumColumnName != null || this.averageColumnName != null;
+    }
+
+    private boolean projectsOnlyGroupByColumn() {
+        Schema schema = this.finalOperator.getOutputSchema();
+        String column = this.finalOperator.checkSchemaForColumn(schema, this.groupByColumn);
+        for (String projectColumn : this.projectColumns) {
+            if (!this.finalOperator.checkSchemaForColumn(schema, projectColumn).equals(column)) {
+                return false;
+            }
         }
+        return true;
     }
 
     private void addProjects() {
-        if (!this.projectColumns.isEmpty() || this.hasCount || this.sumColumnName != null
-                || this.averageColumnName != null) {
+        if (this.finalOperator instanceof HashGroupByOperator) {
+            // projections and aggregates were already computed while grouping
+            return;
+        }
+        if (!this.projectColumns.isEmpty() || this.hasAggregate()) {
             this.finalOperator = new ProjectOperator(this.finalOperator, this.projectColumns,
                     this.hasCount, this.averageColumnName, this.sumColumnName);
         }
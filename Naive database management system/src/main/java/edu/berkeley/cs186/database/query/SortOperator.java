@@ -6,8 +6,6 @@ import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
 import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.Schema;
-import edu.berkeley.cs186.database.common.Pair;
-import edu.berkeley.cs186.database.memory.Page;
 
 import java.util.*;
 
@@ -82,47 +80,17 @@ public class SortOperator {
 
     /**
      * Given a list of sorted runs, returns a new run that is the result
-     * of merging the input runs. You should use a Priority Queue (java.util.PriorityQueue)
-     * to determine which record should be should be added to the output run next.
-     * It is recommended that your Priority Queue hold Pair<Record, Integer> objects
-     * where a Pair (r, i) is the Record r with the smallest value you are
-     * sorting on currently unmerged from run i.
+     * of merging the input runs.
      */
     public Run mergeSortedRuns(List<Run> runs) {
-        // TODO(hw3_part1): implement
         if (runs.size() == 1) {
             return runs.get(0);
         }
-
-        List<Iterator<Record>> records_iter = new ArrayList<>();
-        for (Run r: runs) {
-            records_iter.add(r.iterator());
-        }
-
-        PriorityQueue<Pair<Record, Integer>> pq = new PriorityQueue<>(this.numBuffers - 1, new RecordPairComparator());
-        Iterator<Record> records;
-        for (int i = 0; i < records_iter.size(); i++) {
-            records = records_iter.get(i);
-            if (records.hasNext()) {
-                pq.add(new Pair(records.next(), i));
-            }
-        }
-        Record minRecord;
-        int iterIndex;
-        Pair<Record, Integer> pair;
-        List<Record> sorted = new ArrayList<>();
-        while (!pq.isEmpty()) {
-            pair = pq.poll();
-            minRecord = pair.getFirst();
-            iterIndex = pair.getSecond();
-            sorted.add(minRecord);
-            records = records_iter.get(iterIndex);
-            if (records.hasNext()) {
-                pq.add(new Pair(records.next(), iterIndex));
-            }
-        }
         SortOperator.Run newRun = this.createRun();
-        newRun.addRecords(sorted);
+        Iterator<Record> merged = new MergeIterator(runs);
+        while (merged.hasNext()) {
+            newRun.addRecord(merged.next().getValues());
+        }
         return newRun;
     }
 
@@ -132,54 +100,102 @@ public class SortOperator {
      * of the input runs at a time.
      */
     public List<Run> mergePass(List<Run> runs) {
-        // TODO(hw3_part1): implement
         int chunk = this.numBuffers - 1;
         List<Run> merged = new ArrayList<>();
         for (int i = 0; i < runs.size(); i += chunk) {
-            merged.add(this.mergeSortedRuns(runs.subList(i, i + chunk)));
+            merged.add(this.mergeSortedRuns(runs.subList(i, Math.min(i + chunk, runs.size()))));
         }
-
-//        return Collections.emptyList();
         return merged;
     }
 
     /**
-     * Does an external merge sort on the table with name tableName
-     * using numBuffers.
-     * Returns the name of the table that backs the final run.
+     * Generates the sorted runs of the table with replacement selection: records are
+     * read into a heap of numBuffers pages worth of records, and the smallest record
+     * that is not smaller than the last one written is repeatedly moved to the current
+     * run and replaced by the next record of the table. Records smaller than the last
+     * one written go to the next run instead. On random input the runs are about
+     * 2 * numBuffers pages long (twice the length of runs sorted a block at a time),
+     * and input that is already sorted produces a single run.
      */
-    public String sort() {
-        // TODO(hw3_part1): implement
-        Run run;
-        Run sortedRun;
-        List<Run> runs = new ArrayList<>();
-        BacktrackingIterator<Record> records_iter;
-        Iterator<Page> page_iter = this.transaction.getPageIterator(this.tableName);
-        while (true) {
-            records_iter = this.transaction.getBlockIterator(this.tableName, page_iter, this.numBuffers);
-            if ((records_iter == null) || (!records_iter.hasNext())) { break;}
-            run = this.createRunFromIterator(records_iter);
-            sortedRun = this.sortRun(run);
-            runs.add(sortedRun);
+    List<Run> generateRuns() {
+        int maxRecords = this.numBuffers * this.transaction.getNumEntriesPerPage(this.tableName);
+        PriorityQueue<RunRecord> heap = new PriorityQueue<>(maxRecords, (a, b) -> {
+            if (a.run != b.run) {
+                return Integer.compare(a.run, b.run);
+            }
+            return this.comparator.compare(a.record, b.record);
+        });
+
+        Iterator<Record> records = this.transaction.getRecordIterator(this.tableName);
+        while (heap.size() < maxRecords && records.hasNext()) {
+            heap.add(new RunRecord(0, records.next()));
         }
 
+        List<Run> runs = new ArrayList<>();
+        Run currentRun = null;
+        int currentRunIndex = -1;
+        while (!heap.isEmpty()) {
+            // the polled entry is reused for the record that replaces it
+            RunRecord smallest = heap.poll();
+            if (smallest.run != currentRunIndex) {
+                currentRun = this.createRun();
+                currentRunIndex = smallest.run;
+                runs.add(currentRun);
+            }
+            currentRun.addRecord(smallest.record.getValues());
+            if (records.hasNext()) {
+                Record next = records.next();
+                boolean fitsInRun = this.comparator.compare(next, smallest.record) >= 0;
+                smallest.run = fitsInRun ? currentRunIndex : currentRunIndex + 1;
+                smallest.record = next;
+                heap.add(smallest);
+            }
+        }
+        return runs;
+    }
 
+    /**
+     * Generates the sorted runs of the table and merges them until at most
+     * numBuffers - 1 runs are left, which can be merged in a single pass.
+     */
+    private List<Run> finalRuns() {
+        List<Run> runs = this.generateRuns();
         while (runs.size() > this.numBuffers - 1) {
             runs = this.mergePass(runs);
         }
+        return runs;
+    }
 
-        sortedRun = mergeSortedRuns(runs);
-
-        return sortedRun.tableName();
-
-//        return this.tableName; // TODO(hw3_part1): replace this!
+    /**
+     * Does an external merge sort on the table with name tableName
+     * using numBuffers.
+     * Returns the name of the table that backs the final run.
+     */
+    public String sort() {
+        if (this.sortedTableName == null) {
+            List<Run> runs = this.finalRuns();
+            if (runs.isEmpty()) {
+                runs = Collections.singletonList(this.createRun());
+            }
+            this.sortedTableName = this.mergeSortedRuns(runs).tableName();
+        }
+        return this.sortedTableName;
     }
 
+    /**
+     * Returns the records of the table in sorted order. Unlike sort(), the final merge
+     * pass is not written to a temp table: its output is streamed to the caller.
+     */
     public Iterator<Record> iterator() {
-        if (sortedTableName == null) {
-            sortedTableName = sort();
+        if (this.sortedTableName != null) {
+            return this.transaction.getRecordIterator(this.sortedTableName);
+        }
+        List<Run> runs = this.finalRuns();
+        if (runs.size() == 1) {
+            this.sortedTableName = runs.get(0).tableName();
+            return runs.get(0).iterator();
         }
-        return this.transaction.getRecordIterator(sortedTableName);
+        return new MergeIterator(runs);
     }
 
     /**
@@ -263,11 +279,76 @@ public class SortOperator {
         }
     }
 
-    private class RecordPairComparator implements Comparator<Pair<Record, Integer>> {
+    /**
+     * A record in the replacement selection heap, tagged with the run it goes to.
+     */
+    private static class RunRecord {
+        private int run;
+        private Record record;
+
+        private RunRecord(int run, Record record) {
+            this.run = run;
+            this.record = record;
+        }
+    }
+
+    /**
+     * Iterator over the records of a list of sorted runs in sorted order. A heap holds
+     * one cursor per run that is not exhausted, keyed on the cursor's current record;
+     * the cursor of the smallest record is advanced and put back in the heap.
+     */
+    private class MergeIterator implements Iterator<Record> {
+        private PriorityQueue<RunCursor> heap;
+
+        private MergeIterator(List<Run> runs) {
+            this.heap = new PriorityQueue<>(Math.max(1, runs.size()),
+                    (a, b) -> SortOperator.this.comparator.compare(a.record, b.record));
+            for (Run run : runs) {
+                RunCursor cursor = new RunCursor(run.iterator());
+                if (cursor.advance()) {
+                    this.heap.add(cursor);
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !this.heap.isEmpty();
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            RunCursor cursor = this.heap.poll();
+            Record record = cursor.record;
+            if (cursor.advance()) {
+                this.heap.add(cursor);
+            }
+            return record;
+        }
+
         @Override
-        public int compare(Pair<Record, Integer> o1, Pair<Record, Integer> o2) {
-            return SortOperator.this.comparator.compare(o1.getFirst(), o2.getFirst());
+        public void remove() {
+            throw new UnsupportedOperationException();
         }
     }
-}
 
+    private static class RunCursor {
+        private Iterator<Record> records;
+        private Record record;
+
+        private RunCursor(Iterator<Record> records) {
+            this.records = records;
+        }
+
+        private boolean advance() {
+            if (!this.records.hasNext()) {
+                return false;
+            }
+            this.record = this.records.next();
+            return true;
+        }
+    }
+}
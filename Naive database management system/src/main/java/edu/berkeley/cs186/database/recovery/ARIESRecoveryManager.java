@@ -10,8 +10,10 @@ import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
+import java.io.File;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.Supplier;
@@ -36,6 +38,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
 
     // Log manager
     LogManager logManager;
+    // Directory of the log's segment files; null if the log is kept in partition 0
+    private String logDirectory;
+    // Group commit flusher; null if every commit flushes the log itself
+    private GroupCommitFlusher groupCommitFlusher;
+    // Number of threads redoing page records during restart; 1 to redo on the calling thread
+    private int redoThreads = 1;
+    // Background page writer and checkpointer; null if pages are only written on eviction.
+    // Replaced only in enableBackgroundWriter/disableBackgroundWriter (which are synchronized)
+    private volatile BackgroundWriter backgroundWriter;
+    // Held while taking a checkpoint, so that checkpoints do not interleave
+    private final ReentrantLock checkpointLock = new ReentrantLock();
+    // LSN of the begin checkpoint record of the last checkpoint
+    private volatile long lastCheckpointLSN = 0;
     // Dirty page table (page number -> recLSN).
     Map<Long, Long> dirtyPageTable = new ConcurrentHashMap<>();
     // Transaction table (transaction number -> entry).
@@ -82,7 +97,143 @@ public class ARIESRecoveryManager implements RecoveryManager {
     public void setManagers(DiskSpaceManager diskSpaceManager, BufferManager bufferManager) {
         this.diskSpaceManager = diskSpaceManager;
         this.bufferManager = bufferManager;
-        this.logManager = new LogManagerImpl(bufferManager);
+        if (this.logDirectory == null) {
+            this.logManager = new LogManagerImpl(bufferManager, diskSpaceManager);
+        } else {
+            this.logManager = new SegmentLogManager(new File(this.logDirectory));
+        }
+    }
+
+    /**
+     * Stores the log in segment files in logDirectory (see SegmentLogManager), instead of in
+     * partition 0 through the buffer manager. Must be called before setManagers.
+     * @param logDirectory directory of the log files
+     */
+    public void setLogDirectory(String logDirectory) {
+        if (this.logManager != null) {
+            throw new IllegalStateException("cannot set log directory after setManagers");
+        }
+        this.logDirectory = logDirectory;
+    }
+
+    /**
+     * Enables group commit: instead of each commit flushing the log, commits are batched,
+     * and the log is flushed once per batch. A batch is flushed once windowMicros have passed
+     * since its first commit, or once it covers maxBatchBytes of unflushed log. Must be
+     * called after setManagers.
+     * @param windowMicros maximum time, in microseconds, that a commit waits for others to join its batch
+     * @param maxBatchBytes amount of unflushed log at which a batch is flushed immediately
+     */
+    public void enableGroupCommit(long windowMicros, int maxBatchBytes) {
+        if (this.logManager == null) {
+            throw new IllegalStateException("cannot enable group commit before setManagers");
+        }
+        if (this.groupCommitFlusher != null) {
+            this.groupCommitFlusher.close();
+        }
+        this.groupCommitFlusher = new GroupCommitFlusher(this.logManager, windowMicros, maxBatchBytes);
+    }
+
+    /**
+     * Runs the redo pass of restart recovery with numThreads worker threads (see
+     * ParallelRedo): the log is still read by one thread, but records about different pages
+     * are redone in parallel. With 1 thread, redo runs on the thread calling restart.
+     * @param numThreads number of threads to redo page records with
+     */
+    public void setRedoThreads(int numThreads) {
+        if (numThreads < 1) {
+            throw new IllegalArgumentException("number of redo threads must be positive");
+        }
+        this.redoThreads = numThreads;
+    }
+
+    /**
+     * Starts a background writer (see BackgroundWriter), which every roundMillis writes out up to
+     * pagesPerRound cold dirty pages, and takes a checkpoint every checkpointMillis or every
+     * checkpointLogBytes of log, replacing the background writer already running, if any.
+     * Must be called after setManagers.
+     * @param roundMillis time between rounds of the writer, in milliseconds
+     * @param pagesPerRound maximum number of pages written per round
+     * @param checkpointMillis time between checkpoints, in milliseconds, or 0 for no time trigger
+     * @param checkpointLogBytes amount of log between checkpoints, or 0 for no log volume trigger
+     */
+    public synchronized void enableBackgroundWriter(long roundMillis, int pagesPerRound, long checkpointMillis,
+                                                    long checkpointLogBytes) {
+        if (this.bufferManager == null) {
+            throw new IllegalStateException("cannot enable background writer before setManagers");
+        }
+        this.disableBackgroundWriter();
+        this.backgroundWriter = new BackgroundWriter(this, this.bufferManager, roundMillis, pagesPerRound,
+                checkpointMillis, checkpointLogBytes);
+    }
+
+    /**
+     * Stops the background writer, if enabled, waiting for its current round to finish.
+     * Pages are then only written on eviction, and checkpoints only taken when asked for.
+     * @throws IllegalStateException if a round of the writer failed (see PeriodicThread)
+     */
+    public synchronized void disableBackgroundWriter() {
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        this.backgroundWriter = null;
+        if (backgroundWriter != null) {
+            backgroundWriter.close();
+        }
+    }
+
+    /**
+     * @return number of pages in the dirty page table
+     */
+    public int getDirtyPageTableSize() {
+        return dirtyPageTable.size();
+    }
+
+    /**
+     * @return smallest recLSN in the dirty page table (where redo would start), or -1 if
+     * the dirty page table is empty
+     */
+    public long getOldestRecLSN() {
+        long oldest = -1;
+        for (long recLSN : dirtyPageTable.values()) {
+            if (oldest < 0 || recLSN < oldest) {
+                oldest = recLSN;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * @return approximate number of bytes of log that redo would read if the database
+     * crashed now
+     */
+    public long getExpectedRedoBytes() {
+        long oldest = getOldestRecLSN();
+        if (oldest < 0) {
+            return 0;
+        }
+        return LogManagerImpl.bytesBetween(oldest, logManager.getEndLSN());
+    }
+
+    /**
+     * @return approximate number of bytes of log written since the last checkpoint began
+     */
+    public long getLogBytesSinceCheckpoint() {
+        return LogManagerImpl.bytesBetween(lastCheckpointLSN, logManager.getEndLSN());
+    }
+
+    /**
+     * @return number of pages written by the background writer, or 0 if it is not enabled
+     */
+    public long getNumBackgroundWrites() {
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        return backgroundWriter == null ? 0 : backgroundWriter.getNumPagesWritten();
+    }
+
+    /**
+     * @return number of checkpoints taken by the background writer, or 0 if it is not enabled
+     */
+    public long getNumBackgroundCheckpoints() {
+        BackgroundWriter backgroundWriter = this.backgroundWriter;
+        return backgroundWriter == null ? 0 : backgroundWriter.getNumCheckpoints();
     }
 
     // Forward Processing ////////////////////////////////////////////////////////////////////
@@ -119,7 +270,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
         // emit commit record
         long curLSN = this.logManager.appendToLog(commitRecord);
         // flush log
-        this.logManager.flushToLSN(curLSN);
+        if (this.groupCommitFlusher != null) {
+            this.groupCommitFlusher.requestFlush(curLSN).join();
+        } else {
+            this.logManager.flushToLSN(curLSN);
+        }
         // update lastLSN
         tte.lastLSN = curLSN;
         // update transaction status
@@ -270,6 +425,7 @@ public class ARIESRecoveryManager implements RecoveryManager {
         if (after.length <= BufferManager.EFFECTIVE_PAGE_SIZE / 2) {
             LogRecord updateRecord = new UpdatePageLogRecord(transNum, pageNum, prevLSN, pageOffset, before, after);
             curLSN =  this.logManager.appendToLog(updateRecord);
+            prevLSN = curLSN;
         } else {
             LogRecord undoOnlyRecord = new UpdatePageLogRecord(transNum, pageNum, prevLSN, pageOffset, before, null);
             prevLSN = this.logManager.appendToLog(undoOnlyRecord);
@@ -277,7 +433,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
             curLSN = this.logManager.appendToLog(redoOnlyRecord);
         }
 
-        // update lastLSN
+        // update first and last LSN
+        if (tte.firstLSN == 0) {
+            tte.firstLSN = prevLSN;
+        }
         tte.lastLSN = curLSN;
         // update touched page
         tte.touchedPages.add(pageNum);
@@ -314,7 +473,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new AllocPartLogRecord(transNum, partNum, prevLSN);
         long LSN = logManager.appendToLog(record);
-        // Update lastLSN
+        // Update first and last LSN
+        if (transactionEntry.firstLSN == 0) {
+            transactionEntry.firstLSN = LSN;
+        }
         transactionEntry.lastLSN = LSN;
         // Flush log
         logManager.flushToLSN(LSN);
@@ -347,7 +509,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new FreePartLogRecord(transNum, partNum, prevLSN);
         long LSN = logManager.appendToLog(record);
-        // Update lastLSN
+        // Update first and last LSN
+        if (transactionEntry.firstLSN == 0) {
+            transactionEntry.firstLSN = LSN;
+        }
         transactionEntry.lastLSN = LSN;
         // Flush log
         logManager.flushToLSN(LSN);
@@ -380,7 +545,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new AllocPageLogRecord(transNum, pageNum, prevLSN);
         long LSN = logManager.appendToLog(record);
-        // Update lastLSN, touchedPages
+        // Update first and last LSN, touchedPages
+        if (transactionEntry.firstLSN == 0) {
+            transactionEntry.firstLSN = LSN;
+        }
         transactionEntry.lastLSN = LSN;
         transactionEntry.touchedPages.add(pageNum);
         // Flush log
@@ -414,7 +582,10 @@ public class ARIESRecoveryManager implements RecoveryManager {
         long prevLSN = transactionEntry.lastLSN;
         LogRecord record = new FreePageLogRecord(transNum, pageNum, prevLSN);
         long LSN = logManager.appendToLog(record);
-        // Update lastLSN, touchedPages
+        // Update first and last LSN, touchedPages
+        if (transactionEntry.firstLSN == 0) {
+            transactionEntry.firstLSN = LSN;
+        }
         transactionEntry.lastLSN = LSN;
         transactionEntry.touchedPages.add(pageNum);
         dirtyPageTable.remove(pageNum);
@@ -518,9 +689,19 @@ public class ARIESRecoveryManager implements RecoveryManager {
      */
     @Override
     public void checkpoint() {
+        checkpointLock.lock();
+        try {
+            takeCheckpoint();
+        } finally {
+            checkpointLock.unlock();
+        }
+    }
+
+    private void takeCheckpoint() {
         // Create begin checkpoint log record and write to log
         LogRecord beginRecord = new BeginCheckpointLogRecord(getTransactionCounter.get());
         long beginLSN = logManager.appendToLog(beginRecord);
+        long minRecoveryLSN = minRecoveryLSN(beginLSN);
 
         Map<Long, Long> dpt = new HashMap<>();
         Map<Long, Pair<Transaction.Status, Long>> txnTable = new HashMap<>();
@@ -604,17 +785,50 @@ public class ARIESRecoveryManager implements RecoveryManager {
         LogRecord endRecord = new EndCheckpointLogRecord(dpt, txnTable, touchedPages);
         logManager.appendToLog(endRecord);
 
+        // Pages written (and removed from the DPT) before this point must be durable before
+        // restart recovery can begin from this checkpoint
+        diskSpaceManager.sync();
+
         // Update master record
         MasterLogRecord masterRecord = new MasterLogRecord(beginLSN);
         logManager.rewriteMasterRecord(masterRecord);
+        lastCheckpointLSN = beginLSN;
+
+        // Restart recovery from this checkpoint on never reads the log below minRecoveryLSN
+        logManager.truncate(minRecoveryLSN);
+    }
+
+    /**
+     * Oldest LSN that restart recovery from a checkpoint beginning at beginLSN may read:
+     * analysis starts at beginLSN, redo at the smallest recLSN in the dirty page table, and
+     * undo goes back to the first record of each transaction that has not finished.
+     */
+    private long minRecoveryLSN(long beginLSN) {
+        long LSN = beginLSN;
+        for (long recLSN : dirtyPageTable.values()) {
+            LSN = Math.min(LSN, recLSN);
+        }
+        for (TransactionTableEntry entry : transactionTable.values()) {
+            if (entry.lastLSN != 0) {
+                LSN = Math.min(LSN, entry.firstLSN);
+            }
+        }
+        return LSN;
     }
 
     // TODO(hw5): add any helper methods needed
 
     @Override
     public void close() {
-        this.checkpoint();
-        this.logManager.close();
+        try {
+            this.disableBackgroundWriter();
+        } finally {
+            this.checkpoint();
+            if (this.groupCommitFlusher != null) {
+                this.groupCommitFlusher.close();
+            }
+            this.logManager.close();
+        }
     }
 
     // Restart Recovery //////////////////////////////////////////////////////////////////////
@@ -813,6 +1027,11 @@ public class ARIESRecoveryManager implements RecoveryManager {
         }
 
         Iterator<LogRecord> iter = this.logManager.scanFrom(startLSN);
+        if (this.redoThreads > 1) {
+            new ParallelRedo(this.redoThreads, this::redoPageRecord,
+                             r -> r.redo(diskSpaceManager, bufferManager)).run(iter);
+            return;
+        }
         while(iter.hasNext()) {
             LogRecord r = iter.next();
             if (!r.isRedoable()) {
@@ -822,26 +1041,35 @@ public class ARIESRecoveryManager implements RecoveryManager {
             if (r.getPartNum().isPresent()) { // about a partition
                 r.redo(diskSpaceManager, bufferManager);
             } else if (r.getPageNum().isPresent()) { // about a page
-                long pageID = r.getPageNum().get();
-                boolean noLessThanRecLSN = this.dirtyPageTable.containsKey(pageID) &&
-                        (r.getLSN() >= this.dirtyPageTable.get(pageID));
-                Page page = this.bufferManager.fetchPage(this.getPageLockContext(pageID).parentContext(),
-                                                         pageID, false); // last parameter need to reconsider
-                long pageLSN = Long.MAX_VALUE;
-                try{
-                    pageLSN = page.getPageLSN();
-                } finally {
-                    page.unpin();
-                }
-                boolean greaterThanPageLSN = r.getLSN() > pageLSN;
-                if (noLessThanRecLSN && greaterThanPageLSN) {
-                    r.redo(diskSpaceManager, bufferManager);
-                }
+                this.redoPageRecord(r);
             }
         }
         return;
     }
 
+    /**
+     * Redoes a redoable record about a page, if the page is in the DPT with a recLSN no
+     * greater than the record's LSN, and the page's pageLSN is less than the record's LSN.
+     */
+    private void redoPageRecord(LogRecord r) {
+        long pageID = r.getPageNum().get();
+        Long recLSN = this.dirtyPageTable.get(pageID);
+        if (recLSN == null || r.getLSN() < recLSN) {
+            return;
+        }
+        Page page = this.bufferManager.fetchPage(this.getPageLockContext(pageID).parentContext(),
+                                                 pageID, false);
+        long pageLSN;
+        try {
+            pageLSN = page.getPageLSN();
+        } finally {
+            page.unpin();
+        }
+        if (r.getLSN() > pageLSN) {
+            r.redo(diskSpaceManager, bufferManager);
+        }
+    }
+
     /**
      * This method performs the redo pass of restart recovery.
 
@@ -0,0 +1,91 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.PeriodicThread;
+import edu.berkeley.cs186.database.memory.BufferManager;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Background writer. Every round, the writer writes out up to pagesPerRound cold dirty
+ * pages (see BufferManager#writeColdPages); the pageLSN of each is flushed first, and
+ * writing a page removes it from the dirty page table through diskIOHook, so that the DPT
+ * stays small and redo starts from a recent recLSN.
+ *
+ * The writer also takes a checkpoint once checkpointMillis have passed since the last
+ * checkpoint, or once checkpointLogBytes of log have been written since it began,
+ * whichever comes first (either trigger is disabled by setting it to 0). Checkpoints are
+ * fuzzy: they run concurrently with transactions.
+ *
+ * A round that fails is retried at the next round; failures are counted, and the last one
+ * is rethrown when the writer is closed (see PeriodicThread).
+ */
+class BackgroundWriter implements AutoCloseable {
+    private ARIESRecoveryManager recoveryManager;
+    private BufferManager bufferManager;
+    private int pagesPerRound;
+    private long checkpointNanos;
+    private long checkpointLogBytes;
+    private long lastCheckpoint = System.nanoTime();
+
+    private PeriodicThread writerThread;
+
+    private AtomicLong numPagesWritten = new AtomicLong();
+    private AtomicLong numCheckpoints = new AtomicLong();
+
+    /**
+     * @param recoveryManager recovery manager to take checkpoints with
+     * @param bufferManager buffer manager to write pages of
+     * @param roundMillis time between rounds
+     * @param pagesPerRound maximum number of pages to write per round
+     * @param checkpointMillis time between checkpoints, or 0 to not checkpoint on a timer
+     * @param checkpointLogBytes amount of log between checkpoints, or 0 to not checkpoint on log volume
+     */
+    BackgroundWriter(ARIESRecoveryManager recoveryManager, BufferManager bufferManager, long roundMillis,
+                     int pagesPerRound, long checkpointMillis, long checkpointLogBytes) {
+        this.recoveryManager = recoveryManager;
+        this.bufferManager = bufferManager;
+        this.pagesPerRound = pagesPerRound;
+        this.checkpointNanos = TimeUnit.MILLISECONDS.toNanos(checkpointMillis);
+        this.checkpointLogBytes = checkpointLogBytes;
+        this.writerThread = new PeriodicThread("background-writer", roundMillis, this::round);
+    }
+
+    /**
+     * @return number of pages written by the writer
+     */
+    long getNumPagesWritten() {
+        return numPagesWritten.get();
+    }
+
+    /**
+     * @return number of checkpoints taken by the writer
+     */
+    long getNumCheckpoints() {
+        return numCheckpoints.get();
+    }
+
+    /**
+     * Stops the writer thread, waiting for the current round to finish.
+     * @throws IllegalStateException if any round failed, with the last failure as its cause
+     */
+    @Override
+    public void close() {
+        writerThread.close();
+    }
+
+    private void round() {
+        if (pagesPerRound > 0) {
+            numPagesWritten.addAndGet(bufferManager.writeColdPages(pagesPerRound));
+        }
+        long now = System.nanoTime();
+        boolean timerDue = checkpointNanos > 0 && now - lastCheckpoint >= checkpointNanos;
+        boolean logDue = checkpointLogBytes > 0 &&
+                         recoveryManager.getLogBytesSinceCheckpoint() >= checkpointLogBytes;
+        if (timerDue || logDue) {
+            recoveryManager.checkpoint();
+            numCheckpoints.incrementAndGet();
+            lastCheckpoint = now;
+        }
+    }
+}
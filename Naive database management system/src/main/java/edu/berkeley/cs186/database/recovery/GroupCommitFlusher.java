@@ -0,0 +1,166 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Background log flusher for group commit. Instead of every committing transaction
+ * flushing the log itself, committers hand their commit LSN to the flusher and wait
+ * on a future. Requests that arrive while a flush is in progress form the next batch, and
+ * the log is flushed once for the entire batch.
+ *
+ * If the previous batch had more than one request (i.e. commits are concurrent), the flusher
+ * also waits for more requests until either the batch window has passed since the first
+ * request of the batch, or the requests cover at least maxBatchBytes of unflushed log. A lone
+ * committer is never delayed by the window.
+ */
+class GroupCommitFlusher implements AutoCloseable {
+    private LogManager logManager;
+    // How long to wait for more requests after the first request of a batch
+    private long windowNanos;
+    // Amount of unflushed log after which a batch is flushed without waiting out the window
+    private long maxBatchBytes;
+
+    // Lock on pending requests
+    private ReentrantLock lock = new ReentrantLock();
+    private Condition requestsAvailable = lock.newCondition();
+    private List<Request> pending = new ArrayList<>();
+    private boolean closed = false;
+    // Number of requests in the previous batch
+    private int lastBatchSize = 0;
+
+    private Thread flusherThread;
+
+    private static class Request {
+        private long LSN;
+        private CompletableFuture<Long> flushed = new CompletableFuture<>();
+
+        private Request(long LSN) {
+            this.LSN = LSN;
+        }
+    }
+
+    /**
+     * @param logManager log manager to flush
+     * @param windowMicros how long to collect requests for before flushing
+     * @param maxBatchBytes amount of unflushed log at which to flush without waiting out the window
+     */
+    GroupCommitFlusher(LogManager logManager, long windowMicros, int maxBatchBytes) {
+        this.logManager = logManager;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+        this.maxBatchBytes = maxBatchBytes;
+        this.flusherThread = new Thread(this::run, "group-commit-flusher");
+        this.flusherThread.setDaemon(true);
+        this.flusherThread.start();
+    }
+
+    /**
+     * Requests that the log be flushed up to at least LSN.
+     * @param LSN LSN that must be durable
+     * @return future completed with LSN once the log has been flushed past it
+     */
+    CompletableFuture<Long> requestFlush(long LSN) {
+        Request request = new Request(LSN);
+        if (LSN <= logManager.getFlushedLSN()) {
+            request.flushed.complete(LSN);
+            return request.flushed;
+        }
+        lock.lock();
+        try {
+            if (closed) {
+                throw new IllegalStateException("group commit flusher is closed");
+            }
+            pending.add(request);
+            requestsAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        return request.flushed;
+    }
+
+    /**
+     * Flushes any outstanding requests and stops the flusher thread.
+     */
+    @Override
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            requestsAvailable.signal();
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusherThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void run() {
+        while (true) {
+            List<Request> batch;
+            lock.lock();
+            try {
+                while (pending.isEmpty() && !closed) {
+                    requestsAvailable.awaitUninterruptibly();
+                }
+                if (pending.isEmpty()) {
+                    return;
+                }
+                long deadline = System.nanoTime() + windowNanos;
+                long remaining = lastBatchSize > 1 ? windowNanos : 0;
+                while (!closed && remaining > 0 && unflushedBytes(maxLSN(pending)) < maxBatchBytes) {
+                    try {
+                        remaining = requestsAvailable.awaitNanos(remaining);
+                    } catch (InterruptedException e) {
+                        break;
+                    }
+                    remaining = Math.min(remaining, deadline - System.nanoTime());
+                }
+                batch = pending;
+                pending = new ArrayList<>();
+                lastBatchSize = batch.size();
+            } finally {
+                lock.unlock();
+            }
+
+            long LSN = maxLSN(batch);
+            try {
+                logManager.flushToLSN(LSN);
+            } catch (RuntimeException e) {
+                for (Request request : batch) {
+                    request.flushed.completeExceptionally(e);
+                }
+                continue;
+            }
+            for (Request request : batch) {
+                request.flushed.complete(request.LSN);
+            }
+        }
+    }
+
+    /**
+     * @param LSN LSN to flush up to
+     * @return approximate number of bytes of log between the flushed LSN and LSN
+     */
+    private long unflushedBytes(long LSN) {
+        long flushedPage = LogManagerImpl.getLSNPage(logManager.getFlushedLSN());
+        long pages = LogManagerImpl.getLSNPage(LSN) - flushedPage - 1;
+        return pages * DiskSpaceManager.PAGE_SIZE + LogManagerImpl.getLSNIndex(LSN);
+    }
+
+    private static long maxLSN(List<Request> requests) {
+        long LSN = 0;
+        for (Request request : requests) {
+            LSN = Math.max(LSN, request.LSN);
+        }
+        return LSN;
+    }
+}
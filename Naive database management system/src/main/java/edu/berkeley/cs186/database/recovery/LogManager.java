@@ -36,6 +36,18 @@ public interface LogManager extends Iterable<LogRecord>, AutoCloseable {
      */
     long getFlushedLSN();
 
+    /**
+     * @return LSN just past the last record appended to the log
+     */
+    long getEndLSN();
+
+    /**
+     * Discards log pages that lie entirely below the specified record, if the log
+     * supports doing so. Records below LSN may no longer be fetched or scanned.
+     * @param LSN lowest LSN that recovery may still need
+     */
+    void truncate(long LSN);
+
     /**
      * Scan forward in the log from LSN.
      * @param LSN LSN to start scanning from
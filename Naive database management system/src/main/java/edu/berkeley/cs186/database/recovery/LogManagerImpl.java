@@ -35,15 +35,23 @@ import java.util.*;
  */
 class LogManagerImpl implements LogManager {
     private BufferManager bufferManager;
+    // disk space manager to sync the log partition with after flushing log pages (may be null,
+    // if the disk space manager forces every write)
+    private DiskSpaceManager diskSpaceManager;
     private Deque<Page> unflushedLogTail;
     private Page logTail;
     private Buffer logTailBuffer;
-    private long flushedLSN;
+    private volatile long flushedLSN;
 
     private static final int LOG_PARTITION = 0;
 
     LogManagerImpl(BufferManager bufferManager) {
+        this(bufferManager, null);
+    }
+
+    LogManagerImpl(BufferManager bufferManager, DiskSpaceManager diskSpaceManager) {
         this.bufferManager = bufferManager;
+        this.diskSpaceManager = diskSpaceManager;
         this.unflushedLogTail = new ArrayDeque<>();
 
         this.logTail = bufferManager.fetchNewPage(new DummyLockContext(), LOG_PARTITION, true);
@@ -67,6 +75,7 @@ class LogManagerImpl implements LogManager {
         } finally {
             firstPage.unpin();
         }
+        syncLogPartition();
     }
 
     /**
@@ -136,6 +145,7 @@ class LogManagerImpl implements LogManager {
             page.flush();
             iter.remove();
         }
+        syncLogPartition();
         flushedLSN = Math.max(flushedLSN, maxLSN(pageNum));
         if (unflushedLogTail.size() == 0) {
             logTail = null;
@@ -151,6 +161,32 @@ class LogManagerImpl implements LogManager {
         return flushedLSN;
     }
 
+    @Override
+    public synchronized long getEndLSN() {
+        if (logTailBuffer == null) {
+            // the last page was flushed, and the next record starts a new one
+            return makeLSN(getLSNPage(flushedLSN) + 1, 0);
+        }
+        return makeLSN(unflushedLogTail.getLast().getPageNum(), logTailBuffer.position());
+    }
+
+    /**
+     * Log pages are never deleted, since page numbers (and therefore LSNs) must keep
+     * increasing, so the log is never truncated.
+     * @param LSN lowest LSN that recovery may still need
+     */
+    @Override
+    public void truncate(long LSN) {}
+
+    /**
+     * Forces flushed log pages to disk, for disk space managers that do not do so on every write.
+     */
+    private void syncLogPartition() {
+        if (diskSpaceManager != null) {
+            diskSpaceManager.sync(LOG_PARTITION);
+        }
+    }
+
     /**
      * Generates LSN from log page number and index
      * @param pageNum page number of log page
@@ -188,6 +224,17 @@ class LogManagerImpl implements LogManager {
         return (int) (LSN % 10000L);
     }
 
+    /**
+     * Approximate number of bytes of log between two LSNs (log pages are counted as full)
+     * @param fromLSN LSN to measure from
+     * @param toLSN LSN to measure to
+     * @return number of bytes of log from fromLSN up to toLSN
+     */
+    static long bytesBetween(long fromLSN, long toLSN) {
+        return (getLSNPage(toLSN) - getLSNPage(fromLSN)) * DiskSpaceManager.PAGE_SIZE +
+               getLSNIndex(toLSN) - getLSNIndex(fromLSN);
+    }
+
     /**
      * Scan forward in the log from LSN.
      * @param LSN LSN to start scanning from
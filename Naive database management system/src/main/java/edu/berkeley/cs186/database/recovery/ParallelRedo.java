@@ -0,0 +1,171 @@
+package edu.berkeley.cs186.database.recovery;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Redo pass run by several worker threads. The calling thread reads the log and hands each
+ * record about a page to one of the workers, picked by hashing the page number, so that
+ * all records of a page are redone by the same worker in log order; records about
+ * different pages are redone in parallel.
+ *
+ * Records about a partition (Alloc/Free/Undo..Part) may affect every page of the
+ * partition, so before one is redone (on the calling thread), all records dispatched
+ * before it are finished.
+ */
+class ParallelRedo {
+    // Number of records queued for a worker before the reader waits for it
+    private static final int QUEUE_CAPACITY = 1024;
+    // Queued after the last record to stop a worker
+    private static final LogRecord END = new MasterLogRecord(-1);
+
+    private Consumer<LogRecord> redoPageRecord;
+    private Consumer<LogRecord> redoPartRecord;
+    private List<BlockingQueue<LogRecord>> queues;
+    private Thread[] workers;
+
+    // Number of records dispatched but not yet redone; guarded by this for waiting on it
+    private AtomicLong outstanding = new AtomicLong();
+    // First exception thrown by a worker, after which the remaining records are dropped
+    private volatile Throwable failure;
+
+    /**
+     * @param numWorkers number of worker threads
+     * @param redoPageRecord redoes a record about a page, if it needs to be
+     * @param redoPartRecord redoes a record about a partition
+     */
+    ParallelRedo(int numWorkers, Consumer<LogRecord> redoPageRecord, Consumer<LogRecord> redoPartRecord) {
+        this.redoPageRecord = redoPageRecord;
+        this.redoPartRecord = redoPartRecord;
+        this.queues = new ArrayList<>(numWorkers);
+        this.workers = new Thread[numWorkers];
+        for (int i = 0; i < numWorkers; ++i) {
+            BlockingQueue<LogRecord> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            this.queues.add(queue);
+            this.workers[i] = new Thread(() -> this.work(queue), "redo-worker-" + i);
+            this.workers[i].setDaemon(true);
+        }
+    }
+
+    /**
+     * Redoes the redoable records of records, returning once all of them have been redone.
+     * @param records log records, in log order
+     */
+    void run(Iterator<LogRecord> records) {
+        for (Thread worker : workers) {
+            worker.start();
+        }
+        try {
+            while (records.hasNext() && failure == null) {
+                LogRecord record = records.next();
+                if (!record.isRedoable()) {
+                    continue;
+                }
+                if (record.getPartNum().isPresent()) {
+                    awaitOutstanding();
+                    if (failure == null) {
+                        redoPartRecord.accept(record);
+                    }
+                } else if (record.getPageNum().isPresent()) {
+                    outstanding.incrementAndGet();
+                    put(queues.get(Math.floorMod(Long.hashCode(record.getPageNum().get()), queues.size())), record);
+                }
+            }
+        } finally {
+            for (BlockingQueue<LogRecord> queue : queues) {
+                put(queue, END);
+            }
+            for (Thread worker : workers) {
+                boolean interrupted = false;
+                while (worker.isAlive()) {
+                    try {
+                        worker.join();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (interrupted) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw (RuntimeException) failure;
+        }
+    }
+
+    private void work(BlockingQueue<LogRecord> queue) {
+        while (true) {
+            LogRecord record = take(queue);
+            if (record == END) {
+                return;
+            }
+            try {
+                if (failure == null) {
+                    redoPageRecord.accept(record);
+                }
+            } catch (RuntimeException | Error e) {
+                synchronized (this) {
+                    if (failure == null) {
+                        failure = e;
+                    }
+                }
+            } finally {
+                if (outstanding.decrementAndGet() == 0) {
+                    synchronized (this) {
+                        this.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until every record dispatched to a worker has been redone.
+     */
+    private synchronized void awaitOutstanding() {
+        boolean interrupted = false;
+        while (outstanding.get() > 0) {
+            try {
+                this.wait();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void put(BlockingQueue<LogRecord> queue, LogRecord record) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                queue.put(record);
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static LogRecord take(BlockingQueue<LogRecord> queue) {
+        while (true) {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // workers are only stopped by END
+            }
+        }
+    }
+}
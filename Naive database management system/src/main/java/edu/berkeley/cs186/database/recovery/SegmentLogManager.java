@@ -0,0 +1,599 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.PageException;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * A LogManager that stores the log in its own files, written directly with FileChannel,
+ * instead of in partition 0 through the buffer manager. LSNs are assigned in the same way as
+ * by LogManagerImpl (page number * 10000 + index within the page, with the master record at
+ * LSN 0), and flushing works on whole pages as it does there, so the two are interchangeable
+ * as far as the recovery manager is concerned.
+ *
+ * Pages that have not been written yet are kept in a ring of numSlots page-sized slots of
+ * direct memory, allocated once up front; page p is kept in slot p % numSlots. Pages are
+ * written out when the log is flushed, or, if the ring is full when a new page is started,
+ * the oldest page is written (but not forced) to make room for it.
+ *
+ * Appends do not take a lock. An appender reserves space for its record at the end of the
+ * log by a compare-and-set on tail, which holds the last page and the position in it where
+ * the next record goes, and then copies the record into the reserved space in parallel with
+ * other appenders. A record that does not fit in the rest of the last page seals the page
+ * (no more records go in it) and is reserved at the start of the next one. Each slot counts
+ * the bytes copied into it, so a page is complete once it is sealed and all the bytes reserved
+ * in it have been copied; the log is only written (and flushedLSN only advanced) up to
+ * complete pages. Flushing the last page seals it, as the next record after a flush of
+ * LogManagerImpl also starts a new page.
+ *
+ * Page 0, which holds the master record, is stored in its own file, which is never truncated.
+ * The other pages are stored in segment files of pagesPerSegment pages each: segment s holds
+ * pages s * pagesPerSegment + 1 through (s + 1) * pagesPerSegment, and is named s.log. Once a
+ * segment is full, the next page starts a new segment file. Segments that lie entirely below
+ * the oldest LSN that recovery may still need can be deleted with truncate.
+ */
+class SegmentLogManager implements LogManager {
+    static final String MASTER_FILE_NAME = "master";
+    private static final String SEGMENT_FILE_SUFFIX = ".log";
+    private static final int DEFAULT_PAGES_PER_SEGMENT = 1024;
+    private static final int DEFAULT_NUM_SLOTS = 64;
+    private static final byte[] EMPTY_PAGE = new byte[DiskSpaceManager.PAGE_SIZE];
+
+    private File dir;
+    private int pagesPerSegment;
+    private int numSlots;
+    // Slots of the pages not yet written
+    private ByteBuffer ring;
+    // Number of bytes copied into each slot
+    private AtomicIntegerArray slotFilled;
+    // Number of bytes reserved in the page of each slot when it was sealed, or -1 if it has
+    // not been sealed
+    private AtomicIntegerArray slotSealedAt;
+
+    private FileChannel masterChannel;
+    // Segment number -> segment file
+    private TreeMap<Long, FileChannel> segments = new TreeMap<>();
+    // Files written to since they were last forced
+    private Set<FileChannel> unforced = new HashSet<>();
+    // Lock on writing and reading pages, and on the files
+    private ReentrantLock lock = new ReentrantLock();
+    // Held shared while a written page is read from its file, and exclusively while files are
+    // closed or deleted; taken before lock
+    private ReentrantReadWriteLock fileLock = new ReentrantReadWriteLock();
+
+    // Lowest page other than page 0 that has not been truncated
+    private volatile long firstPage;
+    // Pages up to and including writtenPage have been written to their files
+    private volatile long writtenPage;
+    // Last page of the log (in the upper bits) and the position in it to append the next
+    // record at (in the lower TAIL_POSITION_BITS bits); the position is PAGE_SIZE if the
+    // page is sealed and the next record must start a new page
+    private AtomicLong tail;
+    private volatile long flushedLSN;
+
+    private static final int TAIL_POSITION_BITS = 16;
+
+    SegmentLogManager(File dir) {
+        this(dir, DEFAULT_PAGES_PER_SEGMENT, DEFAULT_NUM_SLOTS);
+    }
+
+    /**
+     * Opens the log in dir, creating it if it does not exist. Records appended to an existing
+     * log start on a new page.
+     * @param dir directory of the log files
+     * @param pagesPerSegment number of pages per segment file
+     * @param numSlots number of pages that may be buffered in memory before they are written
+     */
+    SegmentLogManager(File dir, int pagesPerSegment, int numSlots) {
+        if (pagesPerSegment < 1 || numSlots < 2) {
+            throw new IllegalArgumentException("need at least 1 page per segment and 2 slots");
+        }
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new PageException("could not create log directory " + dir);
+        }
+        this.dir = dir;
+        this.pagesPerSegment = pagesPerSegment;
+        this.numSlots = numSlots;
+        this.ring = ByteBuffer.allocateDirect(numSlots * DiskSpaceManager.PAGE_SIZE);
+        this.slotFilled = new AtomicIntegerArray(numSlots);
+        this.slotSealedAt = new AtomicIntegerArray(numSlots);
+        for (int i = 0; i < numSlots; ++i) {
+            this.slotSealedAt.set(i, -1);
+        }
+
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new PageException("could not list log directory " + dir);
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (name.endsWith(SEGMENT_FILE_SUFFIX)) {
+                long segment = Long.parseLong(name.substring(0, name.length() - SEGMENT_FILE_SUFFIX.length()));
+                this.segments.put(segment, open(f));
+            }
+        }
+        this.masterChannel = open(new File(dir, MASTER_FILE_NAME));
+
+        long lastPage;
+        try {
+            if (this.masterChannel.size() == 0) {
+                lastPage = -1;
+            } else if (this.segments.isEmpty()) {
+                lastPage = 0;
+            } else {
+                long lastSegment = this.segments.lastKey();
+                long size = this.segments.get(lastSegment).size();
+                lastPage = lastSegment * pagesPerSegment +
+                           (size + DiskSpaceManager.PAGE_SIZE - 1) / DiskSpaceManager.PAGE_SIZE;
+            }
+        } catch (IOException e) {
+            throw new PageException("could not open log: " + e.getMessage());
+        }
+        this.firstPage = this.segments.isEmpty() ? Math.max(1, lastPage + 1) :
+                         this.segments.firstKey() * pagesPerSegment + 1;
+        this.writtenPage = lastPage;
+        this.tail = new AtomicLong(makeTail(lastPage, DiskSpaceManager.PAGE_SIZE));
+        this.flushedLSN = LogManagerImpl.maxLSN(lastPage);
+    }
+
+    private static long makeTail(long pageNum, int position) {
+        return (pageNum << TAIL_POSITION_BITS) | position;
+    }
+
+    private static long getTailPage(long tail) {
+        return tail >> TAIL_POSITION_BITS;
+    }
+
+    private static int getTailPosition(long tail) {
+        return (int) (tail & ((1 << TAIL_POSITION_BITS) - 1));
+    }
+
+    private static FileChannel open(File f) {
+        try {
+            return new RandomAccessFile(f, "rw").getChannel();
+        } catch (IOException e) {
+            throw new PageException("could not open log file " + f + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Writes to the first record in the log. The rest of the log is flushed first, so that the
+     * master record never points to a record that is not on disk.
+     * @param record log record to replace first record with
+     */
+    @Override
+    public void rewriteMasterRecord(MasterLogRecord record) {
+        lock.lock();
+        try {
+            flushToLSN(LogManagerImpl.maxLSN(getTailPage(tail.get())));
+            try {
+                write(masterChannel, ByteBuffer.wrap(record.toBytes()), 0);
+                masterChannel.force(false);
+            } catch (IOException e) {
+                throw new PageException("could not write master record: " + e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Appends a log record to the log.
+     * @param record log record to append to the log
+     * @return LSN of new log record
+     */
+    @Override
+    public long appendToLog(LogRecord record) {
+        byte[] bytes = record.toBytes();
+        long pageNum;
+        int position;
+        while (true) {
+            long t = tail.get();
+            pageNum = getTailPage(t);
+            position = getTailPosition(t);
+            if (bytes.length <= DiskSpaceManager.PAGE_SIZE - position) {
+                if (tail.compareAndSet(t, makeTail(pageNum, position + bytes.length))) {
+                    if (position + bytes.length == DiskSpaceManager.PAGE_SIZE) {
+                        // the record fills the page exactly, so nobody else will seal it
+                        seal(pageNum, DiskSpaceManager.PAGE_SIZE);
+                    }
+                    break;
+                }
+            } else if (tail.compareAndSet(t, makeTail(pageNum + 1, bytes.length))) {
+                if (position < DiskSpaceManager.PAGE_SIZE) {
+                    seal(pageNum, position);
+                }
+                ++pageNum;
+                position = 0;
+                break;
+            }
+        }
+
+        awaitSlot(pageNum);
+        ByteBuffer slot = ring.duplicate();
+        slot.position(slotIndex(pageNum) * DiskSpaceManager.PAGE_SIZE + position);
+        slot.put(bytes);
+        slotFilled.addAndGet(slotIndex(pageNum), bytes.length);
+
+        long LSN = LogManagerImpl.makeLSN(pageNum, position);
+        record.LSN = LSN;
+        return LSN;
+    }
+
+    /**
+     * Records that a page was sealed with size bytes reserved in it.
+     */
+    private void seal(long pageNum, int size) {
+        awaitSlot(pageNum);
+        slotSealedAt.set(slotIndex(pageNum), size);
+    }
+
+    /**
+     * Waits until the slot of pageNum is no longer used by an older page, writing out the
+     * oldest pages if need be.
+     */
+    private void awaitSlot(long pageNum) {
+        // Spin rather than block on the lock: the thread holding it may be waiting for this
+        // thread to copy a record into a page it has reserved space in
+        while (pageNum - writtenPage > numSlots) {
+            if (lock.tryLock()) {
+                try {
+                    if (pageNum - writtenPage > numSlots) {
+                        writePage(writtenPage + 1);
+                    }
+                } finally {
+                    lock.unlock();
+                }
+            } else {
+                Thread.yield();
+            }
+        }
+    }
+
+    /**
+     * Fetches a specific log record.
+     * @param LSN LSN of record to fetch
+     * @return log record with the specified LSN or null if no record found
+     */
+    @Override
+    public LogRecord fetchLogRecord(long LSN) {
+        byte[] page = readPage(LogManagerImpl.getLSNPage(LSN));
+        if (page == null) {
+            return null;
+        }
+        return new PageReader(LogManagerImpl.getLSNPage(LSN), page, LogManagerImpl.getLSNIndex(LSN)).next()
+               .orElse(null);
+    }
+
+    /**
+     * Flushes the log to at least the specified record,
+     * essentially flushing up to and including the page
+     * that contains the record specified by the LSN.
+     * @param LSN LSN up to which the log should be flushed
+     */
+    @Override
+    public void flushToLSN(long LSN) {
+        lock.lock();
+        try {
+            long pageNum = sealThrough(LogManagerImpl.getLSNPage(LSN));
+            while (writtenPage < pageNum) {
+                writePage(writtenPage + 1);
+            }
+            try {
+                for (FileChannel channel : unforced) {
+                    channel.force(false);
+                }
+            } catch (IOException e) {
+                throw new PageException("could not flush log: " + e.getMessage());
+            }
+            unforced.clear();
+            flushedLSN = Math.max(flushedLSN, LogManagerImpl.maxLSN(pageNum));
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Seals the last page of the log if it is at or below pageNum.
+     * @return pageNum, or the last page of the log if that is lower; either way, it and
+     * every page before it are sealed
+     */
+    private long sealThrough(long pageNum) {
+        while (true) {
+            long t = tail.get();
+            long lastPage = getTailPage(t);
+            int position = getTailPosition(t);
+            if (lastPage > pageNum || position == DiskSpaceManager.PAGE_SIZE) {
+                return Math.min(lastPage, pageNum);
+            }
+            if (tail.compareAndSet(t, makeTail(lastPage, DiskSpaceManager.PAGE_SIZE))) {
+                seal(lastPage, position);
+                return lastPage;
+            }
+        }
+    }
+
+    /**
+     * @return flushedLSN
+     */
+    @Override
+    public long getFlushedLSN() {
+        return flushedLSN;
+    }
+
+    @Override
+    public long getEndLSN() {
+        long t = tail.get();
+        if (getTailPosition(t) == DiskSpaceManager.PAGE_SIZE) {
+            return LogManagerImpl.makeLSN(getTailPage(t) + 1, 0);
+        }
+        return LogManagerImpl.makeLSN(getTailPage(t), getTailPosition(t));
+    }
+
+    /**
+     * Deletes the segments whose pages all lie below the page of LSN. Page 0 is never deleted.
+     * @param LSN lowest LSN that must be kept
+     */
+    @Override
+    public void truncate(long LSN) {
+        fileLock.writeLock().lock();
+        lock.lock();
+        try {
+            long pageNum = Math.min(LogManagerImpl.getLSNPage(LSN), writtenPage + 1);
+            Iterator<Map.Entry<Long, FileChannel>> iter = segments.entrySet().iterator();
+            while (iter.hasNext()) {
+                Map.Entry<Long, FileChannel> entry = iter.next();
+                long segmentEnd = (entry.getKey() + 1) * pagesPerSegment;
+                if (segmentEnd >= pageNum) {
+                    break;
+                }
+                try {
+                    entry.getValue().close();
+                } catch (IOException e) {
+                    throw new PageException("could not close log segment: " + e.getMessage());
+                }
+                unforced.remove(entry.getValue());
+                iter.remove();
+                File f = segmentFile(entry.getKey());
+                if (!f.delete()) {
+                    throw new PageException("could not delete log segment " + f);
+                }
+                firstPage = segmentEnd + 1;
+            }
+        } finally {
+            lock.unlock();
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    private int slotIndex(long pageNum) {
+        return (int) (pageNum % numSlots);
+    }
+
+    /**
+     * @return view of the ring slot of pageNum
+     */
+    private ByteBuffer slot(long pageNum) {
+        ByteBuffer slot = ring.duplicate();
+        int offset = slotIndex(pageNum) * DiskSpaceManager.PAGE_SIZE;
+        slot.position(offset).limit(offset + DiskSpaceManager.PAGE_SIZE);
+        return slot.slice();
+    }
+
+    private File segmentFile(long segment) {
+        return new File(dir, segment + SEGMENT_FILE_SUFFIX);
+    }
+
+    /**
+     * Writes a page from its ring slot to its file, and frees the slot. The page must be
+     * writtenPage + 1, and must be sealed (or about to be); waits for all the bytes reserved
+     * in it to be copied.
+     */
+    private void writePage(long pageNum) {
+        assert (pageNum == writtenPage + 1);
+        int slotIndex = slotIndex(pageNum);
+        while (slotSealedAt.get(slotIndex) < 0 || slotFilled.get(slotIndex) != slotSealedAt.get(slotIndex)) {
+            Thread.yield();
+        }
+        FileChannel channel = masterChannel;
+        long position = 0;
+        if (pageNum != 0) {
+            long segment = (pageNum - 1) / pagesPerSegment;
+            channel = segments.computeIfAbsent(segment, s -> open(segmentFile(s)));
+            position = (pageNum - 1) % pagesPerSegment * DiskSpaceManager.PAGE_SIZE;
+        }
+        try {
+            write(channel, slot(pageNum), position);
+        } catch (IOException e) {
+            throw new PageException("could not write log page " + pageNum + ": " + e.getMessage());
+        }
+        unforced.add(channel);
+        slot(pageNum).put(EMPTY_PAGE);
+        slotFilled.set(slotIndex, 0);
+        slotSealedAt.set(slotIndex, -1);
+        writtenPage = pageNum;
+    }
+
+    private static void write(FileChannel channel, ByteBuffer src, long position) throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    /**
+     * Reads a log page, from its ring slot if it has not been written yet.
+     * @return contents of the page, or null if the page does not exist
+     */
+    private byte[] readPage(long pageNum) {
+        byte[] page = new byte[DiskSpaceManager.PAGE_SIZE];
+        FileChannel channel;
+        long position = 0;
+        // the file cannot be closed or deleted by truncate or close until it has been read
+        fileLock.readLock().lock();
+        try {
+            lock.lock();
+            try {
+                if (pageNum < 0 || pageNum > getTailPage(tail.get()) || (pageNum != 0 && pageNum < firstPage)) {
+                    return null;
+                }
+                if (pageNum > writtenPage) {
+                    slot(pageNum).get(page);
+                    return page;
+                }
+                channel = masterChannel;
+                if (pageNum != 0) {
+                    channel = segments.get((pageNum - 1) / pagesPerSegment);
+                    position = (pageNum - 1) % pagesPerSegment * DiskSpaceManager.PAGE_SIZE;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // written pages do not change, so they can be read without holding the lock
+            ByteBuffer dst = ByteBuffer.wrap(page);
+            try {
+                while (dst.hasRemaining()) {
+                    int n = channel.read(dst, position + dst.position());
+                    if (n < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                throw new PageException("could not read log page " + pageNum + ": " + e.getMessage());
+            }
+            return page;
+        } finally {
+            fileLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return page after pageNum that has not been truncated
+     */
+    private long nextPage(long pageNum) {
+        return Math.max(pageNum + 1, firstPage);
+    }
+
+    /**
+     * Scan forward in the log from LSN.
+     * @param LSN LSN to start scanning from
+     * @return iterator over log entries from LSN
+     */
+    @Override
+    public Iterator<LogRecord> scanFrom(long LSN) {
+        return new LogIterator(LSN);
+    }
+
+    @Override
+    public void print() {
+        for (LogRecord record : this) {
+            System.out.println(record);
+        }
+    }
+
+    /**
+     * Scan forward in the log from the first record.
+     * @return iterator over all log entries
+     */
+    @Override
+    public Iterator<LogRecord> iterator() {
+        return this.scanFrom(0);
+    }
+
+    @Override
+    public void close() {
+        fileLock.writeLock().lock();
+        lock.lock();
+        try {
+            long lastPage = getTailPage(tail.get());
+            if (lastPage > writtenPage || !unforced.isEmpty()) {
+                flushToLSN(LogManagerImpl.maxLSN(lastPage));
+            }
+            try {
+                masterChannel.close();
+                for (FileChannel channel : segments.values()) {
+                    channel.close();
+                }
+            } catch (IOException e) {
+                throw new PageException("could not close log: " + e.getMessage());
+            }
+        } finally {
+            lock.unlock();
+            fileLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Reads the records of a log page in order, from a given index on.
+     */
+    private static class PageReader {
+        private long pageNum;
+        private Buffer buf;
+
+        private PageReader(long pageNum, byte[] page, int index) {
+            this.pageNum = pageNum;
+            this.buf = edu.berkeley.cs186.database.common.ByteBuffer.wrap(page);
+            this.buf.position(index);
+        }
+
+        /**
+         * @return next record of the page, or empty if there are no more
+         */
+        private Optional<LogRecord> next() {
+            int index = buf.position();
+            if (index >= DiskSpaceManager.PAGE_SIZE) {
+                return Optional.empty();
+            }
+            Optional<LogRecord> record = LogRecord.fromBytes(buf);
+            record.ifPresent(r -> r.setLSN(LogManagerImpl.makeLSN(pageNum, index)));
+            return record;
+        }
+    }
+
+    private class LogIterator implements Iterator<LogRecord> {
+        private long pageNum;
+        private PageReader page;
+        private LogRecord nextRecord;
+
+        private LogIterator(long startLSN) {
+            this.pageNum = LogManagerImpl.getLSNPage(startLSN);
+            byte[] bytes = readPage(this.pageNum);
+            this.page = bytes == null ? null : new PageReader(this.pageNum, bytes, LogManagerImpl.getLSNIndex(startLSN));
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (this.nextRecord == null && this.page != null) {
+                Optional<LogRecord> record = this.page.next();
+                if (record.isPresent()) {
+                    this.nextRecord = record.get();
+                } else {
+                    this.pageNum = nextPage(this.pageNum);
+                    byte[] bytes = readPage(this.pageNum);
+                    this.page = bytes == null ? null : new PageReader(this.pageNum, bytes, 0);
+                }
+            }
+            return this.nextRecord != null;
+        }
+
+        @Override
+        public LogRecord next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            LogRecord record = this.nextRecord;
+            this.nextRecord = null;
+            return record;
+        }
+    }
+}
@@ -3,14 +3,19 @@ package edu.berkeley.cs186.database.recovery;
 import edu.berkeley.cs186.database.Transaction;
 
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 class TransactionTableEntry {
     // Transaction object for the transaction.
     Transaction transaction;
     // lastLSN of transaction, or 0 if no log entries for the transaction exist.
     long lastLSN = 0;
-    // Set of page numbers of all pages this transaction has modified in some way.
-    Set<Long> touchedPages = new HashSet<>();
+    // LSN of the first log record the transaction wrote to a page, or 0 if it has written none
+    // or it is not known (for transactions found during restart analysis).
+    long firstLSN = 0;
+    // Set of page numbers of all pages this transaction has modified in some way (concurrent,
+    // since checkpoints may run on another thread while the transaction runs).
+    Set<Long> touchedPages = ConcurrentHashMap.newKeySet();
     // map of transaction's savepoints
     private Map<String, Long> savepoints = new HashMap<>();
 
@@ -14,8 +14,7 @@ import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.Page;
 
-import java.util.NoSuchElementException;
-import java.util.Random;
+import java.util.*;
 
 /**
  * An implementation of a heap file, using a page directory. Assumes data pages are packed (but record
@@ -38,6 +37,14 @@ import java.util.Random;
  *
  * The page directory id is a randomly generated 32-bit integer used to help detect bugs (where we attempt
  * to write to a page that is not managed by the page directory).
+ *
+ * The free space of every data page is also kept in memory, in a free-space map built when the header pages
+ * are loaded and maintained as free space is reserved and updated. The map buckets data pages by their amount
+ * of free space, so that getPageWithSpace finds the page with the least free space that is enough (or an
+ * unused data page entry, if there is none) without reading through the header pages. Rolling back a
+ * transaction undoes its writes to header pages without going through the page directory, so an entry is
+ * checked against its header page before it is used, and the map is rebuilt from the header pages if it is
+ * found to be out of date.
  */
 public class PageDirectory implements HeapFile {
     // size of the header in header pages
@@ -64,6 +71,15 @@ public class PageDirectory implements HeapFile {
     // First header page
     private HeaderPage firstHeader;
 
+    // Header pages, by index (headerOffset)
+    private List<HeaderPage> headerPages = new ArrayList<>();
+
+    // Free-space map: entries of data pages (see entryId) by amount of free space
+    private TreeMap<Short, Set<Long>> pagesByFreeSpace = new TreeMap<>();
+
+    // Indices of header pages with unused data page entries
+    private BitSet headersWithUnusedEntries = new BitSet();
+
     // Size of metadata of an empty data page.
     private short emptyPageMetadataSize;
 
@@ -85,12 +101,23 @@ public class PageDirectory implements HeapFile {
      */
     public PageDirectory(BufferManager bufferManager, int partNum, long pageNum,
                          short emptyPageMetadataSize, LockContext lockContext) {
-        // TODO(hw4_part2): update table capacity
         this.bufferManager = bufferManager;
         this.partNum = partNum;
         this.emptyPageMetadataSize = emptyPageMetadataSize;
         this.lockContext = lockContext;
         this.firstHeader = new HeaderPage(pageNum, 0, true);
+        // the table's pages are the children of its lock context
+        this.lockContext.capacity(this.getNumDataPages());
+    }
+
+    // rebuilds the header pages and free-space map from the header pages on disk
+    private void reload() {
+        long firstHeaderPageNum = this.firstHeader.page.getPageNum();
+        this.headerPages.clear();
+        this.pagesByFreeSpace.clear();
+        this.headersWithUnusedEntries.clear();
+        this.firstHeader = new HeaderPage(firstHeaderPageNum, 0, true);
+        this.lockContext.capacity(this.getNumDataPages());
     }
 
     @Override
@@ -119,7 +146,7 @@ public class PageDirectory implements HeapFile {
             throw new IllegalArgumentException("requesting page with more space than the size of the page");
         }
 
-        Page page = this.firstHeader.loadPageWithSpace(requiredSpace);
+        Page page = this.loadPageWithSpace(requiredSpace);
         // acquire X explicitly, my modification
         LockContext lcPage = lockContext.childContext(page.getPageNum());
         LockUtil.ensureSufficientLockHeld(lcPage, LockType.X);
@@ -129,7 +156,7 @@ public class PageDirectory implements HeapFile {
 
     @Override
     public void updateFreeSpace(Page page, short newFreeSpace) {
-        if (newFreeSpace <= 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
+        if (newFreeSpace < 0 || newFreeSpace > EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
             throw new IllegalArgumentException("bad size for data page free space");
         }
 
@@ -145,11 +172,69 @@ public class PageDirectory implements HeapFile {
             page.unpin();
         }
 
-        HeaderPage headerPage = firstHeader;
-        for (int i = 0; i < headerIndex; ++i) {
-            headerPage = headerPage.nextPage;
+        if (!this.headerPages.get(headerIndex).updateSpace(page, offset, newFreeSpace)) {
+            this.reload();
+            this.headerPages.get(headerIndex).updateSpace(page, offset, newFreeSpace);
+        }
+    }
+
+    // gets and loads a page with the required free space, reserving the space
+    private Page loadPageWithSpace(short requiredSpace) {
+        Page page = this.findPageWithSpace(requiredSpace);
+        if (page == null) {
+            this.reload();
+            page = this.findPageWithSpace(requiredSpace);
+            if (page == null) {
+                throw new PageException("free-space map out of date after reloading header pages");
+            }
+        }
+        return page;
+    }
+
+    // gets and loads a page with the required free space using the free-space map, reserving the
+    // space, or returns null if the free-space map is found to be out of date
+    private Page findPageWithSpace(short requiredSpace) {
+        try {
+            // the data page with the least free space that is enough
+            Map.Entry<Short, Set<Long>> bucket = this.pagesByFreeSpace.ceilingEntry(requiredSpace);
+            if (bucket != null) {
+                long entryId = bucket.getValue().iterator().next();
+                HeaderPage headerPage = this.headerPages.get((int) (entryId / HEADER_ENTRY_COUNT));
+                return headerPage.reserveSpace((short) (entryId % HEADER_ENTRY_COUNT), requiredSpace);
+            }
+
+            // otherwise, a new data page in the first unused entry
+            int headerIndex = this.headersWithUnusedEntries.nextSetBit(0);
+            if (headerIndex == -1) {
+                if (!this.headerPages.get(this.headerPages.size() - 1).addNewHeaderPage()) {
+                    return null;
+                }
+                headerIndex = this.headerPages.size() - 1;
+            }
+            return this.headerPages.get(headerIndex).addDataPage(requiredSpace);
+        } catch (PageException e) {
+            // a header page added by a transaction that was rolled back has been freed
+            return null;
+        }
+    }
+
+    // identifies a data page entry in the free-space map
+    private static long entryId(int headerIndex, short index) {
+        return (long) headerIndex * HEADER_ENTRY_COUNT + index;
+    }
+
+    // adds a data page entry to the free-space map
+    private void addToFreeSpaceMap(long entryId, short freeSpace) {
+        this.pagesByFreeSpace.computeIfAbsent(freeSpace, k -> new LinkedHashSet<>()).add(entryId);
+    }
+
+    // removes a data page entry from the free-space map
+    private void removeFromFreeSpaceMap(long entryId, short freeSpace) {
+        Set<Long> bucket = this.pagesByFreeSpace.get(freeSpace);
+        bucket.remove(entryId);
+        if (bucket.isEmpty()) {
+            this.pagesByFreeSpace.remove(freeSpace);
         }
-        headerPage.updateSpace(page, offset, newFreeSpace);
     }
 
     @Override
@@ -160,10 +245,8 @@ public class PageDirectory implements HeapFile {
     @Override
     public int getNumDataPages() {
         int numDataPages = 0;
-        HeaderPage headerPage = firstHeader;
-        while (headerPage != null) {
+        for (HeaderPage headerPage : this.headerPages) {
             numDataPages += headerPage.numDataPages;
-            headerPage = headerPage.nextPage;
         }
         return numDataPages;
     }
@@ -249,8 +332,12 @@ public class PageDirectory implements HeapFile {
         private Page page;
         private short numDataPages;
         private int headerOffset;
+        // free space of each data page entry (-1 if unused), as on the page
+        private short[] freeSpace = new short[HEADER_ENTRY_COUNT];
 
         private HeaderPage(long pageNum, int headerOffset, boolean firstHeader) {
+            this.headerOffset = headerOffset;
+            headerPages.add(this);
             this.page = bufferManager.fetchPage(lockContext, pageNum, false);
             // We do not lock header pages for the entirety of the transaction. Instead, we simply
             // use the buffer frame lock (from pinning) to ensure that one transaction writes at a time.
@@ -274,6 +361,7 @@ public class PageDirectory implements HeapFile {
                     for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
                         invalidPageEntry.toBytes(b);
                     }
+                    Arrays.fill(this.freeSpace, (short) -1);
                     nextPageNum = -1L;
 
                     pageBuffer.put(buf, 0, buf.length);
@@ -285,17 +373,23 @@ public class PageDirectory implements HeapFile {
                         throw new PageException("header page page directory id does not match");
                     }
                     nextPageNum = pageBuffer.getLong();
-                    for (int i = 0; i < HEADER_ENTRY_COUNT; ++i) {
+                    for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
                         DataPageEntry dpe = DataPageEntry.fromBytes(pageBuffer);
                         if (dpe.isValid()) {
                             ++this.numDataPages;
+                            this.freeSpace[i] = dpe.freeSpace;
+                            addToFreeSpaceMap(entryId(headerOffset, i), dpe.freeSpace);
+                        } else {
+                            this.freeSpace[i] = -1;
                         }
                     }
                 }
             } finally {
                 this.page.unpin();
             }
-            this.headerOffset = headerOffset;
+            if (this.numDataPages < HEADER_ENTRY_COUNT) {
+                headersWithUnusedEntries.set(headerOffset);
+            }
             if (nextPageNum == DiskSpaceManager.INVALID_PAGE_NUM) {
                 this.nextPage = null;
             } else {
@@ -303,98 +397,130 @@ public class PageDirectory implements HeapFile {
             }
         }
 
-        // add a new header page
-        private void addNewHeaderPage() {
-            if (this.nextPage != null) {
-                this.nextPage.addNewHeaderPage();
-                return;
-            }
-            Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
+        // add a new header page after this one, which must be the last. Returns false (without
+        // adding a header page) if this header page already has a next header page on disk.
+        private boolean addNewHeaderPage() {
             this.page.pin();
             try {
-                this.nextPage = new HeaderPage(page.getPageNum(), headerOffset + 1, false);
-                this.page.getBuffer().position(1).putLong(page.getPageNum());
+                if (this.page.getBuffer().position(5).getLong() != DiskSpaceManager.INVALID_PAGE_NUM) {
+                    return false;
+                }
+                Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
+                try {
+                    this.nextPage = new HeaderPage(page.getPageNum(), headerOffset + 1, false);
+                    this.page.getBuffer().position(5).putLong(page.getPageNum());
+                } finally {
+                    page.unpin();
+                }
+                return true;
             } finally {
                 this.page.unpin();
-                page.unpin();
             }
         }
 
-        // gets and loads a page with the required free space
-        private Page loadPageWithSpace(short requiredSpace) {
-            // TODO(hw4_part2): update table capacity
-
+        // reserves space on the data page of a data page entry, and loads the data page. Returns
+        // null (without reserving any space) if the entry is out of date.
+        private Page reserveSpace(short index, short requiredSpace) {
             this.page.pin();
             try {
-                Buffer b = this.page.getBuffer();
-                b.position(HEADER_HEADER_SIZE);
-
-                // if we have any data page managed by this header page with enough space, return it
-                short unusedSlot = -1;
-                for (short i = 0; i < HEADER_ENTRY_COUNT; ++i) {
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    if (!dpe.isValid()) {
-                        if (unusedSlot == -1) {
-                            unusedSlot = i;
-                        }
-                        continue;
-                    }
-                    if (dpe.freeSpace >= requiredSpace) {
-                        dpe.freeSpace -= requiredSpace;
-                        b.position(b.position() - DataPageEntry.SIZE);
-                        dpe.toBytes(b);
-
-                        return bufferManager.fetchPage(lockContext, dpe.pageNum, false);
-                    }
+                DataPageEntry dpe = this.readEntry(index);
+                if (dpe.pageNum == DiskSpaceManager.INVALID_PAGE_NUM || dpe.freeSpace != this.freeSpace[index]) {
+                    return null;
                 }
+                this.writeEntry(index, (short) (dpe.freeSpace - requiredSpace));
+                return bufferManager.fetchPage(lockContext, dpe.pageNum, false);
+            } finally {
+                this.page.unpin();
+            }
+        }
 
-                // if we have any unused slot in this header page, allocate a new data page
-                if (unusedSlot != -1) {
-                    Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
-                    DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
-                                                          (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
-
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
-                    dpe.toBytes(b);
-
-                    page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
+        // allocates a new data page with the required free space in the first unused data page entry.
+        // Returns null (without allocating a page) if the entry is in use on disk.
+        private Page addDataPage(short requiredSpace) {
+            this.page.pin();
+            try {
+                short unusedSlot = this.firstUnusedEntry();
+                if (this.readEntry(unusedSlot).isValid()) {
+                    return null;
+                }
+                Page page = bufferManager.fetchNewPage(lockContext, partNum, false);
+                DataPageEntry dpe = new DataPageEntry(page.getPageNum(),
+                                                      (short) (EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize - requiredSpace));
 
-                    ++this.numDataPages;
+                Buffer b = this.page.getBuffer();
+                b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * unusedSlot);
+                dpe.toBytes(b);
+                this.freeSpace[unusedSlot] = dpe.freeSpace;
+                addToFreeSpaceMap(entryId(headerOffset, unusedSlot), dpe.freeSpace);
 
-                    return page;
-                }
+                page.getBuffer().putInt(pageDirectoryId).putInt(headerOffset).putShort(unusedSlot);
 
-                // if we have no next header page, make one
-                if (this.nextPage == null) {
-                    this.addNewHeaderPage();
+                ++this.numDataPages;
+                if (this.numDataPages == HEADER_ENTRY_COUNT) {
+                    headersWithUnusedEntries.clear(headerOffset);
                 }
+                lockContext.capacity(lockContext.capacity() + 1);
 
-                // no space on this header page, try next one
-                return this.nextPage.loadPageWithSpace(requiredSpace);
+                return page;
             } finally {
                 this.page.unpin();
             }
         }
 
-        // updates free space
-        private void updateSpace(Page dataPage, short index, short newFreeSpace) {
+        // index of the first unused data page entry (HEADER_ENTRY_COUNT if none)
+        private short firstUnusedEntry() {
+            short index = 0;
+            while (index < HEADER_ENTRY_COUNT && this.freeSpace[index] != -1) {
+                ++index;
+            }
+            return index;
+        }
+
+        // reads a data page entry. Assumes that the header page is pinned.
+        private DataPageEntry readEntry(short index) {
+            Buffer b = this.page.getBuffer();
+            b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+            return DataPageEntry.fromBytes(b);
+        }
+
+        // writes the new free space of a valid data page entry, and updates the free-space map.
+        // Assumes that the header page is pinned.
+        private void writeEntry(short index, short newFreeSpace) {
+            long entryId = entryId(headerOffset, index);
+            removeFromFreeSpaceMap(entryId, this.freeSpace[index]);
+            DataPageEntry dpe = this.readEntry(index);
+            dpe.freeSpace = newFreeSpace;
+            Buffer b = this.page.getBuffer();
+            b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
+            dpe.toBytes(b);
+            this.freeSpace[index] = newFreeSpace;
+            addToFreeSpaceMap(entryId, newFreeSpace);
+        }
+
+        // updates free space. Returns false (without updating anything) if the data page entry
+        // is out of date.
+        private boolean updateSpace(Page dataPage, short index, short newFreeSpace) {
             this.page.pin();
             try {
+                if (this.freeSpace[index] != this.readEntry(index).freeSpace) {
+                    return false;
+                }
                 if (newFreeSpace < EFFECTIVE_PAGE_SIZE - emptyPageMetadataSize) {
                     // write new free space to disk
-                    Buffer b = this.page.getBuffer();
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    DataPageEntry dpe = DataPageEntry.fromBytes(b);
-                    dpe.freeSpace = newFreeSpace;
-                    b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
-                    dpe.toBytes(b);
+                    this.writeEntry(index, newFreeSpace);
                 } else {
                     // the entire page is free; free it
                     Buffer b = this.page.getBuffer();
                     b.position(HEADER_HEADER_SIZE + DataPageEntry.SIZE * index);
                     (new DataPageEntry()).toBytes(b);
+                    removeFromFreeSpaceMap(entryId(headerOffset, index), this.freeSpace[index]);
+                    this.freeSpace[index] = -1;
+                    headersWithUnusedEntries.set(headerOffset);
                     bufferManager.freePage(dataPage);
+                    --this.numDataPages;
+                    lockContext.capacity(lockContext.capacity() - 1);
                 }
+                return true;
             } finally {
                 this.page.unpin();
             }
@@ -1,15 +1,19 @@
 package edu.berkeley.cs186.database.table;
 
 import java.util.*;
+import java.util.function.UnaryOperator;
 
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.common.iterator.*;
 import edu.berkeley.cs186.database.common.Bits;
 import edu.berkeley.cs186.database.common.Buffer;
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.common.PredicateOperator;
 import edu.berkeley.cs186.database.concurrency.LockContext;
 import edu.berkeley.cs186.database.concurrency.LockType;
 import edu.berkeley.cs186.database.concurrency.LockUtil;
 import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.Type;
 import edu.berkeley.cs186.database.io.PageException;
 import edu.berkeley.cs186.database.memory.Page;
 import edu.berkeley.cs186.database.table.stats.TableStats;
@@ -111,10 +115,6 @@ public class Table implements BacktrackingIterable<Record> {
     // The lock context of the table.
     private LockContext lockContext;
 
-
-    // boolean flag of autoEscalate or not, my modification
-    private boolean autoEscalate;
-
     // Constructors //////////////////////////////////////////////////////////////
     /**
      * Load a table named `name` with schema `schema` from `heapFile`. `lockContext`
@@ -136,9 +136,6 @@ public class Table implements BacktrackingIterable<Record> {
         this.stats = new TableStats(this.schema, this.numRecordsPerPage);
         this.numRecords = 0;
 
-        // boolean flag of autoEscalate or not, my modification
-        this.autoEscalate = true;
-
         // ensure X lock for full table scan or construct a new table, my modification
         LockUtil.ensureSufficientLockHeld(lockContext, LockType.X);
 
@@ -158,6 +155,7 @@ public class Table implements BacktrackingIterable<Record> {
         }
 
         this.lockContext = lockContext;
+        this.lockContext.setAutoEscalate(true);
     }
 
     // Accessors /////////////////////////////////////////////////////////////////
@@ -293,6 +291,61 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * addRecords adds records to this table, and returns their record ids (in the
+     * same order). Every record is verified before any is added. Each page given by
+     * the heap file is filled with as many of the records as it has free slots for,
+     * and written (records and bitmap) with a single write, so that the change to the
+     * page is logged as one page write rather than one per record.
+     */
+    public synchronized List<RecordId> addRecords(List<List<DataBox>> values) {
+        List<Record> records = new ArrayList<>();
+        for (List<DataBox> v : values) {
+            records.add(schema.verify(v));
+        }
+        List<RecordId> rids = new ArrayList<>();
+        int recordSize = schema.getSizeInBytes();
+        int dataSize = bitmapSizeInBytes + numRecordsPerPage * recordSize;
+        int i = 0;
+        while (i < records.size()) {
+            Page page = heapFile.getPageWithSpace((short) recordSize);
+            try {
+                // the page as it is, with the records added to its free slots
+                byte[] data = new byte[dataSize];
+                page.getBuffer().get(data, 0, dataSize);
+                byte[] bitmap = getBitMap(page);
+                int numAdded = 0;
+                for (int entryNum = 0; entryNum < numRecordsPerPage && i < records.size(); ++entryNum) {
+                    if (numRecordsPerPage != 1 && Bits.getBit(bitmap, entryNum) == Bits.Bit.ONE) {
+                        continue;
+                    }
+                    Record record = records.get(i++);
+                    byte[] bytes = record.toBytes(schema);
+                    System.arraycopy(bytes, 0, data, bitmapSizeInBytes + entryNum * recordSize, recordSize);
+                    if (bitmapSizeInBytes > 0) {
+                        Bits.setBit(bitmap, entryNum, Bits.Bit.ONE);
+                    }
+                    stats.addRecord(record);
+                    numRecords++;
+                    ++numAdded;
+                    rids.add(new RecordId(page.getPageNum(), (short) entryNum));
+                }
+                System.arraycopy(bitmap, 0, data, 0, bitmapSizeInBytes);
+                page.getBuffer().put(data, 0, dataSize);
+
+                // the heap file only reserved space for the first record
+                if (numAdded > 1) {
+                    int numRecordsOnPage = numRecordsOnPage(page);
+                    heapFile.updateFreeSpace(page,
+                                             (short) ((numRecordsPerPage - numRecordsOnPage) * recordSize));
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+        return rids;
+    }
+
     /**
      * Retrieves a record from the table, throwing an exception if no such record
      * exists.
@@ -380,6 +433,129 @@ public class Table implements BacktrackingIterable<Record> {
         }
     }
 
+    /**
+     * Updates the records among rids whose value in column predColumn satisfies
+     * predOperator against predValue (every one of them, if predOperator is null),
+     * replacing their value in column targetColumn with targetValue applied to it.
+     *
+     * rids must be grouped by page. Each page is pinned once; the predicate column is
+     * read straight from the page, without deserializing the rest of the record, and
+     * the updated records of a page are written back (and logged) in a single write.
+     *
+     * @return the old and new versions of the updated records, by record id
+     */
+    public synchronized Map<RecordId, Pair<Record, Record>> updateRecordsWhere(Iterator<RecordId> rids,
+            int predColumn, PredicateOperator predOperator, DataBox predValue,
+            int targetColumn, UnaryOperator<DataBox> targetValue) {
+        Map<RecordId, Pair<Record, Record>> updated = new LinkedHashMap<>();
+        int recordSize = schema.getSizeInBytes();
+        PageRids pageRids = new PageRids(rids);
+        while (pageRids.hasNext()) {
+            long pageNum = pageRids.nextPage();
+            List<Short> entryNums = pageRids.entryNums();
+            LockContext lcPage = lockContext.childContext(pageNum);
+            LockUtil.ensureSufficientLockHeld(lcPage, LockType.X);
+            Page page = fetchPage(pageNum);
+            try {
+                byte[] bitmap = getBitMap(page);
+                Buffer buf = page.getBuffer();
+                List<Short> updatedEntryNums = new ArrayList<>();
+                List<Record> oldRecords = new ArrayList<>();
+                List<Record> newRecords = new ArrayList<>();
+                for (short entryNum : entryNums) {
+                    if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO ||
+                            !matches(buf, entryNum, predColumn, predOperator, predValue)) {
+                        continue;
+                    }
+                    Record oldRecord = Record.fromBytes(buf.position(recordOffset(entryNum)), schema);
+                    List<DataBox> values = new ArrayList<>(oldRecord.getValues());
+                    values.set(targetColumn, targetValue.apply(values.get(targetColumn)));
+                    Record newRecord = schema.verify(values);
+                    updatedEntryNums.add(entryNum);
+                    oldRecords.add(oldRecord);
+                    newRecords.add(newRecord);
+                }
+                if (updatedEntryNums.isEmpty()) {
+                    continue;
+                }
+
+                // entryNums are in increasing order within a page
+                int start = recordOffset(updatedEntryNums.get(0));
+                int end = recordOffset(updatedEntryNums.get(updatedEntryNums.size() - 1)) + recordSize;
+                byte[] bytes = new byte[end - start];
+                buf.position(start).get(bytes);
+                for (int i = 0; i < updatedEntryNums.size(); ++i) {
+                    byte[] recordBytes = newRecords.get(i).toBytes(schema);
+                    System.arraycopy(recordBytes, 0, bytes, recordOffset(updatedEntryNums.get(i)) - start, recordSize);
+                }
+                buf.position(start).put(bytes);
+
+                for (int i = 0; i < updatedEntryNums.size(); ++i) {
+                    updated.put(new RecordId(pageNum, updatedEntryNums.get(i)),
+                                new Pair<>(oldRecords.get(i), newRecords.get(i)));
+                    stats.removeRecord(oldRecords.get(i));
+                    stats.addRecord(newRecords.get(i));
+                }
+            } finally {
+                page.unpin();
+            }
+        }
+        return updated;
+    }
+
+    /**
+     * Deletes the records among rids whose value in column predColumn satisfies
+     * predOperator against predValue (every one of them, if predOperator is null).
+     *
+     * rids must be grouped by page. Each page is pinned once, the predicate column is
+     * read straight from the page, and the bitmap and free space of a page are
+     * updated once for all the records deleted from it.
+     *
+     * @return the deleted records, by record id
+     */
+    public synchronized Map<RecordId, Record> deleteRecordsWhere(Iterator<RecordId> rids, int predColumn,
+            PredicateOperator predOperator, DataBox predValue) {
+        Map<RecordId, Record> deleted = new LinkedHashMap<>();
+        PageRids pageRids = new PageRids(rids);
+        while (pageRids.hasNext()) {
+            long pageNum = pageRids.nextPage();
+            List<Short> entryNums = pageRids.entryNums();
+            LockContext lcPage = lockContext.childContext(pageNum);
+            LockUtil.ensureSufficientLockHeld(lcPage, LockType.X);
+            Page page = fetchPage(pageNum);
+            try {
+                byte[] bitmap = getBitMap(page);
+                Buffer buf = page.getBuffer();
+                Map<RecordId, Record> pageDeleted = new LinkedHashMap<>();
+                for (short entryNum : entryNums) {
+                    if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO ||
+                            !matches(buf, entryNum, predColumn, predOperator, predValue)) {
+                        continue;
+                    }
+                    Record record = Record.fromBytes(buf.position(recordOffset(entryNum)), schema);
+                    Bits.setBit(bitmap, entryNum, Bits.Bit.ZERO);
+                    pageDeleted.put(new RecordId(pageNum, entryNum), record);
+                }
+                if (pageDeleted.isEmpty()) {
+                    continue;
+                }
+
+                writeBitMap(page, bitmap);
+                int numRecords = numRecordsPerPage == 1 ? 0 : numRecordsOnPage(page);
+                heapFile.updateFreeSpace(page,
+                                         (short) ((numRecordsPerPage - numRecords) * schema.getSizeInBytes()));
+                this.numRecords -= pageDeleted.size();
+                for (Record record : pageDeleted.values()) {
+                    stats.removeRecord(record);
+                }
+                deleted.putAll(pageDeleted);
+            } finally {
+                page.unpin();
+            }
+        }
+        return deleted;
+    }
+
     @Override
     public String toString() {
         return "Table " + name;
@@ -420,6 +596,64 @@ public class Table implements BacktrackingIterable<Record> {
         return pageSizeInBits / recordOverheadInBits;
     }
 
+    private int recordOffset(int entryNum) {
+        return bitmapSizeInBytes + entryNum * schema.getSizeInBytes();
+    }
+
+    /**
+     * Evaluates a predicate on column `column` of the record in slot entryNum of a
+     * page, reading only that column from the page.
+     */
+    private boolean matches(Buffer buf, int entryNum, int column, PredicateOperator predOperator,
+                            DataBox predValue) {
+        if (predOperator == null) {
+            return true;
+        }
+        int offset = recordOffset(entryNum);
+        List<Type> fieldTypes = schema.getFieldTypes();
+        for (int i = 0; i < column; ++i) {
+            offset += fieldTypes.get(i).getSizeInBytes();
+        }
+        DataBox value = DataBox.fromBytes(buf.position(offset), fieldTypes.get(column));
+        return predOperator.evaluate(value, predValue);
+    }
+
+    /**
+     * Splits a sequence of record ids grouped by page into the entry numbers on each
+     * page.
+     */
+    private static class PageRids {
+        private Iterator<RecordId> rids;
+        private RecordId nextRid;
+        private long pageNum;
+
+        private PageRids(Iterator<RecordId> rids) {
+            this.rids = rids;
+            this.nextRid = rids.hasNext() ? rids.next() : null;
+        }
+
+        private boolean hasNext() {
+            return this.nextRid != null;
+        }
+
+        private long nextPage() {
+            this.pageNum = this.nextRid.getPageNum();
+            return this.pageNum;
+        }
+
+        /**
+         * Entry numbers of the records on the current page.
+         */
+        private List<Short> entryNums() {
+            List<Short> entryNums = new ArrayList<>();
+            while (this.nextRid != null && this.nextRid.getPageNum() == this.pageNum) {
+                entryNums.add(this.nextRid.getEntryNum());
+                this.nextRid = this.rids.hasNext() ? this.rids.next() : null;
+            }
+            return entryNums;
+        }
+    }
+
     private int numRecordsOnPage(Page page) {
         byte[] bitmap = getBitMap(page);
         int numRecords = 0;
@@ -456,8 +690,7 @@ public class Table implements BacktrackingIterable<Record> {
      * has at least 10 pages should escalate to a table-level lock before any locks are requested.
      */
     public void enableAutoEscalate() {
-        // TODO(hw4_part2): implement
-        this.autoEscalate = true;
+        this.lockContext.setAutoEscalate(true);
     }
 
     /**
@@ -465,8 +698,28 @@ public class Table implements BacktrackingIterable<Record> {
      * an automatic escalation to a table-level lock.
      */
     public void disableAutoEscalate() {
-        // TODO(hw4_part2): implement
-        this.autoEscalate = false;
+        this.lockContext.setAutoEscalate(false);
+    }
+
+    /**
+     * Sets the thresholds at which requests for pages of this table escalate to a
+     * table-level lock (see LockContext#setEscalationThresholds).
+     * @param saturation fraction of the table's pages locked by a transaction
+     * @param minPages number of pages the table must have
+     */
+    public void setEscalationThresholds(double saturation, int minPages) {
+        this.lockContext.setEscalationThresholds(saturation, minPages);
+    }
+
+    /**
+     * Called before reading about numPages distinct pages of this table: if locking that
+     * many pages would escalate to a table-level lock anyway, takes the S lock on the
+     * table up front instead of locking pages one at a time until escalation.
+     */
+    public void prepareScan(int numPages) {
+        if (this.lockContext.predictsEscalation(numPages)) {
+            LockUtil.ensureSufficientLockHeld(this.lockContext, LockType.S);
+        }
     }
 
     // Iterators /////////////////////////////////////////////////////////////////
@@ -510,6 +763,86 @@ public class Table implements BacktrackingIterable<Record> {
         return heapFile.iterator();
     }
 
+    /**
+     * Returns an iterator over the records with the given record ids. Unlike a
+     * RecordIterator, which fetches the page of each record id in turn, this reads
+     * the record ids in batches of batchSize, sorts each batch, and fetches each page
+     * of a batch once. The records of a batch are returned in page order rather than
+     * in the order of rids.
+     */
+    public Iterator<Record> pageOrderedRecordIterator(Iterator<RecordId> rids, int batchSize) {
+        return new PageOrderedRecordIterator(rids, batchSize);
+    }
+
+    private class PageOrderedRecordIterator implements Iterator<Record> {
+        private Iterator<RecordId> rids;
+        private int batchSize;
+        // Record ids of the current batch, grouped by page
+        private PageRids batch;
+        // Records of the current page not yet returned
+        private Iterator<Record> pageRecords;
+
+        private PageOrderedRecordIterator(Iterator<RecordId> rids, int batchSize) {
+            this.rids = rids;
+            this.batchSize = Math.max(1, batchSize);
+            this.batch = new PageRids(Collections.emptyIterator());
+            this.pageRecords = Collections.emptyIterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            while (!this.pageRecords.hasNext()) {
+                if (!this.batch.hasNext()) {
+                    List<RecordId> batchRids = new ArrayList<>();
+                    while (batchRids.size() < this.batchSize && this.rids.hasNext()) {
+                        batchRids.add(this.rids.next());
+                    }
+                    if (batchRids.isEmpty()) {
+                        return false;
+                    }
+                    Collections.sort(batchRids);
+                    this.batch = new PageRids(batchRids.iterator());
+                }
+                this.pageRecords = this.readPage().iterator();
+            }
+            return true;
+        }
+
+        /**
+         * Reads the records of the next page of the batch.
+         */
+        private List<Record> readPage() {
+            long pageNum = this.batch.nextPage();
+            List<Short> entryNums = this.batch.entryNums();
+            List<Record> records = new ArrayList<>();
+            synchronized (Table.this) {
+                Page page = fetchPage(pageNum);
+                try {
+                    byte[] bitmap = getBitMap(page);
+                    Buffer buf = page.getBuffer();
+                    for (short entryNum : entryNums) {
+                        if (Bits.getBit(bitmap, entryNum) == Bits.Bit.ZERO) {
+                            String msg = String.format("Record %s does not exist.", new RecordId(pageNum, entryNum));
+                            throw new IllegalStateException(new DatabaseException(msg));
+                        }
+                        records.add(Record.fromBytes(buf.position(recordOffset(entryNum)), schema));
+                    }
+                } finally {
+                    page.unpin();
+                }
+            }
+            return records;
+        }
+
+        @Override
+        public Record next() {
+            if (!this.hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return this.pageRecords.next();
+        }
+    }
+
     /**
      * RIDPageIterator is a BacktrackingIterator over the RecordIds of a single
      * page of the table.
@@ -437,12 +437,14 @@ public class Histogram {
      */
     public Histogram copyWithPredicate(PredicateOperator predicate, DataBox value) {
         float [] reduction = filter(predicate, value);
+        // the buckets are copied, not shared, so that the counts of this histogram are left alone
         Bucket<Float> [] newBuckets = this.buckets.clone();
 
         for (int i = 0; i < this.buckets.length; i++) {
             int newCount = (int) Math.round(reduction[i] * this.buckets[i].getCount());
             int newDistinctCount = (int) Math.round(reduction[i] * this.buckets[i].getDistinctCount());
 
+            newBuckets[i] = new Bucket<>(this.buckets[i].getStart(), this.buckets[i].getEnd());
             newBuckets[i].setCount(newCount);
             newBuckets[i].setDistinctCount(newDistinctCount);
         }
@@ -458,6 +460,7 @@ public class Histogram {
             int newCount = (int) Math.round(reduction * this.buckets[i].getCount());
             int newDistinctCount = (int) Math.round(reduction * this.buckets[i].getDistinctCount());
 
+            newBuckets[i] = new Bucket<>(this.buckets[i].getStart(), this.buckets[i].getEnd());
             newBuckets[i].setCount(newCount);
             newBuckets[i].setDistinctCount(newDistinctCount);
         }
@@ -173,7 +173,7 @@ public class TableStats {
             }
         }
 
-        Histogram qhistogram = histograms.get(column);
+        Histogram qhistogram = copyHistograms.get(column);
         int numRecords = qhistogram.getCount();
         return new TableStats(this.tableSchema, this.numRecordsPerPage, numRecords, copyHistograms);
     }
@@ -0,0 +1,80 @@
+package edu.berkeley.cs186.database;
+
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Schema;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Index build time benchmark comparing createIndex with and without bulk loading. Not run
+ * as part of the test suite; after `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.IndexBuildBenchmark [numRows] [fillFactor]
+ *
+ * The table is filled with unique int keys in random order, and an index on the key is
+ * then built either by inserting every row into the tree (insert) or by sorting the
+ * entries and bulk loading them (bulk).
+ */
+public class IndexBuildBenchmark {
+    private static final int BUFFER_SIZE = 1024;
+    private static final int WORK_MEM = 64;
+
+    public static void main(String[] args) throws Exception {
+        int numRows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        float fillFactor = args.length > 1 ? Float.parseFloat(args[1]) : 1.0f;
+        for (boolean bulkLoad : new boolean[] { false, true, false, true }) {
+            System.out.printf("%-6s rows=%-8d %8.0f ms%n", bulkLoad ? "bulk" : "insert", numRows,
+                              run(numRows, bulkLoad, fillFactor));
+        }
+    }
+
+    private static double run(int numRows, boolean bulkLoad, float fillFactor) throws Exception {
+        File dir = Files.createTempDirectory("ixbench").toFile();
+        Database db = new Database(dir.getAbsolutePath(), BUFFER_SIZE);
+        try {
+            db.setWorkMem(WORK_MEM);
+            db.setIndexFillFactor(fillFactor);
+            Schema schema = new Schema(Arrays.asList("id", "val"),
+                                       Arrays.asList(Type.intType(), Type.intType()));
+            List<Integer> keys = new ArrayList<>();
+            for (int i = 0; i < numRows; ++i) {
+                keys.add(i);
+            }
+            Collections.shuffle(keys, new Random(0));
+            try (Transaction t = db.beginTransaction()) {
+                t.createTable(schema, "bench");
+                for (int key : keys) {
+                    List<DataBox> values = Arrays.asList(new IntDataBox(key), new IntDataBox(-key));
+                    t.insert("bench", values);
+                }
+            }
+
+            long begin = System.nanoTime();
+            try (Transaction t = db.beginTransaction()) {
+                t.createIndex("bench", "id", bulkLoad);
+            }
+            return (System.nanoTime() - begin) / 1e6;
+        } finally {
+            db.close();
+            deleteRecursively(dir);
+        }
+    }
+
+    private static void deleteRecursively(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                deleteRecursively(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -2,7 +2,9 @@ package edu.berkeley.cs186.database;
 
 import edu.berkeley.cs186.database.categories.*;
 import edu.berkeley.cs186.database.common.PredicateOperator;
+import edu.berkeley.cs186.database.concurrency.DummyLockManager;
 import edu.berkeley.cs186.database.databox.*;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
 import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.*;
 
@@ -16,9 +18,12 @@ import org.junit.rules.TemporaryFolder;
 import static org.junit.Assert.*;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
 
 @Category({HW99Tests.class, SystemTests.class})
 public class TestDatabase {
@@ -373,6 +378,149 @@ public class TestDatabase {
         }
     }
 
+    @Test
+    public void testCreateIndexBulkLoad() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(186));
+
+        this.db.setIndexFillFactor(0.75f);
+        try (Transaction t = db.beginTransaction()) {
+            Schema s = new Schema(
+                Arrays.asList("id", "name"),
+                Arrays.asList(Type.intType(), Type.stringType(10))
+            );
+            t.createTable(s, "table1");
+            for (int id : ids) {
+                t.insert("table1", Arrays.asList(new IntDataBox(id), new StringDataBox("n" + id, 10)));
+            }
+            t.createIndex("table1", "id", true);
+
+            TransactionContext transaction = t.getTransactionContext();
+            Iterator<Record> iter = transaction.sortedScan("table1", "id");
+            for (int i = 0; i < ids.size(); ++i) {
+                assertTrue(iter.hasNext());
+                assertEquals(Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 10)),
+                             iter.next().getValues());
+            }
+            assertFalse(iter.hasNext());
+
+            iter = transaction.lookupKey("table1", "id", new IntDataBox(1234));
+            assertEquals(new StringDataBox("n1234", 10), iter.next().getValues().get(1));
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testInsertBatch() {
+        List<Integer> ids = new ArrayList<>();
+        for (int i = 0; i < 2000; ++i) {
+            ids.add(i);
+        }
+        Collections.shuffle(ids, new Random(186));
+
+        try (Transaction t = db.beginTransaction()) {
+            Schema s = new Schema(
+                Arrays.asList("id", "name"),
+                Arrays.asList(Type.intType(), Type.stringType(10))
+            );
+            t.createTable(s, "table1");
+            t.createIndex("table1", "id", false);
+            List<List<DataBox>> rows = new ArrayList<>();
+            for (int id : ids) {
+                rows.add(Arrays.asList(new IntDataBox(id), new StringDataBox("n" + id, 10)));
+            }
+            t.insertBatch("table1", rows.iterator());
+
+            TransactionContext transaction = t.getTransactionContext();
+            assertEquals(2000, transaction.getTable("table1").getNumRecords());
+            Iterator<Record> iter = transaction.sortedScan("table1", "id");
+            for (int i = 0; i < ids.size(); ++i) {
+                assertTrue(iter.hasNext());
+                assertEquals(Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 10)),
+                             iter.next().getValues());
+            }
+            assertFalse(iter.hasNext());
+        }
+    }
+
+    @Test
+    public void testMappedFiles() {
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                          false, false, true);
+        db.waitSetupFinished();
+        Schema s = new Schema(
+            Arrays.asList("id", "name"),
+            Arrays.asList(Type.intType(), Type.stringType(10))
+        );
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            for (int i = 0; i < 1000; ++i) {
+                t.insert("table1", Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 10)));
+            }
+        }
+
+        db.close();
+        db = new Database(this.filename, 32, new DummyLockManager(), new ClockEvictionPolicy(),
+                          false, false, true);
+        db.waitSetupFinished();
+        try (Transaction t = db.beginTransaction()) {
+            Iterator<Record> iter = t.getTransactionContext().getRecordIterator("table1");
+            int numRecords = 0;
+            while (iter.hasNext()) {
+                Record record = iter.next();
+                assertEquals(new StringDataBox("n" + record.getValues().get(0).getInt(), 10),
+                             record.getValues().get(1));
+                ++numRecords;
+            }
+            assertEquals(1000, numRecords);
+        }
+    }
+
+    @Test
+    public void testInsertAfterRollback() {
+        Schema s = new Schema(
+            Arrays.asList("id", "name"),
+            Arrays.asList(Type.intType(), Type.stringType(10))
+        );
+        try (Transaction t = db.beginTransaction()) {
+            t.createTable(s, "table1");
+            t.insert("table1", Arrays.asList(new IntDataBox(0), new StringDataBox("n0", 10)));
+        }
+
+        // allocates new data pages, then undoes the allocations and header page writes
+        Transaction t1 = db.beginTransaction();
+        for (int i = 1; i < 1000; ++i) {
+            t1.insert("table1", Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 10)));
+        }
+        t1.rollback();
+        db.waitAllTransactions();
+
+        try (Transaction t = db.beginTransaction()) {
+            for (int i = 1000; i < 1100; ++i) {
+                t.insert("table1", Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 10)));
+            }
+        }
+
+        try (Transaction t = db.beginTransaction()) {
+            Iterator<Record> iter = t.getTransactionContext().getRecordIterator("table1");
+            List<Integer> ids = new ArrayList<>();
+            while (iter.hasNext()) {
+                ids.add(iter.next().getValues().get(0).getInt());
+            }
+            Collections.sort(ids);
+            List<Integer> expected = new ArrayList<>();
+            expected.add(0);
+            for (int i = 1000; i < 1100; ++i) {
+                expected.add(i);
+            }
+            assertEquals(expected, ids);
+        }
+    }
+
     @Test
     public void testDeleteQuery() {
         try (Transaction t1 = db.beginTransaction()) {
@@ -410,4 +558,60 @@ public class TestDatabase {
             assertFalse(iter.hasNext());
         }
     }
+
+    @Test
+    public void testIndexedUpdateDelete() {
+        try (Transaction t1 = db.beginTransaction()) {
+            Schema s = new Schema(
+                Arrays.asList("id", "name"),
+                Arrays.asList(Type.intType(), Type.stringType(100))
+            );
+            t1.createTable(s, "table1");
+            for (int i = 0; i < 2000; ++i) {
+                t1.insert("table1", Arrays.asList(new IntDataBox(i), new StringDataBox("n" + i, 100)));
+            }
+            t1.createIndex("table1", "id", false);
+            t1.commit();
+        }
+
+        try (Transaction t2 = db.beginTransaction()) {
+            TransactionContext transaction = t2.getTransactionContext();
+            int numDataPages = transaction.getNumDataPages("table1");
+
+            // DELETE FROM table1 WHERE id = 1234 reads the index and a single data page
+            db.getBufferManager().evictAll();
+            long numIOs = db.getBufferManager().getNumIOs();
+            t2.delete("table1", "id", PredicateOperator.EQUALS, new IntDataBox(1234));
+            assertTrue(db.getBufferManager().getNumIOs() - numIOs < numDataPages / 4);
+            assertFalse(transaction.lookupKey("table1", "id", new IntDataBox(1234)).hasNext());
+
+            // UPDATE table1 SET id = id + 5 WHERE id >= 1990 moves keys onto keys that are
+            // themselves being updated
+            t2.update("table1", "id", (DataBox x) -> new IntDataBox(x.getInt() + 5),
+                      "id", PredicateOperator.GREATER_THAN_EQUALS, new IntDataBox(1990));
+            // UPDATE table1 SET name = 'low' WHERE id < 3
+            t2.update("table1", "name", (DataBox x) -> new StringDataBox("low", 100),
+                      "id", PredicateOperator.LESS_THAN, new IntDataBox(3));
+            // DELETE FROM table1 WHERE id <= 10
+            t2.delete("table1", "id", PredicateOperator.LESS_THAN_EQUALS, new IntDataBox(10));
+
+            for (int i = 0; i < 2005; ++i) {
+                Iterator<Record> iter = transaction.lookupKey("table1", "id", new IntDataBox(i));
+                boolean present = i > 10 && i != 1234 && (i < 1990 || i >= 1995);
+                assertEquals("id " + i, present, iter.hasNext());
+                if (present) {
+                    int original = i >= 1995 ? i - 5 : i;
+                    assertEquals(new StringDataBox("n" + original, 100), iter.next().getValues().get(1));
+                }
+            }
+
+            int numRecords = 0;
+            Iterator<Record> iter = t2.query("table1").execute();
+            while (iter.hasNext()) {
+                assertNotEquals(new StringDataBox("low", 100), iter.next().getValues().get(1));
+                ++numRecords;
+            }
+            assertEquals(2000 - 1 - 11, numRecords);
+        }
+    }
 }
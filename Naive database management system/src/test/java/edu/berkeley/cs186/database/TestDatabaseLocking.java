@@ -10,6 +10,7 @@ import edu.berkeley.cs186.database.query.QueryPlan;
 import edu.berkeley.cs186.database.table.Record;
 import edu.berkeley.cs186.database.table.RecordId;
 import edu.berkeley.cs186.database.table.Schema;
+import edu.berkeley.cs186.database.table.Table;
 import org.junit.*;
 import org.junit.experimental.categories.Category;
 import org.junit.rules.*;
@@ -600,6 +601,57 @@ public class TestDatabaseLocking {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testAutoEscalateThresholds() {
+        String tableName = "testTable1";
+        List<RecordId> rids = createTable(tableName, 18);
+        db.setLockEscalationThresholds(0.25, 10);
+
+        lockManager.startLog();
+
+        try(Transaction t0 = beginTransaction()) {
+            // escalates at 5 of 18 pages (4 of 18 is under 25%)
+            for (int i = 0; i < 5; ++i) {
+                t0.getTransactionContext().getRecord(tableName, rids.get(rids.size() / 5 * i));
+            }
+            t0.getTransactionContext().getRecord(tableName, rids.get(rids.size() - 1));
+
+            assertEquals(prepare(t0.getTransNum(),
+                                 "acquire %s database IS",
+                                 "acquire %s database/tables.testTable1 IS",
+                                 "acquire %s database/tables.testTable1/30000000001 S",
+                                 "acquire %s database/tables.testTable1/30000000004 S",
+                                 "acquire %s database/tables.testTable1/30000000008 S",
+                                 "acquire %s database/tables.testTable1/30000000011 S",
+                                 "acquire %s database/tables.testTable1/30000000015 S",
+                                 "acquire-and-release %s database/tables.testTable1 S [database/tables.testTable1, " +
+                                 "database/tables.testTable1/30000000001, database/tables.testTable1/30000000004, " +
+                                 "database/tables.testTable1/30000000008, database/tables.testTable1/30000000011, " +
+                                 "database/tables.testTable1/30000000015]"
+                                ), removeMetadataLogs(lockManager.log));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testPrepareScanPredictsEscalation() {
+        String tableName = "testTable1";
+        createTable(tableName, 18);
+
+        try(Transaction t0 = beginTransaction()) {
+            Table table = t0.getTransactionContext().getTable(tableName);
+            lockManager.startLog();
+            // 3 of 18 pages would not escalate
+            table.prepareScan(3);
+            assertEquals(Collections.emptyList(), lockManager.log);
+            table.prepareScan(4);
+            assertEquals(prepare(t0.getTransNum(),
+                                 "acquire %s database/tables.testTable1 S"
+                                ), removeMetadataLogs(lockManager.log));
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testLockTableMetadata() {
@@ -803,4 +855,48 @@ public class TestDatabaseLocking {
                                 ), lockManager.log);
         }
     }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockDetection() throws InterruptedException {
+        db.enableDeadlockDetection(10, 0);
+
+        Transaction[] transactions = { db.beginTransaction(), db.beginTransaction() };
+        LockContext[] tables = {
+            lockManager.databaseContext().childContext("deadlockTable0", 0L),
+            lockManager.databaseContext().childContext("deadlockTable1", 1L),
+        };
+        Phaser phaser = new Phaser(2);
+        Throwable[] errors = new Throwable[2];
+        Thread[] threads = new Thread[2];
+        for (int i = 0; i < 2; ++i) {
+            int t = i;
+            threads[t] = new Thread(() -> {
+                TransactionContext.setTransaction(transactions[t].getTransactionContext());
+                try {
+                    LockUtil.ensureSufficientLockHeld(tables[t], LockType.X);
+                    phaser.arriveAndAwaitAdvance();
+                    // each transaction waits for the other's table
+                    LockUtil.ensureSufficientLockHeld(tables[1 - t], LockType.X);
+                } catch (Throwable e) {
+                    errors[t] = e;
+                } finally {
+                    TransactionContext.unsetTransaction();
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        // one transaction is chosen as the victim and rolled back, releasing its lock
+        int victim = errors[0] == null ? 1 : 0;
+        assertTrue(errors[victim] instanceof DeadlockException);
+        assertNull(errors[1 - victim]);
+        assertEquals(1, lockManager.getNumDeadlocks());
+        transactions[1 - victim].commit();
+        this.db.waitAllTransactions();
+        assertEquals(Transaction.Status.COMPLETE, transactions[victim].getStatus());
+    }
 }
@@ -0,0 +1,49 @@
+package edu.berkeley.cs186.database.common;
+
+import edu.berkeley.cs186.database.categories.*;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+@Category({HW99Tests.class, SystemTests.class})
+public class TestPeriodicThread {
+    @Test
+    public void testWake() throws InterruptedException {
+        AtomicInteger rounds = new AtomicInteger();
+        // an interval long enough that only wake starts a round
+        PeriodicThread thread = new PeriodicThread("test", 60000, rounds::incrementAndGet);
+        thread.wake();
+        while (rounds.get() == 0) {
+            Thread.sleep(1);
+        }
+        thread.close();
+        assertEquals(1, rounds.get());
+        assertEquals(0, thread.getNumFailures());
+    }
+
+    @Test
+    public void testFailuresRethrownOnClose() throws InterruptedException {
+        AtomicInteger rounds = new AtomicInteger();
+        PeriodicThread thread = new PeriodicThread("test", 1, () -> {
+            if (rounds.incrementAndGet() <= 3) {
+                throw new UnsupportedOperationException("round " + rounds.get());
+            }
+        });
+        // failed rounds do not stop the thread
+        while (rounds.get() <= 3) {
+            Thread.sleep(1);
+        }
+        assertEquals(3, thread.getNumFailures());
+        assertEquals("round 3", thread.getLastFailure().getMessage());
+
+        try {
+            thread.close();
+            fail("close should rethrow the last failure");
+        } catch (IllegalStateException e) {
+            assertSame(thread.getLastFailure(), e.getCause());
+        }
+    }
+}
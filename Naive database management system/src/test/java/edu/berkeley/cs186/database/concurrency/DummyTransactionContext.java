@@ -77,6 +77,12 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public Iterator<Record> indexScanByPage(String tableName, String columnName,
+                                            PredicateOperator predicate, DataBox value) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public boolean contains(String tableName, String columnName, DataBox key) {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
@@ -87,6 +93,11 @@ public class DummyTransactionContext extends AbstractTransactionContext {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
     }
 
+    @Override
+    public void addRecords(String tableName, Iterator<List<DataBox>> values) {
+        throw new UnsupportedOperationException("dummy transaction cannot do this");
+    }
+
     @Override
     public int getWorkMemSize() {
         throw new UnsupportedOperationException("dummy transaction cannot do this");
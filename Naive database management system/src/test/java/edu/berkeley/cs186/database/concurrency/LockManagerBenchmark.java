@@ -0,0 +1,121 @@
+package edu.berkeley.cs186.database.concurrency;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.common.Pair;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Lock throughput benchmark. Not run as part of the test suite; after `mvn test-compile`,
+ * run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.concurrency.LockManagerBenchmark [maxThreads] [pagesPerTable]
+ *
+ * Each thread runs its own transaction on its own table: it holds IX on the database and
+ * on its table, and repeatedly acquires and releases X locks on pages of its table, so no
+ * request ever conflicts. Two lock managers are run for 1..maxThreads threads:
+ * - sharded: LockManager
+ * - global: LockManager with every public method synchronized on the lock manager, as it
+ *   was before resource entries were sharded (without conflicts, requests never block
+ *   while holding the monitor)
+ */
+public class LockManagerBenchmark {
+    private static final long DURATION_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int pagesPerTable = args.length > 1 ? Integer.parseInt(args[1]) : 64;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("sharded threads=%-3d %10.0f locks/s%n", threads,
+                              run(new LockManager(), threads, pagesPerTable));
+            System.out.printf("global  threads=%-3d %10.0f locks/s%n", threads,
+                              run(new GlobalLockManager(), threads, pagesPerTable));
+        }
+    }
+
+    private static double run(LockManager lockManager, int numThreads, int pagesPerTable) throws Exception {
+        LoggingLockManager emitter = new LoggingLockManager();
+        ResourceName db = new ResourceName(new Pair<>("database", 0L));
+        AtomicLong numLocks = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[numThreads];
+        long deadline = System.currentTimeMillis() + DURATION_MS;
+        for (int t = 0; t < numThreads; ++t) {
+            TransactionContext transaction = new DummyTransactionContext(emitter, t);
+            ResourceName table = new ResourceName(db, new Pair<>("table" + t, (long) t));
+            ResourceName[] pages = new ResourceName[pagesPerTable];
+            for (int p = 0; p < pagesPerTable; ++p) {
+                // page numbers unique across tables, as virtual page numbers are (ResourceNames
+                // are compared by hash, and small page numbers of different tables collide)
+                pages[p] = new ResourceName(table, new Pair<>("page", t * 1000000L + p));
+            }
+            workers[t] = new Thread(() -> {
+                lockManager.acquire(transaction, db, LockType.IX);
+                lockManager.acquire(transaction, table, LockType.IX);
+                long count = 0;
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                while (System.currentTimeMillis() < deadline) {
+                    for (ResourceName page : pages) {
+                        lockManager.acquire(transaction, page, LockType.X);
+                    }
+                    for (ResourceName page : pages) {
+                        lockManager.release(transaction, page);
+                    }
+                    count += pages.length;
+                }
+                numLocks.addAndGet(count);
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return numLocks.get() / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    private static class GlobalLockManager extends LockManager {
+        @Override
+        public synchronized void acquireAndRelease(TransactionContext transaction, ResourceName name,
+                                                   LockType lockType, List<ResourceName> releaseLocks) {
+            super.acquireAndRelease(transaction, name, lockType, releaseLocks);
+        }
+
+        @Override
+        public synchronized void acquire(TransactionContext transaction, ResourceName name, LockType lockType) {
+            super.acquire(transaction, name, lockType);
+        }
+
+        @Override
+        public synchronized void release(TransactionContext transaction, ResourceName name) {
+            super.release(transaction, name);
+        }
+
+        @Override
+        public synchronized void promote(TransactionContext transaction, ResourceName name, LockType newLockType) {
+            super.promote(transaction, name, newLockType);
+        }
+
+        @Override
+        public synchronized LockType getLockType(TransactionContext transaction, ResourceName name) {
+            return super.getLockType(transaction, name);
+        }
+
+        @Override
+        public synchronized List<Lock> getLocks(ResourceName name) {
+            return super.getLocks(name);
+        }
+
+        @Override
+        public synchronized List<Lock> getLocks(TransactionContext transaction) {
+            return super.getLocks(transaction);
+        }
+    }
+}
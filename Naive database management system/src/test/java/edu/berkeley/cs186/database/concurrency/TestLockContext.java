@@ -413,7 +413,36 @@ public class TestLockContext {
         assertEquals(0.0, tableContext.saturation(t1), 1E-6);
     }
 
-
-
+    @Test
+    @Category(PublicTests.class)
+    public void testEscalationThresholds() {
+        TransactionContext t1 = transactions[1];
+        tableLockContext.capacity(20);
+        tableLockContext.setAutoEscalate(true);
+        dbLockContext.acquire(t1, LockType.IS);
+        tableLockContext.acquire(t1, LockType.IS);
+        for (int i = 0; i < 3; ++i) {
+            tableLockContext.childContext("page" + i, i).acquire(t1, LockType.S);
+        }
+        assertFalse(tableLockContext.shouldEscalate(t1));
+        tableLockContext.childContext("page3", 3).acquire(t1, LockType.S);
+        // 4 of 20 pages
+        assertTrue(tableLockContext.shouldEscalate(t1));
+        assertTrue(tableLockContext.predictsEscalation(4));
+        assertFalse(tableLockContext.predictsEscalation(3));
+
+        // thresholds are set on the whole subtree
+        dbLockContext.setEscalationThresholds(0.5, 10);
+        assertFalse(tableLockContext.shouldEscalate(t1));
+        assertFalse(tableLockContext.predictsEscalation(9));
+        assertTrue(tableLockContext.predictsEscalation(10));
+        dbLockContext.setEscalationThresholds(0.2, 30);
+        assertFalse(tableLockContext.shouldEscalate(t1));
+
+        dbLockContext.setEscalationThresholds(0.2, 10);
+        tableLockContext.setAutoEscalate(false);
+        assertFalse(tableLockContext.shouldEscalate(t1));
+        assertFalse(tableLockContext.predictsEscalation(20));
+    }
 
 }
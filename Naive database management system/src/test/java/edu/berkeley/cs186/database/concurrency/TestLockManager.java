@@ -476,5 +476,266 @@ public class TestLockManager {
         runner.joinAll();
     }
 
-}
+    @Test
+    @Category(PublicTests.class)
+    public void testConcurrentRequests() throws InterruptedException {
+        // every thread takes turns holding X on a shared resource, while locking its own
+        // table (in another shard, most likely) in between
+        ResourceName shared = new ResourceName(dbResource, new Pair<>("shared", 100L));
+        int iterations = 200;
+        int[] counter = new int[1];
+        Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[transactions.length];
+        for (int i = 0; i < threads.length; ++i) {
+            TransactionContext transaction = transactions[i];
+            ResourceName table = tables[i];
+            threads[i] = new Thread(() -> {
+                try {
+                    lockman.acquire(transaction, dbResource, LockType.IX);
+                    for (int j = 0; j < iterations; ++j) {
+                        lockman.acquire(transaction, table, LockType.S);
+                        lockman.promote(transaction, table, LockType.X);
+                        lockman.acquire(transaction, shared, LockType.X);
+                        counter[0] = counter[0] + 1;
+                        lockman.release(transaction, shared);
+                        lockman.release(transaction, table);
+                    }
+                    lockman.release(transaction, dbResource);
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error[0]);
+        assertEquals(threads.length * iterations, counter[0]);
+        assertEquals(Collections.emptyList(), lockman.getLocks(shared));
+        assertEquals(Collections.emptyList(), lockman.getLocks(dbResource));
+        for (TransactionContext transaction : transactions) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(transaction));
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFastPathIntentLocks() {
+        DeterministicRunner runner = new DeterministicRunner(3);
+        lockman.enableFastPath(dbResource);
+
+        runner.run(0, () -> lockman.acquire(transactions[0], dbResource, LockType.IS));
+        runner.run(1, () -> lockman.acquire(transactions[1], dbResource, LockType.IX));
+        runner.run(0, () -> lockman.promote(transactions[0], dbResource, LockType.IX));
+        assertTrue(holds(lockman, transactions[0], dbResource, LockType.IX));
+        assertTrue(holds(lockman, transactions[1], dbResource, LockType.IX));
+        assertEquals(2, lockman.getLocks(dbResource).size());
+        try {
+            lockman.acquire(transactions[1], dbResource, LockType.IS);
+            fail();
+        } catch (DuplicateLockRequestException e) {
+            // do nothing
+        }
+
+        // S conflicts with the fast-path IX locks, and suspends the fast path
+        runner.run(2, () -> lockman.acquire(transactions[2], dbResource, LockType.S));
+        assertTrue(transactions[2].getBlocked());
+        runner.run(0, () -> lockman.release(transactions[0], dbResource));
+        runner.run(1, () -> lockman.release(transactions[1], dbResource));
+        assertFalse(transactions[2].getBlocked());
+        assertEquals(Collections.singletonList(new Lock(dbResource, LockType.S, 2L)),
+                     lockman.getLocks(dbResource));
 
+        // IX waits behind S, until the fast path resumes
+        runner.run(0, () -> lockman.acquire(transactions[0], dbResource, LockType.IX));
+        assertTrue(transactions[0].getBlocked());
+        runner.run(2, () -> lockman.release(transactions[2], dbResource));
+        assertTrue(holds(lockman, transactions[0], dbResource, LockType.IX));
+        runner.run(1, () -> lockman.acquire(transactions[1], dbResource, LockType.IS));
+        runner.run(0, () -> lockman.release(transactions[0], dbResource));
+        runner.run(1, () -> lockman.release(transactions[1], dbResource));
+        assertEquals(Collections.emptyList(), lockman.getLocks(dbResource));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testFastPathConcurrentRequests() throws InterruptedException {
+        // every thread takes IX on the database (on the fast path, unless suspended), and
+        // now and then S, which must never be held together with another thread's IX
+        lockman.enableFastPath(dbResource);
+        int iterations = 300;
+        int[] holders = new int[2];
+        Throwable[] error = new Throwable[1];
+        Thread[] threads = new Thread[transactions.length];
+        for (int i = 0; i < threads.length; ++i) {
+            TransactionContext transaction = transactions[i];
+            int id = i;
+            threads[i] = new Thread(() -> {
+                try {
+                    for (int j = 0; j < iterations; ++j) {
+                        boolean shared = (j + id) % 50 == 0;
+                        lockman.acquire(transaction, dbResource, shared ? LockType.S : LockType.IX);
+                        synchronized (holders) {
+                            holders[shared ? 0 : 1]++;
+                            if (holders[0] > 0 && holders[1] > 0) {
+                                throw new AssertionError("S held with IX");
+                            }
+                        }
+                        synchronized (holders) {
+                            holders[shared ? 0 : 1]--;
+                        }
+                        lockman.release(transaction, dbResource);
+                    }
+                } catch (Throwable e) {
+                    error[0] = e;
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(error[0]);
+        assertEquals(Collections.emptyList(), lockman.getLocks(dbResource));
+        for (TransactionContext transaction : transactions) {
+            assertEquals(Collections.emptyList(), lockman.getLocks(transaction));
+        }
+    }
+
+    /**
+     * Sets up a deadlock: T0 holds X(table0) and waits for X(table1), which T1 holds
+     * (along with X(table2)) while waiting for X(table0). Exceptions thrown to the
+     * blocked requests are stored in errors.
+     */
+    private DeterministicRunner setUpDeadlock(Throwable[] errors) {
+        DeterministicRunner runner = new DeterministicRunner(2);
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> {
+            lockman.acquire(transactions[1], tables[1], LockType.X);
+            lockman.acquire(transactions[1], tables[2], LockType.X);
+        });
+        for (int i = 0; i < 2; ++i) {
+            int t = i;
+            runner.run(t, () -> {
+                try {
+                    lockman.acquire(transactions[t], tables[1 - t], LockType.X);
+                } catch (Throwable e) {
+                    errors[t] = e;
+                }
+            });
+        }
+        assertTrue(transactions[0].getBlocked());
+        assertTrue(transactions[1].getBlocked());
+        return runner;
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockYoungestVictim() {
+        List<Long> victims = Collections.synchronizedList(new ArrayList<>());
+        lockman.setVictimHandler(t -> victims.add(t.getTransNum()));
+        Throwable[] errors = new Throwable[2];
+        DeterministicRunner runner = setUpDeadlock(errors);
+
+        assertEquals(1, lockman.checkWaits());
+        assertFalse(transactions[1].getBlocked());
+        assertTrue(transactions[0].getBlocked());
+        // T1 aborts, releasing its locks
+        runner.run(1, () -> {
+            lockman.release(transactions[1], tables[1]);
+            lockman.release(transactions[1], tables[2]);
+        });
+        assertTrue(errors[1] instanceof DeadlockException);
+        assertNull(errors[0]);
+        assertEquals(Collections.singletonList(1L), victims);
+        assertFalse(transactions[0].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[0], tables[1]));
+        assertEquals(1, lockman.getNumDeadlocks());
+        assertEquals(2, lockman.getWaitTimeHistogram().getTotalCount());
+        assertEquals(0, lockman.checkWaits());
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockFewestLocksVictim() {
+        lockman.setVictimPolicy(LockManager.VictimPolicy.FEWEST_LOCKS);
+        Throwable[] errors = new Throwable[2];
+        DeterministicRunner runner = setUpDeadlock(errors);
+
+        assertEquals(1, lockman.checkWaits());
+        // T0 holds one lock to T1's two
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertTrue(errors[0] instanceof DeadlockException);
+        assertNull(errors[1]);
+        assertFalse(transactions[1].getBlocked());
+        assertEquals(LockType.X, lockman.getLockType(transactions[1], tables[0]));
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testDeadlockDetectorThread() throws InterruptedException {
+        Throwable[] errors = new Throwable[2];
+        DeterministicRunner runner = setUpDeadlock(errors);
+
+        lockman.startDeadlockDetector(10);
+        try {
+            while (lockman.getNumDeadlocks() == 0) {
+                Thread.sleep(5);
+            }
+        } finally {
+            lockman.close();
+        }
+        assertEquals(1, lockman.getNumDeadlocks());
+        assertFalse(transactions[1].getBlocked());
+        runner.run(1, () -> {
+            lockman.release(transactions[1], tables[1]);
+            lockman.release(transactions[1], tables[2]);
+        });
+        assertTrue(errors[1] instanceof DeadlockException);
+        assertFalse(transactions[0].getBlocked());
+
+        runner.joinAll();
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testLockWaitTimeout() throws InterruptedException {
+        DeterministicRunner runner = new DeterministicRunner(2);
+        Throwable[] errors = new Throwable[1];
+        runner.run(0, () -> lockman.acquire(transactions[0], tables[0], LockType.X));
+        runner.run(1, () -> {
+            try {
+                lockman.acquire(transactions[1], tables[0], LockType.S);
+            } catch (Throwable e) {
+                errors[0] = e;
+            }
+        });
+        assertTrue(transactions[1].getBlocked());
+
+        // no timeout set
+        assertEquals(0, lockman.checkWaits());
+        lockman.setLockWaitTimeout(1);
+        Thread.sleep(5);
+        assertEquals(1, lockman.checkWaits());
+        runner.run(1, () -> assertEquals(LockType.NL, lockman.getLockType(transactions[1], tables[0])));
+        assertTrue(errors[0] instanceof LockWaitTimeoutException);
+        assertEquals(1, lockman.getNumLockWaitTimeouts());
+        assertEquals(0, lockman.getNumDeadlocks());
+        assertEquals(Collections.singletonList(new Lock(tables[0], LockType.X, 0L)), lockman.getLocks(tables[0]));
+
+        runner.run(0, () -> lockman.release(transactions[0], tables[0]));
+        assertEquals(Collections.emptyList(), lockman.getLocks(tables[0]));
+
+        runner.joinAll();
+    }
+
+}
@@ -0,0 +1,164 @@
+package edu.berkeley.cs186.database.index;
+
+import edu.berkeley.cs186.database.TransactionContext;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.ClockEvictionPolicy;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import edu.berkeley.cs186.database.table.RecordId;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.IntConsumer;
+
+/**
+ * CPU benchmark of B+ tree point inserts and lookups on int keys, with the tree fully
+ * resident in the buffer cache. Not run as part of the test suite; after
+ * `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.index.BPlusTreeBenchmark [numKeys] [maxThreads]
+ *
+ * For 1..maxThreads threads, the keys are split evenly between the threads, which insert
+ * them into an empty tree in random order and then look them all up. Inserts are done
+ * within a (dummy) transaction, so that page writes are logged; the number of bytes
+ * logged per insert is reported alongside the insert rate.
+ */
+public class BPlusTreeBenchmark {
+    public static void main(String[] args) throws Exception {
+        int numKeys = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int maxThreads = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (int i = 0; i < 3; ++i) {
+                run(numKeys, threads);
+            }
+        }
+    }
+
+    private static void run(int numKeys, int numThreads) throws Exception {
+        AtomicLong loggedBytes = new AtomicLong();
+        // MemoryDiskSpaceManager is not thread safe
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized long allocPage(int partNum) {
+                return super.allocPage(partNum);
+            }
+
+            @Override
+            public synchronized void readPage(long page, ByteBuffer buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, ByteBuffer buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized boolean pageAllocated(long page) {
+                return super.pageAllocated(page);
+            }
+        };
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                loggedBytes.addAndGet(after.length);
+                return 0L;
+            }
+        }, numKeys / 64 + 1024, new ClockEvictionPolicy());
+        try {
+            // partition 0 is the log partition, whose pages are never logged
+            diskSpaceManager.allocPart(0);
+            int partNum = diskSpaceManager.allocPart(1);
+            BPlusTreeMetadata metadata = new BPlusTreeMetadata("bench", "key", Type.intType(),
+                    BPlusTree.maxOrder(BufferManager.EFFECTIVE_PAGE_SIZE, Type.intType()), partNum,
+                    DiskSpaceManager.INVALID_PAGE_NUM, -1);
+            BPlusTree tree = new BPlusTree(bufferManager, metadata, new DummyLockContext());
+
+            List<List<Integer>> keys = new ArrayList<>();
+            for (int t = 0; t < numThreads; ++t) {
+                keys.add(new ArrayList<>());
+            }
+            for (int i = 0; i < numKeys; ++i) {
+                keys.get(i % numThreads).add(i);
+            }
+
+            double seconds = runThreads(numThreads, t -> {
+                List<Integer> threadKeys = keys.get(t);
+                Collections.shuffle(threadKeys, new Random(t));
+                TransactionContext.setTransaction(new DummyTransactionContext(null, t) {
+                    @Override
+                    public void updateIndexMetadata(BPlusTreeMetadata metadata) {
+                        // there is no index catalog to update
+                    }
+                });
+                try {
+                    for (int key : threadKeys) {
+                        tree.put(new IntDataBox(key), new RecordId(key, (short) 0));
+                    }
+                } finally {
+                    TransactionContext.unsetTransaction();
+                }
+            });
+            System.out.printf("put threads=%-3d %10.0f ops/s %8.1f bytes logged/op%n", numThreads,
+                              numKeys / seconds, (double) loggedBytes.get() / numKeys);
+
+            seconds = runThreads(numThreads, t -> {
+                List<Integer> threadKeys = keys.get(t);
+                Collections.shuffle(threadKeys, new Random(numThreads + t));
+                for (int key : threadKeys) {
+                    if (!tree.get(new IntDataBox(key)).isPresent()) {
+                        throw new IllegalStateException("missing key " + key);
+                    }
+                }
+            });
+            System.out.printf("get threads=%-3d %10.0f ops/s%n", numThreads, numKeys / seconds);
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    /**
+     * Runs body(t) on thread t for each of numThreads threads.
+     * @return elapsed time in seconds
+     */
+    private static double runThreads(int numThreads, IntConsumer body) throws InterruptedException {
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            final int thread = t;
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                    body.accept(thread);
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        if (error.get() != null) {
+            throw new RuntimeException(error.get());
+        }
+        return (System.nanoTime() - begin) / 1e9;
+    }
+}
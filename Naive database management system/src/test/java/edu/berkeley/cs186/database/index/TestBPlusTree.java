@@ -1,11 +1,14 @@
 package edu.berkeley.cs186.database.index;
 
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Supplier;
 
 import edu.berkeley.cs186.database.TimeoutScaling;
@@ -453,6 +456,50 @@ public class TestBPlusTree {
         }
     }
 
+    @Test
+    @Category(SystemTests.class)
+    public void testPutAll() {
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+        // even keys go in one at a time, and odd keys in batches between them
+        for (int i = 0; i < 1000; i += 2) {
+            tree.put(new IntDataBox(i), new RecordId(i, (short) i));
+        }
+        for (int start = 1; start < 1000; start += 200) {
+            List<Pair<DataBox, RecordId>> batch = new ArrayList<>();
+            for (int i = start; i < start + 200; i += 2) {
+                batch.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+            }
+            tree.putAll(batch.iterator());
+        }
+        // past the largest key, where everything goes in the rightmost leaf
+        List<Pair<DataBox, RecordId>> batch = new ArrayList<>();
+        for (int i = 1000; i < 1100; ++i) {
+            batch.add(new Pair<>(new IntDataBox(i), new RecordId(i, (short) i)));
+        }
+        tree.putAll(batch.iterator());
+
+        List<RecordId> expected = new ArrayList<>();
+        for (int i = 0; i < 1100; ++i) {
+            expected.add(new RecordId(i, (short) i));
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(i)));
+        }
+        assertEquals(expected, indexIteratorToList(tree::scanAll));
+
+        // a duplicate key stops the batch, after the keys before it are inserted
+        batch.clear();
+        batch.add(new Pair<>(new IntDataBox(1100), new RecordId(1100, (short) 0)));
+        batch.add(new Pair<>(new IntDataBox(1100), new RecordId(1100, (short) 1)));
+        batch.add(new Pair<>(new IntDataBox(1101), new RecordId(1101, (short) 0)));
+        try {
+            tree.putAll(batch.iterator());
+            fail();
+        } catch (BPlusTreeException e) {
+            // expected
+        }
+        assertEquals(Optional.of(new RecordId(1100, (short) 0)), tree.get(new IntDataBox(1100)));
+        assertEquals(Optional.empty(), tree.get(new IntDataBox(1101)));
+    }
+
     @Test
     @Category(SystemTests.class)
     public void testMaxOrder() {
@@ -469,6 +516,97 @@ public class TestBPlusTree {
         assertEquals(3, BPlusTree.maxOrder(pageSizeInBytes, keySchema));
     }
 
+    @Test
+    @Category(SystemTests.class)
+    public void testConcurrentPuts() throws InterruptedException {
+        // MemoryDiskSpaceManager is not thread safe, so page allocation and I/O
+        // from the worker threads is synchronized
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized long allocPage(int partNum) {
+                return super.allocPage(partNum);
+            }
+
+            @Override
+            public synchronized void readPage(long page, ByteBuffer buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, ByteBuffer buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized boolean pageAllocated(long page) {
+                return super.pageAllocated(page);
+            }
+        };
+        diskSpaceManager.allocPart(0);
+        this.bufferManager.close();
+        this.bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 1024,
+                new ClockEvictionPolicy());
+        BPlusTree tree = getBPlusTree(Type.intType(), 2);
+
+        int numThreads = 4;
+        int keysPerThread = 1000;
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        AtomicBoolean done = new AtomicBoolean(false);
+        List<Thread> writers = new ArrayList<>();
+        for (int t = 0; t < numThreads; ++t) {
+            final int offset = t;
+            writers.add(new Thread(() -> {
+                List<Integer> keys = new ArrayList<>();
+                for (int i = 0; i < keysPerThread; ++i) {
+                    keys.add(i * numThreads + offset);
+                }
+                Collections.shuffle(keys, new Random(offset));
+                try {
+                    for (int key : keys) {
+                        tree.put(new IntDataBox(key), new RecordId(key, (short) key));
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        // scans running alongside the writers must always see sorted, distinct keys
+        Thread reader = new Thread(() -> {
+            try {
+                while (!done.get()) {
+                    long prev = -1;
+                    Iterator<RecordId> iter = tree.scanAll();
+                    while (iter.hasNext()) {
+                        long pageNum = iter.next().getPageNum();
+                        assertTrue(pageNum > prev);
+                        prev = pageNum;
+                    }
+                }
+            } catch (Throwable e) {
+                error.compareAndSet(null, e);
+            }
+        });
+        reader.start();
+        for (Thread writer : writers) {
+            writer.start();
+        }
+        for (Thread writer : writers) {
+            writer.join();
+        }
+        done.set(true);
+        reader.join();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+
+        Iterator<RecordId> iter = tree.scanAll();
+        for (int i = 0; i < numThreads * keysPerThread; ++i) {
+            assertEquals(Optional.of(new RecordId(i, (short) i)), tree.get(new IntDataBox(i)));
+            assertEquals(new RecordId(i, (short) i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
 
 
     // my test
@@ -175,6 +175,42 @@ public class TestLeafNode {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testRandomPutsAndRemovesFromDisk() {
+        int d = 5;
+        setBPlusTreeMetadata(Type.intType(), d);
+        LeafNode leaf = getEmptyLeaf(Optional.empty());
+        long pageNum = leaf.getPage().getPageNum();
+
+        // Puts and removes only rewrite part of the page, so check that the
+        // page always matches the leaf.
+        List<Integer> keys = new ArrayList<>();
+        for (int i = 0; i < 2 * d; ++i) {
+            keys.add(i);
+        }
+        Random random = new Random(0);
+        for (int round = 0; round < 10; ++round) {
+            Collections.shuffle(keys, random);
+            for (int i : keys) {
+                leaf.put(new IntDataBox(i), new RecordId(i, (short) i));
+                assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+            }
+            Collections.shuffle(keys, random);
+            for (int i : keys.subList(0, d + round % d)) {
+                leaf.remove(new IntDataBox(i));
+                assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+            }
+            for (int i : keys.subList(0, d + round % d)) {
+                leaf.put(new IntDataBox(i), new RecordId(i, (short) i));
+            }
+            for (int i : keys) {
+                leaf.remove(new IntDataBox(i));
+            }
+            assertEquals(leaf, LeafNode.fromBytes(metadata, bufferManager, treeContext, pageNum));
+        }
+    }
+
     @Test(expected = BPlusTreeException.class)
     @Category(PublicTests.class)
     public void testDuplicatePut() {
@@ -0,0 +1,76 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Single-threaded page I/O throughput benchmark comparing DiskSpaceManagerImpl with
+ * MappedDiskSpaceManager. Not run as part of the test suite; after `mvn test-compile`,
+ * run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.io.DiskSpaceManagerBenchmark [numPages]
+ *
+ * The partition is written once and then read back, so reads are served from the OS
+ * page cache (the warm case). Writes are not synced.
+ */
+public class DiskSpaceManagerBenchmark {
+    private static final long DURATION_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int numPages = args.length > 0 ? Integer.parseInt(args[0]) : 16384;
+        for (boolean mapped : new boolean[] { false, true, false, true }) {
+            run(mapped, numPages);
+        }
+    }
+
+    private static void run(boolean mapped, int numPages) throws Exception {
+        File dir = Files.createTempDirectory("dsmbench").toFile();
+        DiskSpaceManager diskSpaceManager = mapped ?
+                                            new MappedDiskSpaceManager(dir.getAbsolutePath(), new DummyRecoveryManager(), false) :
+                                            new DiskSpaceManagerImpl(dir.getAbsolutePath(), new DummyRecoveryManager(), false);
+        String name = mapped ? "mapped" : "file";
+        try {
+            int partNum = diskSpaceManager.allocPart();
+            long[] pageNums = new long[numPages];
+            ByteBuffer buf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+            for (int i = 0; i < numPages; ++i) {
+                pageNums[i] = diskSpaceManager.allocPage(partNum);
+                buf.putInt(0, i);
+                diskSpaceManager.writePage(pageNums[i], buf);
+            }
+            diskSpaceManager.sync();
+
+            Random random = new Random(0);
+            long count = 0;
+            long begin = System.nanoTime();
+            long deadline = System.currentTimeMillis() + DURATION_MS;
+            while ((count & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                diskSpaceManager.readPage(pageNums[random.nextInt(numPages)], buf);
+                ++count;
+            }
+            System.out.printf("%-6s read  %10.0f pages/s%n", name, count / ((System.nanoTime() - begin) / 1e9));
+
+            count = 0;
+            begin = System.nanoTime();
+            deadline = System.currentTimeMillis() + DURATION_MS;
+            while ((count & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                diskSpaceManager.writePage(pageNums[random.nextInt(numPages)], buf);
+                ++count;
+            }
+            System.out.printf("%-6s write %10.0f pages/s%n", name, count / ((System.nanoTime() - begin) / 1e9));
+        } finally {
+            diskSpaceManager.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+}
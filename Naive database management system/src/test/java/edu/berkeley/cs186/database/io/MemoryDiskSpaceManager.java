@@ -1,5 +1,6 @@
 package edu.berkeley.cs186.database.io;
 
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -105,6 +106,38 @@ public class MemoryDiskSpaceManager implements DiskSpaceManager {
         System.arraycopy(buf, 0, pages.get(page), 0, DiskSpaceManager.PAGE_SIZE);
     }
 
+    @Override
+    public void readPage(long page, ByteBuffer buf) {
+        if (buf.capacity() != DiskSpaceManager.PAGE_SIZE) {
+            throw new IllegalArgumentException("bad buffer size");
+        }
+        if (!pages.containsKey(page)) {
+            throw new PageException("page " + page + " not allocated");
+        }
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        b.put(pages.get(page));
+    }
+
+    @Override
+    public void writePage(long page, ByteBuffer buf) {
+        if (buf.capacity() != DiskSpaceManager.PAGE_SIZE) {
+            throw new IllegalArgumentException("bad buffer size");
+        }
+        if (!pages.containsKey(page)) {
+            throw new PageException("page " + page + " not allocated");
+        }
+        ByteBuffer b = buf.duplicate();
+        b.clear();
+        b.get(pages.get(page));
+    }
+
+    @Override
+    public void sync(int partNum) {}
+
+    @Override
+    public void sync() {}
+
     @Override
     public boolean pageAllocated(long page) {
         return pages.containsKey(page);
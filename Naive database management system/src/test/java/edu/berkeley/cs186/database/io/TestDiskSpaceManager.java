@@ -10,7 +10,9 @@ import org.junit.experimental.categories.Category;
 import org.junit.rules.TemporaryFolder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
 
 import static org.junit.Assert.*;
@@ -21,14 +23,14 @@ public class TestDiskSpaceManager {
     public TemporaryFolder tempFolder = new TemporaryFolder();
 
     private DiskSpaceManager diskSpaceManager;
-    private Path managerRoot;
+    protected Path managerRoot;
 
     @Before
     public void beforeEach() throws IOException {
         managerRoot = tempFolder.newFolder("dsm-test").toPath();
     }
 
-    private DiskSpaceManager getDiskSpaceManager() {
+    protected DiskSpaceManager getDiskSpaceManager() {
         return new DiskSpaceManagerImpl(managerRoot.toString(), new DummyRecoveryManager());
     }
 
@@ -201,6 +203,76 @@ public class TestDiskSpaceManager {
         diskSpaceManager.close();
     }
 
+    @Test
+    public void testReadWriteDirect() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        ByteBuffer buf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        for (int i = 0; i < buf.capacity(); ++i) {
+            buf.put(i, (byte) (Integer.valueOf(i).hashCode() & 0xFF));
+        }
+        buf.position(100);
+        diskSpaceManager.writePage(pageNum, buf);
+        assertEquals(100, buf.position());
+
+        ByteBuffer readbuf = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        diskSpaceManager.readPage(pageNum, readbuf);
+        assertEquals(0, readbuf.position());
+        buf.clear();
+        assertEquals(buf, readbuf);
+
+        byte[] heapbuf = new byte[DiskSpaceManager.PAGE_SIZE];
+        diskSpaceManager.readPage(pageNum, heapbuf);
+        assertEquals(buf, ByteBuffer.wrap(heapbuf));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test
+    public void testReadPages() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        // the pages straddle the second header page
+        long firstPage = DiskSpaceManager.getVirtualPageNum(partNum, DiskSpaceManager.PAGE_SIZE * 8 - 2);
+        for (int i = 0; i < 4; ++i) {
+            diskSpaceManager.allocPage(firstPage + i);
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            Arrays.fill(buf, (byte) (i + 1));
+            diskSpaceManager.writePage(firstPage + i, buf);
+        }
+
+        ByteBuffer[] bufs = new ByteBuffer[5];
+        for (int i = 0; i < bufs.length; ++i) {
+            bufs[i] = ByteBuffer.allocateDirect(DiskSpaceManager.PAGE_SIZE);
+        }
+        bufs[0].position(100);
+        diskSpaceManager.readPages(firstPage, 4, bufs);
+        assertEquals(100, bufs[0].position());
+        for (int i = 0; i < 4; ++i) {
+            for (int j = 0; j < DiskSpaceManager.PAGE_SIZE; ++j) {
+                assertEquals(i + 1, bufs[i].get(j));
+            }
+        }
+        assertEquals(0, bufs[4].get(0));
+
+        diskSpaceManager.freePart(partNum);
+        diskSpaceManager.close();
+    }
+
+    @Test(expected = PageException.class)
+    public void testReadPagesOutOfBounds() {
+        diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart();
+        long pageNum = diskSpaceManager.allocPage(partNum);
+        ByteBuffer[] bufs = new ByteBuffer[] {
+            ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE), ByteBuffer.allocate(DiskSpaceManager.PAGE_SIZE)
+        };
+        diskSpaceManager.readPages(pageNum, 2, bufs);
+    }
+
     @Test
     public void testReadWritePersistent() {
         diskSpaceManager = getDiskSpaceManager();
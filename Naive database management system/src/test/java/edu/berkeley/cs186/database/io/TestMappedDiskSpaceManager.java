@@ -0,0 +1,46 @@
+package edu.berkeley.cs186.database.io;
+
+import edu.berkeley.cs186.database.categories.HW99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the disk space manager tests against the memory-mapped disk space manager.
+ */
+@Category({HW99Tests.class, SystemTests.class})
+public class TestMappedDiskSpaceManager extends TestDiskSpaceManager {
+    @Override
+    protected DiskSpaceManager getDiskSpaceManager() {
+        return new MappedDiskSpaceManager(managerRoot.toString(), new DummyRecoveryManager());
+    }
+
+    @Test
+    public void testFileLengthAfterAppends() {
+        DiskSpaceManager diskSpaceManager = getDiskSpaceManager();
+        int partNum = diskSpaceManager.allocPart(0);
+        byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+        long lastPage = DiskSpaceManager.INVALID_PAGE_NUM;
+        for (int i = 0; i < 100; ++i) {
+            lastPage = diskSpaceManager.allocPage(partNum);
+            Arrays.fill(buf, (byte) i);
+            diskSpaceManager.writePage(lastPage, buf);
+        }
+        diskSpaceManager.close();
+
+        // master page, header page, and data pages: the rest of the last mapping is cut off
+        assertEquals(102L * DiskSpaceManager.PAGE_SIZE, managerRoot.resolve("0").toFile().length());
+
+        diskSpaceManager = getDiskSpaceManager();
+        diskSpaceManager.readPage(lastPage, buf);
+        byte[] expected = new byte[DiskSpaceManager.PAGE_SIZE];
+        Arrays.fill(expected, (byte) 99);
+        assertArrayEquals(expected, buf);
+        diskSpaceManager.close();
+    }
+}
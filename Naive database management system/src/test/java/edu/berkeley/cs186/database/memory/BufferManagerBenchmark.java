@@ -0,0 +1,95 @@
+package edu.berkeley.cs186.database.memory;
+
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.recovery.DummyRecoveryManager;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Multi-threaded throughput benchmark for the buffer manager's fetch path. Not run as
+ * part of the test suite; after `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.BufferManagerBenchmark [maxThreads] [heap|direct]
+ *
+ * Two workloads are run for 1..maxThreads threads:
+ * - hit: every fetched page is resident (working set = half the buffer)
+ * - miss: working set is 4x the buffer, so most fetches evict and read from disk
+ * Frames are on-heap unless "direct" is given.
+ */
+public class BufferManagerBenchmark {
+    private static final int BUFFER_SIZE = 256;
+    private static final long DURATION_MS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) :
+                         Runtime.getRuntime().availableProcessors();
+        boolean offHeap = args.length > 1 && args[1].equals("direct");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("hit  threads=%-3d %12.0f fetches/s%n", threads, run(threads, BUFFER_SIZE / 2, offHeap));
+            System.out.printf("miss threads=%-3d %12.0f fetches/s%n", threads, run(threads, BUFFER_SIZE * 4, offHeap));
+        }
+    }
+
+    private static double run(int numThreads, int workingSet, boolean offHeap) throws Exception {
+        File dir = Files.createTempDirectory("bmbench").toFile();
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(),
+                new DummyRecoveryManager());
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(),
+                BUFFER_SIZE, new ClockEvictionPolicy(), offHeap);
+        try {
+            int partNum = diskSpaceManager.allocPart();
+            long[] pageNums = new long[workingSet];
+            for (int i = 0; i < workingSet; ++i) {
+                pageNums[i] = diskSpaceManager.allocPage(partNum);
+            }
+            for (int i = 0; i < Math.min(workingSet, BUFFER_SIZE); ++i) {
+                bufferManager.fetchPageFrame(pageNums[i], false).unpin();
+            }
+
+            AtomicLong fetches = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[numThreads];
+            long deadline = System.currentTimeMillis() + DURATION_MS;
+            for (int t = 0; t < numThreads; ++t) {
+                final long seed = t;
+                workers[t] = new Thread(() -> {
+                    Random random = new Random(seed);
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while ((count & 0xFF) != 0 || System.currentTimeMillis() < deadline) {
+                        bufferManager.fetchPageFrame(pageNums[random.nextInt(pageNums.length)], false).unpin();
+                        ++count;
+                    }
+                    fetches.addAndGet(count);
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            return fetches.get() / seconds;
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+}
@@ -0,0 +1,156 @@
+package edu.berkeley.cs186.database.memory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.*;
+import java.util.function.Supplier;
+
+/**
+ * Replays page reference traces against eviction policies, and reports their hit ratios.
+ * Not run as part of the test suite; after `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.memory.EvictionPolicyTraceReplay [bufferFrames] [traceFile]
+ *
+ * A trace file holds one page number per line, in the order the pages were fetched, as
+ * recorded with BufferManagerImpl#setFetchTrace. Without one, a synthetic trace is
+ * replayed: skewed random references to a hot set of 3/4 of bufferFrames pages (as an
+ * OLTP workload on a few tables), interrupted every so often by a sequential scan of
+ * 4 * bufferFrames other pages.
+ *
+ * Each fetch of a resident page is a hit. A fetch of another page is a miss, which evicts
+ * a page once every frame is used; a fetched page is hit once (as a record is read from
+ * it) and unpinned. The buffer manager does the same, with more hits per fetch.
+ */
+public class EvictionPolicyTraceReplay {
+    private static final Map<String, Supplier<EvictionPolicy>> POLICIES = new LinkedHashMap<>();
+    static {
+        POLICIES.put("lru", LRUEvictionPolicy::new);
+        POLICIES.put("clock", ClockEvictionPolicy::new);
+        POLICIES.put("lru-2", LRUKEvictionPolicy::new);
+        POLICIES.put("2q", TwoQEvictionPolicy::new);
+        POLICIES.put("arc", ARCEvictionPolicy::new);
+    }
+
+    public static void main(String[] args) throws IOException {
+        int bufferFrames = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        long[] trace = args.length > 1 ? readTrace(args[1]) : syntheticTrace(bufferFrames, 200000);
+        System.out.printf("%d references, %d frames%n", trace.length, bufferFrames);
+        for (Map.Entry<String, Supplier<EvictionPolicy>> policy : POLICIES.entrySet()) {
+            double hitRatio = replay(policy.getValue().get(), bufferFrames, trace);
+            System.out.printf("%-6s hit ratio %6.2f%%%n", policy.getKey(), hitRatio * 100);
+        }
+    }
+
+    /**
+     * @return fraction of the references in trace that were hits
+     */
+    static double replay(EvictionPolicy policy, int bufferFrames, long[] trace) {
+        BufferFrame[] frames = new BufferFrame[bufferFrames];
+        Map<Long, BufferFrame> resident = new HashMap<>();
+        int used = 0;
+        long hits = 0;
+        for (long pageNum : trace) {
+            BufferFrame frame = resident.get(pageNum);
+            if (frame != null) {
+                ++hits;
+            } else {
+                int index;
+                if (used < frames.length) {
+                    index = used++;
+                } else {
+                    BufferFrame victim = policy.evict(frames);
+                    policy.cleanup(victim);
+                    resident.remove(victim.getPageNum());
+                    index = ((TraceFrame) victim).index;
+                }
+                frame = frames[index] = new TraceFrame(index, pageNum);
+                resident.put(pageNum, frame);
+                policy.init(frame);
+            }
+            frame.pin();
+            policy.hit(frame);
+            frame.unpin();
+        }
+        return trace.length == 0 ? 0 : (double) hits / trace.length;
+    }
+
+    private static long[] readTrace(String path) throws IOException {
+        List<String> lines = Files.readAllLines(Paths.get(path));
+        long[] trace = new long[lines.size()];
+        int n = 0;
+        for (String line : lines) {
+            if (!line.trim().isEmpty()) {
+                trace[n++] = Long.parseLong(line.trim());
+            }
+        }
+        return Arrays.copyOf(trace, n);
+    }
+
+    static long[] syntheticTrace(int bufferFrames, int length) {
+        Random random = new Random(0);
+        int hotPages = Math.max(1, bufferFrames * 3 / 4);
+        int scanPages = bufferFrames * 4;
+        long[] trace = new long[length];
+        int i = 0;
+        while (i < length) {
+            // OLTP references, skewed towards the first hot pages
+            for (int j = 0; j < bufferFrames * 8 && i < length; ++j) {
+                double u = random.nextDouble();
+                trace[i++] = (long) (hotPages * u * u);
+            }
+            // a scan over pages nothing else references
+            long scanStart = hotPages + random.nextInt(scanPages);
+            for (int j = 0; j < scanPages && i < length; ++j) {
+                trace[i++] = scanStart + j;
+            }
+        }
+        return trace;
+    }
+
+    private static class TraceFrame extends BufferFrame {
+        private int index;
+        private long pageNum;
+
+        private TraceFrame(int index, long pageNum) {
+            this.index = index;
+            this.pageNum = pageNum;
+        }
+
+        @Override
+        boolean isValid() {
+            return true;
+        }
+
+        @Override
+        long getPageNum() {
+            return pageNum;
+        }
+
+        @Override
+        void flush() {
+        }
+
+        @Override
+        void readBytes(short position, short num, byte[] buf) {
+        }
+
+        @Override
+        void writeBytes(short position, short num, byte[] buf) {
+        }
+
+        @Override
+        BufferFrame requestValidFrame() {
+            return this;
+        }
+
+        @Override
+        void setPageLSN(long pageLSN) {
+        }
+
+        @Override
+        long getPageLSN() {
+            return 0;
+        }
+    }
+}
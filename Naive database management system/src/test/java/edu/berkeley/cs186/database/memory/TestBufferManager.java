@@ -1,8 +1,10 @@
 package edu.berkeley.cs186.database.memory;
 
+import edu.berkeley.cs186.database.TransactionContext;
 import edu.berkeley.cs186.database.categories.HW99Tests;
 import edu.berkeley.cs186.database.categories.SystemTests;
 import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.concurrency.DummyTransactionContext;
 import edu.berkeley.cs186.database.io.DiskSpaceManager;
 import edu.berkeley.cs186.database.io.MemoryDiskSpaceManager;
 import edu.berkeley.cs186.database.io.PageException;
@@ -12,7 +14,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
 
 import static org.junit.Assert.*;
 
@@ -92,6 +99,66 @@ public class TestBufferManager {
         assertArrayEquals(expected, actual);
     }
 
+    @Test
+    public void testLogPageWriteRange() {
+        List<Short> offsets = new ArrayList<>();
+        List<byte[]> afters = new ArrayList<>();
+        bufferManager.close();
+        bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager() {
+            @Override
+            public long logPageWrite(long transNum, long pageNum, short pageOffset, byte[] before,
+                                     byte[] after) {
+                offsets.add(pageOffset);
+                afters.add(after);
+                return 0L;
+            }
+        }, 5, new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart(1);
+
+        byte[] bytes = new byte[16];
+        Arrays.fill(bytes, (byte) 1);
+        BufferFrame frame = bufferManager.fetchNewPageFrame(partNum, false);
+        TransactionContext.setTransaction(new DummyTransactionContext(null, 1L));
+        try {
+            frame.writeBytes((short) 100, (short) 16, bytes);
+            bytes[10] = 2;
+            frame.writeBytes((short) 100, (short) 16, bytes);
+        } finally {
+            TransactionContext.unsetTransaction();
+            frame.unpin();
+        }
+
+        // only the changed byte of the second write is logged, at its offset in the page
+        assertEquals(Arrays.asList((short) 100, (short) 110), offsets);
+        assertArrayEquals(new byte[] { 2 }, afters.get(1));
+    }
+
+    @Test
+    public void testOffHeapReload() {
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(),
+                5, new ClockEvictionPolicy(), true);
+        int partNum = diskSpaceManager.allocPart();
+
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum, false);
+            pageNums[i] = frame.getPageNum();
+            frame.writeBytes((short) 67, (short) 4, new byte[] { (byte) i, (byte) 0xAD, (byte) 0xBE, (byte) i });
+            frame.setPageLSN(i);
+            frame.unpin();
+        }
+
+        byte[] actual = new byte[4];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+            frame.readBytes((short) 67, (short) 4, actual);
+            assertArrayEquals(new byte[] { (byte) i, (byte) 0xAD, (byte) 0xBE, (byte) i }, actual);
+            assertEquals(i, frame.getPageLSN());
+            frame.unpin();
+        }
+        bufferManager.close();
+    }
+
     @Test
     public void testFlush() {
         int partNum = diskSpaceManager.allocPart();
@@ -330,4 +397,298 @@ public class TestBufferManager {
         int partNum = diskSpaceManager.allocPart();
         bufferManager.fetchPageFrame(DiskSpaceManager.getVirtualPageNum(partNum, 0), false);
     }
+
+    @Test
+    public void testPinnedFrameNotSealed() {
+        int partNum = diskSpaceManager.allocPart();
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        assertFalse(frame1.trySeal());
+        frame1.unpin();
+
+        bufferManager.evict(frame1.getPageNum());
+        assertFalse(frame1.isValid());
+        assertFalse(frame1.tryPin());
+    }
+
+    @Test
+    public void testWriteColdPages() {
+        int partNum = diskSpaceManager.allocPart();
+        byte[] bytes = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+
+        BufferFrame frame1 = bufferManager.fetchNewPageFrame(partNum, false);
+        BufferFrame frame2 = bufferManager.fetchNewPageFrame(partNum, false);
+        BufferFrame frame3 = bufferManager.fetchNewPageFrame(partNum, false);
+        frame1.writeBytes((short) 0, (short) 4, bytes);
+        frame2.writeBytes((short) 0, (short) 4, bytes);
+        frame3.writeBytes((short) 0, (short) 4, bytes);
+        frame1.unpin();
+        frame2.unpin();
+
+        // every page was just used, so the first pass only clears their reference bits
+        long numIOs = bufferManager.getNumIOs();
+        assertEquals(0, bufferManager.writeColdPages(10));
+
+        // frame1 is used again, and frame3 is pinned
+        frame1.writeBytes((short) 4, (short) 4, bytes);
+        assertEquals(1, bufferManager.writeColdPages(10));
+        assertEquals(numIOs + 1, bufferManager.getNumIOs());
+        assertTrue(frame2.isValid());
+
+        // frame2 is clean now, frame1 was not used again, and frame3 gets its second chance
+        frame3.unpin();
+        assertEquals(1, bufferManager.writeColdPages(10));
+        assertEquals(1, bufferManager.writeColdPages(10));
+        assertEquals(0, bufferManager.writeColdPages(10));
+        assertEquals(numIOs + 3, bufferManager.getNumIOs());
+    }
+
+    @Test
+    public void testFrameCleaner() throws InterruptedException {
+        // counts the pages written out by the test thread itself
+        Thread testThread = Thread.currentThread();
+        int[] testThreadWrites = new int[1];
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized void writePage(long page, ByteBuffer buf) {
+                if (Thread.currentThread() == testThread) {
+                    ++testThreadWrites[0];
+                }
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized void readPage(long page, ByteBuffer buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized boolean pageAllocated(long page) {
+                return super.pageAllocated(page);
+            }
+        };
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new ClockEvictionPolicy());
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[10];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+        }
+        bufferManager.startFrameCleaner(2, 60000);
+        try {
+            byte[] bytes = new byte[] { (byte) 0xDE, (byte) 0xAD, (byte) 0xBE, (byte) 0xEF };
+            List<BufferFrame> frames = new ArrayList<>();
+            for (long pageNum : pageNums) {
+                BufferFrame frame = bufferManager.fetchPageFrame(pageNum, false);
+                frame.writeBytes((short) 0, (short) 4, bytes);
+                frame.unpin();
+                frames.add(frame);
+            }
+
+            // every miss found a free frame: the dirty pages were written out by the cleaner
+            assertEquals(0, testThreadWrites[0]);
+            while (bufferManager.getNumFramesCleaned() < pageNums.length - 5) {
+                // counted once the cleaner's round is over
+                Thread.yield();
+            }
+            for (int i = 0; i < pageNums.length - 5; ++i) {
+                assertFalse(frames.get(i).isValid());
+            }
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[0], false);
+            byte[] actual = new byte[4];
+            frame.readBytes((short) 0, (short) 4, actual);
+            assertArrayEquals(bytes, actual);
+            frame.unpin();
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testReadAhead() {
+        int[] numReads = new int[2]; // pages read with readPage, and readPages calls
+        DiskSpaceManager diskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public void readPage(long page, ByteBuffer buf) {
+                ++numReads[0];
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public void readPages(long start, int count, ByteBuffer[] bufs) {
+                ++numReads[1];
+                for (int i = 0; i < count; ++i) {
+                    super.readPage(start + i, bufs[i]);
+                }
+            }
+        };
+        BufferManagerImpl bufferManager = new BufferManagerImpl(diskSpaceManager, new DummyRecoveryManager(), 5,
+                new LRUEvictionPolicy());
+        bufferManager.setReadAhead(2);
+        int partNum = diskSpaceManager.allocPart();
+        long[] pageNums = new long[8];
+        for (int i = 0; i < pageNums.length; ++i) {
+            pageNums[i] = diskSpaceManager.allocPage(partNum);
+            byte[] buf = new byte[DiskSpaceManager.PAGE_SIZE];
+            buf[BufferManager.RESERVED_SPACE] = (byte) i;
+            diskSpaceManager.writePage(pageNums[i], buf);
+        }
+        try {
+            long numIOs = bufferManager.getNumIOs();
+            byte[] b = new byte[1];
+            for (int i = 0; i < pageNums.length; ++i) {
+                BufferFrame frame = bufferManager.fetchPageFrame(pageNums[i], false);
+                frame.readBytes((short) 0, (short) 1, b);
+                assertEquals(i, b[0]);
+                frame.unpin();
+            }
+            // page 0 is read on its own; page 1 follows it, and pages 2 and 3 are read with it,
+            // as are 5 and 6 with 4; page 7 is the last page
+            assertEquals(2, numReads[0]);
+            assertEquals(2, numReads[1]);
+            assertEquals(4, bufferManager.getNumPagesReadAhead());
+            assertEquals(4, bufferManager.getNumReadAheadHits());
+            assertEquals(numIOs + 8, bufferManager.getNumIOs());
+
+            // a random access does not read ahead
+            BufferFrame frame = bufferManager.fetchPageFrame(pageNums[0], false);
+            frame.unpin();
+            assertEquals(3, numReads[0]);
+            assertEquals(4, bufferManager.getNumPagesReadAhead());
+        } finally {
+            bufferManager.close();
+            diskSpaceManager.close();
+        }
+    }
+
+    @Test
+    public void testWaitForUnpinnedFrame() throws InterruptedException {
+        int partNum = diskSpaceManager.allocPart();
+        List<BufferFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            frames.add(bufferManager.fetchNewPageFrame(partNum, false));
+        }
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        // every frame is pinned, so the miss waits instead of throwing
+        AtomicReference<BufferFrame> fetched = new AtomicReference<>();
+        Thread fetcher = new Thread(() -> fetched.set(bufferManager.fetchPageFrame(pageNum, false)));
+        fetcher.start();
+        while (fetcher.getState() != Thread.State.TIMED_WAITING) {
+            Thread.yield();
+        }
+        assertNull(fetched.get());
+
+        frames.get(2).unpin();
+        fetcher.join();
+        assertEquals(pageNum, fetched.get().getPageNum());
+        assertFalse(frames.get(2).isValid());
+        fetched.get().unpin();
+        for (int i = 0; i < 5; ++i) {
+            if (i != 2) {
+                frames.get(i).unpin();
+            }
+        }
+    }
+
+    @Test
+    public void testFrameWaitTimeout() {
+        int partNum = diskSpaceManager.allocPart();
+        List<BufferFrame> frames = new ArrayList<>();
+        for (int i = 0; i < 5; ++i) {
+            frames.add(bufferManager.fetchNewPageFrame(partNum, false));
+        }
+        long pageNum = diskSpaceManager.allocPage(partNum);
+
+        // nothing else can unpin a frame, so the miss gives up
+        ((BufferManagerImpl) bufferManager).setFrameWaitTimeout(50);
+        try {
+            bufferManager.fetchPageFrame(pageNum, false);
+            fail("miss with every frame pinned should time out");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        for (BufferFrame frame : frames) {
+            frame.unpin();
+        }
+        bufferManager.fetchPageFrame(pageNum, false).unpin();
+    }
+
+    @Test
+    public void testConcurrentFetch() throws InterruptedException {
+        // MemoryDiskSpaceManager is not thread safe, so all pages are allocated up front
+        // and page I/O from the worker threads is synchronized
+        DiskSpaceManager synchronizedDiskSpaceManager = new MemoryDiskSpaceManager() {
+            @Override
+            public synchronized void readPage(long page, byte[] buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, byte[] buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized void readPage(long page, ByteBuffer buf) {
+                super.readPage(page, buf);
+            }
+
+            @Override
+            public synchronized void writePage(long page, ByteBuffer buf) {
+                super.writePage(page, buf);
+            }
+
+            @Override
+            public synchronized boolean pageAllocated(long page) {
+                return super.pageAllocated(page);
+            }
+        };
+        BufferManager bufferManager = new BufferManagerImpl(synchronizedDiskSpaceManager,
+                new DummyRecoveryManager(), 5, new ClockEvictionPolicy());
+        int partNum = synchronizedDiskSpaceManager.allocPart();
+        long[] pageNums = new long[20];
+        for (int i = 0; i < pageNums.length; ++i) {
+            BufferFrame frame = bufferManager.fetchNewPageFrame(partNum, false);
+            pageNums[i] = frame.getPageNum();
+            frame.writeBytes((short) 0, (short) 4, new byte[] { (byte) i, (byte) i, (byte) i, (byte) i });
+            frame.unpin();
+        }
+
+        AtomicReference<Throwable> error = new AtomicReference<>();
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; ++t) {
+            final int seed = t;
+            threads.add(new Thread(() -> {
+                Random random = new Random(seed);
+                byte[] actual = new byte[4];
+                try {
+                    for (int i = 0; i < 2000; ++i) {
+                        int page = random.nextInt(pageNums.length);
+                        BufferFrame frame = bufferManager.fetchPageFrame(pageNums[page], false);
+                        try {
+                            assertEquals(pageNums[page], frame.getPageNum());
+                            frame.readBytes((short) 0, (short) 4, actual);
+                            assertArrayEquals(new byte[] { (byte) page, (byte) page, (byte) page, (byte) page }, actual);
+                        } finally {
+                            frame.unpin();
+                        }
+                    }
+                } catch (Throwable e) {
+                    error.compareAndSet(null, e);
+                }
+            }));
+        }
+        for (Thread thread : threads) {
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        bufferManager.close();
+        if (error.get() != null) {
+            throw new AssertionError(error.get());
+        }
+    }
 }
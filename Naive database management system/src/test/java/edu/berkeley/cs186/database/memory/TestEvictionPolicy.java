@@ -6,6 +6,12 @@ import org.junit.Before;
 import org.junit.Test;
 import org.junit.experimental.categories.Category;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Supplier;
+
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
 
@@ -32,7 +38,7 @@ public class TestEvictionPolicy {
 
         @Override
         long getPageNum() {
-            return 0;
+            return index;
         }
 
         @Override
@@ -193,4 +199,216 @@ public class TestEvictionPolicy {
         assertEquals(frames[2], policy.evict(new BufferFrame[] {placeholderFrames[0], placeholderFrames[1], frames[2], placeholderFrames[3]}));
         policy.cleanup(frames[2]);
     }
+
+    @Test
+    public void testLRUKPolicy() {
+        EvictionPolicy policy = new LRUKEvictionPolicy(2, 0);
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        policy.hit(frames[1]);
+        policy.hit(frames[2]);
+
+        // 0 and 3 were referenced once: 0 is the least recently used of them
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        policy.init(frames[4]); policy.hit(frames[4]);
+        frames[3].pin();
+
+        // 4 was just read in (a correlated reference), 1 has the oldest second-to-last reference
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[4], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+
+        // the history of page 0 is restored, so the new pages go first
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[4], frames[0], frames[2], frames[3]}));
+        policy.cleanup(frames[4]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.hit(frames[2]);
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[0], frames[5], frames[2], frames[3]}));
+        policy.cleanup(frames[5]);
+
+        frames[0].pin();
+        frames[2].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {frames[0], placeholderFrames[1], frames[2], frames[3]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+
+        frames[3].unpin();
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], placeholderFrames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[3]);
+        frames[0].unpin();
+        frames[2].unpin();
+    }
+
+    @Test
+    public void testConcurrentEvictions() {
+        List<Supplier<EvictionPolicy>> policies = Arrays.asList(
+            LRUKEvictionPolicy::new, TwoQEvictionPolicy::new, ARCEvictionPolicy::new
+        );
+        for (Supplier<EvictionPolicy> newPolicy : policies) {
+            for (int i = 0; i < 2; ++i) {
+                EvictionPolicy policy = newPolicy.get();
+                BufferFrame[] buffer = new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]};
+                for (BufferFrame frame : buffer) {
+                    policy.init(frame);
+                }
+                // two frames are being evicted at once (e.g. by the cleaner and by a miss)
+                BufferFrame first = policy.evict(buffer);
+                first.pin();
+                BufferFrame second = policy.evict(buffer);
+                first.unpin();
+                for (BufferFrame frame : buffer) {
+                    policy.cleanup(frame);
+                }
+
+                // the history of either page is kept, so it is not read back in as a new page
+                BufferFrame reread = new TestFrame((int) (i == 0 ? first : second).getPageNum());
+                policy.init(reread);
+                policy.init(frames[4]);
+                policy.init(frames[5]);
+                assertEquals(policy.getClass().getSimpleName(), frames[4],
+                             policy.evict(new BufferFrame[] {reread, frames[4], frames[5]}));
+            }
+        }
+    }
+
+    @Test
+    public void testTwoQPolicy() {
+        // A1in holds 1 of the 4 frames, A1out remembers 2 pages
+        EvictionPolicy policy = new TwoQEvictionPolicy();
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        policy.hit(frames[0]);
+
+        // hits in A1in are ignored
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[0]);
+
+        // page 0 is remembered in A1out, and goes to Am when read in again
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[5], frames[3]}));
+        policy.cleanup(frames[3]);
+        policy.init(frames[6]); policy.hit(frames[6]);
+
+        // A1in is all pinned
+        frames[4].pin();
+        frames[5].pin();
+        frames[6].pin();
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[5], frames[6]}));
+
+        frames[0].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {frames[0], frames[4], frames[5], frames[6]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+        frames[0].unpin();
+        policy.cleanup(frames[0]);
+
+        // page 1 was forgotten (A1out is full of 2 and 3), so it goes back to A1in
+        policy.init(frames[1]); policy.hit(frames[1]);
+        frames[4].unpin();
+        assertEquals(frames[4], policy.evict(new BufferFrame[] {frames[1], frames[4], frames[5], frames[6]}));
+        policy.cleanup(frames[4]);
+        frames[5].unpin();
+        frames[6].unpin();
+    }
+
+    @Test
+    public void testARCPolicy() {
+        EvictionPolicy policy = new ARCEvictionPolicy();
+        policy.init(frames[0]); policy.hit(frames[0]);
+        policy.init(frames[1]); policy.hit(frames[1]);
+        policy.init(frames[2]); policy.hit(frames[2]);
+        policy.init(frames[3]); policy.hit(frames[3]);
+        // 0 moves to T2; the hits right after reading a page in do not
+        policy.hit(frames[0]);
+
+        assertEquals(frames[1], policy.evict(new BufferFrame[] {frames[0], frames[1], frames[2], frames[3]}));
+        policy.cleanup(frames[1]);
+        policy.init(frames[4]); policy.hit(frames[4]);
+        assertEquals(frames[2], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[2], frames[3]}));
+        policy.cleanup(frames[2]);
+
+        // page 1 is in B1: the target size of T1 grows to 1, and 1 goes to T2
+        policy.init(frames[1]); policy.hit(frames[1]);
+        assertEquals(frames[3], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[3]}));
+        policy.cleanup(frames[3]);
+        policy.init(frames[5]); policy.hit(frames[5]);
+        policy.hit(frames[4]);
+
+        // T1 (5) is at its target size, so the LRU page of T2 goes
+        assertEquals(frames[0], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[5]}));
+        policy.cleanup(frames[0]);
+
+        // page 0 is in B2: the target size of T1 shrinks back to 0
+        policy.init(frames[0]); policy.hit(frames[0]);
+        assertEquals(frames[5], policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[5]}));
+
+        frames[5].pin();
+        frames[0].pin();
+        frames[4].pin();
+        frames[1].pin();
+        boolean exceptionThrown = false;
+        try {
+            policy.evict(new BufferFrame[] {frames[0], frames[4], frames[1], frames[5]});
+        } catch (IllegalStateException e) {
+            exceptionThrown = true;
+        }
+        assertTrue(exceptionThrown);
+    }
+
+    @Test
+    public void testConcurrentHits() throws InterruptedException {
+        EvictionPolicy[] policies = new EvictionPolicy[] {
+            new LRUEvictionPolicy(), new LRUKEvictionPolicy(), new TwoQEvictionPolicy(), new ARCEvictionPolicy()
+        };
+        for (EvictionPolicy policy : policies) {
+            for (BufferFrame frame : frames) {
+                policy.init(frame);
+            }
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; ++i) {
+                int offset = i;
+                threads[i] = new Thread(() -> {
+                    for (int j = 0; j < 20000; ++j) {
+                        policy.hit(frames[(j * 3 + offset) % frames.length]);
+                    }
+                });
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+
+            // the policy's lists are intact: every frame is evicted exactly once
+            Set<BufferFrame> evicted = new HashSet<>();
+            for (int i = 0; i < frames.length; ++i) {
+                BufferFrame frame = policy.evict(frames);
+                assertTrue(evicted.add(frame));
+                policy.cleanup(frame);
+                frame.pin();
+            }
+            for (BufferFrame frame : frames) {
+                frame.unpin();
+            }
+        }
+    }
 }
@@ -0,0 +1,139 @@
+package edu.berkeley.cs186.database.query;
+
+import edu.berkeley.cs186.database.*;
+import edu.berkeley.cs186.database.categories.*;
+import edu.berkeley.cs186.database.databox.DataBox;
+import edu.berkeley.cs186.database.databox.FloatDataBox;
+import edu.berkeley.cs186.database.databox.IntDataBox;
+import edu.berkeley.cs186.database.databox.Type;
+import edu.berkeley.cs186.database.table.Record;
+import edu.berkeley.cs186.database.table.Schema;
+import org.junit.*;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.DisableOnDebug;
+import org.junit.rules.TemporaryFolder;
+import org.junit.rules.TestRule;
+import org.junit.rules.Timeout;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+@Category({HW3Tests.class, HW3Part2Tests.class})
+public class TestHashGroupByOperator {
+    private static final String TABLENAME = "T";
+    private static final int NUM_KEYS = 2000;
+    private static final int ROWS_PER_KEY = 3;
+
+    private Database db;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    // 10 second max per method tested.
+    @Rule
+    public TestRule globalTimeout = new DisableOnDebug(Timeout.millis((long) (
+                10000 * TimeoutScaling.factor)));
+
+    @Before
+    public void beforeEach() throws IOException {
+        File testDir = tempFolder.newFolder("hashGroupByTest");
+        this.db = new Database(testDir.getAbsolutePath(), 256);
+        this.db.setWorkMem(5); // B=5
+        this.db.waitSetupFinished();
+
+        Schema schema = new Schema(Arrays.asList("key", "val", "f"),
+                                   Arrays.asList(Type.intType(), Type.intType(), Type.floatType()));
+        try (Transaction t = this.db.beginTransaction()) {
+            t.createTable(schema, TABLENAME);
+            for (int r = 0; r < ROWS_PER_KEY; ++r) {
+                for (int key = 0; key < NUM_KEYS; ++key) {
+                    t.insert(TABLENAME, Arrays.asList(new IntDataBox(key), new IntDataBox(key + r),
+                                                      new FloatDataBox(r)));
+                }
+            }
+            t.getTransactionContext().getTable(TABLENAME).buildStatistics(10);
+        }
+        this.db.waitAllTransactions();
+    }
+
+    @After
+    public void afterEach() {
+        this.db.waitAllTransactions();
+        this.db.close();
+    }
+
+    private void checkGroups(Iterator<Record> records) {
+        Set<Integer> seen = new HashSet<>();
+        while (records.hasNext()) {
+            List<DataBox> values = records.next().getValues();
+            int key = values.get(0).getInt();
+            assertTrue("duplicate group " + key, seen.add(key));
+            assertEquals(ROWS_PER_KEY, values.get(1).getInt());
+            assertEquals(ROWS_PER_KEY * key + 3, values.get(2).getInt());
+            assertEquals(1.0f, values.get(3).getFloat(), 1e-6);
+        }
+        assertEquals(NUM_KEYS, seen.size());
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testGroupBySpills() {
+        try (Transaction transaction = this.db.beginTransaction()) {
+            TransactionContext context = transaction.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(context, TABLENAME);
+            HashGroupByOperator groupBy = new HashGroupByOperator(source, context, "key",
+                    Collections.singletonList("key"), true, "f", "val");
+
+            assertEquals(Arrays.asList("key", "countAgg", "sumAgg", "averageAgg"),
+                         groupBy.getOutputSchema().getFieldNames());
+            // 2000 groups do not fit in 5 pages, so partitions are written and read back
+            assertTrue(groupBy.estimateIOCost() > source.estimateIOCost());
+            checkGroups(groupBy.iterator());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testGroupByInMemory() {
+        this.db.setWorkMem(64);
+        try (Transaction transaction = this.db.beginTransaction()) {
+            TransactionContext context = transaction.getTransactionContext();
+            QueryOperator source = new SequentialScanOperator(context, TABLENAME);
+            HashGroupByOperator groupBy = new HashGroupByOperator(source, context, "key",
+                    Collections.singletonList("key"), true, "f", "val");
+
+            assertEquals(source.estimateIOCost(), groupBy.estimateIOCost());
+            checkGroups(groupBy.iterator());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testQueryPlanUsesHashGroupBy() {
+        try (Transaction transaction = this.db.beginTransaction()) {
+            QueryPlan query = transaction.query(TABLENAME);
+            query.groupBy("key");
+            query.project(Collections.singletonList("key"));
+            query.count();
+            query.sum("val");
+            query.average("f");
+
+            Iterator<Record> output = query.execute();
+            assertTrue(query.getFinalOperator() instanceof HashGroupByOperator);
+            checkGroups(output);
+        }
+    }
+
+    @Test(expected = QueryPlanException.class)
+    @Category(PublicTests.class)
+    public void testProjectNonGroupByColumn() {
+        try (Transaction transaction = this.db.beginTransaction()) {
+            TransactionContext context = transaction.getTransactionContext();
+            new HashGroupByOperator(new SequentialScanOperator(context, TABLENAME), context, "key",
+                                    Collections.singletonList("val"), true, null, null);
+        }
+    }
+}
@@ -679,4 +679,106 @@ public class TestJoinOperator {
             assertFalse("too many records", outputIterator.hasNext());
         }
     }
+
+    /**
+     * Joins numLeft records with int values i % numKeys against numRight records with
+     * int values i % numKeys, and checks that every matching pair is returned once.
+     */
+    private void checkHashJoin(boolean hybrid, int numLeft, int numRight, int numKeys) {
+        try(Transaction transaction = d.beginTransaction()) {
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "leftTable");
+            transaction.createTable(TestUtils.createSchemaWithAllTypes(), "rightTable");
+            for (int i = 0; i < numLeft; i++) {
+                transaction.getTransactionContext().addRecord("leftTable",
+                        TestUtils.createRecordWithAllTypesWithValue(i % numKeys).getValues());
+            }
+            for (int i = 0; i < numRight; i++) {
+                transaction.getTransactionContext().addRecord("rightTable",
+                        TestUtils.createRecordWithAllTypesWithValue(i % numKeys).getValues());
+            }
+
+            setSourceOperators(
+                new SequentialScanOperator(transaction.getTransactionContext(), "leftTable"),
+                new SequentialScanOperator(transaction.getTransactionContext(), "rightTable")
+            );
+            JoinOperator joinOperator = hybrid ?
+                                        new HybridHashJoinOperator(leftSourceOperator, rightSourceOperator, "int", "int",
+                                                transaction.getTransactionContext()) :
+                                        new GraceHashJoinOperator(leftSourceOperator, rightSourceOperator, "int", "int",
+                                                transaction.getTransactionContext());
+
+            Map<Integer, Integer> counts = new HashMap<>();
+            Iterator<Record> outputIterator = joinOperator.iterator();
+            while (outputIterator.hasNext()) {
+                List<DataBox> values = outputIterator.next().getValues();
+                assertEquals(values.get(1), values.get(5));
+                counts.merge(values.get(1).getInt(), 1, Integer::sum);
+            }
+
+            for (int key = 0; key < numKeys; key++) {
+                int numLeftMatches = numLeft / numKeys + (key < numLeft % numKeys ? 1 : 0);
+                int numRightMatches = numRight / numKeys + (key < numRight % numKeys ? 1 : 0);
+                assertEquals("matches of " + key, numLeftMatches * numRightMatches,
+                             (int) counts.getOrDefault(key, 0));
+            }
+            assertTrue(counts.size() <= numKeys);
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testGraceHashJoin() {
+        d.setWorkMem(3); // B=3, so partitions are partitioned again
+        checkHashJoin(false, 2000, 3000, 1500);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHybridHashJoin() {
+        d.setWorkMem(5); // B=5
+        checkHashJoin(true, 3000, 2000, 1500);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHybridHashJoinInMemory() {
+        d.setWorkMem(64);
+        checkHashJoin(true, 2000, 3000, 1500);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHashJoinSkew() {
+        d.setWorkMem(3); // B=3
+        // every record has the same key, so partitioning cannot split the inputs
+        checkHashJoin(false, 800, 500, 1);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHybridHashJoinSkew() {
+        d.setWorkMem(5); // B=5
+        checkHashJoin(true, 1600, 1600, 2);
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testHashJoinCost() {
+        try(Transaction transaction = d.beginTransaction()) {
+            setSourceOperators(
+                new TestSourceOperator(),
+                new TestSourceOperator(),
+                transaction
+            );
+            TransactionContext context = transaction.getTransactionContext();
+            int numPages = leftSourceOperator.getStats().getNumPages() + rightSourceOperator.getStats().getNumPages();
+
+            d.setWorkMem(5); // B=5
+            assertEquals(3 * numPages, new GraceHashJoinOperator(leftSourceOperator, rightSourceOperator,
+                         "int", "int", context).estimateIOCost());
+            // the smaller input fits in memory, so nothing is partitioned
+            assertEquals(numPages, new HybridHashJoinOperator(leftSourceOperator, rightSourceOperator,
+                         "int", "int", context).estimateIOCost());
+        }
+    }
 }
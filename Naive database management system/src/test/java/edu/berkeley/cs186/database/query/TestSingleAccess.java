@@ -9,6 +9,8 @@ import org.junit.rules.TemporaryFolder;
 
 import java.io.File;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
 
 import edu.berkeley.cs186.database.table.Schema;
 
@@ -24,6 +26,8 @@ import org.junit.rules.DisableOnDebug;
 import org.junit.rules.TestRule;
 import org.junit.rules.Timeout;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 @Category({HW3Tests.class, HW3Part2Tests.class})
@@ -129,6 +133,43 @@ public class TestSingleAccess {
         }
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testPageOrderedIndexScanSelection() {
+        try(Transaction transaction = this.db.beginTransaction()) {
+            for (int i = 0; i < 10000; ++i) {
+                Record r = createRecordWithAllTypes(false, i, "!", 0.0f);
+                transaction.insert(TABLENAME + "I", r.getValues());
+            }
+
+            transaction.getTransactionContext().getTable(TABLENAME + "I").buildStatistics(10);
+
+            // a handful of the table's 25 pages hold several of the matching records
+            QueryPlan query = transaction.query(TABLENAME + "I", "t1");
+            query.select("int", PredicateOperator.LESS_THAN, new IntDataBox(30));
+
+            QueryOperator op = query.minCostSingleAccess("t1");
+
+            assertTrue(op.isIndexScan());
+            assertTrue(((IndexScanOperator) op).isPageOrdered());
+            Set<Integer> values = new HashSet<>();
+            for (Record r : (Iterable<Record>) op::iterator) {
+                assertTrue(values.add(r.getValues().get(1).getInt()));
+            }
+            assertEquals(30, values.size());
+            assertEquals(29, (int) Collections.max(values));
+
+            // a single matching record is fetched in key order
+            query = transaction.query(TABLENAME + "I", "t1");
+            query.select("int", PredicateOperator.EQUALS, new IntDataBox(9));
+
+            op = query.minCostSingleAccess("t1");
+
+            assertTrue(op.isIndexScan());
+            assertFalse(((IndexScanOperator) op).isPageOrdered());
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testPushDownSelects() {
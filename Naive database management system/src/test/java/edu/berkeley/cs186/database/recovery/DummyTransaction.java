@@ -94,6 +94,9 @@ class DummyTransaction extends AbstractTransaction {
     @Override
     public void insert(String tableName, List<DataBox> values) {}
 
+    @Override
+    public void insertBatch(String tableName, Iterator<List<DataBox>> rows) {}
+
     @Override
     public void update(String tableName, String targetColumnName, UnaryOperator<DataBox> targetValue) {}
 
@@ -215,6 +218,12 @@ class DummyTransaction extends AbstractTransaction {
             return null;
         }
 
+        @Override
+        public Iterator<Record> indexScanByPage(String tableName, String columnName,
+                                                PredicateOperator predicate, DataBox value) {
+            return null;
+        }
+
         @Override
         public BacktrackingIterator<Record> getRecordIterator(String tableName) {
             return null;
@@ -241,6 +250,9 @@ class DummyTransaction extends AbstractTransaction {
             return null;
         }
 
+        @Override
+        public void addRecords(String tableName, Iterator<List<DataBox>> values) {}
+
         @Override
         public RecordId deleteRecord(String tableName, RecordId rid) {
             return null;
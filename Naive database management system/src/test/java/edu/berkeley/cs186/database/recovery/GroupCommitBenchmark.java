@@ -0,0 +1,114 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Commit throughput benchmark for group commit. Not run as part of the test suite; after
+ * `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.GroupCommitBenchmark [maxThreads] [windowMicros]
+ *
+ * Each thread repeatedly starts a transaction, logs one small page write, and commits.
+ * Two configurations are run for 1..maxThreads threads:
+ * - flush: every commit flushes (and forces) the log itself
+ * - group: commits are batched by the group commit flusher
+ */
+public class GroupCommitBenchmark {
+    private static final long DURATION_MS = 2000;
+    private static final int BATCH_BYTES = 65536;
+
+    // Transaction numbers are never reused across runs, since DummyTransaction caches transactions
+    private static final AtomicLong transNums = new AtomicLong(1);
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        long windowMicros = args.length > 1 ? Long.parseLong(args[1]) : 0;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("flush threads=%-3d %10.0f commits/s%n", threads, run(threads, false, 0));
+            System.out.printf("group threads=%-3d %10.0f commits/s%n", threads, run(threads, true, windowMicros));
+        }
+    }
+
+    private static double run(int numThreads, boolean groupCommit, long windowMicros) throws Exception {
+        File dir = Files.createTempDirectory("gcbench").toFile();
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManagerNoLocking(
+            new DummyLockContext(new Pair<>("database", 0L)),
+            GroupCommitBenchmark::createTransaction
+        );
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(),
+                recoveryManager, !groupCommit);
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, 256,
+                new LRUEvictionPolicy());
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(1);
+            long pageNum = diskSpaceManager.allocPage(1);
+            recoveryManager.setManagers(diskSpaceManager, bufferManager);
+            if (groupCommit) {
+                recoveryManager.enableGroupCommit(windowMicros, BATCH_BYTES);
+            }
+            recoveryManager.initialize();
+
+            AtomicLong commits = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[numThreads];
+            long deadline = System.currentTimeMillis() + DURATION_MS;
+            for (int t = 0; t < numThreads; ++t) {
+                workers[t] = new Thread(() -> {
+                    byte[] before = new byte[16];
+                    byte[] after = new byte[16];
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.currentTimeMillis() < deadline) {
+                        long transNum = transNums.getAndIncrement();
+                        recoveryManager.startTransaction(createTransaction(transNum));
+                        recoveryManager.logPageWrite(transNum, pageNum, (short) 0, before, after);
+                        recoveryManager.commit(transNum);
+                        recoveryManager.end(transNum);
+                        ++count;
+                    }
+                    commits.addAndGet(count);
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            return commits.get() / seconds;
+        } finally {
+            recoveryManager.close();
+            bufferManager.close();
+            diskSpaceManager.close();
+            File[] files = dir.listFiles();
+            if (files != null) {
+                for (File f : files) {
+                    f.delete();
+                }
+            }
+            dir.delete();
+        }
+    }
+
+    // DummyTransaction.create is not thread-safe
+    private static synchronized DummyTransaction createTransaction(long transNum) {
+        return DummyTransaction.create(transNum);
+    }
+}
@@ -0,0 +1,118 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Log append contention benchmark. Not run as part of the test suite; after
+ * `mvn test-compile`, run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.LogAppendBenchmark [maxThreads] [recordBytes]
+ *
+ * Each thread runs its own transaction, which repeatedly logs a page write of recordBytes
+ * bytes (before and after images each) through ARIESRecoveryManager.logPageWrite, and
+ * nothing else: the log is only flushed when it is closed. Two configurations are run for
+ * 1..maxThreads threads:
+ * - segment: the log is kept in segment files (SegmentLogManager)
+ * - partition0: the log is kept in partition 0 through the buffer manager (LogManagerImpl)
+ */
+public class LogAppendBenchmark {
+    private static final long DURATION_MS = 2000;
+
+    // Transaction numbers are never reused across runs, since DummyTransaction caches transactions
+    private static final AtomicLong transNums = new AtomicLong(1);
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 16;
+        int recordBytes = args.length > 1 ? Integer.parseInt(args[1]) : 16;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            System.out.printf("segment    threads=%-3d %10.0f appends/s%n", threads, run(threads, recordBytes, true));
+            System.out.printf("partition0 threads=%-3d %10.0f appends/s%n", threads, run(threads, recordBytes, false));
+        }
+    }
+
+    private static double run(int numThreads, int recordBytes, boolean segmentLog) throws Exception {
+        File dir = Files.createTempDirectory("logbench").toFile();
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManagerNoLocking(
+            new DummyLockContext(new Pair<>("database", 0L)),
+            LogAppendBenchmark::createTransaction
+        );
+        if (segmentLog) {
+            recoveryManager.setLogDirectory(new File(dir, "log").getPath());
+        }
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, 1024,
+                new LRUEvictionPolicy());
+        try {
+            diskSpaceManager.allocPart(0);
+            diskSpaceManager.allocPart(1);
+            recoveryManager.setManagers(diskSpaceManager, bufferManager);
+            recoveryManager.initialize();
+
+            AtomicLong appends = new AtomicLong();
+            CountDownLatch start = new CountDownLatch(1);
+            Thread[] workers = new Thread[numThreads];
+            long deadline = System.currentTimeMillis() + DURATION_MS;
+            for (int t = 0; t < numThreads; ++t) {
+                long pageNum = diskSpaceManager.allocPage(1);
+                workers[t] = new Thread(() -> {
+                    byte[] before = new byte[recordBytes];
+                    byte[] after = new byte[recordBytes];
+                    long transNum = transNums.getAndIncrement();
+                    recoveryManager.startTransaction(createTransaction(transNum));
+                    long count = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (System.currentTimeMillis() < deadline) {
+                        for (int i = 0; i < 100; ++i) {
+                            recoveryManager.logPageWrite(transNum, pageNum, (short) 0, before, after);
+                        }
+                        count += 100;
+                    }
+                    appends.addAndGet(count);
+                });
+                workers[t].start();
+            }
+            long begin = System.nanoTime();
+            start.countDown();
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            double seconds = (System.nanoTime() - begin) / 1e9;
+            return appends.get() / seconds;
+        } finally {
+            recoveryManager.close();
+            bufferManager.close();
+            diskSpaceManager.close();
+            delete(dir);
+        }
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+
+    // DummyTransaction.create is not thread-safe
+    private static synchronized DummyTransaction createTransaction(long transNum) {
+        return DummyTransaction.create(transNum);
+    }
+}
@@ -0,0 +1,131 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.common.Pair;
+import edu.berkeley.cs186.database.concurrency.DummyLockContext;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
+import edu.berkeley.cs186.database.memory.BufferManager;
+import edu.berkeley.cs186.database.memory.BufferManagerImpl;
+import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.Random;
+
+/**
+ * Restart redo benchmark. Not run as part of the test suite; after `mvn test-compile`,
+ * run with
+ *
+ *     java -cp target/classes:target/test-classes edu.berkeley.cs186.database.recovery.RedoBenchmark [maxThreads] [numPages] [numRecords]
+ *
+ * Each run builds a crashed database: numRecords page writes to random pages out of
+ * numPages are logged, and none of them reach the data pages. Every page is put in the
+ * dirty page table, and the time taken by ARIESRecoveryManager.restartRedo is measured
+ * with 1..maxThreads redo threads.
+ */
+public class RedoBenchmark {
+    private static final int BUFFER_PAGES = 256;
+    private static final int RECORD_BYTES = 64;
+
+    public static void main(String[] args) throws Exception {
+        int maxThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int numPages = args.length > 1 ? Integer.parseInt(args[1]) : 4096;
+        int numRecords = args.length > 2 ? Integer.parseInt(args[2]) : 200000;
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            File dir = Files.createTempDirectory("redobench").toFile();
+            try {
+                long firstLSN = crash(dir, numPages, numRecords);
+                double seconds = redo(dir, numPages, firstLSN, threads);
+                System.out.printf("threads=%-3d %8.3f s %10.0f records/s%n", threads, seconds,
+                                  numRecords / seconds);
+            } finally {
+                delete(dir);
+            }
+        }
+    }
+
+    private static ARIESRecoveryManager newRecoveryManager(File dir) {
+        ARIESRecoveryManager recoveryManager = new ARIESRecoveryManagerNoLocking(
+            new DummyLockContext(new Pair<>("database", 0L)),
+            DummyTransaction::create
+        );
+        recoveryManager.setLogDirectory(new File(dir, "log").getPath());
+        return recoveryManager;
+    }
+
+    /**
+     * Logs numRecords page writes without applying them.
+     * @return LSN of the first write
+     */
+    private static long crash(File dir, int numPages, int numRecords) {
+        ARIESRecoveryManager recoveryManager = newRecoveryManager(dir);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, BUFFER_PAGES,
+                new LRUEvictionPolicy());
+        diskSpaceManager.allocPart(0);
+        diskSpaceManager.allocPart(1);
+        for (int i = 0; i < numPages; ++i) {
+            diskSpaceManager.allocPage(DiskSpaceManager.getVirtualPageNum(1, i));
+        }
+        recoveryManager.setManagers(diskSpaceManager, bufferManager);
+        recoveryManager.initialize();
+
+        Random random = new Random(0);
+        byte[] before = new byte[RECORD_BYTES];
+        byte[] after = new byte[RECORD_BYTES];
+        long firstLSN = -1;
+        long prevLSN = 0;
+        for (int i = 0; i < numRecords; ++i) {
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, random.nextInt(numPages));
+            short offset = (short) random.nextInt(DiskSpaceManager.PAGE_SIZE - 100 - RECORD_BYTES);
+            random.nextBytes(after);
+            prevLSN = recoveryManager.logManager.appendToLog(
+                          new UpdatePageLogRecord(1L, pageNum, prevLSN, offset, before, after));
+            if (firstLSN < 0) {
+                firstLSN = prevLSN;
+            }
+        }
+        // the log is on disk, the data pages are not
+        recoveryManager.logManager.close();
+        bufferManager.close();
+        diskSpaceManager.close();
+        DummyTransaction.cleanupTransactions();
+        return firstLSN;
+    }
+
+    /**
+     * Runs redo on the crashed database with every page dirty since firstLSN.
+     * @return time taken by redo, in seconds
+     */
+    private static double redo(File dir, int numPages, long firstLSN, int numThreads) {
+        ARIESRecoveryManager recoveryManager = newRecoveryManager(dir);
+        DiskSpaceManager diskSpaceManager = new DiskSpaceManagerImpl(dir.getAbsolutePath(), recoveryManager);
+        BufferManager bufferManager = new BufferManagerImpl(diskSpaceManager, recoveryManager, BUFFER_PAGES,
+                new LRUEvictionPolicy());
+        try {
+            recoveryManager.setManagers(diskSpaceManager, bufferManager);
+            recoveryManager.setRedoThreads(numThreads);
+            for (int i = 0; i < numPages; ++i) {
+                recoveryManager.dirtyPageTable.put(DiskSpaceManager.getVirtualPageNum(1, i), firstLSN);
+            }
+            long begin = System.nanoTime();
+            recoveryManager.restartRedo();
+            return (System.nanoTime() - begin) / 1e9;
+        } finally {
+            recoveryManager.logManager.close();
+            bufferManager.close();
+            diskSpaceManager.close();
+            DummyTransaction.cleanupTransactions();
+        }
+    }
+
+    private static void delete(File f) {
+        File[] files = f.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        f.delete();
+    }
+}
@@ -12,6 +12,7 @@ import edu.berkeley.cs186.database.io.DiskSpaceManagerImpl;
 import edu.berkeley.cs186.database.memory.BufferManager;
 import edu.berkeley.cs186.database.memory.BufferManagerImpl;
 import edu.berkeley.cs186.database.memory.LRUEvictionPolicy;
+import edu.berkeley.cs186.database.memory.Page;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
@@ -86,6 +87,75 @@ public class TestRecoveryManager {
                    LSN2 > logManager.getFlushedLSN());
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testGroupCommit() throws Exception {
+        long pageNum = 10000000002L;
+        short pageOffset = 20;
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+
+        ((ARIESRecoveryManager) recoveryManager).enableGroupCommit(100, 1024);
+        LogManager logManager = getLogManager(recoveryManager);
+        Map<Long, TransactionTableEntry> transactionTable = getTransactionTable(recoveryManager);
+
+        Transaction[] transactions = new Transaction[4];
+        for (int i = 0; i < transactions.length; ++i) {
+            transactions[i] = DummyTransaction.create(i + 1L);
+            recoveryManager.startTransaction(transactions[i]);
+            recoveryManager.logPageWrite(i + 1L, pageNum + i, pageOffset, before, after);
+        }
+
+        long[] LSNs = new long[transactions.length];
+        Thread[] threads = new Thread[transactions.length];
+        for (int i = 0; i < transactions.length; ++i) {
+            final int j = i;
+            threads[i] = new Thread(() -> LSNs[j] = recoveryManager.commit(j + 1L));
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < transactions.length; ++i) {
+            assertEquals(LSNs[i], transactionTable.get(i + 1L).lastLSN);
+            assertEquals(Transaction.Status.COMMITTING, transactions[i].getStatus());
+            assertTrue(logManager.getFlushedLSN() + " is not greater than or equal to " + LSNs[i],
+                       LSNs[i] <= logManager.getFlushedLSN());
+        }
+    }
+
+    @Test
+    @Category(PublicTests.class)
+    public void testBackgroundCheckpoint() throws Exception {
+        byte[] before = new byte[] { (byte) 0x00, (byte) 0x00, (byte) 0x00, (byte) 0x00 };
+        byte[] after = new byte[] { (byte) 0xBA, (byte) 0xAD, (byte) 0xF0, (byte) 0x0D };
+        ARIESRecoveryManager arm = (ARIESRecoveryManager) recoveryManager;
+
+        Transaction transaction1 = DummyTransaction.create(1L);
+        recoveryManager.startTransaction(transaction1);
+        long LSN1 = recoveryManager.logPageWrite(1L, 10000000002L, (short) 0, before, after);
+        recoveryManager.logPageWrite(1L, 10000000003L, (short) 0, before, after);
+
+        assertEquals(2, arm.getDirtyPageTableSize());
+        assertEquals(LSN1, arm.getOldestRecLSN());
+        assertTrue(arm.getExpectedRedoBytes() > 0);
+        long logBytes = arm.getLogBytesSinceCheckpoint();
+        assertTrue(logBytes > 0);
+
+        // checkpoint as soon as any log is written
+        arm.enableBackgroundWriter(1, 0, 0, 1);
+        while (arm.getNumBackgroundCheckpoints() == 0) {
+            Thread.sleep(1);
+        }
+        // stop checkpointing, so that no checkpoint is half-written while we look
+        arm.disableBackgroundWriter();
+        assertEquals(0, arm.getNumBackgroundCheckpoints());
+        assertTrue(arm.getLogBytesSinceCheckpoint() < logBytes);
+        // the checkpoint does not write pages
+        assertEquals(LSN1, arm.getOldestRecLSN());
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testAbort() throws Exception {
@@ -486,6 +556,71 @@ public class TestRecoveryManager {
         finishRedoChecks();
     }
 
+    @Test
+    @Category(PublicTests.class)
+    public void testParallelRestartRedo() throws Exception {
+        LogManager logManager = getLogManager(recoveryManager);
+        DiskSpaceManager dsm = getDiskSpaceManager(recoveryManager);
+        BufferManager bm = getBufferManager(recoveryManager);
+
+        // 10 writes to each of 10 pages, interleaved, with a partition allocated halfway
+        List<Long> LSNs = new ArrayList<>();
+        long prevLSN = 0L;
+        long allocPartLSN = 0L;
+        for (int i = 0; i < 100; ++i) {
+            if (i == 50) {
+                allocPartLSN = prevLSN = logManager.appendToLog(new AllocPartLogRecord(1L, 10, prevLSN));
+            }
+            long pageNum = DiskSpaceManager.getVirtualPageNum(1, i % 10);
+            byte[] before = new byte[] { (byte) (i / 10) };
+            // this writes byte i / 10 + 1 to page i % 10
+            byte[] after = new byte[] { (byte) (i / 10 + 1) };
+            prevLSN = logManager.appendToLog(new UpdatePageLogRecord(1L, pageNum, prevLSN, (short) 0,
+                                             before, after));
+            LSNs.add(prevLSN);
+        }
+
+        // the first page already has all its writes on disk
+        for (int i = 0; i < 100; i += 10) {
+            logManager.fetchLogRecord(LSNs.get(i)).redo(dsm, bm);
+        }
+        shutdownRecoveryManager(recoveryManager);
+        recoveryManager = loadRecoveryManager(testDir);
+        ((ARIESRecoveryManager) recoveryManager).setRedoThreads(4);
+
+        Map<Long, Long> dirtyPageTable = getDirtyPageTable(recoveryManager);
+        for (int i = 0; i < 10; ++i) {
+            dirtyPageTable.put(DiskSpaceManager.getVirtualPageNum(1, i), LSNs.get(i));
+        }
+        List<LogRecord> redone = Collections.synchronizedList(new ArrayList<>());
+        LogRecord.onRedoHandler(redone::add);
+
+        runRedo(recoveryManager);
+
+        // everything but the writes to the first page, plus the partition allocation
+        assertEquals(91, redone.size());
+        Map<Long, Long> lastRedone = new HashMap<>();
+        for (LogRecord record : redone) {
+            if (record.getPageNum().isPresent()) {
+                Long last = lastRedone.put(record.getPageNum().get(), record.LSN);
+                assertTrue("writes to a page must be redone in log order", last == null || last < record.LSN);
+            } else {
+                assertEquals(allocPartLSN, (long) record.LSN);
+            }
+        }
+        assertFalse(lastRedone.containsKey(DiskSpaceManager.getVirtualPageNum(1, 0)));
+        bm = getBufferManager(recoveryManager);
+        for (int i = 0; i < 10; ++i) {
+            Page page = bm.fetchPage(new DummyLockContext(), DiskSpaceManager.getVirtualPageNum(1, i), false);
+            try {
+                assertEquals(10, page.getBuffer().get(0));
+                assertEquals((long) LSNs.get(90 + i), page.getPageLSN());
+            } finally {
+                page.unpin();
+            }
+        }
+    }
+
     @Test
     @Category(PublicTests.class)
     public void testRestartUndo() throws Exception {
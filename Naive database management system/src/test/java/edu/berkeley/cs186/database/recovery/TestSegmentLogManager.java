@@ -0,0 +1,266 @@
+package edu.berkeley.cs186.database.recovery;
+
+import edu.berkeley.cs186.database.categories.HW99Tests;
+import edu.berkeley.cs186.database.categories.SystemTests;
+import edu.berkeley.cs186.database.io.DiskSpaceManager;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.*;
+
+@Category({HW99Tests.class, SystemTests.class})
+public class TestSegmentLogManager {
+    // number of master records (9 bytes each) per log page
+    private static final int RECORDS_PER_PAGE = DiskSpaceManager.PAGE_SIZE / 9;
+
+    private File logDir;
+    private LogManager logManager;
+
+    @Rule
+    public TemporaryFolder tempFolder = new TemporaryFolder();
+
+    @Before
+    public void setup() throws IOException {
+        logDir = tempFolder.newFolder("log");
+        logManager = new SegmentLogManager(logDir, 2, 4);
+    }
+
+    @After
+    public void cleanup() {
+        logManager.close();
+    }
+
+    private void reopen() {
+        logManager.close();
+        logManager = new SegmentLogManager(logDir, 2, 4);
+    }
+
+    @Test
+    public void testAppendFetch() {
+        LogRecord expected = new MasterLogRecord(1234);
+
+        logManager.appendToLog(expected);
+        LogRecord record = logManager.fetchLogRecord(0);
+
+        assertEquals(expected, record);
+    }
+
+    @Test
+    public void testAppendScan() {
+        LogRecord expected = new MasterLogRecord(1234);
+
+        logManager.appendToLog(expected);
+        LogRecord record = logManager.scanFrom(0).next();
+
+        assertEquals(expected, record);
+    }
+
+    @Test
+    public void testFlushedLSN() {
+        logManager.appendToLog(new MasterLogRecord(1234));
+        logManager.flushToLSN(9999);
+
+        assertEquals(9999, logManager.getFlushedLSN());
+        // the flushed page is not appended to again
+        assertEquals(10000, logManager.appendToLog(new MasterLogRecord(5678)));
+    }
+
+    @Test
+    public void testMultiPageScan() {
+        // more pages than fit in the ring, so that some are written before they are flushed
+        for (int i = 0; i < 10000; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+
+        Iterator<LogRecord> iter = logManager.scanFrom(90000);
+        for (int i = 9 * RECORDS_PER_PAGE; i < 10000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        assertEquals(new MasterLogRecord(RECORDS_PER_PAGE + 1), logManager.fetchLogRecord(10009));
+    }
+
+    @Test
+    public void testRewriteMasterRecord() {
+        for (int i = 0; i < 1000; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.rewriteMasterRecord(new MasterLogRecord(77));
+        logManager.rewriteMasterRecord(new MasterLogRecord(-1));
+
+        Iterator<LogRecord> iter = logManager.iterator();
+        assertEquals(new MasterLogRecord(-1), iter.next());
+        for (int i = 1; i < 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+        // the rewrite flushed the log first
+        assertEquals(LogManagerImpl.maxLSN(2), logManager.getFlushedLSN());
+    }
+
+    @Test
+    public void testReopen() {
+        for (int i = 0; i < 1000; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        reopen();
+
+        assertEquals(LogManagerImpl.maxLSN(2), logManager.getFlushedLSN());
+        assertEquals(30000, logManager.appendToLog(new MasterLogRecord(1000)));
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i <= 1000; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertFalse(iter.hasNext());
+    }
+
+    @Test
+    public void testTruncate() {
+        for (int i = 0; i < RECORDS_PER_PAGE * 8; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.flushToLSN(LogManagerImpl.maxLSN(8));
+        // pages 1-2, 3-4, 5-6 and 7 are in segments 0, 1, 2 and 3
+        assertTrue(new File(logDir, "0.log").exists());
+        assertTrue(new File(logDir, "3.log").exists());
+
+        // page 5 is still needed, so only segments 0 and 1 can go
+        logManager.truncate(50010);
+        assertFalse(new File(logDir, "0.log").exists());
+        assertFalse(new File(logDir, "1.log").exists());
+        assertTrue(new File(logDir, "2.log").exists());
+
+        assertNull(logManager.fetchLogRecord(10000));
+        assertNull(logManager.fetchLogRecord(40000));
+        assertEquals(new MasterLogRecord(RECORDS_PER_PAGE * 5), logManager.fetchLogRecord(50000));
+
+        // scanning from the start continues from the first page that is left
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (int i = 0; i < RECORDS_PER_PAGE; ++i) {
+            assertEquals(new MasterLogRecord(i), iter.next());
+        }
+        assertEquals(new MasterLogRecord(RECORDS_PER_PAGE * 5), iter.next());
+
+        reopen();
+        assertNull(logManager.fetchLogRecord(40000));
+        assertEquals(new MasterLogRecord(RECORDS_PER_PAGE * 5), logManager.fetchLogRecord(50000));
+        assertEquals(80000, logManager.appendToLog(new MasterLogRecord(0)));
+    }
+
+    @Test(timeout = 30000)
+    public void testTruncateWhileReading() throws InterruptedException {
+        int numPages = 256;
+        for (int i = 0; i < RECORDS_PER_PAGE * numPages; ++i) {
+            logManager.appendToLog(new MasterLogRecord(i));
+        }
+        logManager.flushToLSN(LogManagerImpl.maxLSN(numPages));
+
+        // readers keep reading the segment that is truncated next
+        AtomicLong target = new AtomicLong(1);
+        AtomicLong numReads = new AtomicLong();
+        AtomicBoolean done = new AtomicBoolean(false);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread[] readers = new Thread[4];
+        for (int i = 0; i < readers.length; ++i) {
+            readers[i] = new Thread(() -> {
+                try {
+                    while (!done.get()) {
+                        long p = target.get() + numReads.incrementAndGet() % 2;
+                        // a page is either gone or read whole, never read from a closed segment
+                        LogRecord record = logManager.fetchLogRecord(p * 10000L);
+                        if (record != null) {
+                            assertEquals(new MasterLogRecord((int) (RECORDS_PER_PAGE * p)), record);
+                        }
+                    }
+                } catch (Throwable t) {
+                    failure.set(t);
+                }
+            });
+            readers[i].start();
+        }
+        for (long p = 1; p + 2 < numPages && failure.get() == null; p += 2) {
+            target.set(p);
+            long reads = numReads.get();
+            while (numReads.get() < reads + 100) {
+                Thread.yield();
+            }
+            logManager.truncate((p + 2) * 10000L);
+        }
+        done.set(true);
+        for (Thread reader : readers) {
+            reader.join();
+        }
+        assertNull(failure.get());
+    }
+
+    @Test(timeout = 10000)
+    public void testExactlyFullPage() {
+        // pad the first page with an update record so that it ends exactly at the page boundary
+        int headerSize = new UpdatePageLogRecord(0, 0, 0L, (short) 0, new byte[0], new byte[0]).toBytes().length;
+        int imageSize = (DiskSpaceManager.PAGE_SIZE - 9 - headerSize) / 2;
+        int padding = DiskSpaceManager.PAGE_SIZE - 9 - headerSize - 2 * imageSize;
+        logManager.appendToLog(new MasterLogRecord(0));
+        LogRecord full = new UpdatePageLogRecord(0, 0, 0L, (short) 0, new byte[imageSize],
+                                                 new byte[imageSize + padding]);
+        assertEquals(9, logManager.appendToLog(full));
+
+        logManager.flushToLSN(9);
+        assertEquals(LogManagerImpl.maxLSN(0), logManager.getFlushedLSN());
+        assertEquals(10000, logManager.appendToLog(new MasterLogRecord(1)));
+        assertEquals(full, logManager.fetchLogRecord(9));
+    }
+
+    @Test
+    public void testConcurrentAppend() throws InterruptedException {
+        int numThreads = 8;
+        int perThread = 2000;
+        Map<Long, LogRecord> records = new ConcurrentHashMap<>();
+        Thread[] threads = new Thread[numThreads];
+        for (int t = 0; t < numThreads; ++t) {
+            final int thread = t;
+            threads[t] = new Thread(() -> {
+                for (int i = 0; i < perThread; ++i) {
+                    // records of different sizes, so that pages are sealed with unused space
+                    LogRecord record = i % 3 == 0 ? new MasterLogRecord(thread * perThread + i) :
+                                       new UpdatePageLogRecord(thread, i, 0L, (short) 0, new byte[i % 50],
+                                                               new byte[i % 50]);
+                    long LSN = logManager.appendToLog(record);
+                    records.put(LSN, record);
+                    if (i % 100 == 0) {
+                        logManager.flushToLSN(LSN);
+                    }
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(numThreads * perThread, records.size());
+        for (Map.Entry<Long, LogRecord> entry : records.entrySet()) {
+            assertEquals(entry.getValue(), logManager.fetchLogRecord(entry.getKey()));
+        }
+        List<Long> LSNs = new ArrayList<>(records.keySet());
+        Collections.sort(LSNs);
+        Iterator<LogRecord> iter = logManager.iterator();
+        for (long LSN : LSNs) {
+            LogRecord record = iter.next();
+            assertEquals(LSN, record.getLSN());
+            assertEquals(records.get(LSN), record);
+        }
+        assertFalse(iter.hasNext());
+    }
+}
@@ -189,6 +189,38 @@ public class TestPageDirectory {
         } catch (IllegalArgumentException e) { /* do nothing */ }
     }
 
+    @Test
+    public void testFreeSpaceMapLoad() {
+        Page header = bufferManager.fetchNewPage(new DummyLockContext(), 0, false);
+        header.unpin();
+        createPageDirectory(header.getPageNum(), (short) 10);
+
+        // full pages, across more than one header page
+        short pageSize = (short) (pageDirectory.getEffectivePageSize() - 10);
+        List<Page> pages = new ArrayList<>();
+        for (int i = 0; i < 500; ++i) {
+            Page page = pageDirectory.getPageWithSpace(pageSize);
+            page.unpin();
+            pages.add(page);
+        }
+        pageDirectory.updateFreeSpace(pages.get(450), (short) 90);
+        pageDirectory.updateFreeSpace(pages.get(20), (short) 80);
+
+        // the page with the least space that is enough
+        createPageDirectory(header.getPageNum(), (short) 10);
+        assertEquals(500, pageDirectory.getNumDataPages());
+        Page p1 = pageDirectory.getPageWithSpace((short) 50);
+        Page p2 = pageDirectory.getPageWithSpace((short) 50);
+        Page p3 = pageDirectory.getPageWithSpace((short) 50);
+        p1.unpin(); p2.unpin(); p3.unpin();
+
+        assertEquals(pages.get(20), p1);
+        assertEquals(pages.get(450), p2);
+        assertEquals(501, pageDirectory.getNumDataPages());
+        assertNotEquals(p1, p3);
+        assertNotEquals(p2, p3);
+    }
+
     @Test
     public void testIterator() {
         createPageDirectory((short) 0);
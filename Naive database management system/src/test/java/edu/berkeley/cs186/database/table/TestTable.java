@@ -21,6 +21,7 @@ import org.junit.rules.TemporaryFolder;
 import edu.berkeley.cs186.database.DatabaseException;
 import edu.berkeley.cs186.database.TestUtils;
 import edu.berkeley.cs186.database.common.iterator.BacktrackingIterator;
+import edu.berkeley.cs186.database.databox.DataBox;
 import edu.berkeley.cs186.database.databox.IntDataBox;
 
 @Category({HW99Tests.class, SystemTests.class})
@@ -81,6 +82,38 @@ public class TestTable {
         }
     }
 
+    @Test
+    public void testAddRecords() {
+        // a page with gaps, which the batch fills first
+        List<RecordId> rids = new ArrayList<>();
+        for (int i = 0; i < table.getNumRecordsPerPage(); ++i) {
+            rids.add(table.addRecord(createRecordWithAllTypes(i).getValues()));
+        }
+        for (int i = 0; i < table.getNumRecordsPerPage(); i += 2) {
+            table.deleteRecord(rids.get(i));
+        }
+
+        List<List<DataBox>> values = new ArrayList<>();
+        int numRecords = table.getNumRecordsPerPage() * 2;
+        for (int i = 0; i < numRecords; ++i) {
+            values.add(createRecordWithAllTypes(1000 + i).getValues());
+        }
+        List<RecordId> batchRids = table.addRecords(values);
+
+        assertEquals(numRecords, batchRids.size());
+        for (int i = 0; i < numRecords; ++i) {
+            assertEquals(createRecordWithAllTypes(1000 + i), table.getRecord(batchRids.get(i)));
+        }
+        assertEquals(rids.get(0), batchRids.get(0));
+        assertEquals(table.getNumRecordsPerPage() * 5 / 2, table.getNumRecords());
+        assertEquals(table.getNumRecordsPerPage() * 5 / 2, table.getStats().getNumRecords());
+        assertEquals(3, table.getNumDataPages());
+
+        // every page is full but the last
+        RecordId rid = table.addRecord(createRecordWithAllTypes(0).getValues());
+        assertEquals(batchRids.get(numRecords - 1).getPageNum(), rid.getPageNum());
+    }
+
     @Test
     public void testSingleDelete() {
         Record r = createRecordWithAllTypes(0);